@@ -20,6 +20,15 @@ public class IOIOLinkPort implements LinkPortInterface {
 		throw new IllegalStateException();
 	}
 
+	public void writeBytes (byte bytes[], int offset, int count) {
+		System.out.println("IOIOLinkPort writeBytes not implemented");
+		throw new IllegalStateException();
+	}
+
+	public void setWaitStrategy (WaitStrategyEnum strategy) {
+		// nothing reads yet, so nothing waits
+	}
+
 	// --------------------------------------------------------------------------------
 
 	public void open() throws IOException {
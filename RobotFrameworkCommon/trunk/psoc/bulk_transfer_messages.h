@@ -0,0 +1,60 @@
+/* Generated by MessageGenerator from bulk_transfer.msgs, do not edit. */
+
+#ifndef BULK_TRANSFER_MESSAGES_H
+#define BULK_TRANSFER_MESSAGES_H
+
+/*
+ * Every message starts with a one byte indicator, the fields follow
+ * packed and little endian. Lengths include the indicator byte.
+ */
+
+/* Offer */
+#define BT_OFFER 0
+#define BT_OFFER_LENGTH 10  /* the least, bytes follow */
+#define BT_OFFER_TRANSFER_ID_OFFSET 1  /* uint8_t */
+#define BT_OFFER_SIZE_OFFSET 2  /* int32_t */
+#define BT_OFFER_CRC_OFFSET 6  /* int32_t */
+#define BT_OFFER_NAME_OFFSET 10  /* uint8_t[] to the end of the message */
+
+/* Request */
+#define BT_REQUEST 1
+#define BT_REQUEST_LENGTH 2  /* the least, bytes follow */
+#define BT_REQUEST_TRANSFER_ID_OFFSET 1  /* uint8_t */
+#define BT_REQUEST_NAME_OFFSET 2  /* uint8_t[] to the end of the message */
+
+/* Accept */
+#define BT_ACCEPT 2
+#define BT_ACCEPT_LENGTH 7
+#define BT_ACCEPT_TRANSFER_ID_OFFSET 1  /* uint8_t */
+#define BT_ACCEPT_OFFSET_OFFSET 2  /* int32_t */
+#define BT_ACCEPT_WINDOW_OFFSET 6  /* uint8_t */
+
+/* Data */
+#define BT_DATA 3
+#define BT_DATA_LENGTH 6  /* the least, bytes follow */
+#define BT_DATA_TRANSFER_ID_OFFSET 1  /* uint8_t */
+#define BT_DATA_OFFSET_OFFSET 2  /* int32_t */
+#define BT_DATA_DATA_OFFSET 6  /* uint8_t[] to the end of the message */
+
+/* Ack */
+#define BT_ACK 4
+#define BT_ACK_LENGTH 7
+#define BT_ACK_TRANSFER_ID_OFFSET 1  /* uint8_t */
+#define BT_ACK_OFFSET_OFFSET 2  /* int32_t */
+#define BT_ACK_WINDOW_OFFSET 6  /* uint8_t */
+
+/* Done */
+#define BT_DONE 5
+#define BT_DONE_LENGTH 3
+#define BT_DONE_TRANSFER_ID_OFFSET 1  /* uint8_t */
+#define BT_DONE_STATUS_OFFSET 2  /* uint8_t */
+
+/* Abort */
+#define BT_ABORT 6
+#define BT_ABORT_LENGTH 3
+#define BT_ABORT_TRANSFER_ID_OFFSET 1  /* uint8_t */
+#define BT_ABORT_REASON_OFFSET 2  /* uint8_t */
+
+#define BULK_TRANSFER_MAX_LENGTH 10
+
+#endif
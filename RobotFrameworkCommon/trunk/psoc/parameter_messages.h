@@ -0,0 +1,36 @@
+/* Generated by MessageGenerator from parameter.msgs, do not edit. */
+
+#ifndef PARAMETER_MESSAGES_H
+#define PARAMETER_MESSAGES_H
+
+/*
+ * Every message starts with a one byte indicator, the fields follow
+ * packed and little endian. Lengths include the indicator byte.
+ */
+
+/* GetParameters */
+#define MS_GET_PARAMETERS 0
+#define MS_GET_PARAMETERS_LENGTH 2  /* the least, bytes follow */
+#define MS_GET_PARAMETERS_CALL_ID_OFFSET 1  /* uint8_t */
+#define MS_GET_PARAMETERS_KEYS_OFFSET 2  /* uint8_t[] to the end of the message */
+
+/* SetParameters */
+#define MS_SET_PARAMETERS 1
+#define MS_SET_PARAMETERS_LENGTH 2  /* the least, bytes follow */
+#define MS_SET_PARAMETERS_CALL_ID_OFFSET 1  /* uint8_t */
+#define MS_SET_PARAMETERS_ENTRIES_OFFSET 2  /* uint8_t[] to the end of the message */
+
+/* ParameterValues */
+#define SM_PARAMETER_VALUES 2
+#define SM_PARAMETER_VALUES_LENGTH 2  /* the least, bytes follow */
+#define SM_PARAMETER_VALUES_CALL_ID_OFFSET 1  /* uint8_t */
+#define SM_PARAMETER_VALUES_ENTRIES_OFFSET 2  /* uint8_t[] to the end of the message */
+
+/* ParametersChanged */
+#define SM_PARAMETERS_CHANGED 3
+#define SM_PARAMETERS_CHANGED_LENGTH 1  /* the least, bytes follow */
+#define SM_PARAMETERS_CHANGED_ENTRIES_OFFSET 1  /* uint8_t[] to the end of the message */
+
+#define PARAMETER_MAX_LENGTH 2
+
+#endif
@@ -0,0 +1,54 @@
+/* Generated by MessageGenerator from robot_control.msgs, do not edit. */
+
+#ifndef ROBOT_CONTROL_MESSAGES_H
+#define ROBOT_CONTROL_MESSAGES_H
+
+/*
+ * Every message starts with a one byte indicator, the fields follow
+ * packed and little endian. Lengths include the indicator byte.
+ */
+
+/* SetMode */
+#define MS_SET_MODE 0
+#define MS_SET_MODE_LENGTH 2
+#define MS_SET_MODE_MODE_OFFSET 1  /* uint8_t */
+
+/* DoEstop */
+#define MS_DO_ESTOP 1
+#define MS_DO_ESTOP_LENGTH 1
+
+/* ClearEstop */
+#define MS_CLEAR_ESTOP 2
+#define MS_CLEAR_ESTOP_LENGTH 2
+#define MS_CLEAR_ESTOP_INDICATOR_OFFSET 1  /* uint8_t */
+
+/* DoReset */
+#define MS_DO_RESET 3
+#define MS_DO_RESET_LENGTH 1
+
+/* DoDumpState */
+#define MS_DO_DUMP_STATE 4
+#define MS_DO_DUMP_STATE_LENGTH 1
+
+/* MasterIsAlive */
+#define MS_IM_ALIVE 5
+#define MS_IM_ALIVE_LENGTH 1
+
+/* DidEstop */
+#define SM_DID_ESTOP 6
+#define SM_DID_ESTOP_LENGTH 1
+
+/* HereIsMyState */
+#define SM_HERE_IS_MY_STATE 7
+#define SM_HERE_IS_MY_STATE_LENGTH 7
+#define SM_HERE_IS_MY_STATE_TIME_OFFSET 1  /* int32_t */
+#define SM_HERE_IS_MY_STATE_MODE_OFFSET 5  /* uint8_t */
+#define SM_HERE_IS_MY_STATE_ESTOP_OFFSET 6  /* uint8_t */
+
+/* SlaveIsAlive */
+#define SM_IM_ALIVE 8
+#define SM_IM_ALIVE_LENGTH 1
+
+#define ROBOT_CONTROL_MAX_LENGTH 7
+
+#endif
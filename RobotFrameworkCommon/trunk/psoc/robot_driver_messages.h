@@ -0,0 +1,47 @@
+/* Generated by MessageGenerator from robot_driver.msgs, do not edit. */
+
+#ifndef ROBOT_DRIVER_MESSAGES_H
+#define ROBOT_DRIVER_MESSAGES_H
+
+/*
+ * Every message starts with a one byte indicator, the fields follow
+ * packed and little endian. Lengths include the indicator byte.
+ */
+
+/* Drive */
+#define MS_DRIVE 0
+#define MS_DRIVE_LENGTH 3
+#define MS_DRIVE_SPEED_OFFSET 1  /* int8_t */
+#define MS_DRIVE_ACCELERATION_OFFSET 2  /* int8_t */
+
+/* Stop */
+#define MS_STOP 1
+#define MS_STOP_LENGTH 2
+#define MS_STOP_ACCELERATION_OFFSET 1  /* int8_t */
+
+/* Move */
+#define MS_MOVE 2
+#define MS_MOVE_LENGTH 4
+#define MS_MOVE_DISTANCE_OFFSET 1  /* int8_t */
+#define MS_MOVE_SPEED_OFFSET 2  /* int8_t */
+#define MS_MOVE_ACCELERATION_OFFSET 3  /* int8_t */
+
+/* Steer */
+#define MS_STEER 4
+#define MS_STEER_LENGTH 3
+#define MS_STEER_ANGLE_OFFSET 1  /* int8_t */
+#define MS_STEER_RATE_OFFSET 2  /* int8_t */
+
+/* SetBumpMode */
+#define MS_SET_BUMP_MODE 5
+#define MS_SET_BUMP_MODE_LENGTH 2
+#define MS_SET_BUMP_MODE_MODE_OFFSET 1  /* uint8_t */
+
+/* SetRangingMode */
+#define MS_SET_RANGING_MODE 6
+#define MS_SET_RANGING_MODE_LENGTH 2
+#define MS_SET_RANGING_MODE_MODE_OFFSET 1  /* uint8_t */
+
+#define ROBOT_DRIVER_MAX_LENGTH 4
+
+#endif
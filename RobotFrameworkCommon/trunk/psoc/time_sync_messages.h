@@ -0,0 +1,35 @@
+/* Generated by MessageGenerator from time_sync.msgs, do not edit. */
+
+#ifndef TIME_SYNC_MESSAGES_H
+#define TIME_SYNC_MESSAGES_H
+
+/*
+ * Every message starts with a one byte indicator, the fields follow
+ * packed and little endian. Lengths include the indicator byte.
+ */
+
+/* SetClock */
+#define MS_SET_CLOCK 0
+#define MS_SET_CLOCK_LENGTH 5
+#define MS_SET_CLOCK_TIME_OFFSET 1  /* int32_t */
+
+/* CorrespondTime */
+#define MS_CORRESPOND_TIME 1
+#define MS_CORRESPOND_TIME_LENGTH 5
+#define MS_CORRESPOND_TIME_TIME_OFFSET 1  /* int32_t */
+
+/* StartSync */
+#define SM_START_SYNC 2
+#define SM_START_SYNC_LENGTH 5
+#define SM_START_SYNC_SLAVE_SEND_TIME_OFFSET 1  /* int32_t */
+
+/* ReplySync */
+#define MS_REPLY_SYNC 3
+#define MS_REPLY_SYNC_LENGTH 13
+#define MS_REPLY_SYNC_SLAVE_SEND_TIME_OFFSET 1  /* int32_t */
+#define MS_REPLY_SYNC_MASTER_RECEIVE_TIME_OFFSET 5  /* int32_t */
+#define MS_REPLY_SYNC_MASTER_SEND_TIME_OFFSET 9  /* int32_t */
+
+#define TIME_SYNC_MAX_LENGTH 13
+
+#endif
@@ -1,6 +1,8 @@
 package com.builditboys.robots.communication;
 
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+
 import static com.builditboys.robots.communication.LinkParameters.*;
 
 public abstract class AbstractChannel {
@@ -14,8 +16,13 @@ public abstract class AbstractChannel {
 	
 	protected AbstractChannelCollection collection;
 	
-	// the message buffer, note blocking queue
-	private ArrayBlockingQueue<LinkMessage> messagesQueue;
+	// the message buffer, lock free, the subclass picks the kind, see
+	// newMessageQueue
+	private AbstractMessageQueue messagesQueue;
+	
+	// a background output channel only gets the link when no other channel
+	// has anything to send, see AbstractChannelCollection
+	private volatile boolean background = false;
 	
 	//--------------------------------------------------------------------------------
 	// Constructors
@@ -24,16 +31,20 @@ public abstract class AbstractChannel {
 		channelNumber = channelNum;
 		protocol = protocl;
 		protocol.setChannel(this);
-		messagesQueue = new ArrayBlockingQueue<LinkMessage>(DEFAULT_CHANNEL_BUFFER_CAPACITY);
+		messagesQueue = newMessageQueue(DEFAULT_CHANNEL_BUFFER_CAPACITY);
 	}
 	
 	public AbstractChannel (AbstractProtocol protocl, int channelNum, int capacity) {
 		channelNumber = channelNum;
 		protocol = protocl;
 		protocol.setChannel(this);
-		messagesQueue = new ArrayBlockingQueue<LinkMessage>(capacity);
+		messagesQueue = newMessageQueue(capacity);
 	}
 
+	// called from the constructor, so it must not count on the subclass's
+	// fields
+	protected abstract AbstractMessageQueue newMessageQueue (int capacity);
+
 	//--------------------------------------------------------------------------------
 	// Getters/setters
 	
@@ -45,6 +56,14 @@ public abstract class AbstractChannel {
 		return protocol;
 	}
 	
+	public boolean isBackground () {
+		return background;
+	}
+	
+	public void setBackground (boolean isBackground) {
+		background = isBackground;
+	}
+	
 	public AbstractChannelCollection getCollection () {
 		return collection;
 	}
@@ -88,12 +107,28 @@ public abstract class AbstractChannel {
 		if (message.getChannelNumber() != channelNumber) {
 			throw new IllegalArgumentException();	
 		}
-		messagesQueue.add(message);
+		if (!messagesQueue.offer(message)) {
+			throw new IllegalStateException("Channel " + channelNumber + " queue full");
+		}
 		collection.notifyMessageAdded(this);
 	}
 	
 	public LinkMessage getMessage () {
-		return messagesQueue.remove();
+		LinkMessage message = messagesQueue.poll();
+		if (message == null) {
+			throw new NoSuchElementException();
+		}
+		return message;
+	}
+
+	// the next message, left on the queue, null if there is none
+	public LinkMessage peekMessage () {
+		return messagesQueue.peek();
+	}
+
+	// moves up to max queued messages into messages, returns how many
+	public int drainMessages (Collection<? super LinkMessage> messages, int max) {
+		return messagesQueue.drainTo(messages, max);
 	}
 	
 	//--------------------------------------------------------------------------------
@@ -13,6 +13,9 @@ public abstract class AbstractChannelCollection {
 	// the highest channel number that has actually been added
 	protected int highestChannelNumber = 0;
 	
+	// poked whenever a message is added
+	protected WaitSignal messageSignal = new WaitSignal();
+	
 	//--------------------------------------------------------------------------------
 	// Constructors
 
@@ -70,37 +73,74 @@ public abstract class AbstractChannelCollection {
 		return null;
 	}
 	
+	// link control goes first, then the channel whose next message has the
+	// earliest deadline, then the lowest numbered channel, background
+	// channels only when none of those has anything, a channel that is out
+	// of flow control credit is passed over
 	public synchronized AbstractChannel getChannelWithMessages () {
 		AbstractChannel channel;
+		AbstractChannel lowestChannel = null;
+		AbstractChannel earliestChannel = null;
+		AbstractChannel backgroundChannel = null;
+		long earliestDeadline = 0;
 		for (int i = 0; i <= highestChannelNumber; i++) {
 //			System.out.println("Checking channel " + i);
 			channel = channels[i];
 			if (channel != null) {
-				if (channel.hasMessages()) {
-					return channel;
+				LinkMessage message = channel.peekMessage();
+				if ((message != null) && link.hasSendCredit(channel)) {
+					if (channel.isBackground()) {
+						if (backgroundChannel == null) {
+							backgroundChannel = channel;
+						}
+						continue;
+					}
+					if (lowestChannel == null) {
+						lowestChannel = channel;
+					}
+					if (message.hasDeadline()
+							&& ((earliestChannel == null) || (message.getDeadline() < earliestDeadline))) {
+						earliestChannel = channel;
+						earliestDeadline = message.getDeadline();
+					}
 				}
 			}
 		}
-		return null;
+		if (lowestChannel == null) {
+			return backgroundChannel;
+		}
+		if ((earliestChannel == null)
+				|| (lowestChannel.getChannelNumber() == LINK_CONTROL_CHANNEL_NUMBER)) {
+			return lowestChannel;
+		}
+		return earliestChannel;
 	}
 	
 	// --------------------------------------------------------------------------------
 	// Coordinating moving messages through
 	
-	// called by the Sender when it needs a message
-	public synchronized void waitForMessage () throws InterruptedException {
-		wait();
+	// called by the Sender before it looks for a message, pass it to
+	// waitForMessage if there is none
+	public long getMessageSignal () {
+		return messageSignal.get();
 	}
 	
-	// called by the Sender when it needs a message
-	public synchronized void waitForMessage (long timeout) throws InterruptedException {
-		wait(timeout);
+	// called by the Sender when it needs a message, returns once something
+	// has been added since seen, or after timeout, zero means no timeout
+	public void waitForMessage (long seen, long timeout) throws InterruptedException {
+		link.getWaitStrategy().await(messageSignal, seen, timeout);
 	}
 
 	
 	// called by a channel when it adds a message
-	public synchronized void notifyMessageAdded (AbstractChannel channel) {
-		notify();
+	public void notifyMessageAdded (AbstractChannel channel) {
+		messageSignal.signal();
+	}
+
+	// called by the link when something other than a new message means
+	// the Sender should take another look, for example after a resume
+	public void wakeUp () {
+		messageSignal.signal();
 	}
 	
 	// --------------------------------------------------------------------------------
@@ -0,0 +1,31 @@
+package com.builditboys.robots.communication;
+
+// Forward error correction for the body of a frame, the payload and its
+// crc16. The sender encodes the body before escaping it, the receiver
+// corrects it after unescaping and before the crc16 is checked. With
+// LinkCapabilities.FEATURE_CRC16 agreed the crc16 then catches whatever
+// the code could not fix or fixed wrong. Without it the crc16 only counts
+// bytes and a miscorrected body is delivered as good.
+//
+// Only the body is covered. A flipped bit in the preamble still costs the
+// frame, and so does noise that turns a byte into a sync or escape byte,
+// that breaks the frame apart before there is anything to correct.
+//
+// A codec keeps scratch space, each thread needs its own, see
+// FecModeEnum.newCodec.
+
+public abstract class AbstractFecCodec {
+
+	public abstract FecModeEnum getMode ();
+
+	// how many bytes a body of length bytes takes once encoded
+	public abstract int encodedLength (int length);
+
+	// encodes length bytes of body, returns how many bytes went into encoded
+	public abstract int encode (byte body[], int length, byte encoded[]);
+
+	// decodes encodedLength(length) bytes into length bytes of body,
+	// returns how many errors it corrected, -1 if there were too many
+	public abstract int decode (byte encoded[], int length, byte body[]);
+
+}
@@ -3,6 +3,7 @@ package com.builditboys.robots.communication;
 import static com.builditboys.robots.communication.LinkParameters.*;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import com.builditboys.robots.infrastructure.ParameterInterface;
 import com.builditboys.robots.infrastructure.ParameterServer;
@@ -23,6 +24,11 @@ public abstract class AbstractLink implements ParameterInterface, Runnable {
 		LinkReadyState,
 		LinkActiveState,
 		
+		// --------------------
+		// Shared resume states
+		LinkResumingState,
+		LinkSentDoResumeState,
+		
 		
 		// --------------------
 		// Master states
@@ -45,7 +51,27 @@ public abstract class AbstractLink implements ParameterInterface, Runnable {
 		LinkReceivedImAliveState;	
 	}
 
-	protected LinkStateEnum linkState;
+	// nobody locks the link, the state and the other fields the receiver
+	// changes are volatile, reading the state is a plain read, and anything
+	// that moves the state on from a particular state does it with a
+	// compare and set, see changeLinkState, so the sender and receiver
+	// never wait on the link thread or the other way around
+	protected volatile LinkStateEnum linkState;
+	
+	private static final AtomicReferenceFieldUpdater<AbstractLink, LinkStateEnum> LINK_STATE
+		= AtomicReferenceFieldUpdater.newUpdater(AbstractLink.class, LinkStateEnum.class, "linkState");
+	
+	// the state to go back to after a successful resume
+	protected volatile LinkStateEnum resumeState;
+	
+	// identifies the current synchronization, both sides must agree on it
+	// for a resume to work
+	protected volatile int sessionId = NO_SESSION_ID;
+	
+	// poked whenever the receiver changes the state, the link thread waits
+	// on it, see linkWait
+	protected WaitSignal linkSignal = new WaitSignal();
+	protected volatile WaitStrategyEnum waitStrategy = WaitStrategyEnum.BLOCKING;
 	
 
 	protected String name;
@@ -71,8 +97,21 @@ public abstract class AbstractLink implements ParameterInterface, Runnable {
 	protected LinkControlProtocol linkInputControlProtocol;
 	protected LinkControlProtocol linkOutputControlProtocol;
 
-	protected long lastKeepAliveSentTime = 0;       // system time
-	protected long lastKeepAliveReceivedTime = 0;   // system time
+	protected volatile long lastKeepAliveSentTime = 0;       // system time
+	protected volatile long lastKeepAliveReceivedTime = 0;   // system time
+	protected volatile long lastPingSentTime = 0;            // system time
+
+	protected LinkQualityEstimator linkQuality;
+	
+	// per channel flow control, see FlowCredits
+	protected FlowCredits flowCredits = new FlowCredits();
+
+	// what this end offers in the handshake, what the other end said it
+	// can do, and what the two settled on, see LinkCapabilities
+	protected volatile LinkCapabilities capabilities = LinkCapabilities.LOCAL;
+	protected volatile LinkCapabilities peerCapabilities = LinkCapabilities.BASELINE;
+	protected volatile LinkCapabilities agreedCapabilities = LinkCapabilities.BASELINE;
+	protected volatile boolean useEstimatedTimeouts = false;
 	
 	protected int syncAttempts = 0;
 
@@ -83,6 +122,7 @@ public abstract class AbstractLink implements ParameterInterface, Runnable {
 		name = nm;
 		role = rol;
 		commPort = port;
+		linkQuality = new LinkQualityEstimator(nm + "_QUALITY");
 		inputChannels = new InputChannelCollection(this);
 		outputChannels = new OutputChannelCollection(this);
 		sender = new Sender(this, commPort);
@@ -94,8 +134,11 @@ public abstract class AbstractLink implements ParameterInterface, Runnable {
 	// their handshake), you enable it and that lets normal traffic proceed
 	
 	public void enable() {
-		if (linkState == LinkStateEnum.LinkReadyState) {
-			linkState = LinkStateEnum.LinkActiveState;
+		if (changeLinkState(LinkStateEnum.LinkReadyState, LinkStateEnum.LinkActiveState)) {
+			return;
+		}
+		if (isResuming() && (resumeState == LinkStateEnum.LinkReadyState)) {
+			resumeState = LinkStateEnum.LinkActiveState;
 		}
 		else {
 			throw new IllegalStateException();
@@ -103,8 +146,11 @@ public abstract class AbstractLink implements ParameterInterface, Runnable {
 	}
 	
 	public void disable() {
-		if (linkState == LinkStateEnum.LinkActiveState) {
-			linkState = LinkStateEnum.LinkReadyState;
+		if (changeLinkState(LinkStateEnum.LinkActiveState, LinkStateEnum.LinkReadyState)) {
+			return;
+		}
+		if (isResuming() && (resumeState == LinkStateEnum.LinkActiveState)) {
+			resumeState = LinkStateEnum.LinkReadyState;
 		}
 		// for any other states, just do nothing since you are already
 		// effectively disabled
@@ -116,6 +162,82 @@ public abstract class AbstractLink implements ParameterInterface, Runnable {
 		return linkState;
 	}
 
+	// --------------------------------------------------------------------------------
+	// Link quality and timeouts
+
+	public LinkQualityEstimator getLinkQuality () {
+		return linkQuality;
+	}
+
+	public boolean isUseEstimatedTimeouts () {
+		return useEstimatedTimeouts;
+	}
+
+	// when set, the handshake and keep alive timeouts are sized from the
+	// measured round trip time instead of the fixed LinkParameters constants
+	public void setUseEstimatedTimeouts (boolean useEstimates) {
+		useEstimatedTimeouts = useEstimates;
+	}
+
+	// messages the sender threw away because they missed their deadline
+	public long getExpiredMessageCount () {
+		return sender.getExpiredMessageCount();
+	}
+
+	// messages the sender threw away because the other side could not take
+	// them
+	public long getRejectedMessageCount () {
+		return sender.getRejectedMessageCount();
+	}
+
+	// timeout for waiting on a reply from the other side
+	protected long replyTimeout (long fixedTimeout) {
+		if (useEstimatedTimeouts && linkQuality.hasRttEstimate()) {
+			return linkQuality.getRetransmitTimeout();
+		}
+		return fixedTimeout;
+	}
+
+	// timeout for hearing a keep alive from the other side
+	protected long keepAliveTimeout () {
+		if (useEstimatedTimeouts && linkQuality.hasRttEstimate()) {
+			return KEEP_ALIVE_INTERVAL + linkQuality.getRetransmitTimeout();
+		}
+		return IM_ALIVE_TIMEOUT;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Flow control, see FlowCredits
+
+	public FlowCredits getFlowCredits () {
+		return flowCredits;
+	}
+
+	// how many frames the other side may have outstanding on the channel
+	// before it has to wait for more credit, zero for no flow control,
+	// takes effect from the next synchronization
+	public void setReceiveWindow (int channelNumber, int frames) {
+		if (!AbstractChannel.isLegalChannelNumber(channelNumber)
+				|| (channelNumber == LINK_CONTROL_CHANNEL_NUMBER)) {
+			throw new IllegalArgumentException("Channel cannot be flow controlled: " + channelNumber);
+		}
+		flowCredits.setReceiveWindow(channelNumber, frames);
+	}
+
+	// --------------------------------------------------------------------------------
+	// How the link's threads wait, the sender for messages, the receiver
+	// for bytes from the port, and the link thread for the other side,
+	// see WaitStrategyEnum
+
+	public WaitStrategyEnum getWaitStrategy () {
+		return waitStrategy;
+	}
+
+	public void setWaitStrategy (WaitStrategyEnum strategy) {
+		waitStrategy = strategy;
+		commPort.setWaitStrategy(strategy);
+	}
+
 	// --------------------------------------------------------------------------------
 	// Adding a protocol
 
@@ -239,6 +361,64 @@ public abstract class AbstractLink implements ParameterInterface, Runnable {
 		threadControl = ThreadControlEnum.STOP;
 	}
 
+	// --------------------------------------------------------------------------------
+	// With a pipelined sender, frames are encoded on the sender thread and
+	// written to the port in blocks by a separate writer thread, this keeps
+	// a slow port busy. An emergency cannot cut off the block being written,
+	// it goes ahead of everything else, see SendPipeline. Call it before the
+	// link is started
+
+	public void setPipelinedSend(boolean pipelined) {
+		sender.setPipelined(pipelined);
+	}
+
+	public boolean isPipelinedSend() {
+		return sender.isPipelined();
+	}
+
+	// Forward error correction of the frame bodies on the data channels, for
+	// noisy cables, see FecModeEnum, the mode is offered in the handshake
+	// and used if the other end offers it too
+
+	public void setFecMode(FecModeEnum mode) {
+		setCapabilities(capabilities.withFecMode(mode));
+	}
+
+	// the mode in use
+	public FecModeEnum getFecMode() {
+		return sender.getFecMode();
+	}
+
+	// --------------------------------------------------------------------------------
+	// Capabilities, see LinkCapabilities, a new offer takes effect from the
+	// next synchronization
+
+	public void setCapabilities (LinkCapabilities offered) {
+		capabilities = offered;
+	}
+
+	public LinkCapabilities getCapabilities () {
+		return capabilities;
+	}
+
+	public LinkCapabilities getAgreedCapabilities () {
+		return agreedCapabilities;
+	}
+
+	// called by the subclass doWork during the handshake, while only link
+	// control frames go out, those are never encoded and keep the counting
+	// crc16
+	protected LinkCapabilities agreeCapabilities () {
+		LinkCapabilities agreed = capabilities.commonWith(peerCapabilities);
+		agreedCapabilities = agreed;
+		sender.setFecMode(agreed.getFecMode());
+		receiver.setFecMode(agreed.getFecMode());
+		sender.setCCITTCRC16(agreed.hasFeature(LinkCapabilities.FEATURE_CRC16));
+		receiver.setCCITTCRC16(agreed.hasFeature(LinkCapabilities.FEATURE_CRC16));
+		System.out.println(role + " link capabilities: " + agreed);
+		return agreed;
+	}
+
 	// --------------------------------------------------------------------------------
 	// Thread control for all of the link's threads
 
@@ -340,7 +520,7 @@ public abstract class AbstractLink implements ParameterInterface, Runnable {
 	// --------------------------------------------------------------------------------
 
 	protected boolean keepAliveOk() {
-		return ((SystemTimeSystem.currentTime() - lastKeepAliveReceivedTime) < IM_ALIVE_TIMEOUT);
+		return ((SystemTimeSystem.currentTime() - lastKeepAliveReceivedTime) < keepAliveTimeout());
 	}
 	
 	protected long keepAliveDiff () {
@@ -351,27 +531,91 @@ public abstract class AbstractLink implements ParameterInterface, Runnable {
 		return ((lastKeepAliveSentTime + KEEP_ALIVE_INTERVAL) - SystemTimeSystem.currentTime());
 	}
 
+	// a peer that did not agree to pings would reject them
+	protected long timeToNextPing() {
+		if (!agreedCapabilities.hasFeature(LinkCapabilities.FEATURE_PING)) {
+			return Long.MAX_VALUE;
+		}
+		return ((lastPingSentTime + PING_INTERVAL) - SystemTimeSystem.currentTime());
+	}
+
 	// --------------------------------------------------------------------------------
 	// The receiver calls this when it detects an error
 	
-	protected synchronized void receiveReceiverException (Exception e) {
+	protected void receiveReceiverException (Exception e) {
 		System.out.println();
 		System.out.println(role + "Link Receive Exception");
-		setLinkState(LinkStateEnum.LinkInitState);
-		notify();
+		while (true) {
+			LinkStateEnum state = linkState;
+			if (isResuming(state)) {
+				// already working on it
+				break;
+			}
+			if (startResume() || changeLinkState(state, LinkStateEnum.LinkInitState)) {
+				break;
+			}
+			// the link thread moved the state on, look again
+		}
+		linkSignal.signal();
 	}
 		
 	// --------------------------------------------------------------------------------
 	// Interaction with the sender and receiver
 	
-	public synchronized boolean isSendableChannel (AbstractChannel channel) {
+	public boolean isSendableChannel (AbstractChannel channel) {
 		return (channel == controlChannelOut) || (linkState == LinkStateEnum.LinkActiveState);
 	}
 	
-	public synchronized boolean isReceivableChannel (AbstractChannel channel) {
+	public boolean isReceivableChannel (AbstractChannel channel) {
 		return (channel == controlChannelIn) || (linkState == LinkStateEnum.LinkActiveState);
 	}	
 
+	// an emergency message skips the channel queues and cuts off the frame
+	// going out, if the channel cannot send right now it just gets queued
+	public void sendEmergencyMessage (AbstractChannel channel, LinkMessage message) {
+		if (isSendableChannel(channel)) {
+			sender.sendEmergencyMessage(message);
+		}
+		else {
+			channel.addMessage(message);
+		}
+	}
+
+	// in microseconds, from the call until the port has written the last byte,
+	// with the send pipeline on that is when its block is written
+	public long getWorstEmergencyLatency () {
+		return sender.getWorstEmergencyLatency();
+	}
+
+	// link control always has credit, it carries the grants
+	public boolean hasSendCredit (AbstractChannel channel) {
+		if (channel == controlChannelOut) {
+			return true;
+		}
+		int channelNumber = channel.getChannelNumber();
+		if (flowCredits.canSend(channelNumber)) {
+			flowCredits.endStall(channelNumber);
+			return true;
+		}
+		flowCredits.noteStall(channelNumber);
+		return false;
+	}
+
+	// the receiver calls this for every frame it hands to a protocol,
+	// the sender counts a frame once however many times it replays it,
+	// so the receiver must not count the copies it throws away
+	protected void creditFrameReceived (int channelNumber) {
+		if (flowCredits.frameReceived(channelNumber)) {
+			linkOutputControlProtocol.sendCredit(channelNumber, flowCredits.getGrantedLimit(channelNumber));
+		}
+	}
+
+	// while a resume is in progress the sender keeps messages queued
+	// instead of discarding them
+	public boolean isHoldingMessages () {
+		return isResuming();
+	}
+
 	// subclasses must define this
 	public abstract boolean isForceInitialSequenceNumbers ();
 	
@@ -416,14 +660,252 @@ public abstract class AbstractLink implements ParameterInterface, Runnable {
 		throw new IllegalStateException();
 	}
 
+	// pings are answered in any state, they do not affect the handshake
+	protected void receivedPing(AbstractChannel rchannel, LinkMessage message) {
+		linkOutputControlProtocol.sendPingReply(LinkControlProtocol.getPingTime(message));
+	}
+
+	protected void receivedPingReply(AbstractChannel rchannel, LinkMessage message) {
+		int pingTime = LinkControlProtocol.getPingTime(message);
+		linkQuality.addRttSample((int) SystemTimeSystem.currentTime() - pingTime);
+	}
+
+	// grants are taken in any state, a stale one is put right by the next
+	protected void receivedCredit(AbstractChannel rchannel, LinkMessage message) {
+		int channelNumber = LinkControlProtocol.getCreditChannelNumber(message);
+		if (AbstractChannel.isLegalChannelNumber(channelNumber)
+				&& (channelNumber != LINK_CONTROL_CHANNEL_NUMBER)) {
+			flowCredits.grant(channelNumber, LinkControlProtocol.getCreditLimit(message));
+			outputChannels.wakeUp();
+		}
+	}
+
 	// --------------------------------------------------------------------------------
+	// Keeping an established link alive, called by the subclass doWork once
+	// the link is ready
+
+	protected void startKeepAlives () {
+		long time = SystemTimeSystem.currentTime();
+		lastKeepAliveReceivedTime = time;
+		lastKeepAliveSentTime = time;
+		lastPingSentTime = time - PING_INTERVAL;
+		// anything lost before the sync does not matter any more
+		receiver.clearReceiveGap();
+		sendCreditGrants();
+	}
+
+	// grants go out when the link comes up and again with every keep
+	// alive, so a lost one does not stall the other side for long
+	protected void sendCreditGrants () {
+		if (!agreedCapabilities.hasFeature(LinkCapabilities.FEATURE_FLOW_CONTROL)) {
+			return;
+		}
+		for (int i = 0; i < CHANNEL_NUMBER_MAX; i++) {
+			if ((i != LINK_CONTROL_CHANNEL_NUMBER) && flowCredits.isGranting(i)) {
+				linkOutputControlProtocol.sendCredit(i, flowCredits.getGrantedLimit(i));
+			}
+		}
+	}
+
+	protected void maintainLink () throws InterruptedException {
+		while (true) {
+			long seen = linkSignal.get();
+			if ((linkState != LinkStateEnum.LinkReadyState)
+					&& (linkState != LinkStateEnum.LinkActiveState)) {
+				break;
+			}
+			// make sure you have recently received a keep alive message
+			// also, you could be awakened by receiving a keep alive so 
+			// keep track of how long you need to wait to send a keep alive
+			// pings ride along to keep the round trip estimate fresh
+			if (keepAliveOk()) {
+				long timeToNextSend = timeToNextKeepAlive();
+				long timeToNextPing = timeToNextPing();
+				if (timeToNextSend <= 0) {
+					linkOutputControlProtocol.sendKeepAlive();
+					sendCreditGrants();
+					lastKeepAliveSentTime = SystemTimeSystem.currentTime();
+				}
+				else if (timeToNextPing <= 0) {
+					linkOutputControlProtocol.sendPing();
+					lastPingSentTime = SystemTimeSystem.currentTime();
+				}
+				else {
+					linkWait(seen, Math.min(timeToNextSend, timeToNextPing));
+				}
+			}
+			else {
+				System.out.println(role + " Keep Alive Timout: " + keepAliveDiff());
+				LinkStateEnum state = linkState;
+				if (!startResume()) {
+					// no session to resume, a full synchronization it is
+					changeLinkState(state, LinkStateEnum.LinkInitState);
+				}
+				break;
+			}
+		}
+	}
 
-	protected void linkWait(long timeout) throws InterruptedException {
+	// --------------------------------------------------------------------------------
+	// Resuming a link - after a glitch on an established link, try a quick
+	// DO_RESUME/DID_RESUME exchange instead of a full synchronization.  Either
+	// side can start it.  Both sides keep their queued output, and each side
+	// resends whatever the other side reports that it missed.
+
+	protected boolean isResuming () {
+		return isResuming(linkState);
+	}
+
+	protected static boolean isResuming (LinkStateEnum state) {
+		switch (state) {
+		case LinkResumingState:
+		case LinkSentDoResumeState:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	// returns false if the link cannot be resumed, both the link thread and
+	// the receiver start resumes, only one of them gets to
+	protected boolean startResume () {
+		LinkStateEnum state = linkState;
+		if ((sessionId != NO_SESSION_ID)
+				&& ((state == LinkStateEnum.LinkReadyState)
+					|| (state == LinkStateEnum.LinkActiveState))) {
+			resumeState = state;
+			return changeLinkState(state, LinkStateEnum.LinkResumingState);
+		}
+		return false;
+	}
+
+	// returns true if the link is back in business, false if a full
+	// synchronization is needed
+	protected boolean resumeLink () throws InterruptedException {
+		// the state goes first so the reply cannot beat it, if the other
+		// side's DO_RESUME got here first the resume is already done
+		if (changeLinkState(LinkStateEnum.LinkResumingState, LinkStateEnum.LinkSentDoResumeState)) {
+			System.out.println("Starting " + role + " link resume");
+			linkOutputControlProtocol.sendDoResume(sessionId, receiver.getLastReceivedSequenceNumber());
+
+			// frames that were in flight keep causing receive exceptions,
+			// so keep waiting until the reply or the timeout
+			linkWaitWhile(LinkStateEnum.LinkSentDoResumeState, replyTimeout(DID_RESUME_TIMEOUT));
+		}
+
+		// the receiver finishes the resume when it gets the DID_RESUME, or
+		// a DO_RESUME if the other side started one at the same time
+		if ((linkState == LinkStateEnum.LinkReadyState)
+				|| (linkState == LinkStateEnum.LinkActiveState)) {
+			System.out.println("Successful " + role + " link resume");
+			return true;
+		}
+		System.out.println(role + " link resume failed");
+		return false;
+	}
+
+	// from whichever resume state the link has got to, the link thread may
+	// be moving it along at the same time
+	private void finishResume () {
+		LinkStateEnum state;
+		do {
+			state = linkState;
+			if (!isResuming(state)) {
+				return;
+			}
+		} while (!changeLinkState(state, resumeState));
+		receiver.clearReceiveGap();
+		// we just heard from the other side, and it may be getting
+		// anxious, so send a keep alive right away
+		lastKeepAliveReceivedTime = SystemTimeSystem.currentTime();
+		lastKeepAliveSentTime = 0;
+		outputChannels.wakeUp();
+	}
+
+	// --------------------
+	// both directions
+
+	protected void receivedDoResume(AbstractChannel rchannel, LinkMessage message) {
+		int lastSequenceNumber = LinkControlProtocol.getResumeSequenceNumber(message);
+		if ((sessionId == NO_SESSION_ID)
+				|| (LinkControlProtocol.getResumeSessionId(message) != sessionId)) {
+			// no session, or not the one we know about, let the resume time out
+			return;
+		}
+		LinkStateEnum state = linkState;
+		switch (state) {
+		case LinkReadyState:
+		case LinkActiveState:
+		case LinkResumingState:
+		case LinkSentDoResumeState:
+			if (sender.canReplayFrom(lastSequenceNumber)) {
+				// the sender works out what to replay when the reply goes
+				// out, that catches anything sent in the meantime
+				linkOutputControlProtocol.sendDidResume(sessionId,
+														receiver.getLastReceivedSequenceNumber(),
+														lastSequenceNumber);
+				lastKeepAliveReceivedTime = SystemTimeSystem.currentTime();
+				if (isResuming()) {
+					finishResume();
+					linkSignal.signal();
+				}
+			}
+			break;
+		// in the middle of a synchronization, ignore it
+		default:
+			break;
+		}
+	}
+
+	protected void receivedDidResume(AbstractChannel rchannel, LinkMessage message) {
+		int lastSequenceNumber = LinkControlProtocol.getResumeSequenceNumber(message);
+		LinkStateEnum state = linkState;
+		switch (state) {
+		case LinkSentDoResumeState:
+			if ((LinkControlProtocol.getResumeSessionId(message) == sessionId)
+					&& sender.canReplayFrom(lastSequenceNumber)) {
+				// we are holding messages, so nothing can sneak out
+				// ahead of the replay, and the other side starts resending
+				// right away so be ready to receive
+				sender.replayFrom(lastSequenceNumber);
+				finishResume();
+			}
+			else {
+				changeLinkState(state, LinkStateEnum.LinkInitState);
+			}
+			linkSignal.signal();
+			break;
+		// a crossed resume that has already been handled, or a stale reply
+		default:
+			break;
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+
+	// wait for the receiver to change something since seen, or for timeout
+	protected void linkWait(long seen, long timeout) throws InterruptedException {
 		// System.out.println(getRole() + " start wait");
-		wait(timeout);
+		waitStrategy.await(linkSignal, seen, timeout);
 		// System.out.println(getRole() + " end wait");
 	}
 
+	// wait for the receiver to move the link on from state, or for timeout
+	protected void linkWaitWhile(LinkStateEnum state, long timeout) throws InterruptedException {
+		long deadline = SystemTimeSystem.currentTime() + timeout;
+		long remaining;
+		while (true) {
+			// read the signal before the state, a change after this still
+			// ends the wait
+			long seen = linkSignal.get();
+			if ((linkState != state)
+					|| ((remaining = deadline - SystemTimeSystem.currentTime()) <= 0)) {
+				return;
+			}
+			linkWait(seen, remaining);
+		}
+	}
+
 	// --------------------------------------------------------------------------------
 
 	private static int WAIT_FOR_LINK_READY_INTERVAL = 200;
@@ -443,6 +925,11 @@ public abstract class AbstractLink implements ParameterInterface, Runnable {
 		linkState = state;
 	}
 	
+	// only if nobody has moved the link on in the meantime
+	protected boolean changeLinkState (LinkStateEnum expected, LinkStateEnum state) {
+		return LINK_STATE.compareAndSet(this, expected, state);
+	}
+	
 	// --------------------------------------------------------------------------------
 
 	public void describe () {
@@ -452,6 +939,18 @@ public abstract class AbstractLink implements ParameterInterface, Runnable {
 		System.out.println("CommPort: " + commPort);
 		System.out.println("Sender " + sender);
 		System.out.println("Receiver " + receiver);
+		System.out.println("Expired messages: " + sender.getExpiredMessageCount());
+		System.out.println("Rejected messages: " + sender.getRejectedMessageCount());
+		System.out.println("Emergency messages: " + sender.getEmergencyCount()
+							+ ", latency us last " + sender.getLastEmergencyLatency()
+							+ " mean " + sender.getMeanEmergencyLatency()
+							+ " worst " + sender.getWorstEmergencyLatency());
+		sender.describePipeline();
+		System.out.println("Capabilities: offered " + capabilities + ", agreed " + agreedCapabilities);
+		System.out.println("Flow credits: " + flowCredits);
+		flowCredits.describe();
+		System.out.println("Quality: " + linkQuality);
+		linkQuality.print();
 		System.out.println("Input Channels: " + inputChannels);
 		inputChannels.describe();
 		System.out.println("Output Channels: " + outputChannels);
@@ -0,0 +1,62 @@
+package com.builditboys.robots.communication;
+
+import java.util.Collection;
+
+// The bounded queue a channel keeps its messages in. There is one
+// consumer, the sender for an output channel, and either one producer or
+// several, see SpscMessageQueue and MpscMessageQueue. Neither one locks,
+// a full queue turns an offer down and an empty one polls null, nobody
+// blocks in here, waiting is up to the channel collection.
+//
+// The capacity is exact, the slots are rounded up to a power of two so
+// an index is a mask away from a count.
+
+public abstract class AbstractMessageQueue {
+
+	protected final int capacity;
+	protected final int mask;
+
+	// --------------------------------------------------------------------------------
+	// Constructors
+
+	protected AbstractMessageQueue (int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Queue capacity must be at least 1");
+		}
+		this.capacity = capacity;
+		mask = slotsFor(capacity) - 1;
+	}
+
+	protected static int slotsFor (int capacity) {
+		int slots = Integer.highestOneBit(capacity);
+		return (slots == capacity) ? slots : slots << 1;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public int getCapacity () {
+		return capacity;
+	}
+
+	// false if the queue is full, producers only
+	public abstract boolean offer (LinkMessage message);
+
+	// the next message, null if there is none, the consumer only
+	public abstract LinkMessage poll ();
+
+	// the next message, left on the queue, null if there is none, the
+	// consumer only
+	public abstract LinkMessage peek ();
+
+	// moves up to max messages into messages in one go, returns how many,
+	// the consumer only
+	public abstract int drainTo (Collection<? super LinkMessage> messages, int max);
+
+	// anyone can ask, the answer may be out of date by the time they get it
+	public abstract int size ();
+
+	public boolean isEmpty () {
+		return size() == 0;
+	}
+
+}
@@ -1,5 +1,7 @@
 package com.builditboys.robots.communication;
 
+import static com.builditboys.robots.communication.LinkParameters.*;
+
 public abstract class AbstractProtocol {
 	
 	public enum ProtocolRoleEnum {
@@ -14,6 +16,9 @@ public abstract class AbstractProtocol {
 	protected AbstractChannel oppositeChannel;
 	protected AbstractProtocol oppositeProtocol;
 	
+	// the calls started on the output protocol, see PendingCalls
+	protected final PendingCalls pendingCalls = new PendingCalls(RPC_MAX_OUTSTANDING_CALLS);
+	
 	//--------------------------------------------------------------------------------
 	// Constructors
 	
@@ -54,15 +59,194 @@ public abstract class AbstractProtocol {
 		sendMessage(messageObject, doWait);
 	}
 	
+	// a time to live of 0 means the message never goes stale
+	protected void sendRoleMessage (ProtocolRoleEnum role,
+			  					    AbstractProtocolMessage messageObject,
+			  					    long timeToLive,
+			  					    boolean doWait) throws InterruptedException {
+		if (role != protocolRole) {
+			throw new IllegalStateException();
+		}	
+		sendMessage(messageObject, timeToLive, doWait);
+	}
+	
+	// for messages that cannot wait behind other traffic, see AbstractLink
+	protected void sendEmergencyRoleMessage (ProtocolRoleEnum role,
+			  							     AbstractProtocolMessage mObject,
+			  							     boolean doWait) throws InterruptedException {
+		if (role != protocolRole) {
+			throw new IllegalStateException();
+		}	
+		LinkMessage message = new LinkMessage(channelNumber, mObject.getLength(), doWait);
+		mObject.deConstruct(message);
+		sendEmergencyRoleMessage(role, message, doWait);
+	}
+	
 	protected void sendMessage (AbstractProtocolMessage mObject, boolean doWait) throws InterruptedException {
+		sendMessage(mObject, 0, doWait);
+	}
+
+	protected void sendMessage (AbstractProtocolMessage mObject, long timeToLive, boolean doWait) throws InterruptedException {
 		LinkMessage message = new LinkMessage(channelNumber, mObject.getLength(), doWait);
 		mObject.deConstruct(message);
+		sendMessage(message, timeToLive, doWait);
+	}
+
+	//--------------------------------------------------------------------------------
+	// Messages filled in directly, by the generated encoders for instance,
+	// get a link message from newMessage and hand it back to one of these
+	
+	protected LinkMessage newMessage (int length, boolean doWait) {
+		return new LinkMessage(channelNumber, length, doWait);
+	}
+	
+	protected void sendRoleMessage (ProtocolRoleEnum role,
+									LinkMessage message,
+									boolean doWait) throws InterruptedException {
+		sendRoleMessage(role, message, 0, doWait);
+	}
+	
+	protected void sendRoleMessage (ProtocolRoleEnum role,
+									LinkMessage message,
+									long timeToLive,
+									boolean doWait) throws InterruptedException {
+		if (role != protocolRole) {
+			throw new IllegalStateException();
+		}	
+		sendMessage(message, timeToLive, doWait);
+	}
+	
+	protected void sendEmergencyRoleMessage (ProtocolRoleEnum role,
+											 LinkMessage message,
+											 boolean doWait) throws InterruptedException {
+		if (role != protocolRole) {
+			throw new IllegalStateException();
+		}	
+		channel.getLink().sendEmergencyMessage(channel, message);
+		if (doWait) {
+			message.doWait();
+		}
+	}
+
+	protected void sendMessage (LinkMessage message, long timeToLive, boolean doWait) throws InterruptedException {
+		if (timeToLive > 0) {
+			message.setTimeToLive(timeToLive);
+		}
 		channel.addMessage(message);
 		if (doWait) {
 			message.doWait();
 		}
 	}
 
+	//--------------------------------------------------------------------------------
+	// Calls, a request that gets a reply, see RpcCall. Any number of calls
+	// can be outstanding on a channel, up to RPC_MAX_OUTSTANDING_CALLS.
+	//
+	// A request made by newRequest carries a correlation id right after the
+	// indicator byte, the other side puts it in its reply with newReply,
+	// so replies can come back in any order. Protocols whose messages have
+	// no room for an id, the PSoC ones for instance, use startOrderedCall
+	// and rely on the other side answering in order.
+	//
+	// Start calls on the output protocol, the input protocol hands the
+	// replies to completeCall or completeOrderedCall when they come in.
+	//
+	//   RpcCall call = startCall(SM_REPLY, timeout);
+	//   LinkMessage request = newRequest(call, MS_REQUEST, 4);
+	//   request.deConstructBytes4(argument);
+	//   sendCall(call, request);
+	//   ... call.get() ...
+
+	public static final int CALL_HEADER_LENGTH = 1 + 1;   // indicator, correlation id
+
+	protected RpcCall startCall (int replyIndicator, long timeout) {
+		return pendingCalls.newCall(replyIndicator, timeout);
+	}
+	
+	protected RpcCall startOrderedCall (int replyIndicator, long timeout) {
+		return pendingCalls.newOrderedCall(replyIndicator, timeout);
+	}
+	
+	protected LinkMessage newRequest (RpcCall call, int indicator, int argumentLength) {
+		LinkMessage message = newMessage(CALL_HEADER_LENGTH + argumentLength, false);
+		message.addByte((byte) indicator);
+		message.deConstructBytes1(call.getCorrelationId());
+		return message;
+	}
+	
+	// a request that cannot go out before the caller gives up is thrown
+	// away, a full channel ends the call right away
+	protected RpcCall sendCall (RpcCall call, LinkMessage request) throws InterruptedException {
+		try {
+			sendMessage(request, call.getTimeout(), false);
+		} catch (IllegalStateException e) {
+			call.cancel(false);
+			throw e;
+		}
+		return call;
+	}
+	
+	// the answer to a request made by newRequest
+	protected LinkMessage newReply (LinkMessage request, int indicator, int resultLength) {
+		LinkMessage message = newMessage(CALL_HEADER_LENGTH + resultLength, false);
+		message.addByte((byte) indicator);
+		message.deConstructBytes1(getCorrelationId(request));
+		return message;
+	}
+	
+	public static int getCorrelationId (LinkMessage message) {
+		return message.getByte(1) & 0xFF;
+	}
+	
+	// false if no call was waiting for it, it came too late for instance
+	protected boolean completeCall (LinkMessage reply) {
+		return completeCall(getCallTable().takeCall(getCorrelationId(reply)), reply);
+	}
+	
+	protected boolean completeOrderedCall (int replyIndicator, LinkMessage reply) {
+		return completeCall(getCallTable().takeOrderedCall(replyIndicator), reply);
+	}
+	
+	// views only last until receiveMessage returns, the caller gets a copy
+	private boolean completeCall (RpcCall call, LinkMessage reply) {
+		if (call == null) {
+			return false;
+		}
+		return call.complete(reply.isView() ? reply.copy() : reply);
+	}
+	
+	// the output protocol's table, replies come in on the input protocol
+	public PendingCalls getCallTable () {
+		if ((channel instanceof InputChannel) && (oppositeProtocol != null)) {
+			return oppositeProtocol.pendingCalls;
+		}
+		return pendingCalls;
+	}
+	
+	//--------------------------------------------------------------------------------
+	// The sender calls this when it throws away a message that missed its
+	// deadline, overload this if you care
+	
+	protected void messageExpired (LinkMessage message) {
+	}
+
+	//--------------------------------------------------------------------------------
+	// The sender calls this when it throws away a message that is too big
+	// for what the other side agreed to, or on a channel it does not have,
+	// overload this if you care
+	
+	protected void messageRejected (LinkMessage message) {
+	}
+
+	//--------------------------------------------------------------------------------
+	// Overload this to return true if receiveMessage is done with the message
+	// when it returns, the receiver then hands over a read only view of its
+	// frame buffer instead of copying the bytes into a new message
+	
+	protected boolean receivesMessageViews () {
+		return false;
+	}
+
 	//--------------------------------------------------------------------------------
 	// Receive a message, overload this if you wish
 	
@@ -16,6 +16,13 @@ public abstract class AbstractSenderReceiver implements Runnable {
 	protected CRC8Calculator crc8;
 	protected CRC16Calculator crc16;
 
+	// crc16 is one of these for each frame, link control frames always get
+	// the counting one the PSoC uses, data frames get the real one once
+	// both ends agreed to LinkCapabilities.FEATURE_CRC16
+	protected final CRC16Calculator countingCRC16 = new CRC16Calculator();
+	protected final CRC16Calculator ccittCRC16 = new CCITTCRC16Calculator();
+	private volatile boolean useCCITTCRC16 = false;
+
 	protected volatile ThreadControlEnum threadControl;
 	protected String threadName;
 	protected Thread thread;
@@ -60,6 +67,24 @@ public abstract class AbstractSenderReceiver implements Runnable {
 
 	public abstract void doWork() throws InterruptedException, IOException;
 
+	// --------------------------------------------------------------------------------
+	// The crc16, the link sets it to the agreed one, see LinkCapabilities
+
+	public void setCCITTCRC16(boolean use) {
+		useCCITTCRC16 = use;
+	}
+
+	public boolean isCCITTCRC16() {
+		return useCCITTCRC16;
+	}
+
+	protected CRC16Calculator crc16For(int channelNumber) {
+		if (useCCITTCRC16 && (channelNumber != LINK_CONTROL_CHANNEL_NUMBER)) {
+			return ccittCRC16;
+		}
+		return countingCRC16;
+	}
+
 	// --------------------------------------------------------------------------------
 
 	public void threadJoin() throws InterruptedException {
@@ -132,6 +157,24 @@ public abstract class AbstractSenderReceiver implements Runnable {
 		sequenceNumber = SEQUENCE_NUM_MIN - 1;
 	}
 	
+	// the frame gets RESYNC_SEQUENCE_NUM, it does not use up a number so the
+	// count carries on after it, the receiver picks up whatever comes next
+	protected int resyncSequenceNumber () {
+		return RESYNC_SEQUENCE_NUM;
+	}
+
+	protected synchronized void followSequenceNumber (int seqNr) {
+		sequenceNumber = seqNr;
+	}
+
+	// give back the last number, the frame that used it was aborted
+	protected synchronized void rewindSequenceNumber () {
+		sequenceNumber--;
+		if (sequenceNumber < SEQUENCE_NUM_MIN) {
+			sequenceNumber = SEQUENCE_NUM_MAX;
+		}
+	}
+	
 	protected synchronized int bestSequenceNumber() {
 		if (link.isForceInitialSequenceNumbers()) {
 			sequenceNumber = SEQUENCE_NUM_MIN;
@@ -151,9 +194,16 @@ public abstract class AbstractSenderReceiver implements Runnable {
 	private static boolean doDebugPrintImAlive = false;
 	private static boolean doPrintRaw = false;
 	
+	// every frame is printed unless this is turned off, drivers that send
+	// thousands of them do, before their links are started
+	public static void setDebugPrint (boolean print) {
+		doDebugPrint = print;
+	}
+	
 	protected void debugPrintMessage (String direction, int seqNr, int channelNr, int length, int CRC1, LinkMessage message, int CRC2) {
 		if (doDebugPrint) {
-			if (LinkControlProtocol.isKeepAliveMessage(message)) {
+			if (LinkControlProtocol.isKeepAliveMessage(message)
+				|| LinkControlProtocol.isPingMessage(message)) {
 				if (doDebugPrintImAlive) {
 					debugPrintMessage1(direction, seqNr, channelNr, length, CRC1, message, CRC2);
 				}
@@ -0,0 +1,222 @@
+package com.builditboys.robots.communication;
+
+import static com.builditboys.robots.communication.LinkParameters.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.AbstractSelectableChannel;
+
+// What the TCP and UDP link ports have in common, a simulated PSoC or an
+// operator station on another machine, or on this one over localhost.
+//
+// The channel is non-blocking and the port waits on it with a selector,
+// an interrupt would close a blocking channel for good, a selector just
+// wakes up. Before blocking, readByte idles the way the link's wait
+// strategy says, see WaitStrategyEnum.select.
+//
+// Reads go through a direct buffer, one channel read fills it with
+// whatever has come in. Writes are gathered in a direct buffer too and
+// go out in one channel write when a frame is done, a sync byte after
+// some data, so a frame is a single TCP segment or datagram instead of a
+// handful. Only the link's sender writes and only its receiver reads.
+
+public abstract class AbstractSocketLinkPort<C extends AbstractSelectableChannel & ByteChannel> implements LinkPortInterface {
+
+	protected C channel = null;
+	private Selector readSelector = null;
+	private Selector writeSelector = null;
+	private volatile WaitStrategyEnum waitStrategy = WaitStrategyEnum.BLOCKING;
+
+	private final ByteBuffer readBuffer;
+	private final ByteBuffer writeBuffer;
+	private boolean writeHasData = false;
+
+	// statistics
+	protected long bytesRead = 0;
+	protected long bytesWritten = 0;
+	protected long writes = 0;
+
+	// --------------------------------------------------------------------------------
+	// Constructor
+
+	protected AbstractSocketLinkPort (int readLength, int writeLength) {
+		readBuffer = ByteBuffer.allocateDirect(readLength);
+		readBuffer.flip();
+		writeBuffer = ByteBuffer.allocateDirect(writeLength);
+	}
+
+	// --------------------------------------------------------------------------------
+	// Opening and closing
+
+	// a connected channel, blocking or not
+	protected abstract C openChannel () throws IOException;
+
+	// the channel says the other end is gone, TCP only
+	protected abstract void endOfStream () throws InterruptedException;
+
+	public void open () throws IOException {
+		C opened = openChannel();
+		opened.configureBlocking(false);
+		readSelector = Selector.open();
+		writeSelector = Selector.open();
+		opened.register(readSelector, SelectionKey.OP_READ);
+		opened.register(writeSelector, SelectionKey.OP_WRITE);
+		readBuffer.clear();
+		readBuffer.flip();
+		writeBuffer.clear();
+		writeHasData = false;
+		channel = opened;
+	}
+
+	// the selectors go first, the channel is only really closed once its
+	// keys are gone
+	public void close () throws IOException {
+		System.out.println("Closing " + this);
+		if (readSelector != null) {
+			readSelector.close();
+			readSelector = null;
+		}
+		if (writeSelector != null) {
+			writeSelector.close();
+			writeSelector = null;
+		}
+		if (channel != null) {
+			channel.close();
+		}
+	}
+
+	public boolean isOpen () {
+		return (channel != null) && channel.isOpen();
+	}
+
+	public void setWaitStrategy (WaitStrategyEnum strategy) {
+		waitStrategy = strategy;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Reading
+
+	public byte readByte () throws InterruptedException {
+		if (!readBuffer.hasRemaining()) {
+			fill();
+		}
+		return readBuffer.get();
+	}
+
+	private void fill () throws InterruptedException {
+		int round = 0;
+		try {
+			while (true) {
+				readBuffer.clear();
+				int count = readChannel(readBuffer);
+				readBuffer.flip();
+				if (count > 0) {
+					bytesRead += count;
+					return;
+				}
+				if (count < 0) {
+					endOfStream();
+				}
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				waitStrategy.select(readSelector, round++);
+			}
+		} catch (IOException e) {
+			// the port is being closed under us, or is broken, either way
+			// nothing more is coming
+			throw new InterruptedException(e.getMessage());
+		}
+	}
+
+	// one read, UDP leaves out what the other end could not be reached for
+	protected int readChannel (ByteBuffer buffer) throws IOException {
+		return channel.read(buffer);
+	}
+
+	// --------------------------------------------------------------------------------
+	// Writing
+
+	public void writeByte (byte bite) throws InterruptedException, IOException {
+		if (!writeBuffer.hasRemaining()) {
+			flush();
+		}
+		writeBuffer.put(bite);
+		if (bite != SEND_SYNC_BYTE_1) {
+			writeHasData = true;
+		}
+		else if (writeHasData) {
+			flush();
+		}
+	}
+
+	// up to the last frame end in one go, the rest waits for its frame to
+	// be done
+	public void writeBytes (byte bytes[], int offset, int count) throws InterruptedException, IOException {
+		int end = -1;
+		boolean hasData = writeHasData;
+		for (int i = offset; i < offset + count; i++) {
+			if (bytes[i] != SEND_SYNC_BYTE_1) {
+				hasData = true;
+			}
+			else if (hasData) {
+				end = i + 1;
+				hasData = false;
+			}
+		}
+		if (end >= 0) {
+			put(bytes, offset, end - offset);
+			flush();
+			count -= end - offset;
+			offset = end;
+		}
+		put(bytes, offset, count);
+		writeHasData = hasData;
+	}
+
+	private void put (byte bytes[], int offset, int count) throws InterruptedException, IOException {
+		while (count > 0) {
+			if (!writeBuffer.hasRemaining()) {
+				flush();
+			}
+			int chunk = Math.min(count, writeBuffer.remaining());
+			writeBuffer.put(bytes, offset, chunk);
+			offset += chunk;
+			count -= chunk;
+		}
+	}
+
+	private void flush () throws InterruptedException, IOException {
+		writeBuffer.flip();
+		if (writeBuffer.hasRemaining()) {
+			bytesWritten += writeBuffer.remaining();
+			writes++;
+			int round = 0;
+			while (writeBuffer.hasRemaining()) {
+				if (writeChannel(writeBuffer) == 0) {
+					if (Thread.interrupted()) {
+						throw new InterruptedException();
+					}
+					waitStrategy.select(writeSelector, round++);
+				}
+			}
+		}
+		writeBuffer.clear();
+		writeHasData = false;
+	}
+
+	// as much as the channel takes, UDP takes all or nothing
+	protected int writeChannel (ByteBuffer buffer) throws IOException {
+		return channel.write(buffer);
+	}
+
+	// --------------------------------------------------------------------------------
+
+	protected String statistics () {
+		return bytesRead + " bytes read, " + bytesWritten + " written in " + writes + " writes";
+	}
+
+}
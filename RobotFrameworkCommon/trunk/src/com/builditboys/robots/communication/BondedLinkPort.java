@@ -0,0 +1,656 @@
+package com.builditboys.robots.communication;
+
+import static com.builditboys.robots.communication.LinkParameters.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+// A link port made of several physical ports, a USB serial and a
+// Bluetooth serial to the same controller for instance, the link binds to
+// it like to any other port. Both ends have to be bonded, with their
+// ports in the same pairs.
+//
+// What the link writes is cut into segments, one frame each as a rule,
+// the cut is after the sync byte that ends a frame. Each segment goes to
+// the port that would get it out soonest, counting what that port
+// already has queued against its nominal rate, so a slow port gets
+// fewer segments and the bond adds up to about the sum of its ports.
+// Every port has a writer thread of its own, so a slow one never holds
+// up the others.
+//
+// On a port a segment is
+//   escape, BOND_INDICATE_SEGMENT
+//   sequence number, 2 bytes, escaped
+//   length, 2 bytes, escaped
+//   check, 1 byte, escaped
+//   the segment, as the link wrote it
+// The link never writes an escape followed by BOND_INDICATE_SEGMENT, so a
+// reader that loses its place finds the next segment by it.
+//
+// A reader thread for each port hands the segments to a reorder window
+// and readByte gives the link the bytes in sequence order. A missing
+// segment is given up on once every port that is still working has
+// delivered past it, or after BOND_REORDER_TIMEOUT, the link sees that as
+// a lost frame and deals with it the usual way.
+//
+// A port whose write fails is out of the bond at once, the segments
+// still queued on it, the one it failed on included, go to the others.
+// The link never notices, so there is no resynchronization. The port
+// stays out until the bond is reopened.
+
+public class BondedLinkPort implements LinkPortInterface {
+
+	private static final int HEADER_LENGTH = 5;   // sequence, length, check
+
+	// this many old segments in a row means the other end started over
+	private static final int STALE_RESTART = 16;
+
+	private final List<Member> members = new ArrayList<Member>();
+	private volatile boolean isOpen = false;
+
+	// sending, guarded by pending
+	private final byte pending[] = new byte[BOND_MAX_SEGMENT_LENGTH];
+	private int pendingCount = 0;
+	private boolean pendingHasData = false;
+	private int nextSendSequence = 0;
+
+	// receiving, guarded by this, except current which only the thread
+	// calling readByte touches
+	private final byte reorder[][] = new byte[BOND_REORDER_WINDOW][];
+	private int bufferedCount = 0;
+	private int expectedSequence = 0;
+	private long gapSince = 0;
+	private int staleCount = 0;
+	private byte current[] = null;
+	private int currentIndex = 0;
+
+	// statistics, guarded by this
+	private long segmentsEarly = 0;
+	private long segmentsLost = 0;
+	private long failovers = 0;
+
+	// --------------------------------------------------------------------------------
+	// Constructor
+
+	public BondedLinkPort () {
+	}
+
+	// before the bond is opened, the rate is the port's nominal bytes per
+	// second
+	public synchronized void addPort (String name, LinkPortInterface port, int bytesPerSecond) {
+		if (isOpen) {
+			throw new IllegalStateException("Bond is open");
+		}
+		if (bytesPerSecond <= 0) {
+			throw new IllegalArgumentException("Bad port rate: " + bytesPerSecond);
+		}
+		members.add(new Member(name, port, bytesPerSecond));
+	}
+
+	// --------------------------------------------------------------------------------
+	// Opening and closing
+
+	// the ports that will not open are left out, at least one has to
+	public synchronized void open () throws IOException {
+		if (members.isEmpty()) {
+			throw new IOException("No ports in the bond");
+		}
+		Arrays.fill(reorder, null);
+		bufferedCount = 0;
+		expectedSequence = 0;
+		gapSince = 0;
+		staleCount = 0;
+		synchronized (pending) {
+			pendingCount = 0;
+			pendingHasData = false;
+			nextSendSequence = 0;
+		}
+		current = null;
+
+		IOException failure = null;
+		int opened = 0;
+		for (Member member : members) {
+			try {
+				member.port.open();
+				member.reset(true);
+				opened++;
+			} catch (IOException e) {
+				member.reset(false);
+				failure = e;
+				System.out.println("Bonded port " + member.name + " did not open: " + e);
+			}
+		}
+		if (opened == 0) {
+			throw failure;
+		}
+		isOpen = true;
+		for (Member member : members) {
+			if (member.isAlive()) {
+				member.startThreads();
+			}
+		}
+		notifyAll();
+	}
+
+	public void close () throws IOException {
+		isOpen = false;
+		IOException failure = null;
+		for (Member member : members) {
+			member.stopThreads();
+			try {
+				member.port.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		synchronized (this) {
+			notifyAll();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	// open as long as one of the ports is still working
+	public boolean isOpen () {
+		if (!isOpen) {
+			return false;
+		}
+		for (Member member : members) {
+			if (member.isAlive()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// the ports' readers wait this way, readByte waits for them
+	public void setWaitStrategy (WaitStrategyEnum strategy) {
+		for (Member member : members) {
+			member.port.setWaitStrategy(strategy);
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+	// Writing, the bytes collect until a frame ends, then go out as a
+	// segment
+
+	public void writeByte (byte bite) throws InterruptedException, IOException {
+		synchronized (pending) {
+			addByte(bite);
+		}
+	}
+
+	public void writeBytes (byte bytes[], int offset, int count) throws InterruptedException, IOException {
+		synchronized (pending) {
+			for (int i = offset; i < offset + count; i++) {
+				addByte(bytes[i]);
+			}
+		}
+	}
+
+	// a sync byte after some data ends a frame, the syncs before the data
+	// start the next one
+	private void addByte (byte bite) throws IOException {
+		pending[pendingCount++] = bite;
+		if (bite != SEND_SYNC_BYTE_1) {
+			pendingHasData = true;
+		}
+		if (((bite == SEND_SYNC_BYTE_1) && pendingHasData) || (pendingCount == pending.length)) {
+			sendSegment();
+		}
+	}
+
+	private void sendSegment () throws IOException {
+		int sequence = nextSendSequence;
+		nextSendSequence = (nextSendSequence + 1) & 0xFFFF;
+
+		byte bytes[] = new byte[2 + 2 * HEADER_LENGTH + pendingCount];
+		int count = 0;
+		bytes[count++] = SEND_ESCAPE_BYTE;
+		bytes[count++] = BOND_INDICATE_SEGMENT;
+		count = addEscaped(bytes, count, sequence);
+		count = addEscaped(bytes, count, sequence >>> 8);
+		count = addEscaped(bytes, count, pendingCount);
+		count = addEscaped(bytes, count, pendingCount >>> 8);
+		count = addEscaped(bytes, count, check(sequence, pendingCount));
+		System.arraycopy(pending, 0, bytes, count, pendingCount);
+		count += pendingCount;
+		pendingCount = 0;
+		pendingHasData = false;
+
+		if (!queueSegment(new Segment(sequence, Arrays.copyOf(bytes, count)), false)) {
+			throw new IOException("No ports left in the bond");
+		}
+	}
+
+	private static int addEscaped (byte bytes[], int index, int value) {
+		byte bite = (byte) value;
+		if (bite == SEND_SYNC_BYTE_1) {
+			bytes[index++] = SEND_ESCAPE_BYTE;
+			bytes[index++] = SEND_INDICATE_SYNC_1;
+		}
+		else if (bite == SEND_ESCAPE_BYTE) {
+			bytes[index++] = SEND_ESCAPE_BYTE;
+			bytes[index++] = SEND_INDICATE_ESCAPE;
+		}
+		else {
+			bytes[index++] = bite;
+		}
+		return index;
+	}
+
+	private static int check (int sequence, int length) {
+		return (sequence ^ (sequence >>> 8) ^ length ^ (length >>> 8) ^ 0xA5) & 0xFF;
+	}
+
+	// to the port that gets it out soonest, false if none are left
+	private boolean queueSegment (Segment segment, boolean first) {
+		while (true) {
+			Member best = null;
+			long bestFinish = Long.MAX_VALUE;
+			for (Member member : members) {
+				if (member.isAlive() && member.port.isOpen()) {
+					long finish = member.getFinishTime(segment.bytes.length);
+					if (finish < bestFinish) {
+						best = member;
+						bestFinish = finish;
+					}
+				}
+			}
+			if (best == null) {
+				return false;
+			}
+			if (best.queue(segment, first)) {
+				return true;
+			}
+			// it died while we were choosing, choose again
+		}
+	}
+
+	// takes the port out of the bond and hands its segments to the others
+	private void memberFailed (Member member, Exception cause) {
+		List<Segment> orphans = member.kill();
+		if (orphans == null) {
+			return;
+		}
+		synchronized (this) {
+			failovers++;
+			notifyAll();
+		}
+		System.out.println("Bonded port " + member.name + " failed, moving " + orphans.size() + " segments: " + cause);
+		// put back in front of what the others have, oldest first
+		for (int i = orphans.size() - 1; i >= 0; i--) {
+			if (!queueSegment(orphans.get(i), true)) {
+				System.out.println("Bonded port has no ports left");
+				return;
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+	// Reading, the segments in sequence order
+
+	public byte readByte () throws InterruptedException {
+		while ((current == null) || (currentIndex == current.length)) {
+			current = takeSegment();
+			currentIndex = 0;
+		}
+		return current[currentIndex++];
+	}
+
+	private synchronized byte[] takeSegment () throws InterruptedException {
+		while (true) {
+			if (!isOpen) {
+				// nothing more is coming, wait like a port with no input
+				wait();
+				continue;
+			}
+			int slot = expectedSequence % BOND_REORDER_WINDOW;
+			byte segment[] = reorder[slot];
+			if (segment != null) {
+				reorder[slot] = null;
+				bufferedCount--;
+				expectedSequence = (expectedSequence + 1) & 0xFFFF;
+				gapSince = 0;
+				return segment;
+			}
+			if (bufferedCount == 0) {
+				wait();
+				continue;
+			}
+			// later ones are in, this one may never come, the timer keeps
+			// running over a run of missing ones
+			long now = System.currentTimeMillis();
+			if (gapSince == 0) {
+				gapSince = now;
+			}
+			if (isPassedByAll(expectedSequence) || (now - gapSince >= BOND_REORDER_TIMEOUT)) {
+				segmentsLost++;
+				expectedSequence = (expectedSequence + 1) & 0xFFFF;
+				continue;
+			}
+			wait(BOND_REORDER_TIMEOUT - (now - gapSince));
+		}
+	}
+
+	// each port delivers its segments in order, so once all the working
+	// ones are past a segment it is lost
+	private boolean isPassedByAll (int sequence) {
+		boolean any = false;
+		for (Member member : members) {
+			if (member.isAlive()) {
+				if ((member.lastReceived < 0) || !isAfter(member.lastReceived, sequence)) {
+					return false;
+				}
+				any = true;
+			}
+		}
+		return any;
+	}
+
+	private static boolean isAfter (int sequence, int other) {
+		int ahead = (sequence - other) & 0xFFFF;
+		return (ahead != 0) && (ahead < 0x8000);
+	}
+
+	private synchronized void deliver (Member member, int sequence, byte segment[]) {
+		member.lastReceived = sequence;
+		member.segmentsReceived++;
+		int ahead = (sequence - expectedSequence) & 0xFFFF;
+		if (ahead >= BOND_REORDER_WINDOW) {
+			// a copy of one that was moved off a failed port, or one given
+			// up on, unless there are too many of them
+			if (++staleCount < STALE_RESTART) {
+				return;
+			}
+			Arrays.fill(reorder, null);
+			bufferedCount = 0;
+			expectedSequence = sequence;
+			gapSince = 0;
+			ahead = 0;
+		}
+		staleCount = 0;
+		int slot = sequence % BOND_REORDER_WINDOW;
+		if (reorder[slot] == null) {
+			reorder[slot] = segment;
+			bufferedCount++;
+			if (ahead > 0) {
+				segmentsEarly++;
+			}
+			notifyAll();
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public synchronized long getSegmentsEarly () {
+		return segmentsEarly;
+	}
+
+	public synchronized long getSegmentsLost () {
+		return segmentsLost;
+	}
+
+	public synchronized long getFailovers () {
+		return failovers;
+	}
+
+	public void describe () {
+		synchronized (this) {
+			System.out.println("Bonded port: " + members.size() + " ports, "
+							   + segmentsEarly + " early, " + segmentsLost + " lost, " + failovers + " failovers");
+		}
+		for (Member member : members) {
+			System.out.println("  " + member);
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+	// A segment on its way out
+
+	private static class Segment {
+		final int sequence;
+		final byte bytes[];
+
+		Segment (int sequence, byte bytes[]) {
+			this.sequence = sequence;
+			this.bytes = bytes;
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+	// One of the physical ports, with its writer and reader threads
+
+	private class Member {
+
+		final String name;
+		final LinkPortInterface port;
+		final int bytesPerSecond;
+
+		// guarded by this member, the segment being written stays at the
+		// front until it is out, alive is only changed with the lock held
+		private final LinkedList<Segment> queue = new LinkedList<Segment>();
+		private int queuedBytes = 0;
+		private volatile boolean alive = false;
+		private long segmentsSent = 0;
+		private long bytesSent = 0;
+
+		// changed with the bond's lock held, the bond takes its lock before
+		// a member's, never the other way round
+		volatile int lastReceived = -1;
+		volatile long segmentsReceived = 0;
+
+		private Thread writer = null;
+		private Thread reader = null;
+
+		Member (String name, LinkPortInterface port, int bytesPerSecond) {
+			this.name = name;
+			this.port = port;
+			this.bytesPerSecond = bytesPerSecond;
+		}
+
+		// with the bond's lock held
+		synchronized void reset (boolean open) {
+			queue.clear();
+			queuedBytes = 0;
+			alive = open;
+			lastReceived = -1;
+		}
+
+		boolean isAlive () {
+			return alive;
+		}
+
+		// milliseconds until a segment of count bytes would be out
+		synchronized long getFinishTime (int count) {
+			return ((long) (queuedBytes + count) * 1000) / bytesPerSecond;
+		}
+
+		synchronized boolean queue (Segment segment, boolean first) {
+			if (!alive) {
+				return false;
+			}
+			if (first) {
+				queue.addFirst(segment);
+			}
+			else {
+				queue.addLast(segment);
+			}
+			queuedBytes += segment.bytes.length;
+			notifyAll();
+			return true;
+		}
+
+		// null if it was already dead
+		synchronized List<Segment> kill () {
+			if (!alive) {
+				return null;
+			}
+			alive = false;
+			List<Segment> orphans = new ArrayList<Segment>(queue);
+			queue.clear();
+			queuedBytes = 0;
+			notifyAll();
+			return orphans;
+		}
+
+		// --------------------------------------------------------------------------------
+
+		void startThreads () {
+			writer = new Thread(new Runnable() {
+				public void run () {
+					runWriter();
+				}
+			}, "Bond " + name + " Writer");
+			reader = new Thread(new Runnable() {
+				public void run () {
+					runReader();
+				}
+			}, "Bond " + name + " Reader");
+			System.out.println("Starting " + writer.getName() + " thread");
+			writer.start();
+			System.out.println("Starting " + reader.getName() + " thread");
+			reader.start();
+		}
+
+		void stopThreads () {
+			if (writer != null) {
+				writer.interrupt();
+				writer = null;
+			}
+			if (reader != null) {
+				reader.interrupt();
+				reader = null;
+			}
+		}
+
+		private void runWriter () {
+			try {
+				while (isOpen) {
+					Segment segment;
+					synchronized (this) {
+						while (alive && queue.isEmpty()) {
+							wait();
+						}
+						if (!alive) {
+							break;
+						}
+						segment = queue.getFirst();
+					}
+					port.writeBytes(segment.bytes, 0, segment.bytes.length);
+					synchronized (this) {
+						// unless it was moved off in the meantime
+						if (queue.remove(segment)) {
+							queuedBytes -= segment.bytes.length;
+						}
+						segmentsSent++;
+						bytesSent += segment.bytes.length;
+					}
+				}
+			} catch (InterruptedException e) {
+				// closing
+			} catch (IOException e) {
+				memberFailed(this, e);
+			} catch (RuntimeException e) {
+				memberFailed(this, e);
+			}
+		}
+
+		private void runReader () {
+			byte body[] = new byte[BOND_MAX_SEGMENT_LENGTH];
+			boolean started = false;
+			try {
+				while (isOpen) {
+					if (!started) {
+						findStart();
+					}
+					started = readSegment(body);
+				}
+			} catch (InterruptedException e) {
+				// closing
+			}
+		}
+
+		private void findStart () throws InterruptedException {
+			byte bite = port.readByte();
+			while (true) {
+				if (bite != SEND_ESCAPE_BYTE) {
+					bite = port.readByte();
+				}
+				else if ((bite = port.readByte()) == BOND_INDICATE_SEGMENT) {
+					return;
+				}
+			}
+		}
+
+		// after the start, true if the start of the next segment turned up
+		// where this one should have been
+		private boolean readSegment (byte body[]) throws InterruptedException {
+			int header[] = new int[HEADER_LENGTH];
+			for (int i = 0; i < HEADER_LENGTH; i++) {
+				int value = readEscaped();
+				if (value == NEXT_SEGMENT) {
+					return true;
+				}
+				if (value < 0) {
+					return false;
+				}
+				header[i] = value;
+			}
+			int sequence = header[0] | (header[1] << 8);
+			int length = header[2] | (header[3] << 8);
+			if ((header[4] != check(sequence, length)) || (length > body.length)) {
+				return false;
+			}
+			byte previous = 0;
+			for (int i = 0; i < length; i++) {
+				byte bite = port.readByte();
+				if ((previous == SEND_ESCAPE_BYTE) && (bite == BOND_INDICATE_SEGMENT)) {
+					// cut short
+					return true;
+				}
+				body[i] = bite;
+				previous = bite;
+			}
+			deliver(this, sequence, Arrays.copyOf(body, length));
+			return false;
+		}
+
+		private static final int BAD_BYTE = -1;
+		private static final int NEXT_SEGMENT = -2;
+
+		private int readEscaped () throws InterruptedException {
+			byte bite = port.readByte();
+			if (bite == SEND_SYNC_BYTE_1) {
+				return BAD_BYTE;
+			}
+			if (bite != SEND_ESCAPE_BYTE) {
+				return bite & 0xFF;
+			}
+			switch (port.readByte()) {
+			case SEND_INDICATE_SYNC_1:
+				return SEND_SYNC_BYTE_1 & 0xFF;
+			case SEND_INDICATE_ESCAPE:
+				return SEND_ESCAPE_BYTE & 0xFF;
+			case BOND_INDICATE_SEGMENT:
+				return NEXT_SEGMENT;
+			default:
+				return BAD_BYTE;
+			}
+		}
+
+		// --------------------------------------------------------------------------------
+
+		public synchronized String toString () {
+			return name + (alive ? "" : " (failed)") + ": " + bytesPerSecond + " bytes/s, "
+				   + segmentsSent + " segments sent, " + bytesSent + " bytes, "
+				   + queue.size() + " queued, " + segmentsReceived + " received";
+		}
+
+	}
+
+}
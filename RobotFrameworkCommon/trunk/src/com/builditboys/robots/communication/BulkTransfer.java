@@ -0,0 +1,141 @@
+package com.builditboys.robots.communication;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import com.builditboys.robots.time.SystemTimeSystem;
+
+// One blob on its way through a BulkTransferProtocol, either end of it.
+// The receiver thread updates it as messages come in, the thread driving
+// the transfer waits for that with waitForChange. Everything is guarded by
+// the transfer's lock.
+
+public class BulkTransfer {
+
+	public enum TransferStateEnum {
+		REQUESTING,   // sink, waiting for the offer
+		OFFERING,     // source, waiting for the accept
+		SENDING,
+		RECEIVING,
+		DONE,
+		FAILED;
+	}
+
+	public static final long NO_RESUME = -1;
+
+	final int transferId;
+	final String name;
+	final boolean source;
+
+	TransferStateEnum state;
+	String failure = null;
+	private long version = 0;
+
+	FileChannel file = null;
+	long size = 0;
+	int crc = 0;
+
+	// source, everything before acked is stored at the sink, resumeAt is
+	// where the sink last asked for data to start
+	long acked = 0;
+	int window = 1;
+	long resumeAt = NO_RESUME;
+	boolean restart = false;
+
+	// sink, the blob goes into partFile and is renamed to finalFile once
+	// the crc checks out
+	File partFile = null;
+	File finalFile = null;
+	long received = 0;
+	int sinceAck = 0;
+	boolean gapReported = false;
+	CRC32 crc32 = null;
+	int doneStatus = 0;
+
+	// either, times the whole blob was sent again after a crc mismatch
+	int restarts = 0;
+
+	// --------------------------------------------------------------------------------
+	// Constructor, see BulkTransferProtocol
+
+	BulkTransfer (int transferId, String name, boolean source, TransferStateEnum state) {
+		this.transferId = transferId;
+		this.name = name;
+		this.source = source;
+		this.state = state;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Waiting for the other side
+
+	// call with the lock held after changing anything
+	void changed () {
+		version++;
+		notifyAll();
+	}
+
+	synchronized long getVersion () {
+		return version;
+	}
+
+	// returns the version, the same one as seen if the time ran out
+	synchronized long waitForChange (long seen, long timeout) throws InterruptedException {
+		long end = SystemTimeSystem.currentTime() + timeout;
+		long now;
+		while ((version == seen) && ((now = SystemTimeSystem.currentTime()) < end)) {
+			wait(end - now);
+		}
+		return version;
+	}
+
+	synchronized void fail (String why) {
+		if ((state != TransferStateEnum.DONE) && (state != TransferStateEnum.FAILED)) {
+			state = TransferStateEnum.FAILED;
+			failure = why;
+			changed();
+		}
+	}
+
+	synchronized boolean isFinished () {
+		return (state == TransferStateEnum.DONE) || (state == TransferStateEnum.FAILED);
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public int getTransferId () {
+		return transferId;
+	}
+
+	public String getName () {
+		return name;
+	}
+
+	public boolean isSource () {
+		return source;
+	}
+
+	public synchronized TransferStateEnum getState () {
+		return state;
+	}
+
+	public synchronized String getFailure () {
+		return failure;
+	}
+
+	public synchronized long getSize () {
+		return size;
+	}
+
+	// bytes safely at the sink so far
+	public synchronized long getTransferred () {
+		return source ? acked : received;
+	}
+
+	public synchronized String toString () {
+		return "Bulk transfer " + transferId + " " + (source ? "sending " : "receiving ") + name
+			   + " " + state + " " + getTransferred() + " of " + size
+			   + ((failure != null) ? " (" + failure + ")" : "");
+	}
+
+}
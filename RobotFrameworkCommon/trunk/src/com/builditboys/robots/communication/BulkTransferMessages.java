@@ -0,0 +1,250 @@
+package com.builditboys.robots.communication;
+
+import java.nio.ByteBuffer;
+
+import com.builditboys.robots.utilities.FillableBuffer;
+
+// Generated by MessageGenerator from bulk_transfer.msgs, do not edit.
+// Encoders write straight into the buffer and decoders read the fields
+// where they sit, neither allocates anything. Lengths include the
+// indicator byte.
+
+public final class BulkTransferMessages {
+
+	private BulkTransferMessages () {
+	}
+
+	//--------------------------------------------------------------------------------
+	// Indicators
+
+	public static final int BT_OFFER = 0;
+	public static final int BT_REQUEST = 1;
+	public static final int BT_ACCEPT = 2;
+	public static final int BT_DATA = 3;
+	public static final int BT_ACK = 4;
+	public static final int BT_DONE = 5;
+	public static final int BT_ABORT = 6;
+
+	public static final int LARGEST_INDICATOR = 6;
+
+	//--------------------------------------------------------------------------------
+	// Lengths
+
+	public static final int BT_OFFER_LENGTH = 10;
+	public static final int BT_REQUEST_LENGTH = 2;
+	public static final int BT_ACCEPT_LENGTH = 7;
+	public static final int BT_DATA_LENGTH = 6;
+	public static final int BT_ACK_LENGTH = 7;
+	public static final int BT_DONE_LENGTH = 3;
+	public static final int BT_ABORT_LENGTH = 3;
+
+	public static final int MAX_LENGTH = 10;
+
+	// the length a message with the indicator should have, -1 if there is no such message
+	public static int messageLength (int indicator) {
+		switch (indicator) {
+		case BT_OFFER:
+			return BT_OFFER_LENGTH;
+		case BT_REQUEST:
+			return BT_REQUEST_LENGTH;
+		case BT_ACCEPT:
+			return BT_ACCEPT_LENGTH;
+		case BT_DATA:
+			return BT_DATA_LENGTH;
+		case BT_ACK:
+			return BT_ACK_LENGTH;
+		case BT_DONE:
+			return BT_DONE_LENGTH;
+		case BT_ABORT:
+			return BT_ABORT_LENGTH;
+		default:
+			return -1;
+		}
+	}
+
+	public static int getIndicator (FillableBuffer buff) {
+		return buff.reConstructBytes1At(0) & 0xFF;
+	}
+
+	// true if the message ends in bytes, its length is then the least it can be
+	public static boolean hasTrailingBytes (int indicator) {
+		switch (indicator) {
+		case BT_OFFER:
+		case BT_REQUEST:
+		case BT_DATA:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	// true if the indicator is known and the message is at least as long as it should be,
+	// older peers pad messages with no arguments and newer ones may add fields at the end
+	public static boolean isWellFormed (FillableBuffer buff) {
+		if (buff.size() == 0) {
+			return false;
+		}
+		int length = messageLength(getIndicator(buff));
+		return (length > 0) && (buff.size() >= length);
+	}
+
+	//--------------------------------------------------------------------------------
+	// Offer
+
+	// add the name bytes after this
+	public static void encodeOffer (FillableBuffer buff, int transferId, int size, int crc) {
+		buff.deConstructBytes1(BT_OFFER);
+		buff.deConstructBytes1(transferId);
+		buff.deConstructBytes4(size);
+		buff.deConstructBytes4(crc);
+	}
+
+	public static int getOfferTransferId (FillableBuffer buff) {
+		return buff.reConstructBytes1At(1) & 0xFF;
+	}
+
+	public static int getOfferSize (FillableBuffer buff) {
+		return buff.reConstructBytes4At(2);
+	}
+
+	public static int getOfferCrc (FillableBuffer buff) {
+		return buff.reConstructBytes4At(6);
+	}
+
+	public static int getOfferNameLength (FillableBuffer buff) {
+		return buff.size() - 10;
+	}
+
+	// a read only view, nothing is copied
+	public static ByteBuffer getOfferName (FillableBuffer buff) {
+		return buff.asByteBuffer(10, buff.size() - 10);
+	}
+
+	//--------------------------------------------------------------------------------
+	// Request
+
+	// add the name bytes after this
+	public static void encodeRequest (FillableBuffer buff, int transferId) {
+		buff.deConstructBytes1(BT_REQUEST);
+		buff.deConstructBytes1(transferId);
+	}
+
+	public static int getRequestTransferId (FillableBuffer buff) {
+		return buff.reConstructBytes1At(1) & 0xFF;
+	}
+
+	public static int getRequestNameLength (FillableBuffer buff) {
+		return buff.size() - 2;
+	}
+
+	// a read only view, nothing is copied
+	public static ByteBuffer getRequestName (FillableBuffer buff) {
+		return buff.asByteBuffer(2, buff.size() - 2);
+	}
+
+	//--------------------------------------------------------------------------------
+	// Accept
+
+	public static void encodeAccept (FillableBuffer buff, int transferId, int offset, int window) {
+		buff.deConstructBytes1(BT_ACCEPT);
+		buff.deConstructBytes1(transferId);
+		buff.deConstructBytes4(offset);
+		buff.deConstructBytes1(window);
+	}
+
+	public static int getAcceptTransferId (FillableBuffer buff) {
+		return buff.reConstructBytes1At(1) & 0xFF;
+	}
+
+	public static int getAcceptOffset (FillableBuffer buff) {
+		return buff.reConstructBytes4At(2);
+	}
+
+	public static int getAcceptWindow (FillableBuffer buff) {
+		return buff.reConstructBytes1At(6) & 0xFF;
+	}
+
+	//--------------------------------------------------------------------------------
+	// Data
+
+	// add the data bytes after this
+	public static void encodeData (FillableBuffer buff, int transferId, int offset) {
+		buff.deConstructBytes1(BT_DATA);
+		buff.deConstructBytes1(transferId);
+		buff.deConstructBytes4(offset);
+	}
+
+	public static int getDataTransferId (FillableBuffer buff) {
+		return buff.reConstructBytes1At(1) & 0xFF;
+	}
+
+	public static int getDataOffset (FillableBuffer buff) {
+		return buff.reConstructBytes4At(2);
+	}
+
+	public static int getDataDataLength (FillableBuffer buff) {
+		return buff.size() - 6;
+	}
+
+	// a read only view, nothing is copied
+	public static ByteBuffer getDataData (FillableBuffer buff) {
+		return buff.asByteBuffer(6, buff.size() - 6);
+	}
+
+	//--------------------------------------------------------------------------------
+	// Ack
+
+	public static void encodeAck (FillableBuffer buff, int transferId, int offset, int window) {
+		buff.deConstructBytes1(BT_ACK);
+		buff.deConstructBytes1(transferId);
+		buff.deConstructBytes4(offset);
+		buff.deConstructBytes1(window);
+	}
+
+	public static int getAckTransferId (FillableBuffer buff) {
+		return buff.reConstructBytes1At(1) & 0xFF;
+	}
+
+	public static int getAckOffset (FillableBuffer buff) {
+		return buff.reConstructBytes4At(2);
+	}
+
+	public static int getAckWindow (FillableBuffer buff) {
+		return buff.reConstructBytes1At(6) & 0xFF;
+	}
+
+	//--------------------------------------------------------------------------------
+	// Done
+
+	public static void encodeDone (FillableBuffer buff, int transferId, int status) {
+		buff.deConstructBytes1(BT_DONE);
+		buff.deConstructBytes1(transferId);
+		buff.deConstructBytes1(status);
+	}
+
+	public static int getDoneTransferId (FillableBuffer buff) {
+		return buff.reConstructBytes1At(1) & 0xFF;
+	}
+
+	public static int getDoneStatus (FillableBuffer buff) {
+		return buff.reConstructBytes1At(2) & 0xFF;
+	}
+
+	//--------------------------------------------------------------------------------
+	// Abort
+
+	public static void encodeAbort (FillableBuffer buff, int transferId, int reason) {
+		buff.deConstructBytes1(BT_ABORT);
+		buff.deConstructBytes1(transferId);
+		buff.deConstructBytes1(reason);
+	}
+
+	public static int getAbortTransferId (FillableBuffer buff) {
+		return buff.reConstructBytes1At(1) & 0xFF;
+	}
+
+	public static int getAbortReason (FillableBuffer buff) {
+		return buff.reConstructBytes1At(2) & 0xFF;
+	}
+
+}
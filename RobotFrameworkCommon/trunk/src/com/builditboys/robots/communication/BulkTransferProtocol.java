@@ -0,0 +1,815 @@
+package com.builditboys.robots.communication;
+
+import static com.builditboys.robots.communication.BulkTransferMessages.*;
+import static com.builditboys.robots.communication.LinkParameters.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+import com.builditboys.robots.communication.BulkTransfer.TransferStateEnum;
+
+// Moves blobs of many kilobytes, logs, course files, parameter dumps, over
+// the link on a channel of their own. The channel is a background one, so
+// the blobs only get the link when nothing else wants it.
+//
+// The source offers the blob with its size and CRC32, the sink accepts it
+// from the offset it already has, so an interrupted transfer picks up where
+// it stopped, and the source then streams data messages, at most a window
+// of them ahead of the sink's last ack. Anything that goes missing, the
+// sink asks again from where it is, or the source times out and goes back
+// to the last ack. Once it has everything the sink checks the CRC32 and
+// says how it went, a blob that does not check out is sent again from
+// the start a few times before the transfer fails.
+//
+// Blobs are read and written through FileChannels a message at a time, a
+// blob is never held in memory. The sink writes to <name>.<crc>.part and
+// renames it to <name> when it checks out, a part file for a different
+// blob of the same name is not resumed.
+//
+// The thread that calls sendFile or receiveFile drives the transfer, the
+// receiver thread only answers. Blobs the other side offers or requests
+// are only taken from and put in the directories given to
+// setReceiveDirectory and setSendDirectory, and only with plain names.
+
+public class BulkTransferProtocol extends AbstractProtocol {
+
+	private static final AbstractProtocol REPRESENTATIVE = new BulkTransferProtocol();
+
+	private static final int MY_CHANNEL_NUMBER = BULK_TRANSFER_CHANNEL_NUMBER;
+
+	// room for a window of data and the odd answer for a transfer going
+	// the other way
+	private static final int CHANNEL_CAPACITY = 2 * BULK_TRANSFER_WINDOW + 4;
+
+	private static final Charset NAME_CHARSET = Charset.forName("US-ASCII");
+	private static final String NAME_PATTERN = "[A-Za-z0-9_][A-Za-z0-9_.-]*";
+
+	// done status and abort reasons - keep in sync with the PSoC
+	public static final int STATUS_OK = 0;
+	public static final int STATUS_CRC_MISMATCH = 1;
+
+	public static final int REASON_REFUSED = 1;
+	public static final int REASON_IO_ERROR = 2;
+	public static final int REASON_GAVE_UP = 3;
+
+	// the transfers by id, kept after they finish so that a lost DONE can be
+	// sent again, the master numbers its transfers from the bottom half and
+	// the slave from the top, so the two never pick the same id, the table
+	// is on the output protocol
+	private final BulkTransfer transfers[] = new BulkTransfer[256];
+	private int lastTransferId = 0;
+
+	private volatile File receiveDirectory = null;
+	private volatile File sendDirectory = null;
+
+	// for updating the sink's crc, only the receiver thread uses it
+	private byte crcBytes[] = null;
+
+	// --------------------------------------------------------------------------------
+	// Constructors -- you don't construct a protocol directly, use addProtocolToLink
+
+	// for the indicator
+	private BulkTransferProtocol() {
+	}
+
+	// for the real protocol objects
+	private BulkTransferProtocol(ProtocolRoleEnum rol) {
+		protocolRole = rol;
+	}
+
+	//--------------------------------------------------------------------------------
+	// Channel factories
+
+	public InputChannel getInputChannel () {
+		channel = new InputChannel(this, MY_CHANNEL_NUMBER);
+		return (InputChannel) channel;
+	}
+
+	public OutputChannel getOutputChannel () {
+		channel = new OutputChannel(this, MY_CHANNEL_NUMBER, CHANNEL_CAPACITY);
+		channel.setBackground(true);
+		return (OutputChannel) channel;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public static AbstractProtocol getRepresentative() {
+		return REPRESENTATIVE;
+	}
+
+	public AbstractProtocol getInstanceRepresentative() {
+		return REPRESENTATIVE;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public static void addProtocolToLink (AbstractLink link, ProtocolRoleEnum rol) {
+		BulkTransferProtocol iproto = new BulkTransferProtocol(rol);
+		BulkTransferProtocol oproto = new BulkTransferProtocol(rol);
+		link.addProtocol(iproto, oproto);
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public static BulkTransferProtocol getLinkInputProtocol (AbstractLink link) {
+		return (BulkTransferProtocol) link.getInputProtocol(REPRESENTATIVE);
+	}
+
+	public static BulkTransferProtocol getLinkOutputProtocol (AbstractLink link) {
+		return (BulkTransferProtocol) link.getOutputProtocol(REPRESENTATIVE);
+	}
+
+	// the side that sends, and keeps the transfers
+	private BulkTransferProtocol getOutputSide () {
+		if ((channel instanceof InputChannel) && (oppositeProtocol != null)) {
+			return (BulkTransferProtocol) oppositeProtocol;
+		}
+		return this;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Where the blobs the other side offers go, and where the ones it asks
+	// for come from, null to refuse them, set them on the output protocol
+
+	public void setReceiveDirectory (File directory) {
+		getOutputSide().receiveDirectory = directory;
+	}
+
+	public void setSendDirectory (File directory) {
+		getOutputSide().sendDirectory = directory;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Sending a blob, returns once the other side has checked it, call it on
+	// the output protocol
+
+	public void sendFile (String name, FileChannel file) throws IOException, InterruptedException {
+		checkName(name);
+		runSource(newTransfer(name, true, TransferStateEnum.OFFERING), file);
+	}
+
+	private void runSource (BulkTransfer transfer, FileChannel file) throws IOException, InterruptedException {
+		long size = file.size();
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Blob too big for a bulk transfer: " + size);
+		}
+		int crc = computeCRC(file, size);
+		synchronized (transfer) {
+			transfer.file = file;
+			transfer.size = size;
+			transfer.crc = crc;
+		}
+		try {
+			sendOffer(transfer);
+			streamData(transfer);
+		} finally {
+			transfer.fail("Stopped");
+		}
+	}
+
+	// the window is counted in data messages, anything not acked in time is
+	// sent again from the last ack
+	private void streamData (BulkTransfer transfer) throws IOException, InterruptedException {
+		int retries = 0;
+		long next = 0;
+		long lastAcked = -1;
+		while (true) {
+			long seen = transfer.getVersion();
+			TransferStateEnum state;
+			long acked;
+			int window;
+			boolean restart;
+			synchronized (transfer) {
+				restart = transfer.restart;
+				transfer.restart = false;
+				state = transfer.state;
+				acked = transfer.acked;
+				window = transfer.window;
+				if (transfer.resumeAt != BulkTransfer.NO_RESUME) {
+					next = transfer.resumeAt;
+					transfer.resumeAt = BulkTransfer.NO_RESUME;
+				}
+			}
+
+			if (state == TransferStateEnum.DONE) {
+				return;
+			}
+			if (state == TransferStateEnum.FAILED) {
+				throw new IOException(transfer.toString());
+			}
+			if (restart) {
+				next = 0;
+				lastAcked = -1;
+				sendOffer(transfer);
+			}
+
+			boolean queueFull = false;
+			if (state == TransferStateEnum.SENDING) {
+				if (acked != lastAcked) {
+					retries = 0;
+					lastAcked = acked;
+				}
+				int chunk = getChunkLength();
+				while ((next < transfer.size) && (next < acked + (long) window * chunk)) {
+					int count = sendData(transfer, next, chunk);
+					if (count == 0) {
+						queueFull = true;
+						break;
+					}
+					next += count;
+				}
+			}
+
+			if (queueFull) {
+				// the sender is behind, this is not the other side's fault
+				transfer.waitForChange(seen, BULK_TRANSFER_QUEUE_WAIT);
+			}
+			else if (transfer.waitForChange(seen, BULK_TRANSFER_TIMEOUT) == seen) {
+				if (++retries > BULK_TRANSFER_RETRIES) {
+					sendAbort(transfer.transferId, REASON_GAVE_UP);
+					transfer.fail("No answer from the other side");
+				}
+				else if ((state == TransferStateEnum.OFFERING) || (acked >= transfer.size)) {
+					// a repeated offer gets the accept, or the done, again
+					sendOffer(transfer);
+				}
+				else {
+					next = acked;
+				}
+			}
+		}
+	}
+
+	// the data that fits in a message, after the negotiated payload limit
+	private int getChunkLength () {
+		return channel.getLink().getAgreedCapabilities().getMaxPayloadLength() - BT_DATA_LENGTH;
+	}
+
+	// returns how much went out, 0 if the channel is full
+	private int sendData (BulkTransfer transfer, long offset, int chunk) throws IOException {
+		int count = (int) Math.min(chunk, transfer.size - offset);
+		LinkMessage message = newMessage(BT_DATA_LENGTH + count, false);
+		encodeData(message, transfer.transferId, (int) offset);
+		while (message.size() < BT_DATA_LENGTH + count) {
+			int got = message.addBytes(transfer.file, offset + message.size() - BT_DATA_LENGTH,
+									   BT_DATA_LENGTH + count - message.size());
+			if (got < 0) {
+				throw new IOException("Blob " + transfer.name + " got shorter while it was being sent");
+			}
+		}
+		try {
+			channel.addMessage(message);
+		} catch (IllegalStateException e) {
+			return 0;
+		}
+		return count;
+	}
+
+	// streams the file through the crc a chunk at a time
+	private static int computeCRC (FileChannel file, long size) throws IOException {
+		CRC32 crc32 = new CRC32();
+		byte bytes[] = new byte[MAX_PAYLOAD_LEN];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		long position = 0;
+		while (position < size) {
+			buffer.clear();
+			int got = file.read(buffer, position);
+			if (got < 0) {
+				break;
+			}
+			crc32.update(bytes, 0, got);
+			position += got;
+		}
+		return (int) crc32.getValue();
+	}
+
+	// --------------------------------------------------------------------------------
+	// Fetching a blob from the other side into the receive directory,
+	// returns the file once it has checked out, call it on the output
+	// protocol
+
+	public File receiveFile (String name) throws IOException, InterruptedException {
+		checkName(name);
+		if (receiveDirectory == null) {
+			throw new IllegalStateException("No receive directory");
+		}
+		BulkTransfer transfer = newTransfer(name, false, TransferStateEnum.REQUESTING);
+		try {
+			sendRequest(transfer);
+			// the source drives the data, this just keeps asking if it
+			// goes quiet
+			int retries = 0;
+			while (true) {
+				long seen = transfer.getVersion();
+				TransferStateEnum state = transfer.getState();
+				if (state == TransferStateEnum.DONE) {
+					return transfer.finalFile;
+				}
+				if (state == TransferStateEnum.FAILED) {
+					throw new IOException(transfer.toString());
+				}
+				if (transfer.waitForChange(seen, BULK_TRANSFER_TIMEOUT) != seen) {
+					retries = 0;
+				}
+				else if (++retries > BULK_TRANSFER_RETRIES) {
+					sendAbort(transfer.transferId, REASON_GAVE_UP);
+					transfer.fail("No answer from the other side");
+				}
+				else if (state == TransferStateEnum.REQUESTING) {
+					sendRequest(transfer);
+				}
+				else {
+					synchronized (transfer) {
+						sendAccept(transfer.transferId, transfer.received);
+					}
+				}
+			}
+		} finally {
+			synchronized (transfer) {
+				closeSink(transfer);
+			}
+			transfer.fail("Stopped");
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+	// Transfers
+
+	private BulkTransfer newTransfer (String name, boolean source, TransferStateEnum state) {
+		synchronized (transfers) {
+			int base = (protocolRole == ProtocolRoleEnum.MASTER) ? 0 : 128;
+			for (int tries = 0; tries < 127; tries++) {
+				lastTransferId = (lastTransferId % 127) + 1;
+				BulkTransfer old = transfers[base + lastTransferId];
+				if ((old == null) || old.isFinished()) {
+					BulkTransfer transfer = new BulkTransfer(base + lastTransferId, name, source, state);
+					transfers[transfer.transferId] = transfer;
+					return transfer;
+				}
+			}
+		}
+		throw new IllegalStateException("Too many bulk transfers");
+	}
+
+	private BulkTransfer getTransfer (int transferId) {
+		synchronized (transfers) {
+			return transfers[transferId];
+		}
+	}
+
+	private void putTransfer (BulkTransfer transfer) {
+		synchronized (transfers) {
+			transfers[transfer.transferId] = transfer;
+		}
+	}
+
+	private static void checkName (String name) {
+		if (!name.matches(NAME_PATTERN)) {
+			throw new IllegalArgumentException("Bad blob name: " + name);
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+	// Sending messages, the ones that are not data
+
+	private void sendOffer (BulkTransfer transfer) {
+		byte nameBytes[] = transfer.name.getBytes(NAME_CHARSET);
+		LinkMessage message = newMessage(BT_OFFER_LENGTH + nameBytes.length, false);
+		synchronized (transfer) {
+			encodeOffer(message, transfer.transferId, (int) transfer.size, transfer.crc);
+		}
+		message.addBytes(nameBytes);
+		addMessage(message);
+	}
+
+	private void sendRequest (BulkTransfer transfer) {
+		byte nameBytes[] = transfer.name.getBytes(NAME_CHARSET);
+		LinkMessage message = newMessage(BT_REQUEST_LENGTH + nameBytes.length, false);
+		encodeRequest(message, transfer.transferId);
+		message.addBytes(nameBytes);
+		addMessage(message);
+	}
+
+	private void sendAccept (int transferId, long offset) {
+		LinkMessage message = newMessage(BT_ACCEPT_LENGTH, false);
+		encodeAccept(message, transferId, (int) offset, BULK_TRANSFER_WINDOW);
+		addMessage(message);
+	}
+
+	private void sendAck (int transferId, long offset) {
+		LinkMessage message = newMessage(BT_ACK_LENGTH, false);
+		encodeAck(message, transferId, (int) offset, BULK_TRANSFER_WINDOW);
+		addMessage(message);
+	}
+
+	private void sendDone (int transferId, int status) {
+		LinkMessage message = newMessage(BT_DONE_LENGTH, false);
+		encodeDone(message, transferId, status);
+		addMessage(message);
+	}
+
+	private void sendAbort (int transferId, int reason) {
+		LinkMessage message = newMessage(BT_ABORT_LENGTH, false);
+		encodeAbort(message, transferId, reason);
+		addMessage(message);
+	}
+
+	// these are small and the other side asks again, so a full channel
+	// just drops them
+	private void addMessage (LinkMessage message) {
+		try {
+			channel.addMessage(message);
+		} catch (IllegalStateException e) {
+			System.out.println("Bulk transfer channel full, dropped " + getIndicator(message));
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+	// Receiving messages, on the input protocol, the answers go out through
+	// the output protocol
+
+	// the messages are handled in place and not kept
+	protected boolean receivesMessageViews () {
+		return true;
+	}
+
+	public void receiveMessage (LinkMessage message) throws InterruptedException {
+		if (!isWellFormed(message)) {
+			throw new IllegalArgumentException("Malformed bulk transfer message: " + getIndicator(message));
+		}
+		BulkTransferProtocol out = getOutputSide();
+		int indicator = getIndicator(message);
+		switch (indicator) {
+		// sink side
+		case BT_OFFER:
+			out.receivedOffer(message);
+			break;
+		case BT_DATA:
+			out.receivedData(message);
+			break;
+
+		// source side
+		case BT_REQUEST:
+			out.receivedRequest(message);
+			break;
+		case BT_ACCEPT:
+			out.receivedAccept(getAcceptTransferId(message), getAcceptOffset(message), getAcceptWindow(message));
+			break;
+		case BT_ACK:
+			out.receivedAck(getAckTransferId(message), getAckOffset(message), getAckWindow(message));
+			break;
+		case BT_DONE:
+			out.receivedDone(getDoneTransferId(message), getDoneStatus(message));
+			break;
+
+		// either
+		case BT_ABORT:
+			out.receivedAbort(getAbortTransferId(message), getAbortReason(message));
+			break;
+
+		default:
+			throw new IllegalArgumentException("Unknown bulk transfer message: " + indicator);
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+	// Sink side
+
+	private void receivedOffer (LinkMessage message) {
+		int transferId = getOfferTransferId(message);
+		String name = NAME_CHARSET.decode(getOfferName(message)).toString();
+		BulkTransfer transfer = getTransfer(transferId);
+
+		// a blob the other side pushed, unless it answers a request
+		if ((transfer == null) || transfer.source
+				|| (transfer.isFinished() && !isSameBlob(transfer, message))) {
+			if ((receiveDirectory == null) || !name.matches(NAME_PATTERN)) {
+				sendAbort(transferId, REASON_REFUSED);
+				return;
+			}
+			transfer = new BulkTransfer(transferId, name, false, TransferStateEnum.REQUESTING);
+			putTransfer(transfer);
+		}
+
+		synchronized (transfer) {
+			switch (transfer.state) {
+			case REQUESTING:
+				transfer.size = getOfferSize(message) & 0xFFFFFFFFL;
+				transfer.crc = getOfferCrc(message);
+				try {
+					openSink(transfer);
+				} catch (IOException e) {
+					closeSink(transfer);
+					transfer.fail(e.toString());
+					sendAbort(transferId, REASON_IO_ERROR);
+					return;
+				}
+				transfer.state = TransferStateEnum.RECEIVING;
+				transfer.changed();
+				if (transfer.received == transfer.size) {
+					finishSink(transfer);
+					return;
+				}
+				sendAccept(transferId, transfer.received);
+				break;
+			case RECEIVING:
+				// the accept got lost
+				sendAccept(transferId, transfer.received);
+				break;
+			case DONE:
+				// the done got lost
+				sendDone(transferId, transfer.doneStatus);
+				break;
+			default:
+				sendAbort(transferId, REASON_GAVE_UP);
+				break;
+			}
+		}
+	}
+
+	private static boolean isSameBlob (BulkTransfer transfer, LinkMessage message) {
+		synchronized (transfer) {
+			return (transfer.size == (getOfferSize(message) & 0xFFFFFFFFL))
+				   && (transfer.crc == getOfferCrc(message));
+		}
+	}
+
+	// picks up a part file of the same blob, the crc so far is worked out
+	// from what is in it
+	private void openSink (BulkTransfer transfer) throws IOException {
+		transfer.finalFile = new File(receiveDirectory, transfer.name);
+		transfer.partFile = new File(receiveDirectory, transfer.name + "." + Integer.toHexString(transfer.crc) + ".part");
+		transfer.file = new RandomAccessFile(transfer.partFile, "rw").getChannel();
+		long have = transfer.file.size();
+		if (have > transfer.size) {
+			transfer.file.truncate(0);
+			have = 0;
+		}
+		transfer.crc32 = new CRC32();
+		LinkMessage chunk = new LinkMessage(MY_CHANNEL_NUMBER);
+		long position = 0;
+		while (position < have) {
+			chunk.reset();
+			int got = chunk.addBytes(transfer.file, position, (int) Math.min(MAX_PAYLOAD_LEN, have - position));
+			if (got <= 0) {
+				break;
+			}
+			updateCRC(transfer, chunk.asByteBuffer());
+			position += got;
+		}
+		transfer.received = position;
+		transfer.sinceAck = 0;
+		transfer.gapReported = false;
+	}
+
+	private void receivedData (LinkMessage message) {
+		int transferId = getDataTransferId(message);
+		BulkTransfer transfer = getTransfer(transferId);
+		if ((transfer == null) || transfer.source) {
+			sendAbort(transferId, REASON_GAVE_UP);
+			return;
+		}
+		synchronized (transfer) {
+			if (transfer.state != TransferStateEnum.RECEIVING) {
+				// late data for a finished transfer
+				return;
+			}
+			long offset = getDataOffset(message) & 0xFFFFFFFFL;
+			int count = getDataDataLength(message);
+			if ((offset != transfer.received) || (offset + count > transfer.size)) {
+				// something went missing, ask for it once, the rest of
+				// the window that follows it is thrown away
+				if (!transfer.gapReported && (offset > transfer.received)) {
+					transfer.gapReported = true;
+					sendAccept(transferId, transfer.received);
+				}
+				return;
+			}
+			try {
+				ByteBuffer data = getDataData(message);
+				while (data.hasRemaining()) {
+					transfer.file.write(data, offset + count - data.remaining());
+				}
+			} catch (IOException e) {
+				closeSink(transfer);
+				transfer.fail(e.toString());
+				sendAbort(transferId, REASON_IO_ERROR);
+				return;
+			}
+			updateCRC(transfer, getDataData(message));
+			transfer.received += count;
+			transfer.gapReported = false;
+			transfer.changed();
+			if (transfer.received == transfer.size) {
+				finishSink(transfer);
+			}
+			else if (++transfer.sinceAck >= Math.max(1, BULK_TRANSFER_WINDOW / 2)) {
+				transfer.sinceAck = 0;
+				sendAck(transferId, transfer.received);
+			}
+		}
+	}
+
+	private void updateCRC (BulkTransfer transfer, ByteBuffer data) {
+		if (crcBytes == null) {
+			crcBytes = new byte[MAX_PAYLOAD_LEN];
+		}
+		while (data.hasRemaining()) {
+			int count = Math.min(data.remaining(), crcBytes.length);
+			data.get(crcBytes, 0, count);
+			transfer.crc32.update(crcBytes, 0, count);
+		}
+	}
+
+	// called with the transfer's lock held, a bad blob is thrown away so
+	// the next try starts over
+	private void finishSink (BulkTransfer transfer) {
+		sendAck(transfer.transferId, transfer.received);
+		boolean ok = ((int) transfer.crc32.getValue()) == transfer.crc;
+		try {
+			transfer.file.force(false);
+			closeSink(transfer);
+			if (ok) {
+				transfer.finalFile.delete();
+				if (!transfer.partFile.renameTo(transfer.finalFile)) {
+					throw new IOException("Cannot rename " + transfer.partFile + " to " + transfer.finalFile);
+				}
+			}
+			else {
+				transfer.partFile.delete();
+			}
+		} catch (IOException e) {
+			transfer.fail(e.toString());
+			sendAbort(transfer.transferId, REASON_IO_ERROR);
+			return;
+		}
+		transfer.doneStatus = ok ? STATUS_OK : STATUS_CRC_MISMATCH;
+		if (ok) {
+			transfer.state = TransferStateEnum.DONE;
+		}
+		else if (++transfer.restarts > BULK_TRANSFER_RETRIES) {
+			transfer.state = TransferStateEnum.FAILED;
+			transfer.failure = "CRC mismatch";
+		}
+		else {
+			// the source sends it all again after the done, or on its
+			// next offer if the done gets lost
+			transfer.state = TransferStateEnum.REQUESTING;
+		}
+		transfer.changed();
+		sendDone(transfer.transferId, transfer.doneStatus);
+		System.out.println("Bulk transfer received " + transfer);
+	}
+
+	// called with the transfer's lock held
+	private static void closeSink (BulkTransfer transfer) {
+		if (transfer.file != null) {
+			try {
+				transfer.file.close();
+			} catch (IOException e) {
+				// nothing more to do with it
+			}
+			transfer.file = null;
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+	// Source side
+
+	// served on a thread of its own, the receiver thread cannot wait
+	private void receivedRequest (LinkMessage message) {
+		final int transferId = getRequestTransferId(message);
+		final String name = NAME_CHARSET.decode(getRequestName(message)).toString();
+		BulkTransfer old = getTransfer(transferId);
+		if ((old != null) && old.source && !old.isFinished()) {
+			// already on it, the offer will go out again if it got lost
+			return;
+		}
+		final File file = (sendDirectory != null) && name.matches(NAME_PATTERN) ? new File(sendDirectory, name) : null;
+		if ((file == null) || !file.isFile()) {
+			sendAbort(transferId, REASON_REFUSED);
+			return;
+		}
+		final BulkTransfer transfer = new BulkTransfer(transferId, name, true, TransferStateEnum.OFFERING);
+		putTransfer(transfer);
+		Thread thread = new Thread(new Runnable() {
+			public void run () {
+				FileChannel fileChannel = null;
+				try {
+					fileChannel = new RandomAccessFile(file, "r").getChannel();
+					runSource(transfer, fileChannel);
+				} catch (Exception e) {
+					System.out.println("Bulk transfer failed " + transfer + ": " + e);
+				} finally {
+					if (fileChannel != null) {
+						try {
+							fileChannel.close();
+						} catch (IOException e) {
+							// nothing more to do with it
+						}
+					}
+				}
+			}
+		}, "Bulk transfer " + transferId);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// the sink says where to start, the first time or after a gap
+	private void receivedAccept (int transferId, int offset, int window) {
+		BulkTransfer transfer = getSourceTransfer(transferId);
+		if (transfer == null) {
+			return;
+		}
+		synchronized (transfer) {
+			if ((transfer.state == TransferStateEnum.OFFERING) || (transfer.state == TransferStateEnum.SENDING)) {
+				transfer.state = TransferStateEnum.SENDING;
+				transfer.acked = Math.min(offset & 0xFFFFFFFFL, transfer.size);
+				transfer.resumeAt = transfer.acked;
+				transfer.window = Math.max(1, window);
+				transfer.changed();
+			}
+		}
+	}
+
+	private void receivedAck (int transferId, int offset, int window) {
+		BulkTransfer transfer = getSourceTransfer(transferId);
+		if (transfer == null) {
+			return;
+		}
+		synchronized (transfer) {
+			long acked = Math.min(offset & 0xFFFFFFFFL, transfer.size);
+			if ((transfer.state == TransferStateEnum.SENDING) && (acked > transfer.acked)) {
+				transfer.acked = acked;
+				transfer.window = Math.max(1, window);
+				transfer.changed();
+			}
+		}
+	}
+
+	private void receivedDone (int transferId, int status) {
+		BulkTransfer transfer = getSourceTransfer(transferId);
+		if (transfer == null) {
+			return;
+		}
+		synchronized (transfer) {
+			if (!transfer.isFinished()) {
+				if (status == STATUS_OK) {
+					transfer.acked = transfer.size;
+					transfer.state = TransferStateEnum.DONE;
+					transfer.changed();
+				}
+				else if ((status == STATUS_CRC_MISMATCH) && (++transfer.restarts <= BULK_TRANSFER_RETRIES)) {
+					// the link let something through, start over
+					transfer.state = TransferStateEnum.OFFERING;
+					transfer.acked = 0;
+					transfer.resumeAt = BulkTransfer.NO_RESUME;
+					transfer.restart = true;
+					transfer.changed();
+				}
+				else {
+					transfer.fail("Sink says " + ((status == STATUS_CRC_MISMATCH) ? "CRC mismatch" : "status " + status));
+				}
+			}
+		}
+	}
+
+	private BulkTransfer getSourceTransfer (int transferId) {
+		BulkTransfer transfer = getTransfer(transferId);
+		return ((transfer != null) && transfer.source) ? transfer : null;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	private void receivedAbort (int transferId, int reason) {
+		BulkTransfer transfer = getTransfer(transferId);
+		if (transfer == null) {
+			return;
+		}
+		synchronized (transfer) {
+			if (!transfer.source) {
+				closeSink(transfer);
+			}
+			transfer.fail("Aborted by the other side, reason " + reason);
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public void describe () {
+		super.describe();
+		synchronized (transfers) {
+			for (BulkTransfer transfer : transfers) {
+				if (transfer != null) {
+					System.out.println("    " + transfer);
+				}
+			}
+		}
+	}
+
+}
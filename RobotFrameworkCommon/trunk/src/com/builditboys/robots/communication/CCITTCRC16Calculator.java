@@ -0,0 +1,44 @@
+package com.builditboys.robots.communication;
+
+// CRC-16/CCITT, polynomial 0x1021 starting from 0xFFFF, a table at a
+// time. Unlike CRC16Calculator, which only counts the bytes the way the
+// PSoC does, it catches every burst of up to 16 flipped bits and every
+// odd number of them. Data channel frames use it once both ends agreed
+// to LinkCapabilities.FEATURE_CRC16.
+
+public class CCITTCRC16Calculator extends CRC16Calculator {
+
+	private static final int POLYNOMIAL = 0x1021;
+
+	private static final short TABLE[] = makeTable();
+
+	//--------------------------------------------------------------------------------
+	// Constructors
+
+	public CCITTCRC16Calculator () {
+	}
+
+	private static short[] makeTable () {
+		short table[] = new short[256];
+		for (int i = 0; i < 256; i++) {
+			int crc = i << 8;
+			for (int bit = 0; bit < 8; bit++) {
+				crc = ((crc & 0x8000) != 0) ? (crc << 1) ^ POLYNOMIAL : crc << 1;
+			}
+			table[i] = (short) crc;
+		}
+		return table;
+	}
+
+	//--------------------------------------------------------------------------------
+	// CRC building
+
+	public void start () {
+		CRC = (short) 0xFFFF;
+	}
+
+	public void extend (byte bite) {
+		CRC = (short) ((CRC << 8) ^ TABLE[((CRC >> 8) ^ bite) & 0xFF]);
+	}
+
+}
@@ -2,7 +2,7 @@ package com.builditboys.robots.communication;
 
 public class CRC16Calculator extends AbstractCRCCalculator {
 	
-	private short CRC;
+	protected short CRC;
 	
 	//--------------------------------------------------------------------------------
 	// Constructors
@@ -0,0 +1,41 @@
+package com.builditboys.robots.communication;
+
+// Forward error correction for the bodies of frames on the data channels,
+// see AbstractFecCodec. The two ends of a link settle on one in the
+// handshake, the later in this list wins, see LinkCapabilities.
+//
+//   NONE         - bodies go out as they are, a bad one is resent
+//   HAMMING      - doubles the body, fixes a mangled byte in every eight
+//   REED_SOLOMON - a few bytes more, fixes bursts, see ReedSolomonFecCodec
+
+public enum FecModeEnum {
+
+	NONE,
+	HAMMING,
+	REED_SOLOMON;
+
+	// a codec for one thread, null for NONE
+	public AbstractFecCodec newCodec () {
+		switch (this) {
+		case HAMMING:
+			return new HammingFecCodec();
+		case REED_SOLOMON:
+			return new ReedSolomonFecCodec();
+		default:
+			return null;
+		}
+	}
+
+	// the longest any mode makes a body of length bytes
+	public static int maxEncodedLength (int length) {
+		int max = length;
+		for (FecModeEnum mode : values()) {
+			AbstractFecCodec codec = mode.newCodec();
+			if (codec != null) {
+				max = Math.max(max, codec.encodedLength(length));
+			}
+		}
+		return max;
+	}
+
+}
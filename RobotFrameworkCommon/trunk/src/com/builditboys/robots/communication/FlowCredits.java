@@ -0,0 +1,182 @@
+package com.builditboys.robots.communication;
+
+import static com.builditboys.robots.communication.LinkParameters.*;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Credit based flow control, per channel and counted in frames. The side
+// with the small receive buffers (the PSoC) grants credit with CREDIT
+// messages on the link control channel, and the sender only sends a frame
+// on a channel when it has credit for it.
+//
+// A grant is not an amount, it is how many frames, counted since the last
+// full synchronization, the granting side is ready to have received on
+// the channel. The counts are sixteen bits and wrap. A lost grant is made
+// good by the next one, so the granting side just repeats its grants
+// along with its keep alives.
+//
+// A channel that has never been granted anything is not flow controlled,
+// so a slave that does not know about credits does not hold anything up.
+// Link control is never flow controlled, the grants travel on it.
+//
+// Both halves live here, the send half (the limits the other side
+// granted and what the sender has sent against them) and the receive
+// half (the windows this side grants and what the receiver has taken).
+
+public class FlowCredits {
+
+	private static final int COUNT_MASK = 0xFFFF;
+	private static final int COUNT_HALF = 0x8000;
+
+	public static final int MAX_WINDOW = COUNT_HALF - 1;
+
+	// no grant yet, send freely
+	private static final int NOT_LIMITED = -1;
+
+	// send half, limits from the receiver thread, counts from the sender
+	private final AtomicIntegerArray sendLimits = new AtomicIntegerArray(CHANNEL_NUMBER_MAX);
+	private final AtomicIntegerArray sentCounts = new AtomicIntegerArray(CHANNEL_NUMBER_MAX);
+
+	// receive half, windows are set up by the application, zero means
+	// this side does not grant credit on the channel
+	private final AtomicIntegerArray receiveWindows = new AtomicIntegerArray(CHANNEL_NUMBER_MAX);
+	private final AtomicIntegerArray receivedCounts = new AtomicIntegerArray(CHANNEL_NUMBER_MAX);
+	private final AtomicIntegerArray grantedLimits = new AtomicIntegerArray(CHANNEL_NUMBER_MAX);
+
+	// times a channel with something to send ran out of credit, counted
+	// once when it runs out, not every time the sender looks at it
+	private final AtomicIntegerArray stalled = new AtomicIntegerArray(CHANNEL_NUMBER_MAX);
+	private volatile long stalls = 0;
+
+	// --------------------------------------------------------------------------------
+	// Constructors
+
+	public FlowCredits () {
+		reset();
+	}
+
+	// at the start of every full synchronization, both sides count from
+	// zero again and nothing is limited until the first grant
+	public void reset () {
+		for (int i = 0; i < CHANNEL_NUMBER_MAX; i++) {
+			sendLimits.set(i, NOT_LIMITED);
+			sentCounts.set(i, 0);
+			receivedCounts.set(i, 0);
+			grantedLimits.set(i, receiveWindows.get(i));
+			stalled.set(i, 0);
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+	// Send half
+
+	// a grant from the other side, returns true if it let anything more
+	// through
+	public boolean grant (int channelNumber, int limit) {
+		limit &= COUNT_MASK;
+		int old = sendLimits.getAndSet(channelNumber, limit);
+		return (old == NOT_LIMITED) || (old != limit);
+	}
+
+	public boolean isLimited (int channelNumber) {
+		return sendLimits.get(channelNumber) != NOT_LIMITED;
+	}
+
+	public boolean canSend (int channelNumber) {
+		return getSendCredit(channelNumber) != 0;
+	}
+
+	// how many more frames can go out on the channel, MAX_WINDOW if it is
+	// not limited
+	public int getSendCredit (int channelNumber) {
+		int limit = sendLimits.get(channelNumber);
+		if (limit == NOT_LIMITED) {
+			return MAX_WINDOW;
+		}
+		int credit = (limit - sentCounts.get(channelNumber)) & COUNT_MASK;
+		// behind the count, a stale grant or frames sent without credit
+		return (credit < COUNT_HALF) ? credit : 0;
+	}
+
+	// the sender only
+	public void frameSent (int channelNumber) {
+		sentCounts.lazySet(channelNumber, (sentCounts.get(channelNumber) + 1) & COUNT_MASK);
+	}
+
+	// the sender only, when it passes over a channel for want of credit
+	public void noteStall (int channelNumber) {
+		if (stalled.get(channelNumber) == 0) {
+			stalled.lazySet(channelNumber, 1);
+			stalls++;
+		}
+	}
+
+	// the sender only, when the channel has credit again
+	public void endStall (int channelNumber) {
+		if (stalled.get(channelNumber) != 0) {
+			stalled.lazySet(channelNumber, 0);
+		}
+	}
+
+	public long getStalls () {
+		return stalls;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Receive half
+
+	// how many frames the other side may have outstanding on the channel,
+	// zero to stop granting, takes effect from the next synchronization
+	public void setReceiveWindow (int channelNumber, int frames) {
+		if ((frames < 0) || (frames > MAX_WINDOW)) {
+			throw new IllegalArgumentException("Window out of range: " + frames);
+		}
+		receiveWindows.set(channelNumber, frames);
+	}
+
+	public int getReceiveWindow (int channelNumber) {
+		return receiveWindows.get(channelNumber);
+	}
+
+	public boolean isGranting (int channelNumber) {
+		return receiveWindows.get(channelNumber) != 0;
+	}
+
+	public int getGrantedLimit (int channelNumber) {
+		return grantedLimits.get(channelNumber);
+	}
+
+	// the receiver only, once a frame on the channel has been handed to its
+	// protocol, returns true if it is time to grant more, once half the
+	// window has been used up
+	public boolean frameReceived (int channelNumber) {
+		int window = receiveWindows.get(channelNumber);
+		if (window == 0) {
+			return false;
+		}
+		int received = (receivedCounts.get(channelNumber) + 1) & COUNT_MASK;
+		receivedCounts.lazySet(channelNumber, received);
+		int remaining = (grantedLimits.get(channelNumber) - received) & COUNT_MASK;
+		if ((remaining >= COUNT_HALF) || (remaining <= window / 2)) {
+			grantedLimits.set(channelNumber, (received + window) & COUNT_MASK);
+			return true;
+		}
+		return false;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public void describe () {
+		for (int i = 0; i < CHANNEL_NUMBER_MAX; i++) {
+			if (isLimited(i)) {
+				System.out.println("  Channel " + i + " send credit " + getSendCredit(i));
+			}
+			if (isGranting(i)) {
+				System.out.println("  Channel " + i + " receive window " + getReceiveWindow(i)
+								   + " granted to " + getGrantedLimit(i));
+			}
+		}
+		System.out.println("  Credit stalls: " + stalls);
+	}
+
+}
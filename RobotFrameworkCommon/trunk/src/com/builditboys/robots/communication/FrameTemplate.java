@@ -0,0 +1,185 @@
+package com.builditboys.robots.communication;
+
+import static com.builditboys.robots.communication.LinkParameters.*;
+
+// A frame whose payload never changes, like a keep alive. Everything but
+// the sequence number is escaped once, up front. Both CRCs cover the
+// sequence number, so they are computed the first time each sequence
+// number is used and kept, after that sending the frame is copying bytes
+// and patching in the sequence number and the CRCs for it.
+//
+// The crc16 is the counting one, so templates are for link control
+// frames only, see AbstractSenderReceiver.crc16For.
+//
+// Templates are used by the sender thread of one link only, they are not
+// thread safe.
+
+public class FrameTemplate {
+
+	private static final int SEQUENCE_NUMBERS = 256;
+
+	private final int channelNumber;
+	private final byte payload[];
+
+	// escaped channel number and length, and escaped payload
+	private final byte escapedHeader[];
+	private final byte escapedPayload[];
+
+	// the CRCs for each sequence number, filled in as they are needed
+	private final byte crc8s[] = new byte[SEQUENCE_NUMBERS];
+	private final short crc16s[] = new short[SEQUENCE_NUMBERS];
+	private final boolean haveCRCs[] = new boolean[SEQUENCE_NUMBERS];
+	private final CRC8Calculator crc8 = new CRC8Calculator();
+	private final CRC16Calculator crc16 = new CRC16Calculator();
+
+	// the shared message for sends nobody waits on
+	private final LinkMessage message;
+
+	// the longest an encoded frame can get
+	private final int maxFrameLength;
+
+	// --------------------------------------------------------------------------------
+	// Constructors
+
+	public FrameTemplate(int channelNum, byte contents[]) {
+		if (!LinkMessage.islegalMessageLength(contents.length)) {
+			throw new IllegalArgumentException("Template payload is too long");
+		}
+		channelNumber = channelNum;
+		payload = contents.clone();
+		escapedHeader = escape(new byte[] {(byte) channelNumber, (byte) payload.length});
+		escapedPayload = escape(payload);
+		message = newMessage(false);
+		maxFrameLength = SEND_SYNC_1_LENGTH + 2 + escapedHeader.length + 2
+						 + escapedPayload.length + 2 * SEND_POSTAMBLE_LENGTH + SEND_POST_SYNC_PAD;
+	}
+
+	public FrameTemplate(int channelNum, int indicator) {
+		this(channelNum, new byte[] {(byte) indicator});
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public int getChannelNumber() {
+		return channelNumber;
+	}
+
+	public int getMaxFrameLength() {
+		return maxFrameLength;
+	}
+
+	// a message that the sender will send from this template, the same one
+	// every time unless someone wants to wait for it to be sent
+	public LinkMessage getMessage(boolean doWait) {
+		return doWait ? newMessage(true) : message;
+	}
+
+	private LinkMessage newMessage(boolean doWait) {
+		LinkMessage msg = new LinkMessage(channelNumber, payload.length, doWait);
+		msg.addBytes(payload);
+		msg.setFrameTemplate(this);
+		return msg;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Encoding, the same bytes the sender would produce the long way
+
+	// returns how many bytes went into frame
+	public int encode(int seqNr, byte frame[]) {
+		int index = 0;
+		for (int i = 0; i < SEND_SYNC_1_LENGTH; i++) {
+			frame[index++] = SEND_SYNC_BYTE_1;
+		}
+
+		seqNr &= 0xFF;
+		if (!haveCRCs[seqNr]) {
+			computeCRCs(seqNr);
+		}
+		short crc = crc16s[seqNr];
+
+		index = putEscaped(frame, index, (byte) seqNr);
+		System.arraycopy(escapedHeader, 0, frame, index, escapedHeader.length);
+		index += escapedHeader.length;
+		index = putEscaped(frame, index, crc8s[seqNr]);
+		System.arraycopy(escapedPayload, 0, frame, index, escapedPayload.length);
+		index += escapedPayload.length;
+		index = putEscaped(frame, index, (byte) crc);
+		index = putEscaped(frame, index, (byte) (crc >>> 8));
+
+		for (int i = 0; i < SEND_POST_SYNC_PAD; i++) {
+			frame[index++] = SEND_SYNC_BYTE_1;
+		}
+		return index;
+	}
+
+	public byte getCRC8(int seqNr) {
+		seqNr &= 0xFF;
+		if (!haveCRCs[seqNr]) {
+			computeCRCs(seqNr);
+		}
+		return crc8s[seqNr];
+	}
+
+	public short getCRC16(int seqNr) {
+		seqNr &= 0xFF;
+		if (!haveCRCs[seqNr]) {
+			computeCRCs(seqNr);
+		}
+		return crc16s[seqNr];
+	}
+
+	// the same order as the sender, the crc8 over the preamble, then the
+	// crc16 over the preamble with its crc8 and the payload
+	private void computeCRCs(int seqNr) {
+		crc8.start();
+		crc8.extend((byte) seqNr);
+		crc8.extend((byte) channelNumber);
+		crc8.extend((byte) payload.length);
+		crc8.end();
+		byte crc1 = crc8.get();
+
+		crc16.start();
+		crc16.extend((byte) seqNr);
+		crc16.extend((byte) channelNumber);
+		crc16.extend((byte) payload.length);
+		crc16.extend(crc1);
+		crc16.extend(payload);
+		crc16.end();
+
+		crc8s[seqNr] = crc1;
+		crc16s[seqNr] = crc16.get();
+		haveCRCs[seqNr] = true;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Escaping
+
+	private static byte[] escape(byte bytes[]) {
+		byte escaped[] = new byte[2 * bytes.length];
+		int index = 0;
+		for (byte b : bytes) {
+			index = putEscaped(escaped, index, b);
+		}
+		byte result[] = new byte[index];
+		System.arraycopy(escaped, 0, result, 0, index);
+		return result;
+	}
+
+	private static int putEscaped(byte frame[], int index, byte bite) {
+		switch (bite) {
+		case SEND_SYNC_BYTE_1:
+			frame[index++] = SEND_ESCAPE_BYTE;
+			frame[index++] = SEND_INDICATE_SYNC_1;
+			break;
+		case SEND_ESCAPE_BYTE:
+			frame[index++] = SEND_ESCAPE_BYTE;
+			frame[index++] = SEND_INDICATE_ESCAPE;
+			break;
+		default:
+			frame[index++] = bite;
+			break;
+		}
+		return index;
+	}
+
+}
@@ -0,0 +1,127 @@
+package com.builditboys.robots.communication;
+
+// Extended Hamming (8,4), every nibble of the body becomes a byte that can
+// have any one bit corrected and any two detected. Eight codewords at a
+// time are interleaved a bit at a time, a block of eight bytes where each
+// byte carries one bit from each codeword, so a whole byte mangled on the
+// wire is one bit in each of eight codewords and all of it comes back.
+//
+// The body doubles in size and is padded out to a whole block.
+
+public class HammingFecCodec extends AbstractFecCodec {
+
+	private static final int BLOCK_LENGTH = 8;         // encoded bytes
+	private static final int BLOCK_DATA_LENGTH = 4;    // body bytes
+
+	private static final int UNCORRECTABLE = -1;
+
+	// codeword for each nibble, the nibble in the low bits, parity above
+	private static final int ENCODE[] = new int[16];
+	// nibble for each received byte, UNCORRECTABLE if two bits are off
+	private static final int DECODE[] = new int[256];
+	// how many bits were off, 0 or 1
+	private static final int DISTANCE[] = new int[256];
+
+	static {
+		for (int n = 0; n < 16; n++) {
+			int d0 = n & 1;
+			int d1 = (n >> 1) & 1;
+			int d2 = (n >> 2) & 1;
+			int d3 = (n >> 3) & 1;
+			int parity = (d0 ^ d1 ^ d3)
+						 | ((d0 ^ d2 ^ d3) << 1)
+						 | ((d1 ^ d2 ^ d3) << 2)
+						 | ((d0 ^ d1 ^ d2) << 3);
+			ENCODE[n] = n | (parity << 4);
+		}
+		// the codewords are at least four bits apart, so a byte within one
+		// bit of a codeword is within one bit of only that one
+		for (int b = 0; b < 256; b++) {
+			DECODE[b] = UNCORRECTABLE;
+			for (int n = 0; n < 16; n++) {
+				int distance = Integer.bitCount(b ^ ENCODE[n]);
+				if (distance <= 1) {
+					DECODE[b] = n;
+					DISTANCE[b] = distance;
+					break;
+				}
+			}
+		}
+	}
+
+	private final byte block[] = new byte[BLOCK_LENGTH];
+
+	// --------------------------------------------------------------------------------
+
+	public FecModeEnum getMode () {
+		return FecModeEnum.HAMMING;
+	}
+
+	public int encodedLength (int length) {
+		return blocks(length) * BLOCK_LENGTH;
+	}
+
+	private static int blocks (int length) {
+		return (length + BLOCK_DATA_LENGTH - 1) / BLOCK_DATA_LENGTH;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public int encode (byte body[], int length, byte encoded[]) {
+		int out = 0;
+		for (int in = 0; in < length; in += BLOCK_DATA_LENGTH) {
+			for (int i = 0; i < BLOCK_DATA_LENGTH; i++) {
+				int b = (in + i < length) ? body[in + i] : 0;
+				block[2 * i] = (byte) ENCODE[b & 0x0F];
+				block[2 * i + 1] = (byte) ENCODE[(b >> 4) & 0x0F];
+			}
+			transpose(block, encoded, out);
+			out += BLOCK_LENGTH;
+		}
+		return out;
+	}
+
+	public int decode (byte encoded[], int length, byte body[]) {
+		int corrected = 0;
+		int in = 0;
+		for (int out = 0; out < length; out += BLOCK_DATA_LENGTH) {
+			transpose(encoded, in, block);
+			in += BLOCK_LENGTH;
+			for (int i = 0; (i < BLOCK_DATA_LENGTH) && (out + i < length); i++) {
+				int low = block[2 * i] & 0xFF;
+				int high = block[2 * i + 1] & 0xFF;
+				if ((DECODE[low] == UNCORRECTABLE) || (DECODE[high] == UNCORRECTABLE)) {
+					return -1;
+				}
+				corrected += DISTANCE[low] + DISTANCE[high];
+				body[out + i] = (byte) (DECODE[low] | (DECODE[high] << 4));
+			}
+		}
+		return corrected;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Bit interleaving, bit j of byte k goes to bit k of byte j, it undoes
+	// itself
+
+	private static void transpose (byte from[], byte to[], int toIndex) {
+		for (int j = 0; j < BLOCK_LENGTH; j++) {
+			int b = 0;
+			for (int k = 0; k < BLOCK_LENGTH; k++) {
+				b |= ((from[k] >> j) & 1) << k;
+			}
+			to[toIndex + j] = (byte) b;
+		}
+	}
+
+	private static void transpose (byte from[], int fromIndex, byte to[]) {
+		for (int j = 0; j < BLOCK_LENGTH; j++) {
+			int b = 0;
+			for (int k = 0; k < BLOCK_LENGTH; k++) {
+				b |= ((from[fromIndex + k] >> j) & 1) << k;
+			}
+			to[j] = (byte) b;
+		}
+	}
+
+}
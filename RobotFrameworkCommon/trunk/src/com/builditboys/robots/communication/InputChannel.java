@@ -9,5 +9,10 @@ public class InputChannel extends AbstractChannel {
 	public InputChannel (AbstractProtocol protocol, int channelNumber) {
 		super(protocol, channelNumber);
 	}
+
+	// only the receiver adds to an input channel
+	protected AbstractMessageQueue newMessageQueue (int capacity) {
+		return new SpscMessageQueue(capacity);
+	}
 		
 }
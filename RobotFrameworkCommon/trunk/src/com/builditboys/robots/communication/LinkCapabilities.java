@@ -0,0 +1,180 @@
+package com.builditboys.robots.communication;
+
+import static com.builditboys.robots.communication.LinkParameters.*;
+
+// What one end of a link can do. The master offers its capabilities in
+// the DO_PREPARE, the slave answers in the DID_PREPARE with what the two
+// have in common, and both ends use that until the next full
+// synchronization. This way the two ends do not have to be built with the
+// same LinkParameters.
+//
+// The block after the indicator byte is
+//   max payload length
+//   highest channel number
+//   fec modes, a bit for each FecModeEnum
+//   features, see FEATURE_*
+// A DO_PREPARE or DID_PREPARE without the block comes from a peer that
+// knows nothing about capabilities, it gets BASELINE. Fields may be added
+// to the end, a shorter block leaves them at their BASELINE values, and
+// feature bits you do not know about are dropped when the two ends
+// settle on the common set.
+//
+// Every link control message past the baseline set has a feature bit,
+// and neither end sends one unless both agreed to the feature, so an old
+// peer, the PSoC for one, never sees a message it would reject.
+//
+// Immutable, so it can be handed between the threads.
+
+public class LinkCapabilities {
+
+	public static final int BLOCK_LENGTH = 4;
+
+	// the other side grants credits, see FlowCredits
+	public static final int FEATURE_FLOW_CONTROL = 0x01;
+
+	// PING and PING_REPLY, see LinkQualityEstimator
+	public static final int FEATURE_PING = 0x02;
+
+	// the session id in DO_PROCEED, DO_RESUME and DID_RESUME, see
+	// AbstractLink.resumeLink
+	public static final int FEATURE_RESUME = 0x04;
+
+	// a real crc16 on data channel frames instead of the PSoC's byte
+	// count, see CCITTCRC16Calculator, link control frames keep the count
+	public static final int FEATURE_CRC16 = 0x08;
+
+	public static final int ALL_FEATURES = FEATURE_FLOW_CONTROL | FEATURE_PING | FEATURE_RESUME | FEATURE_CRC16;
+
+	// what a peer that does not send a block can do
+	public static final LinkCapabilities BASELINE =
+		new LinkCapabilities(MAX_PAYLOAD_LEN, CHANNEL_NUMBER_MAX, fecModeBit(FecModeEnum.NONE), 0);
+
+	// what this implementation can do, no error correction unless it is
+	// asked for, see withFecMode
+	public static final LinkCapabilities LOCAL =
+		new LinkCapabilities(MAX_PAYLOAD_LEN, CHANNEL_NUMBER_MAX, fecModeBit(FecModeEnum.NONE), ALL_FEATURES);
+
+	private final int maxPayloadLength;
+	private final int highestChannelNumber;
+	private final int fecModes;
+	private final int features;
+
+	// --------------------------------------------------------------------------------
+	// Constructors
+
+	public LinkCapabilities (int maxPayloadLength, int highestChannelNumber, int fecModes, int features) {
+		if ((maxPayloadLength < MIN_PAYLOAD_LEN) || (maxPayloadLength > MAX_PAYLOAD_LEN)) {
+			throw new IllegalArgumentException("Bad max payload length: " + maxPayloadLength);
+		}
+		if ((highestChannelNumber < CHANNEL_NUMBER_MIN) || (highestChannelNumber > CHANNEL_NUMBER_MAX)) {
+			throw new IllegalArgumentException("Bad highest channel number: " + highestChannelNumber);
+		}
+		this.maxPayloadLength = maxPayloadLength;
+		this.highestChannelNumber = highestChannelNumber;
+		this.fecModes = fecModes & 0xFF;
+		this.features = features & 0xFF;
+	}
+
+	// offers mode as well as no correction at all
+	public LinkCapabilities withFecMode (FecModeEnum mode) {
+		return new LinkCapabilities(maxPayloadLength, highestChannelNumber,
+									fecModeBit(FecModeEnum.NONE) | fecModeBit(mode), features);
+	}
+
+	public LinkCapabilities withMaxPayloadLength (int length) {
+		return new LinkCapabilities(length, highestChannelNumber, fecModes, features);
+	}
+
+	public LinkCapabilities withFeatures (int feats) {
+		return new LinkCapabilities(maxPayloadLength, highestChannelNumber, fecModes, feats & ALL_FEATURES);
+	}
+
+	// --------------------------------------------------------------------------------
+	// Settling on what both ends can do
+
+	// the smaller limits and the modes and features both have, a peer
+	// cannot talk this end into more than it offered
+	public LinkCapabilities commonWith (LinkCapabilities other) {
+		return new LinkCapabilities(Math.min(maxPayloadLength, other.maxPayloadLength),
+									Math.min(highestChannelNumber, other.highestChannelNumber),
+									fecModes & other.fecModes,
+									features & other.features & ALL_FEATURES);
+	}
+
+	// the last of the modes in FecModeEnum order, NONE if there are none
+	public FecModeEnum getFecMode () {
+		FecModeEnum modes[] = FecModeEnum.values();
+		for (int i = modes.length - 1; i > 0; i--) {
+			if ((fecModes & fecModeBit(modes[i])) != 0) {
+				return modes[i];
+			}
+		}
+		return FecModeEnum.NONE;
+	}
+
+	public boolean hasFeature (int feature) {
+		return (features & feature) == feature;
+	}
+
+	// whether a message can go to an end with these capabilities
+	public boolean fits (LinkMessage message) {
+		return (message.size() <= maxPayloadLength)
+			   && (message.getChannelNumber() <= highestChannelNumber);
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public int getMaxPayloadLength () {
+		return maxPayloadLength;
+	}
+
+	public int getHighestChannelNumber () {
+		return highestChannelNumber;
+	}
+
+	public int getFecModes () {
+		return fecModes;
+	}
+
+	public int getFeatures () {
+		return features;
+	}
+
+	public static int fecModeBit (FecModeEnum mode) {
+		return 1 << mode.ordinal();
+	}
+
+	// --------------------------------------------------------------------------------
+	// On the wire
+
+	public void writeTo (LinkMessage message) {
+		message.deConstructBytes1(maxPayloadLength);
+		message.deConstructBytes1(highestChannelNumber);
+		message.deConstructBytes1(fecModes);
+		message.deConstructBytes1(features);
+	}
+
+	// the block starts at offset, out of range limits are pulled into range
+	public static LinkCapabilities readFrom (LinkMessage message, int offset) {
+		if (message.size() < offset + BLOCK_LENGTH) {
+			return BASELINE;
+		}
+		return new LinkCapabilities(Math.min(message.getByte(offset) & 0xFF, MAX_PAYLOAD_LEN),
+									Math.min(message.getByte(offset + 1) & 0xFF, CHANNEL_NUMBER_MAX),
+									message.getByte(offset + 2) & 0xFF,
+									message.getByte(offset + 3) & 0xFF);
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public String toString () {
+		return "payload " + maxPayloadLength
+			   + ", channels to " + highestChannelNumber
+			   + ", fec " + getFecMode()
+			   + (hasFeature(FEATURE_FLOW_CONTROL) ? ", flow control" : "")
+			   + (hasFeature(FEATURE_PING) ? ", ping" : "")
+			   + (hasFeature(FEATURE_RESUME) ? ", resume" : "")
+			   + (hasFeature(FEATURE_CRC16) ? ", crc16" : "");
+	}
+
+}
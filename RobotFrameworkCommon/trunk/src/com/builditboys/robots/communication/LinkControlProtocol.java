@@ -2,12 +2,19 @@ package com.builditboys.robots.communication;
 
 import static com.builditboys.robots.communication.LinkParameters.*;
 
+import com.builditboys.robots.time.SystemTimeSystem;
+
 public class LinkControlProtocol extends AbstractProtocol {
 
 	private static final AbstractProtocol REPRESENTATIVE = new LinkControlProtocol();
 
 	private static final int MY_CHANNEL_NUMBER = LINK_CONTROL_CHANNEL_NUMBER;
 
+	// the messages that never change go out from ready made frames
+	private FrameTemplate needDoPrepareTemplate;
+	private FrameTemplate didProceedTemplate;
+	private FrameTemplate keepAliveTemplate;
+
 	// --------------------------------------------------------------------------------
 	// Constructors -- you don't construct a protocol directly, use addProtocolToLink
 
@@ -18,6 +25,9 @@ public class LinkControlProtocol extends AbstractProtocol {
 	// for the real protocol objects
 	private LinkControlProtocol(ProtocolRoleEnum role) {
 		protocolRole = role;
+		needDoPrepareTemplate = new FrameTemplate(MY_CHANNEL_NUMBER, SM_NEED_DO_PREPARE);
+		didProceedTemplate = new FrameTemplate(MY_CHANNEL_NUMBER, SM_DID_PROCEED);
+		keepAliveTemplate = new FrameTemplate(MY_CHANNEL_NUMBER, IM_ALIVE);
 	}
 
 	//--------------------------------------------------------------------------------
@@ -65,16 +75,28 @@ public class LinkControlProtocol extends AbstractProtocol {
 	// Link Control Messages - keep in sync with the PSoC
 	
 	public static final int LINK_CONTROL_MESSAGE_LENGTH = 1;
+	public static final int LINK_CONTROL_PING_MESSAGE_LENGTH = 1 + 4;
+	public static final int LINK_CONTROL_RESUME_MESSAGE_LENGTH = 1 + 1 + 1;
+	public static final int LINK_CONTROL_CREDIT_MESSAGE_LENGTH = 1 + 1 + 2;
+	public static final int LINK_CONTROL_PREPARE_MESSAGE_LENGTH = 1 + LinkCapabilities.BLOCK_LENGTH;
 	
-	public static final int MS_DO_PREPARE      = 0;
+	public static final int MS_DO_PREPARE      = 0;   // capabilities offered
 	public static final int MS_DO_PROCEED      = 1;
 
 	public static final int SM_NEED_DO_PREPARE = 2;
-	public static final int SM_DID_PREPARE     = 3;
+	public static final int SM_DID_PREPARE     = 3;   // capabilities agreed
 	public static final int SM_DID_PROCEED     = 4;
 
 	public static final int IM_ALIVE           = 5;
 
+	public static final int PING               = 6;   // time stamp
+	public static final int PING_REPLY         = 7;   // time stamp echoed back
+
+	public static final int DO_RESUME          = 8;   // session id, last sequence number received
+	public static final int DID_RESUME         = 9;   // session id, last sequence number received
+
+	public static final int CREDIT             = 10;  // channel number, frame limit, see FlowCredits
+
 	public enum LinkControlMessageEnum {
 		MASTER_DO_PREPARE(MS_DO_PREPARE),
 		MASTER_DO_PROCEED(MS_DO_PROCEED),
@@ -83,7 +105,12 @@ public class LinkControlProtocol extends AbstractProtocol {
 		SLAVE_DID_PREPARE(SM_DID_PREPARE),
 		SLAVE_DID_PROCEED(SM_DID_PROCEED),
 		
-		MASTER_SLAVE_IM_ALIVE(IM_ALIVE);
+		MASTER_SLAVE_IM_ALIVE(IM_ALIVE),
+		MASTER_SLAVE_PING(PING),
+		MASTER_SLAVE_PING_REPLY(PING_REPLY),
+		MASTER_SLAVE_DO_RESUME(DO_RESUME),
+		MASTER_SLAVE_DID_RESUME(DID_RESUME),
+		MASTER_SLAVE_CREDIT(CREDIT);
 		
 		private int messageNum;
 		
@@ -95,7 +122,7 @@ public class LinkControlProtocol extends AbstractProtocol {
 			NUM_TO_ENUM[num] = it;
 		}
 		
-		private static final int LARGEST_NUM = IM_ALIVE;
+		private static final int LARGEST_NUM = CREDIT;
 		private static final LinkControlMessageEnum NUM_TO_ENUM[] = new LinkControlMessageEnum[LARGEST_NUM + 1];
 
 		static {
@@ -121,24 +148,29 @@ public class LinkControlProtocol extends AbstractProtocol {
 	// --------------------------------------------------------------------------------
 	// Sending messages - Master to Slave messages
 
-	public void sendDoPrepare(boolean doWait) throws InterruptedException {
+	// the master offers what it can do, see LinkCapabilities
+	public void sendDoPrepare(LinkCapabilities offered, boolean doWait) throws InterruptedException {
 		if (protocolRole != ProtocolRoleEnum.MASTER) {
 			throw new IllegalStateException();
 		}	
-		LinkMessage message = new LinkMessage(channelNumber, LINK_CONTROL_MESSAGE_LENGTH, doWait);
-		message.addByte((byte) MS_DO_PREPARE);
+		LinkMessage message = makePrepareMessage(MS_DO_PREPARE, offered, doWait);
 		channel.addMessage(message);
 		if (doWait) {
 			message.doWait();
 		}
 	}
 
-	public void sendDoProceed(boolean doWait) throws InterruptedException {
+	// the session id lets the two sides recognize each other in a resume,
+	// without one it is the old style DO_PROCEED, see FEATURE_RESUME
+	public void sendDoProceed(int sessionId, boolean doWait) throws InterruptedException {
 		if (protocolRole != ProtocolRoleEnum.MASTER) {
 			throw new IllegalStateException();
 		}	
 		LinkMessage message = new LinkMessage(channelNumber, doWait);
 		message.addByte((byte) MS_DO_PROCEED);
+		if (sessionId != NO_SESSION_ID) {
+			message.deConstructBytes1(sessionId);
+		}
 		channel.addMessage(message);
 		if (doWait) {
 			message.doWait();
@@ -152,20 +184,19 @@ public class LinkControlProtocol extends AbstractProtocol {
 		if (protocolRole != ProtocolRoleEnum.SLAVE) {
 			throw new IllegalStateException();
 		}	
-		LinkMessage message = new LinkMessage(channelNumber, doWait);
-		message.addByte((byte) SM_NEED_DO_PREPARE);
+		LinkMessage message = needDoPrepareTemplate.getMessage(doWait);
 		channel.addMessage(message);
 		if (doWait) {
 			message.doWait();
 		}
 	}
 
-	public void sendDidPrepare(boolean doWait) throws InterruptedException {
+	// the slave answers with what both sides can do
+	public void sendDidPrepare(LinkCapabilities agreed, boolean doWait) throws InterruptedException {
 		if (protocolRole != ProtocolRoleEnum.SLAVE) {
 			throw new IllegalStateException();
 		}	
-		LinkMessage message = new LinkMessage(channelNumber, doWait);
-		message.addByte((byte) SM_DID_PREPARE);
+		LinkMessage message = makePrepareMessage(SM_DID_PREPARE, agreed, doWait);
 		channel.addMessage(message);
 		if (doWait) {
 			message.doWait();
@@ -176,8 +207,7 @@ public class LinkControlProtocol extends AbstractProtocol {
 		if (protocolRole != ProtocolRoleEnum.SLAVE) {
 			throw new IllegalStateException();
 		}	
-		LinkMessage message = new LinkMessage(channelNumber, doWait);
-		message.addByte((byte) SM_DID_PROCEED);
+		LinkMessage message = didProceedTemplate.getMessage(doWait);
 		channel.addMessage(message);
 		if (doWait) {
 			message.doWait();
@@ -188,11 +218,66 @@ public class LinkControlProtocol extends AbstractProtocol {
 	// Sending messages - Shared messages
 
 	public void sendKeepAlive() {
-		LinkMessage message = new LinkMessage(channelNumber);
-		message.addByte((byte) IM_ALIVE);
+		channel.addMessage(keepAliveTemplate.getMessage(false));
+	}
+
+	// the time stamp is the sender's system time, truncated to 32 bits
+	// the other side echoes it back so that the sender can compute the
+	// round trip time without the clocks being synchronized
+	public void sendPing() {
+		LinkMessage message = new LinkMessage(channelNumber, LINK_CONTROL_PING_MESSAGE_LENGTH);
+		message.addByte((byte) PING);
+		message.deConstructBytes4((int) SystemTimeSystem.currentTime());
+		channel.addMessage(message);
+	}
+
+	public void sendPingReply(int pingTime) {
+		LinkMessage message = new LinkMessage(channelNumber, LINK_CONTROL_PING_MESSAGE_LENGTH);
+		message.addByte((byte) PING_REPLY);
+		message.deConstructBytes4(pingTime);
 		channel.addMessage(message);
 	}
 
+	// resume messages restart the sequence numbers in both directions so
+	// they get through no matter what happened to the frames in flight
+	public void sendDoResume(int sessionId, int lastSequenceNumber) {
+		channel.addMessage(makeResumeMessage(DO_RESUME, sessionId, lastSequenceNumber));
+	}
+
+	// replayAfter is the last sequence number the other side received, once
+	// the reply is out the sender resends everything after it
+	public void sendDidResume(int sessionId, int lastSequenceNumber, int replayAfter) {
+		LinkMessage message = makeResumeMessage(DID_RESUME, sessionId, lastSequenceNumber);
+		message.setReplayAfter(replayAfter);
+		channel.addMessage(message);
+	}
+
+	// lets the other side send on the channel until it has sent limit
+	// frames on it since the last synchronization
+	public void sendCredit(int channelNum, int limit) {
+		LinkMessage message = new LinkMessage(channelNumber, LINK_CONTROL_CREDIT_MESSAGE_LENGTH);
+		message.addByte((byte) CREDIT);
+		message.deConstructBytes1(channelNum);
+		message.deConstructBytes2(limit);
+		channel.addMessage(message);
+	}
+
+	private LinkMessage makePrepareMessage(int indicator, LinkCapabilities capabilities, boolean doWait) {
+		LinkMessage message = new LinkMessage(channelNumber, LINK_CONTROL_PREPARE_MESSAGE_LENGTH, doWait);
+		message.addByte((byte) indicator);
+		capabilities.writeTo(message);
+		return message;
+	}
+
+	private LinkMessage makeResumeMessage(int indicator, int sessionId, int lastSequenceNumber) {
+		LinkMessage message = new LinkMessage(channelNumber, LINK_CONTROL_RESUME_MESSAGE_LENGTH);
+		message.addByte((byte) indicator);
+		message.deConstructBytes1(sessionId);
+		message.deConstructBytes1(lastSequenceNumber);
+		message.setDoReset(true);
+		return message;
+	}
+
 	// --------------------------------------------------------------------------------
 	// Receiving messages
 	
@@ -223,9 +308,27 @@ public class LinkControlProtocol extends AbstractProtocol {
 		case IM_ALIVE:
 			link.receivedImAlive(channel, message);
 			break;
+		case PING:
+			link.receivedPing(channel, message);
+			break;
+		case PING_REPLY:
+			link.receivedPingReply(channel, message);
+			break;
+		case DO_RESUME:
+			link.receivedDoResume(channel, message);
+			break;
+		case DID_RESUME:
+			link.receivedDidResume(channel, message);
+			break;
+		case CREDIT:
+			link.receivedCredit(channel, message);
+			break;
 
+		// from a newer peer, a feature we did not agree to, drop it
+		// rather than take the receiver down
 		default:
-			throw new IllegalStateException();
+			System.out.println("Dropping unknown link control message: " + indicator);
+			break;
 		}
 	}
 	
@@ -236,4 +339,45 @@ public class LinkControlProtocol extends AbstractProtocol {
 			   && (message.peekByte() == IM_ALIVE);
 	}
 
+	public static boolean isPingMessage(LinkMessage message) {
+		return (message.getChannelNumber() == MY_CHANNEL_NUMBER)
+			   && ((message.peekByte() == PING) || (message.peekByte() == PING_REPLY));
+	}
+
+	// an old style DO_PROCEED without a session id means the other side
+	// cannot resume
+	public static int getProceedSessionId(LinkMessage message) {
+		if (message.size() < 2) {
+			return NO_SESSION_ID;
+		}
+		return message.getByte(1) & 0xFF;
+	}
+
+	// an old style DO_PREPARE or DID_PREPARE without capabilities gets the
+	// baseline ones
+	public static LinkCapabilities getPrepareCapabilities(LinkMessage message) {
+		return LinkCapabilities.readFrom(message, 1);
+	}
+
+	public static int getResumeSessionId(LinkMessage message) {
+		return message.getByte(1) & 0xFF;
+	}
+
+	public static int getResumeSequenceNumber(LinkMessage message) {
+		return message.getByte(2) & 0xFF;
+	}
+
+	public static int getCreditChannelNumber(LinkMessage message) {
+		return message.getByte(1) & 0xFF;
+	}
+
+	public static int getCreditLimit(LinkMessage message) {
+		return message.reConstructBytes2At(2) & 0xFFFF;
+	}
+
+	// pulls the time stamp out of a ping or ping reply
+	public static int getPingTime(LinkMessage message) {
+		return message.reConstructBytes4At(1);
+	}
+
 }
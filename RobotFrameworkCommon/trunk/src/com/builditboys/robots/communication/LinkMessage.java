@@ -2,6 +2,9 @@ package com.builditboys.robots.communication;
 
 import static com.builditboys.robots.communication.LinkParameters.*;
 
+import java.nio.ByteBuffer;
+
+import com.builditboys.robots.time.SystemTimeSystem;
 import com.builditboys.robots.utilities.FillableBuffer;
 
 public class LinkMessage extends FillableBuffer {
@@ -12,6 +15,27 @@ public class LinkMessage extends FillableBuffer {
 	private boolean sendNotify = false;
 	private boolean doReset = false;
 	
+	// once this message has been sent, the sender resends everything it sent
+	// after this sequence number, see the link resume
+	private int replayAfter = NO_REPLAY;
+	
+	public static final int NO_REPLAY = -1;
+	
+	// if the message has not been sent by this time (system time) it is
+	// stale and the sender throws it away
+	private long deadline = NO_DEADLINE;
+	private boolean expired = false;
+	private boolean rejected = false;
+	
+	public static final long NO_DEADLINE = 0;
+	
+	// a view over bytes that belong to someone else, see the receiver
+	private boolean view = false;
+	
+	// the payload never changes, the sender uses the template's ready made
+	// frame, see FrameTemplate
+	private FrameTemplate frameTemplate = null;
+	
 	//--------------------------------------------------------------------------------
 	// Constructors
 
@@ -39,6 +63,12 @@ public class LinkMessage extends FillableBuffer {
 		sendNotify = notify;
 	}
 
+	// a view over the bytes, use setView to say which of them it holds
+	LinkMessage (ByteBuffer buff) {
+		super(buff);
+		view = true;
+	}
+
 	//--------------------------------------------------------------------------------
 	// Getter/Setters
 	
@@ -62,6 +92,86 @@ public class LinkMessage extends FillableBuffer {
 		this.doReset = doReset;
 	}
 
+	public int getReplayAfter() {
+		return replayAfter;
+	}
+
+	public void setReplayAfter(int seqNr) {
+		replayAfter = seqNr;
+	}
+
+	public FrameTemplate getFrameTemplate() {
+		return frameTemplate;
+	}
+
+	public void setFrameTemplate(FrameTemplate template) {
+		frameTemplate = template;
+	}
+
+	//--------------------------------------------------------------------------------
+	// Deadlines
+
+	public boolean hasDeadline() {
+		return deadline != NO_DEADLINE;
+	}
+
+	public long getDeadline() {
+		return deadline;
+	}
+
+	public void setDeadline(long time) {
+		deadline = time;
+	}
+
+	// the message is good for this many milliseconds from now
+	public void setTimeToLive(long timeToLive) {
+		deadline = SystemTimeSystem.currentTime() + timeToLive;
+	}
+
+	public boolean isPastDeadline(long now) {
+		return (deadline != NO_DEADLINE) && (now > deadline);
+	}
+
+	// true if the sender threw the message away instead of sending it
+	public boolean isExpired() {
+		return expired;
+	}
+
+	public void markExpired() {
+		expired = true;
+	}
+
+	// true if the sender threw the message away because the other side
+	// could not take it, see LinkCapabilities.fits
+	public boolean isRejected() {
+		return rejected;
+	}
+
+	public void markRejected() {
+		rejected = true;
+	}
+
+	//--------------------------------------------------------------------------------
+	// Views, the receiver can hand a protocol a message that is just a
+	// window on its frame buffer, it is only good until the protocol's
+	// receiveMessage returns, anything that keeps it has to copy it first
+
+	public boolean isView() {
+		return view;
+	}
+
+	void setView(int channelnum, int length) {
+		channelNumber = channelnum;
+		getIndex = 0;
+		fillIndex = length;
+	}
+
+	public LinkMessage copy() {
+		LinkMessage message = new LinkMessage(channelNumber, size());
+		message.addBytes(asByteBuffer(0, size()));
+		return message;
+	}
+
 	//--------------------------------------------------------------------------------
 
 	public synchronized void doWait () throws InterruptedException {
@@ -8,6 +8,10 @@ public class LinkParameters {
 	public static final int SEQUENCE_NUM_MIN = 1;
 	public static final int SEQUENCE_NUM_MAX = 125;
 
+	// a frame with this sequence number restarts the count, the next frame
+	// is SEQUENCE_NUM_MIN, used by the resume handshake
+	public static final int RESYNC_SEQUENCE_NUM = 0;
+
 	//--------------------------------------------------------------------------------
 	// Channel numbers
 	
@@ -25,6 +29,9 @@ public class LinkParameters {
 	public static final byte SEND_ESCAPE_BYTE = (byte) 0xFE;
 	public static final byte SEND_INDICATE_SYNC_1 = 0x01;
 	public static final byte SEND_INDICATE_ESCAPE = 0x02;
+	// escape followed by this ends the frame being sent, the receiver drops
+	// what it has so far, used to get an emergency message out right away
+	public static final byte SEND_INDICATE_ABORT = 0x03;
 
 	public static final int RECEIVE_SYNC_1_LENGTH = SEND_SYNC_1_LENGTH;
 	
@@ -32,6 +39,7 @@ public class LinkParameters {
 	public static final byte RECEIVE_ESCAPE_BYTE = SEND_ESCAPE_BYTE;
 	public static final byte RECEIVE_INDICATE_SYNC_1 = SEND_INDICATE_SYNC_1;
 	public static final byte RECEIVE_INDICATE_ESCAPE = SEND_INDICATE_ESCAPE;
+	public static final byte RECEIVE_INDICATE_ABORT = SEND_INDICATE_ABORT;
 
 	//--------------------------------------------------------------------------------
 	// Message preamble
@@ -81,6 +89,83 @@ public class LinkParameters {
 	public static final long IM_ALIVE_TIMEOUT = 1250;
 	public static final long KEEP_ALIVE_INTERVAL = 750;
 
+	// link resume, a receive error on an established link tries a quick
+	// resume before falling back to a full synchronization
+	public static final int NO_SESSION_ID = 0;
+	public static final int SESSION_ID_MAX = 255;
+	public static final long DID_RESUME_TIMEOUT = 250;
+	public static final long RESUME_HOLD_INTERVAL = 50;
+	public static final int SEND_HISTORY_LENGTH = 32;
+
+	// a pipelined sender packs frames into blocks of about this many bytes,
+	// bigger blocks mean fewer writes but more waiting behind them, see
+	// SendPipeline
+	public static final int SEND_PIPELINE_BLOCK_SIZE = 256;
+
+	// runs of bytes that need no escaping go out in one write, an abortable
+	// frame checks for emergencies at least this often
+	public static final int SEND_ABORT_CHECK_INTERVAL = 32;
+
+	// idling threads, see WaitStrategyEnum, a spin round is a check and a
+	// clock read, so the busy spin lasts a couple of hundred microseconds
+	public static final int WAIT_SPIN_TRIES = 100;
+	public static final int WAIT_YIELD_TRIES = 10;
+	public static final int WAIT_BUSY_SPIN_TRIES = 10000;
+	public static final long WAIT_MIN_SLEEP_NANOS = 10000;
+	public static final long WAIT_MAX_SLEEP_NANOS = 1000000;
+
+	// forward error correction, see ReedSolomonFecCodec, keep in sync with
+	// PSOC
+	public static final int FEC_RS_PARITY_LENGTH = 4;
+	public static final int FEC_RS_INTERLEAVE_DEPTH = 4;
+
+	// request and reply calls, see PendingCalls, the id goes in one byte
+	public static final int RPC_MAX_OUTSTANDING_CALLS = 32;
+	public static final int RPC_CORRELATION_ID_MAX = 255;
+
+	// a state dump nobody waits on the answer to, see
+	// RobotControlProtocol.sendDoDumpState
+	public static final long DUMP_STATE_TIMEOUT = 1000;
+
+	// bulk transfers, see BulkTransferProtocol, the window is in data
+	// messages, keep it in sync with PSOC
+	public static final int BULK_TRANSFER_WINDOW = 8;
+	public static final long BULK_TRANSFER_TIMEOUT = 1000;
+	public static final int BULK_TRANSFER_RETRIES = 5;
+	public static final long BULK_TRANSFER_QUEUE_WAIT = 10;
+
+	// link bonding, see BondedLinkPort, a segment is about a frame, the
+	// receiver holds segments that come in early until the ones before
+	// them turn up or the reorder timeout passes
+	public static final byte BOND_INDICATE_SEGMENT = 0x04;
+	public static final int BOND_MAX_SEGMENT_LENGTH = 1024;
+	public static final int BOND_REORDER_WINDOW = 256;
+	public static final long BOND_REORDER_TIMEOUT = 50;
+
+	// shared memory ports, see SharedMemoryLinkPort, the ring is per
+	// direction and a power of two
+	public static final int SHARED_MEMORY_RING_CAPACITY = 65536;
+	public static final long SHARED_MEMORY_OPEN_TIMEOUT = 5000;
+
+	// socket link ports, see AbstractSocketLinkPort, a datagram has to fit
+	// the path MTU or it gets fragmented
+	public static final int SOCKET_READ_BUFFER_LENGTH = 16384;
+	public static final int SOCKET_WRITE_BUFFER_LENGTH = 4096;
+	public static final int SOCKET_MAX_DATAGRAM_LENGTH = 1400;
+	public static final long SOCKET_CONNECT_TIMEOUT = 5000;
+
+	// link routing, see LinkRouter, the queue on the way out takes up the
+	// difference between the two links for a while
+	public static final int ROUTER_CHANNEL_CAPACITY = 64;
+
+	// the Java stand in for the PSoC, see PsocEmulator, it starts a clock
+	// sync about as often as the PSoC does
+	public static final long PSOC_EMULATOR_SYNC_INTERVAL = 1000;
+
+	// link quality estimation, see LinkQualityEstimator
+	public static final long PING_INTERVAL = 2000;
+	public static final long MIN_ESTIMATED_TIMEOUT = 100;
+
 	//--------------------------------------------------------------------------------
     // Channel numbers, keep in sync with PSOC
 	
@@ -90,6 +175,8 @@ public class LinkParameters {
 	public static final int SENSOR_CHANNEL_NUMBER = 11;
 	public static final int ROBOT_CONTROL_CHANNEL_NUMBER = 12;
 	public static final int ROBOT_DRIVER_CHANNEL_NUMBER = 13;
+	public static final int BULK_TRANSFER_CHANNEL_NUMBER = 14;
+	public static final int PARAMETER_CHANNEL_NUMBER = 15;
 
 
 	//--------------------------------------------------------------------------------
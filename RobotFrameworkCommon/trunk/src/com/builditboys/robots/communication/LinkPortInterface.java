@@ -15,4 +15,12 @@ public interface LinkPortInterface {
 	
 	public void writeByte (byte bite) throws InterruptedException, IOException;
 	
+	// the same as writing them one at a time, but ports that can should
+	// hand them over all at once
+	public void writeBytes (byte bytes[], int offset, int count) throws InterruptedException, IOException;
+	
+	// how readByte should wait when there is nothing to read, the link
+	// sets this from its own wait strategy
+	public void setWaitStrategy (WaitStrategyEnum strategy);
+	
 }
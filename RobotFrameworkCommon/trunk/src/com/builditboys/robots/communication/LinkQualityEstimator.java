@@ -0,0 +1,160 @@
+package com.builditboys.robots.communication;
+
+import static com.builditboys.robots.communication.LinkParameters.*;
+
+import com.builditboys.robots.infrastructure.ParameterInterface;
+import com.builditboys.robots.infrastructure.ParameterServer;
+
+// Keeps running estimates of how well a link is working
+//   round trip time - smoothed rtt and rtt variance, fed by ping/echo
+//                     exchanges on the link control protocol, the same
+//                     way tcp does it (Jacobson/Karels)
+//   frame error rate - a moving average of the frames the receiver
+//                      rejected versus the ones it accepted
+// All times are in milliseconds.
+
+public class LinkQualityEstimator implements ParameterInterface {
+
+	// gains for the smoothing, see rfc 6298
+	private static final double RTT_ALPHA = 1.0 / 8.0;
+	private static final double RTT_BETA = 1.0 / 4.0;
+	private static final int RTT_VARIANCE_MULTIPLIER = 4;
+
+	// gain for the frame error rate moving average
+	private static final double ERROR_RATE_GAIN = 1.0 / 32.0;
+
+	private String name;
+
+	private boolean haveRttSample = false;
+	private double smoothedRtt = 0;
+	private double rttVariance = 0;
+	private long lastRtt = 0;
+	private long rttSamples = 0;
+
+	private double frameErrorRate = 0;
+	private long framesReceived = 0;
+	private long frameErrors = 0;
+	private long framesCorrected = 0;
+	private long errorsCorrected = 0;
+
+	//--------------------------------------------------------------------------------
+	// Constructors
+
+	public LinkQualityEstimator (String nm) {
+		name = nm;
+	}
+
+	//--------------------------------------------------------------------------------
+
+	public String getName () {
+		return name;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public static LinkQualityEstimator getParameter (String key) {
+		return (LinkQualityEstimator) ParameterServer.getParameter(key);
+	}
+
+	public static LinkQualityEstimator maybeGetParameter (String key) {
+		return (LinkQualityEstimator) ParameterServer.maybeGetParameter(key);
+	}
+
+	//--------------------------------------------------------------------------------
+	// Round trip time
+
+	public synchronized void addRttSample (long rtt) {
+		if (rtt < 0) {
+			// clock went backwards or a garbled echo, ignore it
+			return;
+		}
+		if (!haveRttSample) {
+			smoothedRtt = rtt;
+			rttVariance = rtt / 2.0;
+			haveRttSample = true;
+		}
+		else {
+			rttVariance = (1 - RTT_BETA) * rttVariance + RTT_BETA * Math.abs(smoothedRtt - rtt);
+			smoothedRtt = (1 - RTT_ALPHA) * smoothedRtt + RTT_ALPHA * rtt;
+		}
+		lastRtt = rtt;
+		rttSamples++;
+	}
+
+	public synchronized boolean hasRttEstimate () {
+		return haveRttSample;
+	}
+
+	public synchronized long getSmoothedRtt () {
+		return Math.round(smoothedRtt);
+	}
+
+	public synchronized long getRttVariance () {
+		return Math.round(rttVariance);
+	}
+
+	public synchronized long getLastRtt () {
+		return lastRtt;
+	}
+
+	// how long to wait for a reply before deciding it is not coming
+	public synchronized long getRetransmitTimeout () {
+		return Math.max(MIN_ESTIMATED_TIMEOUT,
+						Math.round(smoothedRtt + RTT_VARIANCE_MULTIPLIER * rttVariance));
+	}
+
+	//--------------------------------------------------------------------------------
+	// Frame errors
+
+	public synchronized void noteFrameReceived () {
+		framesReceived++;
+		frameErrorRate += ERROR_RATE_GAIN * (0.0 - frameErrorRate);
+	}
+
+	public synchronized void noteFrameError () {
+		frameErrors++;
+		frameErrorRate += ERROR_RATE_GAIN * (1.0 - frameErrorRate);
+	}
+
+	// a frame that forward error correction put right, it still counts as
+	// received
+	public synchronized void noteFrameCorrected (int errors) {
+		framesCorrected++;
+		errorsCorrected += errors;
+	}
+
+	public synchronized double getFrameErrorRate () {
+		return frameErrorRate;
+	}
+
+	public synchronized long getFramesReceived () {
+		return framesReceived;
+	}
+
+	public synchronized long getFrameErrors () {
+		return frameErrors;
+	}
+
+	public synchronized long getFramesCorrected () {
+		return framesCorrected;
+	}
+
+	public synchronized long getErrorsCorrected () {
+		return errorsCorrected;
+	}
+
+	//--------------------------------------------------------------------------------
+
+	public synchronized void print () {
+		System.out.println("  RTT: " + getSmoothedRtt() + " +/- " + getRttVariance() + " (" + rttSamples + " samples)");
+		System.out.println("  RTO: " + getRetransmitTimeout());
+		System.out.println("  Frames: " + framesReceived + " ok, " + frameErrors + " bad");
+		System.out.println("  Corrected: " + framesCorrected + " frames, " + errorsCorrected + " errors");
+		System.out.printf("  Frame error rate: %.4f%n", frameErrorRate);
+	}
+
+	public String toString () {
+		return "Link quality: \"" + name + "\"";
+	}
+
+}
@@ -0,0 +1,228 @@
+package com.builditboys.robots.communication;
+
+import static com.builditboys.robots.communication.LinkParameters.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Passes channels from one link to another, so the host can sit between
+// the operator station and the PSoC without a protocol of its own for
+// every message that goes through.
+//
+// A route joins a channel on one link to a channel on the other, the
+// numbers can differ, and what comes in on either end goes out on the
+// other. The router puts a small protocol pair on each end in place of
+// the real ones, add the routes before the links start, a channel that
+// is routed cannot have a protocol of its own on that link.
+//
+// The payload is never taken apart. The receiver hands the router a view
+// of its frame buffer and the router copies the bytes once, into the
+// message that goes out with the new channel number, the receiver reuses
+// its buffer so that one copy cannot be helped. The outgoing queues hold
+// ROUTER_CHANNEL_CAPACITY messages, when one is full anyway the message
+// is dropped and counted, the router never holds up the link it came in
+// on.
+
+public class LinkRouter {
+
+	private final String name;
+	private final List<Route> routes = new ArrayList<Route>();
+
+	// --------------------------------------------------------------------------------
+	// Constructor
+
+	public LinkRouter (String name) {
+		this.name = name;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Routes
+
+	public synchronized Route addRoute (AbstractLink linkA, int channelA, AbstractLink linkB, int channelB) {
+		if ((linkA == linkB) && (channelA == channelB)) {
+			throw new IllegalArgumentException("A route cannot loop back on itself");
+		}
+		Route route = new Route(linkA, channelA, linkB, channelB);
+
+		RouteProtocol inA = new RouteProtocol(route, channelA, true);
+		RouteProtocol outA = new RouteProtocol(route, channelA, false);
+		RouteProtocol inB = new RouteProtocol(route, channelB, false);
+		RouteProtocol outB = new RouteProtocol(route, channelB, true);
+		inA.target = outB;
+		inB.target = outA;
+
+		linkA.addProtocol(inA, outA);
+		linkB.addProtocol(inB, outB);
+
+		routes.add(route);
+		return route;
+	}
+
+	public synchronized List<Route> getRoutes () {
+		return Collections.unmodifiableList(new ArrayList<Route>(routes));
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public String toString () {
+		return "Link router \"" + name + "\"";
+	}
+
+	public synchronized void describe () {
+		System.out.println(this);
+		for (Route route : routes) {
+			System.out.println("  " + route);
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+	// One route and its counters, each direction's counters only change on
+	// the receiver thread of the link it comes in on
+
+	public static class Route {
+
+		private final AbstractLink linkA;
+		private final int channelA;
+		private final AbstractLink linkB;
+		private final int channelB;
+
+		private volatile long forwardedAToB = 0;
+		private volatile long bytesAToB = 0;
+		private volatile long droppedAToB = 0;
+		private volatile long forwardedBToA = 0;
+		private volatile long bytesBToA = 0;
+		private volatile long droppedBToA = 0;
+
+		private Route (AbstractLink linkA, int channelA, AbstractLink linkB, int channelB) {
+			this.linkA = linkA;
+			this.channelA = channelA;
+			this.linkB = linkB;
+			this.channelB = channelB;
+		}
+
+		private void noteForwarded (boolean aToB, int length) {
+			if (aToB) {
+				forwardedAToB++;
+				bytesAToB += length;
+			}
+			else {
+				forwardedBToA++;
+				bytesBToA += length;
+			}
+		}
+
+		private void noteDropped (boolean aToB) {
+			if (aToB) {
+				droppedAToB++;
+			}
+			else {
+				droppedBToA++;
+			}
+		}
+
+		public AbstractLink getLinkA () {
+			return linkA;
+		}
+
+		public int getChannelA () {
+			return channelA;
+		}
+
+		public AbstractLink getLinkB () {
+			return linkB;
+		}
+
+		public int getChannelB () {
+			return channelB;
+		}
+
+		public long getForwardedAToB () {
+			return forwardedAToB;
+		}
+
+		public long getBytesAToB () {
+			return bytesAToB;
+		}
+
+		public long getDroppedAToB () {
+			return droppedAToB;
+		}
+
+		public long getForwardedBToA () {
+			return forwardedBToA;
+		}
+
+		public long getBytesBToA () {
+			return bytesBToA;
+		}
+
+		public long getDroppedBToA () {
+			return droppedBToA;
+		}
+
+		public String toString () {
+			return linkA.getName() + " " + channelA + " <-> " + linkB.getName() + " " + channelB
+				   + ", to B " + forwardedAToB + " (" + bytesAToB + " bytes, " + droppedAToB + " dropped)"
+				   + ", to A " + forwardedBToA + " (" + bytesBToA + " bytes, " + droppedBToA + " dropped)";
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+	// One end of a route on one link, the input side passes what it gets to
+	// the output side on the other link
+
+	private static class RouteProtocol extends AbstractProtocol {
+
+		private final Route route;
+		private final int routeChannelNumber;
+		private final boolean aToB;
+		private RouteProtocol target = null;
+
+		private RouteProtocol (Route route, int channelNumber, boolean aToB) {
+			this.route = route;
+			this.routeChannelNumber = channelNumber;
+			this.aToB = aToB;
+		}
+
+		protected InputChannel getInputChannel () {
+			channel = new InputChannel(this, routeChannelNumber);
+			return (InputChannel) channel;
+		}
+
+		protected OutputChannel getOutputChannel () {
+			channel = new OutputChannel(this, routeChannelNumber, ROUTER_CHANNEL_CAPACITY);
+			return (OutputChannel) channel;
+		}
+
+		// every route end is its own
+		public AbstractProtocol getInstanceRepresentative () {
+			return this;
+		}
+
+		protected boolean receivesMessageViews () {
+			return true;
+		}
+
+		protected void receiveMessage (LinkMessage message) {
+			int length = message.size();
+			LinkMessage forward = new LinkMessage(target.routeChannelNumber, length);
+			forward.addBytes(message.asByteBuffer(0, length));
+			try {
+				target.channel.addMessage(forward);
+				route.noteForwarded(aToB, length);
+			} catch (IllegalStateException e) {
+				route.noteDropped(aToB);
+			} catch (IllegalArgumentException e) {
+				// too big for the other link
+				route.noteDropped(aToB);
+			}
+		}
+
+		// on the output end, queued before the other link agreed to less
+		protected void messageRejected (LinkMessage message) {
+			route.noteDropped(aToB);
+		}
+	}
+
+}
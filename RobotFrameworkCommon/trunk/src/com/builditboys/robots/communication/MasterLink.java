@@ -2,10 +2,15 @@ package com.builditboys.robots.communication;
 
 import static com.builditboys.robots.communication.LinkParameters.*;
 
+import java.util.Random;
+
 import com.builditboys.robots.communication.AbstractProtocol.ProtocolRoleEnum;
 import com.builditboys.robots.time.SystemTimeSystem;
 
 public class MasterLink extends AbstractLink {
+
+	private Random sessionRandom = new Random();
+	private int lastSessionId = NO_SESSION_ID;
 	
 	//--------------------------------------------------------------------------------
 	// Constructors
@@ -29,24 +34,36 @@ public class MasterLink extends AbstractLink {
 	// be sure to look at isSendableChannel, etc to understand how the various
 	// states affect the actions of the sender and receiver
 
-	public synchronized void doWork () throws InterruptedException {
+	// the state changes before the message goes out, so a quick reply
+	// finds the link ready for it, a state change that fails means the
+	// receiver saw something out of sync
+
+	public void doWork () throws InterruptedException {
 		while (true) {
 			System.out.println("Starting " + role + " link synchronization: " + syncAttempts++);
 			setLinkState(LinkStateEnum.LinkInitState);
+			sessionId = NO_SESSION_ID;
+			flowCredits.reset();
+			int proposedSessionId = NO_SESSION_ID;
 			
 			// --------------------
 			// start off by sending a DO_PREPARE
-			linkOutputControlProtocol.sendDoPrepare(false);
 			setLinkState(LinkStateEnum.LinkSentDoPrepareState);
-			linkWait(DID_PREPARE_TIMEOUT);
+			linkOutputControlProtocol.sendDoPrepare(capabilities, false);
+			linkWaitWhile(LinkStateEnum.LinkSentDoPrepareState, replyTimeout(DID_PREPARE_TIMEOUT));
 
 
 			// --------------------
 			// if we got a DID_PREPARE, then send a DO_PROCEED
-			if (linkState == LinkStateEnum.LinkReceivedDidPrepareState) {
-				linkOutputControlProtocol.sendDoProceed(false);
-				setLinkState(LinkStateEnum.LinkSentDoProceedState);
-				linkWait(DID_PROCEED_TIMEOUT);
+			// the slave already went with the capabilities it sent back
+			if (changeLinkState(LinkStateEnum.LinkReceivedDidPrepareState, LinkStateEnum.LinkSentDoProceedState)) {
+				// a session only if the slave can resume, otherwise the old
+				// one byte DO_PROCEED and a full resync on any hiccup
+				if (agreeCapabilities().hasFeature(LinkCapabilities.FEATURE_RESUME)) {
+					proposedSessionId = newSessionId();
+				}
+				linkOutputControlProtocol.sendDoProceed(proposedSessionId, false);
+				linkWaitWhile(LinkStateEnum.LinkSentDoProceedState, replyTimeout(DID_PROCEED_TIMEOUT));
 			}
 			else {
 				// failure, start over
@@ -56,32 +73,15 @@ public class MasterLink extends AbstractLink {
 			// --------------------
 			// if we got a DID_PROCEED, then the link is happy
 			// just keep it that way
-			if (linkState == LinkStateEnum.LinkReceivedDidProceedState) {
+			sessionId = proposedSessionId;
+			if (changeLinkState(LinkStateEnum.LinkReceivedDidProceedState, LinkStateEnum.LinkReadyState)) {
 				System.out.println("Successful " + role + " link synchronization");
-				setLinkState(LinkStateEnum.LinkReadyState);
-				long time = SystemTimeSystem.currentTime();
-				lastKeepAliveReceivedTime = time;
-				lastKeepAliveSentTime = time;
-				while ((linkState == LinkStateEnum.LinkReadyState)
-						|| (linkState == LinkStateEnum.LinkActiveState)) {
-					// make sure you have recently received a keep alive message
-					// also, you could be awakened by receiving a keep alive so 
-					// keep track of how long you need to wait to send a keep alive
-					if (keepAliveOk()) {
-						long timeToNextSend = timeToNextKeepAlive();
-						if (timeToNextSend <= 0) {
-							linkOutputControlProtocol.sendKeepAlive();
-							lastKeepAliveSentTime = SystemTimeSystem.currentTime();
-						}
-						else {
-							linkWait(timeToNextSend);
-						}
-					}
-					else {
-						System.out.println("Master Keep Alive Timout: " + keepAliveDiff());
-						break;
-					}
-				}
+				startKeepAlives();
+				// keep the link alive, if it hiccups try a quick resume
+				// before falling back to a full synchronization
+				do {
+					maintainLink();
+				} while (resumeLink());
 				// problems, time out or receive error, start over
 				continue;
 			}
@@ -92,74 +92,122 @@ public class MasterLink extends AbstractLink {
 		}
 	}
 	
+	// --------------------------------------------------------------------------------
+	// Sessions - the master hands out a new session id on every full
+	// synchronization, the slave learns it from the DO_PROCEED
+
+	private int newSessionId () {
+		int id;
+		do {
+			id = sessionRandom.nextInt(SESSION_ID_MAX) + 1;
+		} while (id == lastSessionId);
+		lastSessionId = id;
+		return id;
+	}
+
 	// --------------------------------------------------------------------------------
 	// Master message receivers
 	
-	protected synchronized void receivedNeedDoPrepare (AbstractChannel channel, LinkMessage message) {
-		switch (linkState) {
-		// do prepare state discards everything but a did prepare
-		case LinkInitState:
-		case LinkSentDoPrepareState:
-			break;
-		// otherwise honor the request
-		default:
-			setLinkState(LinkStateEnum.LinkInitState);
-			notify();
-			break;
+	protected void receivedNeedDoPrepare (AbstractChannel channel, LinkMessage message) {
+		LinkStateEnum state;
+		LinkStateEnum next;
+		do {
+			state = linkState;
+			next = null;
+			switch (state) {
+			// do prepare state discards everything but a did prepare
+			case LinkInitState:
+			case LinkSentDoPrepareState:
+				break;
+			// otherwise honor the request
+			default:
+				next = LinkStateEnum.LinkInitState;
+				break;
+			}
+		} while ((next != null) && !changeLinkState(state, next));
+		if (next != null) {
+			linkSignal.signal();
 		}
 	}
 	
-	protected synchronized void receivedDidPrepare (AbstractChannel channel, LinkMessage message) {
-		switch (linkState) {
-		// do prepare state discards everything but a did prepare
-		// its satisfied here
-		case LinkInitState:
-		case LinkSentDoPrepareState:
-			setLinkState(LinkStateEnum.LinkReceivedDidPrepareState);
-			notify();
-			break;
-		// otherwise, out of sync
-		default:
-			setLinkState(LinkStateEnum.LinkInitState);
-			notify();
-			break;
+	protected void receivedDidPrepare (AbstractChannel channel, LinkMessage message) {
+		LinkStateEnum state;
+		LinkStateEnum next;
+		do {
+			state = linkState;
+			next = null;
+			switch (state) {
+			// do prepare state discards everything but a did prepare
+			// its satisfied here
+			case LinkInitState:
+			case LinkSentDoPrepareState:
+				peerCapabilities = LinkControlProtocol.getPrepareCapabilities(message);
+				next = LinkStateEnum.LinkReceivedDidPrepareState;
+				break;
+			// otherwise, out of sync
+			default:
+				next = LinkStateEnum.LinkInitState;
+				break;
+			}
+		} while ((next != null) && !changeLinkState(state, next));
+		if (next != null) {
+			linkSignal.signal();
 		}
 	}
 
-	protected synchronized void receivedDidProceed (AbstractChannel channel, LinkMessage message) {
-		switch (linkState) {
-		// do prepare state discards everything but a did prepare
-		case LinkInitState:
-		case LinkSentDoPrepareState:
-			break;
-		// honor the request
-		case LinkSentDoProceedState:
-			setLinkState(LinkStateEnum.LinkReceivedDidProceedState);
-			notify();
-			break;
-		// otherwise, out of sync
-		default:
-			setLinkState(LinkStateEnum.LinkInitState);
-			notify();
-			break;
+	protected void receivedDidProceed (AbstractChannel channel, LinkMessage message) {
+		LinkStateEnum state;
+		LinkStateEnum next;
+		do {
+			state = linkState;
+			next = null;
+			switch (state) {
+			// do prepare state discards everything but a did prepare
+			case LinkInitState:
+			case LinkSentDoPrepareState:
+				break;
+			// honor the request
+			case LinkSentDoProceedState:
+				next = LinkStateEnum.LinkReceivedDidProceedState;
+				break;
+			// otherwise, out of sync
+			default:
+				next = LinkStateEnum.LinkInitState;
+				break;
+			}
+		} while ((next != null) && !changeLinkState(state, next));
+		if (next != null) {
+			linkSignal.signal();
 		}
 	}
 	
-	protected synchronized void receivedImAlive (AbstractChannel channel, LinkMessage message) {
-		switch (linkState) {
-		// do prepare state discards everything but a did prepare
-		case LinkInitState:
-		case LinkSentDoPrepareState:
-			break;
-		// stay active
-		case LinkReadyState:
-		case LinkActiveState:
-			break;
-		// otherwise, out of sync
-		default:
-			setLinkState(LinkStateEnum.LinkInitState);
-			notify();
-			break;
+	protected void receivedImAlive (AbstractChannel channel, LinkMessage message) {
+		LinkStateEnum state;
+		LinkStateEnum next;
+		do {
+			state = linkState;
+			next = null;
+			switch (state) {
+			// do prepare state discards everything but a did prepare
+			case LinkInitState:
+			case LinkSentDoPrepareState:
+				break;
+			// stay active
+			case LinkReadyState:
+			case LinkActiveState:
+				break;
+			// the resume will sort things out
+			case LinkResumingState:
+			case LinkSentDoResumeState:
+				break;
+			// otherwise, out of sync
+			default:
+				next = LinkStateEnum.LinkInitState;
+				break;
+			}
+		} while ((next != null) && !changeLinkState(state, next));
+		if (next != null) {
+			linkSignal.signal();
 		}
 		lastKeepAliveReceivedTime = SystemTimeSystem.currentTime();
 	}
@@ -167,7 +215,7 @@ public class MasterLink extends AbstractLink {
 	// --------------------------------------------------------------------------------
 	// Interaction with the sender and receiver
 
-	public synchronized boolean isForceInitialSequenceNumbers () {
+	public boolean isForceInitialSequenceNumbers () {
 		switch (linkState) {
 		case LinkInitState:
 		case LinkSentDoPrepareState:
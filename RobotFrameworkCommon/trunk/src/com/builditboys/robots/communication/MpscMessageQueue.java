@@ -0,0 +1,91 @@
+package com.builditboys.robots.communication;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// A message queue with several producers and one consumer, for output
+// channels that more than one thread sends on, the link control channel
+// gets keep alives from the link thread and replies from the receiver.
+// A producer claims a slot by moving the tail along with a compare and
+// set, then fills it. The consumer goes by the slot, not the tail, so a
+// slot that has been claimed but not filled yet reads as empty, the
+// producer pokes the channel collection once it is filled.
+
+public class MpscMessageQueue extends AbstractMessageQueue {
+
+	private final AtomicReferenceArray<LinkMessage> messages;
+
+	// the next slot to take from, written by the consumer
+	private final AtomicLong head = new AtomicLong();
+	// the next slot to claim, moved along by the producers
+	private final AtomicLong tail = new AtomicLong();
+
+	// --------------------------------------------------------------------------------
+	// Constructors
+
+	public MpscMessageQueue (int capacity) {
+		super(capacity);
+		messages = new AtomicReferenceArray<LinkMessage>(mask + 1);
+	}
+
+	// --------------------------------------------------------------------------------
+	// Producers
+
+	public boolean offer (LinkMessage message) {
+		long t;
+		do {
+			t = tail.get();
+			if (t - head.get() >= capacity) {
+				return false;
+			}
+		} while (!tail.compareAndSet(t, t + 1));
+		messages.lazySet((int) t & mask, message);
+		return true;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Consumer
+
+	public LinkMessage poll () {
+		long h = head.get();
+		int index = (int) h & mask;
+		LinkMessage message = messages.get(index);
+		if (message == null) {
+			return null;
+		}
+		messages.lazySet(index, null);
+		head.lazySet(h + 1);
+		return message;
+	}
+
+	public LinkMessage peek () {
+		return messages.get((int) head.get() & mask);
+	}
+
+	// stops at the first slot that has not been filled yet
+	public int drainTo (Collection<? super LinkMessage> drained, int max) {
+		long h = head.get();
+		int count = 0;
+		while (count < max) {
+			int index = (int) (h + count) & mask;
+			LinkMessage message = messages.get(index);
+			if (message == null) {
+				break;
+			}
+			drained.add(message);
+			messages.lazySet(index, null);
+			count++;
+		}
+		head.lazySet(h + count);
+		return count;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public int size () {
+		long h = head.get();
+		return (int) Math.max(0, Math.min(capacity, tail.get() - h));
+	}
+
+}
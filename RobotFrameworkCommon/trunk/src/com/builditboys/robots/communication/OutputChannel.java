@@ -11,4 +11,27 @@ public class OutputChannel extends AbstractChannel {
 		super(protocol, channelNum);
 	}
 
+	public OutputChannel (AbstractProtocol protocol, int channelNum, int capacity) {
+		super(protocol, channelNum, capacity);
+	}
+
+	//--------------------------------------------------------------------------------
+
+	// a message the other side agreed it cannot take is refused here, the
+	// sender checks again, a resync can agree to less after it was queued
+	public void addMessage (LinkMessage message) {
+		AbstractChannelCollection collec = getCollection();
+		if ((collec != null) && (collec.getLink() != null)
+			&& !collec.getLink().getAgreedCapabilities().fits(message)) {
+			throw new IllegalArgumentException("Message too big for the other side, channel "
+											   + channelNumber + ", " + message.size() + " bytes");
+		}
+		super.addMessage(message);
+	}
+
+	// any number of protocol threads can send, only the sender takes
+	protected AbstractMessageQueue newMessageQueue (int capacity) {
+		return new MpscMessageQueue(capacity);
+	}
+
 }
@@ -0,0 +1,132 @@
+package com.builditboys.robots.communication;
+
+import static com.builditboys.robots.communication.LinkParameters.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.builditboys.robots.time.SystemTimeSystem;
+
+// The calls a protocol has outstanding, see RpcCall. The output protocol
+// starts the calls and its input protocol finishes them, so the table is
+// shared between the two threads. Correlation ids go round from 1 to
+// RPC_CORRELATION_ID_MAX, skipping any still in use. The calls are kept in
+// the order they were started, so replies without an id go to the oldest
+// call waiting for them. Calls past their deadline are swept out whenever
+// the table is used.
+
+public class PendingCalls {
+
+	private final int capacity;
+	private final List<RpcCall> calls;
+	private int lastCorrelationId = 0;
+
+	// --------------------------------------------------------------------------------
+	// Constructor
+
+	public PendingCalls (int capacity) {
+		this.capacity = capacity;
+		calls = new ArrayList<RpcCall>(capacity);
+	}
+
+	// --------------------------------------------------------------------------------
+	// Starting calls
+
+	public synchronized RpcCall newCall (int replyIndicator, long timeout) {
+		return addCall(nextCorrelationId(), replyIndicator, timeout);
+	}
+
+	// for replies without an id
+	public synchronized RpcCall newOrderedCall (int replyIndicator, long timeout) {
+		return addCall(RpcCall.NO_CORRELATION_ID, replyIndicator, timeout);
+	}
+
+	private RpcCall addCall (int correlationId, int replyIndicator, long timeout) {
+		if (timeout <= 0) {
+			throw new IllegalArgumentException("Calls need a timeout");
+		}
+		sweep(SystemTimeSystem.currentTime());
+		if (calls.size() >= capacity) {
+			throw new IllegalStateException("Too many outstanding calls: " + calls.size());
+		}
+		RpcCall call = new RpcCall(this, correlationId, replyIndicator, timeout);
+		calls.add(call);
+		return call;
+	}
+
+	// the capacity is well below the number of ids, so there is always a
+	// free one
+	private int nextCorrelationId () {
+		while (true) {
+			lastCorrelationId = (lastCorrelationId % RPC_CORRELATION_ID_MAX) + 1;
+			if (findById(lastCorrelationId) < 0) {
+				return lastCorrelationId;
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+	// Finishing calls, null if no call is waiting for the reply, a late
+	// reply for instance
+
+	public synchronized RpcCall takeCall (int correlationId) {
+		sweep(SystemTimeSystem.currentTime());
+		int index = findById(correlationId);
+		return (index >= 0) ? calls.remove(index) : null;
+	}
+
+	public synchronized RpcCall takeOrderedCall (int replyIndicator) {
+		sweep(SystemTimeSystem.currentTime());
+		for (int i = 0; i < calls.size(); i++) {
+			RpcCall call = calls.get(i);
+			if ((call.getCorrelationId() == RpcCall.NO_CORRELATION_ID)
+					&& (call.getReplyIndicator() == replyIndicator)) {
+				return calls.remove(i);
+			}
+		}
+		return null;
+	}
+
+	synchronized void remove (RpcCall call) {
+		calls.remove(call);
+	}
+
+	// --------------------------------------------------------------------------------
+
+	private int findById (int correlationId) {
+		for (int i = 0; i < calls.size(); i++) {
+			if (calls.get(i).getCorrelationId() == correlationId) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void sweep (long now) {
+		for (int i = calls.size() - 1; i >= 0; i--) {
+			RpcCall call = calls.get(i);
+			if (call.isPastDeadline(now)) {
+				calls.remove(i);
+				call.timeOut();
+			}
+		}
+	}
+
+	public synchronized int size () {
+		return calls.size();
+	}
+
+	public int getCapacity () {
+		return capacity;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public synchronized void describe () {
+		System.out.println("  Pending calls: " + calls.size() + " of " + capacity);
+		for (RpcCall call : calls) {
+			System.out.println("    " + call);
+		}
+	}
+
+}
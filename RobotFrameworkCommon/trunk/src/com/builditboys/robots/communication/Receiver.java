@@ -2,6 +2,8 @@ package com.builditboys.robots.communication;
 
 import static com.builditboys.robots.communication.LinkParameters.*;
 
+import java.nio.ByteBuffer;
+
 import com.builditboys.robots.time.InternalTimeSystem;
 import com.builditboys.robots.time.LocalTimeSystem;
 import com.builditboys.robots.utilities.FillableBuffer;
@@ -23,9 +25,35 @@ public class Receiver extends AbstractSenderReceiver {
 
 	private byte lastSyncByte;
 
+	// set by a resync frame, take the next sequence number as given
+	private boolean followNextSequenceNumber = false;
+	
+	// the preamble checked out and its sequence number was counted
+	private boolean preambleAccepted = false;
+
+	// the sequence number of the last frame handed to a protocol, the other
+	// side resends everything after it when the link is resumed
+	private volatile int lastReceivedSequenceNumber = RESYNC_SEQUENCE_NUM;
+	// set when a frame is lost, the frames after it may have gotten through
+	// but the other side has to resend from the hole, the link clears it
+	// once the resume is done
+	private volatile boolean receiveGap = false;
+
 	private FillableBuffer preambleBuffer;
 	private FillableBuffer postambleBuffer;
 
+	// the unescaped payload of the frame being received, reused for every
+	// frame, and a read only view of it that goes to the protocols
+	private FillableBuffer frameBuffer;
+	private LinkMessage frameView;
+
+	// forward error correction of frame bodies on the data channels, see
+	// AbstractFecCodec, null for none, the link changes it during the
+	// handshake, it is picked up at the next frame
+	private volatile AbstractFecCodec fecCodec = null;
+	private byte fecBody[] = new byte[RECEIVE_PAYLOAD_MAX_LENGTH + RECEIVE_POSTAMBLE_LENGTH];
+	private byte fecEncoded[] = new byte[FecModeEnum.maxEncodedLength(RECEIVE_PAYLOAD_MAX_LENGTH + RECEIVE_POSTAMBLE_LENGTH)];
+
 	// --------------------------------------------------------------------------------
 	// Constructor
 
@@ -34,12 +62,27 @@ public class Receiver extends AbstractSenderReceiver {
 		port = prt;
 		preambleBuffer = new FillableBuffer(SEND_PREAMBLE_LENGTH);
 		postambleBuffer = new FillableBuffer(SEND_POSTAMBLE_LENGTH);
+		ByteBuffer frameBytes = ByteBuffer.allocate(MAX_PAYLOAD_LEN);
+		frameBuffer = new FillableBuffer(frameBytes);
+		frameView = new LinkMessage(frameBytes.asReadOnlyBuffer());
 		crc8 = new CRC8Calculator();
-		crc16 = new CRC16Calculator();
+		crc16 = countingCRC16;
 		inputChannels = link.getInputChannels();
 		resetMessageInfo();
 	}
 
+	// --------------------------------------------------------------------------------
+	// Forward error correction, the link sets it to the agreed mode, see
+	// LinkCapabilities
+
+	public void setFecMode(FecModeEnum mode) {
+		fecCodec = mode.newCodec();
+	}
+
+	public FecModeEnum getFecMode() {
+		return (fecCodec != null) ? fecCodec.getMode() : FecModeEnum.NONE;
+	}
+
 	// --------------------------------------------------------------------------------
 
 	private void resetMessageInfo() {
@@ -53,6 +96,7 @@ public class Receiver extends AbstractSenderReceiver {
 		receivedProtocol = null;
 		receivedOk = false;
 		receivedTime = 0;
+		preambleAccepted = false;
 	}
 
 	// --------------------------------------------------------------------------------
@@ -68,8 +112,12 @@ public class Receiver extends AbstractSenderReceiver {
 					receivedProtocol = receivedChannel.getProtocol();
 				
 					// ask the link if we are currently receiving from the channel
-					// if not, discard
+					// if not, discard, a frame dropped during a resume comes
+					// again in the replay and is credited then
 					if (link.isReceivableChannel(receivedChannel)) {
+						if (receivedChannelNumber != LINK_CONTROL_CHANNEL_NUMBER) {
+							link.creditFrameReceived(receivedChannelNumber);
+						}
 						handleReceivedMessage();
 					}
 					else {
@@ -90,7 +138,6 @@ public class Receiver extends AbstractSenderReceiver {
 		resetMessageInfo();
 
 		crc8.start();
-		crc16.start();
 
 		preambleBuffer.reset();
 		postambleBuffer.reset();
@@ -98,15 +145,25 @@ public class Receiver extends AbstractSenderReceiver {
 		try {
 			receivePreSync();
 			receivePreamble();
-			receiveBody();
-			receivePostamble();
+			AbstractFecCodec codec = fecCodec;
+			if ((codec != null) && (receivedChannelNumber != LINK_CONTROL_CHANNEL_NUMBER)) {
+				receiveFecBody(codec);
+			}
+			else {
+				receiveBody();
+				receivePostamble();
+			}
 			receivedOk = true;
+		} catch (FrameAbortedException e) {
+			handleFrameAborted();
+			receivedOk = false;
 		} catch (ReceiveException e) {
 			handleReceiveException(e);
 			receivedOk = false;
 		}
 
 		if (receivedOk) {
+			link.getLinkQuality().noteFrameReceived();
 			receivedTime = InternalTimeSystem.currentTime();
 			debugPrintMessage("Received", receivedSequenceNumber, receivedChannelNumber, receivedLength, receivedCRC1, receivedMessage, receivedCRC2);
 		}
@@ -140,10 +197,10 @@ public class Receiver extends AbstractSenderReceiver {
 			preambleBuffer.addByte(readEscapedByte());
 		}
 
-		int expectedSequenceNumber = bestSequenceNumber();
 		receivedSequenceNumber = preambleBuffer.reConstructBytes1();
 		receivedChannelNumber = preambleBuffer.reConstructBytes1();
-		receivedLength = preambleBuffer.reConstructBytes1();
+		// lengths go up to MAX_PAYLOAD_LEN, past what a signed byte holds
+		receivedLength = preambleBuffer.reConstructBytes1() & 0xFF;
 
 		crc8.extend(preambleBuffer);
 
@@ -154,11 +211,22 @@ public class Receiver extends AbstractSenderReceiver {
 		if (receivedCRC1 != crc8.get()) {
 			throw new ReceiveException("Preamble CRC mismatch");
 		}
-		if (receivedSequenceNumber != expectedSequenceNumber) {
-			System.out.println("Expected, Received");
-			System.out.println(expectedSequenceNumber);
-			System.out.println(receivedSequenceNumber);
-			throw new ReceiveException("Bad received sequence number");
+		if (receivedSequenceNumber == RESYNC_SEQUENCE_NUM) {
+			// frames may have been lost, pick up the count from the next one
+			followNextSequenceNumber = true;
+		}
+		else if (followNextSequenceNumber) {
+			followSequenceNumber(receivedSequenceNumber);
+			followNextSequenceNumber = false;
+		}
+		else {
+			int expectedSequenceNumber = bestSequenceNumber();
+			if (receivedSequenceNumber != expectedSequenceNumber) {
+				System.out.println("Expected, Received");
+				System.out.println(expectedSequenceNumber);
+				System.out.println(receivedSequenceNumber);
+				throw new ReceiveException("Bad received sequence number");
+			}
 		}
 		if (!AbstractChannel.isLegalChannelNumber(receivedChannelNumber)) {
 			throw new ReceiveException("Bad received channel number");
@@ -167,16 +235,21 @@ public class Receiver extends AbstractSenderReceiver {
 			throw new ReceiveException("Bad received message length");
 		}
 
+		// which crc16 depends on the channel
+		crc16 = crc16For(receivedChannelNumber);
+		crc16.start();
 		crc16.extend(preambleBuffer);
+		preambleAccepted = (receivedSequenceNumber != RESYNC_SEQUENCE_NUM);
 	}
 
 	private void receiveBody() throws ReceiveException, InterruptedException {
-		receivedMessage = new LinkMessage(receivedChannelNumber, receivedLength);
-
+		frameBuffer.reset();
 		for (int i = 0; i < receivedLength; i++) {
-			receivedMessage.addByte(readEscapedByte());
+			frameBuffer.addByte(readEscapedByte());
 		}
-		crc16.extend(receivedMessage);
+		crc16.extend(frameBuffer);
+		frameView.setView(receivedChannelNumber, receivedLength);
+		receivedMessage = frameView;
 	}
 
 	private void receivePostamble() throws ReceiveException,
@@ -186,13 +259,43 @@ public class Receiver extends AbstractSenderReceiver {
 		}
 
 		receivedCRC2 = postambleBuffer.reConstructBytes2();
+		checkCRC2();
+	}
 
+	private void checkCRC2() throws ReceiveException {
 		crc16.end();
-		if (receivedCRC2 != crc16.get()) {
+		if ((receivedCRC2 & 0xFFFF) != (crc16.get() & 0xFFFF)) {
 			throw new ReceiveException("Preamble CRC mismatch");
 		}
 	}
 
+	// the whole encoded body, corrected, then the crc16 like any other
+	// frame, with FEATURE_CRC16 agreed it catches what the code could not
+	// put right or put wrong, the counting crc16 catches none of that
+	private void receiveFecBody(AbstractFecCodec codec) throws ReceiveException, InterruptedException {
+		int length = receivedLength + RECEIVE_POSTAMBLE_LENGTH;
+		int count = codec.encodedLength(length);
+		for (int i = 0; i < count; i++) {
+			fecEncoded[i] = readEscapedByte();
+		}
+		int corrected = codec.decode(fecEncoded, length, fecBody);
+		if (corrected < 0) {
+			throw new ReceiveException("Uncorrectable frame body");
+		}
+
+		frameBuffer.reset();
+		frameBuffer.addBytes(fecBody, 0, receivedLength);
+		crc16.extend(frameBuffer);
+		frameView.setView(receivedChannelNumber, receivedLength);
+		receivedMessage = frameView;
+
+		receivedCRC2 = (fecBody[receivedLength] & 0xFF) | ((fecBody[receivedLength + 1] & 0xFF) << 8);
+		checkCRC2();
+		if (corrected > 0) {
+			link.getLinkQuality().noteFrameCorrected(corrected);
+		}
+	}
+
 	// --------------------------------------------------------------------------------
 	// Classifying bytes - need to detect byte escapes
 
@@ -210,6 +313,8 @@ public class Receiver extends AbstractSenderReceiver {
 				return RECEIVE_SYNC_BYTE_1;
 			case RECEIVE_INDICATE_ESCAPE:
 				return RECEIVE_ESCAPE_BYTE;
+			case RECEIVE_INDICATE_ABORT:
+				throw new FrameAbortedException();
 			default:
 				throw new ReceiveException("Unknown escaped byte");
 			}
@@ -228,15 +333,52 @@ public class Receiver extends AbstractSenderReceiver {
 		}
 	}
 
+	// the sender cut the frame off on purpose, not an error
+	private static class FrameAbortedException extends ReceiveException {
+		private static final long serialVersionUID = 1L;
+
+		FrameAbortedException() {
+			super("Frame aborted");
+		}
+	}
+
 	// --------------------------------------------------------------------------------
 
 	private void handleReceivedMessage() throws InterruptedException {
-		receivedProtocol.receiveMessage(receivedMessage);
+		if (!receiveGap && (receivedSequenceNumber != RESYNC_SEQUENCE_NUM)) {
+			lastReceivedSequenceNumber = receivedSequenceNumber;
+		}
+		// the view is only good until the protocol returns, most of them
+		// keep the message so they get their own copy
+		if (receivedProtocol.receivesMessageViews()) {
+			receivedProtocol.receiveMessage(frameView);
+		}
+		else {
+			receivedProtocol.receiveMessage(frameView.copy());
+		}
+	}
+
+	public int getLastReceivedSequenceNumber() {
+		return lastReceivedSequenceNumber;
+	}
+
+	public void clearReceiveGap() {
+		receiveGap = false;
+	}
+
+	// the sender gives back the sequence number of an aborted frame, so do
+	// the same if we got far enough to count it
+	private void handleFrameAborted() {
+		if (preambleAccepted) {
+			rewindSequenceNumber();
+		}
 	}
 
 	private void handleReceiveException(ReceiveException e) {
 		AbstractLink link = inputChannels.getLink();
 		receivedTime = InternalTimeSystem.currentTime();
+		link.getLinkQuality().noteFrameError();
+		receiveGap = true;
 		link.receiveReceiverException(e);
 	}
 
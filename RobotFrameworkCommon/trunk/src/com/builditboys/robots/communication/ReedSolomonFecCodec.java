@@ -0,0 +1,321 @@
+package com.builditboys.robots.communication;
+
+import static com.builditboys.robots.communication.LinkParameters.*;
+
+// Reed-Solomon over GF(256), shortened to fit the body. The body is dealt
+// out a byte at a time to a few codewords, FEC_RS_INTERLEAVE_DEPTH of
+// them, or more if the body is too long for that many, and each gets
+// FEC_RS_PARITY_LENGTH parity bytes and can have half that many bytes
+// corrected. A burst on the wire lands a byte in each codeword in turn,
+// so one as long as the depth times the correctable bytes comes back.
+//
+// The body goes out as is, followed by the parity bytes, the dealing
+// carries on through them, byte i belongs to codeword i mod depth. The
+// code is the usual one, generator roots at alpha^0 up, and decoding is
+// syndromes, Berlekamp-Massey, a Chien search and Forney.
+
+public class ReedSolomonFecCodec extends AbstractFecCodec {
+
+	private static final int FIELD_SIZE = 256;
+	private static final int FIELD_ORDER = FIELD_SIZE - 1;
+	private static final int PRIMITIVE_POLYNOMIAL = 0x11D;
+
+	private static final int MAX_CODEWORD_LENGTH = FIELD_ORDER;
+
+	private static final int EXP[] = new int[2 * FIELD_ORDER];
+	private static final int LOG[] = new int[FIELD_SIZE];
+
+	static {
+		int x = 1;
+		for (int i = 0; i < FIELD_ORDER; i++) {
+			EXP[i] = x;
+			LOG[x] = i;
+			x <<= 1;
+			if ((x & FIELD_SIZE) != 0) {
+				x ^= PRIMITIVE_POLYNOMIAL;
+			}
+		}
+		for (int i = FIELD_ORDER; i < 2 * FIELD_ORDER; i++) {
+			EXP[i] = EXP[i - FIELD_ORDER];
+		}
+	}
+
+	private final int parityLength;
+	private final int depth;
+
+	// highest power first, the leading 1 included
+	private final int generator[];
+
+	// scratch, a codeword and the decoder's polynomials, lowest power first
+	private final int codeword[] = new int[MAX_CODEWORD_LENGTH];
+	private final int syndromes[];
+	private final int lambda[];
+	private final int previous[];
+	private final int saved[];
+	private final int omega[];
+	private final int errorPositions[];
+
+	// --------------------------------------------------------------------------------
+	// Constructors
+
+	public ReedSolomonFecCodec () {
+		this(FEC_RS_PARITY_LENGTH, FEC_RS_INTERLEAVE_DEPTH);
+	}
+
+	public ReedSolomonFecCodec (int parityLength, int depth) {
+		if ((parityLength < 2) || (parityLength >= MAX_CODEWORD_LENGTH) || (depth < 1)) {
+			throw new IllegalArgumentException();
+		}
+		this.parityLength = parityLength;
+		this.depth = depth;
+
+		generator = new int[parityLength + 1];
+		generator[0] = 1;
+		for (int i = 0; i < parityLength; i++) {
+			// multiply by (x + alpha^i)
+			for (int j = i + 1; j > 0; j--) {
+				generator[j] = generator[j] ^ multiply(generator[j - 1], EXP[i]);
+			}
+		}
+
+		syndromes = new int[parityLength];
+		lambda = new int[parityLength + 1];
+		previous = new int[parityLength + 1];
+		saved = new int[parityLength + 1];
+		omega = new int[parityLength];
+		errorPositions = new int[parityLength];
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public FecModeEnum getMode () {
+		return FecModeEnum.REED_SOLOMON;
+	}
+
+	public int encodedLength (int length) {
+		return length + depthFor(length) * parityLength;
+	}
+
+	// enough codewords that none is longer than the field allows
+	private int depthFor (int length) {
+		int maxData = MAX_CODEWORD_LENGTH - parityLength;
+		return Math.max(Math.min(depth, Math.max(length, 1)), (length + maxData - 1) / maxData);
+	}
+
+	// where codeword c's first parity byte goes, the first one past the
+	// body that is c mod d
+	private static int firstParity (int length, int d, int c) {
+		return length + (((c - length) % d) + d) % d;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Encoding, dividing by the generator with the usual shift register
+
+	public int encode (byte body[], int length, byte encoded[]) {
+		System.arraycopy(body, 0, encoded, 0, length);
+		int d = depthFor(length);
+		int remainder[] = syndromes;   // free while encoding
+		for (int c = 0; c < d; c++) {
+			for (int j = 0; j < parityLength; j++) {
+				remainder[j] = 0;
+			}
+			for (int i = c; i < length; i += d) {
+				int feedback = (body[i] & 0xFF) ^ remainder[0];
+				for (int j = 0; j < parityLength - 1; j++) {
+					remainder[j] = remainder[j + 1] ^ multiply(generator[j + 1], feedback);
+				}
+				remainder[parityLength - 1] = multiply(generator[parityLength], feedback);
+			}
+			int first = firstParity(length, d, c);
+			for (int j = 0; j < parityLength; j++) {
+				encoded[first + j * d] = (byte) remainder[j];
+			}
+		}
+		return length + d * parityLength;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Decoding
+
+	public int decode (byte encoded[], int length, byte body[]) {
+		int d = depthFor(length);
+		int corrected = 0;
+		for (int c = 0; c < d; c++) {
+			// gather the codeword, data then parity
+			int n = 0;
+			for (int i = c; i < length; i += d) {
+				codeword[n++] = encoded[i] & 0xFF;
+			}
+			int dataLength = n;
+			int first = firstParity(length, d, c);
+			for (int j = 0; j < parityLength; j++) {
+				codeword[n++] = encoded[first + j * d] & 0xFF;
+			}
+
+			int errors = correct(n);
+			if (errors < 0) {
+				return -1;
+			}
+			corrected += errors;
+
+			for (int q = 0; q < dataLength; q++) {
+				body[c + q * d] = (byte) codeword[q];
+			}
+		}
+		return corrected;
+	}
+
+	// corrects the first n bytes of codeword, returns how many were wrong,
+	// -1 if there were too many
+	private int correct (int n) {
+		if (!computeSyndromes(n)) {
+			return 0;
+		}
+
+		// Berlekamp-Massey, the error locator in lambda
+		clear(lambda);
+		clear(previous);
+		lambda[0] = 1;
+		previous[0] = 1;
+		int errors = 0;
+		int shift = 1;
+		int lastDiscrepancy = 1;
+		for (int r = 0; r < parityLength; r++) {
+			int discrepancy = syndromes[r];
+			for (int i = 1; i <= errors; i++) {
+				discrepancy ^= multiply(lambda[i], syndromes[r - i]);
+			}
+			if (discrepancy == 0) {
+				shift++;
+				continue;
+			}
+			int scale = divide(discrepancy, lastDiscrepancy);
+			if (2 * errors <= r) {
+				System.arraycopy(lambda, 0, saved, 0, lambda.length);
+				subtractShifted(lambda, previous, scale, shift);
+				errors = r + 1 - errors;
+				System.arraycopy(saved, 0, previous, 0, previous.length);
+				lastDiscrepancy = discrepancy;
+				shift = 1;
+			}
+			else {
+				subtractShifted(lambda, previous, scale, shift);
+				shift++;
+			}
+		}
+		if (2 * errors > parityLength) {
+			return -1;
+		}
+
+		// Chien search, position p is the coefficient of x^(n - 1 - p), it is
+		// wrong if lambda has a root at the inverse of alpha to that power
+		int found = 0;
+		for (int p = 0; p < n; p++) {
+			int power = n - 1 - p;
+			if (evaluate(lambda, errors, EXP[(FIELD_ORDER - power) % FIELD_ORDER]) == 0) {
+				if (found == errors) {
+					return -1;
+				}
+				errorPositions[found++] = p;
+			}
+		}
+		if (found != errors) {
+			// roots outside the shortened codeword, too many errors
+			return -1;
+		}
+
+		// Forney, omega is syndromes times lambda, cut off at parityLength
+		for (int k = 0; k < parityLength; k++) {
+			int sum = 0;
+			for (int i = 0; i <= Math.min(k, errors); i++) {
+				sum ^= multiply(syndromes[k - i], lambda[i]);
+			}
+			omega[k] = sum;
+		}
+		for (int e = 0; e < errors; e++) {
+			int power = n - 1 - errorPositions[e];
+			int x = EXP[power];
+			int xInverse = EXP[(FIELD_ORDER - power) % FIELD_ORDER];
+			// the formal derivative of lambda keeps the odd powers
+			int derivative = 0;
+			for (int i = 1; i <= errors; i += 2) {
+				derivative ^= multiply(lambda[i], power(xInverse, i - 1));
+			}
+			if (derivative == 0) {
+				return -1;
+			}
+			int magnitude = multiply(x, divide(evaluate(omega, parityLength - 1, xInverse), derivative));
+			codeword[errorPositions[e]] ^= magnitude;
+		}
+
+		// make sure it really is a codeword now
+		if (computeSyndromes(n)) {
+			return -1;
+		}
+		return errors;
+	}
+
+	// returns true if any syndrome is non zero
+	private boolean computeSyndromes (int n) {
+		boolean any = false;
+		for (int i = 0; i < parityLength; i++) {
+			int s = 0;
+			int root = EXP[i];
+			for (int p = 0; p < n; p++) {
+				s = multiply(s, root) ^ codeword[p];
+			}
+			syndromes[i] = s;
+			any |= (s != 0);
+		}
+		return any;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Field and polynomial arithmetic, polynomials lowest power first
+
+	private static int multiply (int a, int b) {
+		if ((a == 0) || (b == 0)) {
+			return 0;
+		}
+		return EXP[LOG[a] + LOG[b]];
+	}
+
+	private static int divide (int a, int b) {
+		if (a == 0) {
+			return 0;
+		}
+		return EXP[LOG[a] + FIELD_ORDER - LOG[b]];
+	}
+
+	private static int power (int a, int n) {
+		if (n == 0) {
+			return 1;
+		}
+		if (a == 0) {
+			return 0;
+		}
+		return EXP[(LOG[a] * n) % FIELD_ORDER];
+	}
+
+	private static int evaluate (int poly[], int degree, int x) {
+		int result = 0;
+		for (int i = degree; i >= 0; i--) {
+			result = multiply(result, x) ^ poly[i];
+		}
+		return result;
+	}
+
+	// poly -= scale * x^shift * other
+	private static void subtractShifted (int poly[], int other[], int scale, int shift) {
+		for (int i = 0; i + shift < poly.length; i++) {
+			poly[i + shift] ^= multiply(scale, other[i]);
+		}
+	}
+
+	private static void clear (int poly[]) {
+		for (int i = 0; i < poly.length; i++) {
+			poly[i] = 0;
+		}
+	}
+
+}
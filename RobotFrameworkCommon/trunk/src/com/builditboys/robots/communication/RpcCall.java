@@ -0,0 +1,163 @@
+package com.builditboys.robots.communication;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.builditboys.robots.time.SystemTimeSystem;
+
+// One outstanding request on a channel, the future for its reply. Calls
+// are started and finished by the protocols, see AbstractProtocol. A call
+// that gets no reply by its deadline times out, get then throws an
+// ExecutionException with a TimeoutException as the cause.
+
+public class RpcCall implements Future<LinkMessage> {
+
+	public enum CallStateEnum {
+		PENDING, REPLIED, TIMED_OUT, CANCELLED;
+	}
+
+	// for replies that carry no id and are matched in order instead
+	public static final int NO_CORRELATION_ID = 0;
+
+	private final PendingCalls calls;
+	private final int correlationId;
+	private final int replyIndicator;
+	private final long timeout;
+	private final long deadline;   // system time
+
+	private CallStateEnum state = CallStateEnum.PENDING;
+	private LinkMessage reply = null;
+
+	// --------------------------------------------------------------------------------
+	// Constructor, see PendingCalls
+
+	RpcCall (PendingCalls calls, int correlationId, int replyIndicator, long timeout) {
+		this.calls = calls;
+		this.correlationId = correlationId;
+		this.replyIndicator = replyIndicator;
+		this.timeout = timeout;
+		this.deadline = SystemTimeSystem.currentTime() + timeout;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public int getCorrelationId () {
+		return correlationId;
+	}
+
+	public int getReplyIndicator () {
+		return replyIndicator;
+	}
+
+	public long getTimeout () {
+		return timeout;
+	}
+
+	public long getDeadline () {
+		return deadline;
+	}
+
+	public synchronized CallStateEnum getState () {
+		return state;
+	}
+
+	boolean isPastDeadline (long now) {
+		return now >= deadline;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Finishing a call, only the first of these counts
+
+	synchronized boolean complete (LinkMessage message) {
+		return finish(CallStateEnum.REPLIED, message);
+	}
+
+	synchronized boolean timeOut () {
+		return finish(CallStateEnum.TIMED_OUT, null);
+	}
+
+	private boolean finish (CallStateEnum how, LinkMessage message) {
+		if (state != CallStateEnum.PENDING) {
+			return false;
+		}
+		state = how;
+		reply = message;
+		notifyAll();
+		return true;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Future
+
+	public boolean cancel (boolean mayInterruptIfRunning) {
+		boolean cancelled;
+		synchronized (this) {
+			cancelled = finish(CallStateEnum.CANCELLED, null);
+		}
+		if (cancelled) {
+			calls.remove(this);
+		}
+		return cancelled;
+	}
+
+	public synchronized boolean isCancelled () {
+		return state == CallStateEnum.CANCELLED;
+	}
+
+	public boolean isDone () {
+		return getState() != CallStateEnum.PENDING;
+	}
+
+	// waits until the reply comes or the call times out
+	public LinkMessage get () throws InterruptedException, ExecutionException {
+		waitUntil(deadline);
+		return getReply();
+	}
+
+	// waits no longer than the given time, the call may still be pending
+	// afterwards
+	public LinkMessage get (long wait, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		long until = Math.min(deadline, SystemTimeSystem.currentTime() + unit.toMillis(wait));
+		waitUntil(until);
+		if (getState() == CallStateEnum.PENDING) {
+			throw new TimeoutException("Call " + correlationId + " still waiting");
+		}
+		return getReply();
+	}
+
+	private void waitUntil (long until) throws InterruptedException {
+		synchronized (this) {
+			long now;
+			while ((state == CallStateEnum.PENDING) && ((now = SystemTimeSystem.currentTime()) < until)) {
+				wait(until - now);
+			}
+		}
+		// nobody else may be looking, so the waiter times the call out
+		if (isPastDeadline(SystemTimeSystem.currentTime()) && timeOut()) {
+			calls.remove(this);
+		}
+	}
+
+	private synchronized LinkMessage getReply () throws ExecutionException {
+		switch (state) {
+		case REPLIED:
+			return reply;
+		case CANCELLED:
+			throw new CancellationException("Call " + correlationId + " cancelled");
+		case TIMED_OUT:
+			throw new ExecutionException(new TimeoutException("Call " + correlationId + " timed out after " + timeout + " ms"));
+		default:
+			throw new IllegalStateException("Call " + correlationId + " still pending");
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public String toString () {
+		return "Call " + correlationId + " for reply " + replyIndicator + " " + getState();
+	}
+
+}
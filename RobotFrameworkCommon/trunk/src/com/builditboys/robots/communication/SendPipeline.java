@@ -0,0 +1,248 @@
+package com.builditboys.robots.communication;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.builditboys.robots.system.AbstractRobotSystem;
+
+// The write stage of a pipelined sender. The sender encodes whole frames
+// (escaped, CRCs done) and submits them here, they are packed into a
+// fill block while this thread writes the other block out to the port in
+// one go. When a write finishes the blocks swap, so while one block is on
+// the wire the next one is being filled and the port never sits idle as
+// long as the sender keeps up.
+//
+// Blocks are kept short so the encoder does not get far ahead of the
+// wire, a frame that is encoded is committed and link control frames
+// behind it have to wait for it. A block takes frames until the next one
+// would push it past the block size, a frame bigger than that goes in a
+// block on its own.
+//
+// A message that wants to be told it was sent is told once its block has
+// been written, not when it was encoded, and so is a WrittenListener.
+//
+// An emergency cannot cut off the block on the wire, but it does not have
+// to wait behind the fill block either. The ordinary data frames at the
+// end of the fill block can be withdrawn, nothing of them has gone out,
+// and the sender encodes the emergency in their place and then encodes
+// them again, so the sequence numbers stay in order on the wire. A frame
+// that is waiting for room when an emergency comes up is refused, it goes
+// back with the others.
+
+class SendPipeline implements Runnable {
+
+	private final LinkPortInterface port;
+	private final int blockSize;
+
+	private byte fillBlock[];
+	private int fillCount = 0;
+	private List<LinkMessage> fillNotify = new ArrayList<LinkMessage>();
+	private List<WrittenListener> fillListeners = new ArrayList<WrittenListener>();
+
+	// the withdrawable frames at the end of the fill block, in order, and
+	// where the first of them starts
+	private final List<LinkMessage> fillWithdrawable = new ArrayList<LinkMessage>();
+	private int withdrawableFrom = 0;
+	private boolean giveWay = false;
+
+	private byte writeBlock[];
+	private List<LinkMessage> writeNotify = new ArrayList<LinkMessage>();
+	private List<WrittenListener> writeListeners = new ArrayList<WrittenListener>();
+
+	private String threadName;
+	private Thread thread;
+	private volatile boolean shouldRun;
+
+	// statistics, guarded by this
+	private long blocksWritten = 0;
+	private long bytesWritten = 0;
+	private long encoderStalls = 0;
+	private long framesWithdrawn = 0;
+
+	// --------------------------------------------------------------------------------
+	// Constructor
+
+	SendPipeline(LinkPortInterface port, int blockSize, int maxFrameLength) {
+		this.port = port;
+		this.blockSize = blockSize;
+		fillBlock = new byte[Math.max(blockSize, maxFrameLength)];
+		writeBlock = new byte[Math.max(blockSize, maxFrameLength)];
+	}
+
+	// told on the writer thread once the block with its frame is written
+	interface WrittenListener {
+		void frameWritten();
+	}
+
+	// --------------------------------------------------------------------------------
+	// The encode side, called by the sender
+
+	// returns false, and takes nothing, if the frame is withdrawable and an
+	// emergency came up while it was waiting for room
+	synchronized boolean submit(byte frame[], int count, LinkMessage message, boolean notify,
+								WrittenListener listener, boolean withdrawable) throws InterruptedException {
+		if (count > fillBlock.length) {
+			throw new IllegalArgumentException("Frame is bigger than a send block");
+		}
+		if (!hasRoomFor(count)) {
+			encoderStalls++;
+			do {
+				if (withdrawable && giveWay) {
+					return false;
+				}
+				wait();
+			} while (!hasRoomFor(count));
+		}
+		if (withdrawable) {
+			if (fillWithdrawable.isEmpty()) {
+				withdrawableFrom = fillCount;
+			}
+			fillWithdrawable.add(message);
+		}
+		else {
+			fillWithdrawable.clear();
+		}
+		System.arraycopy(frame, 0, fillBlock, fillCount, count);
+		fillCount += count;
+		if (notify) {
+			fillNotify.add(message);
+		}
+		if (listener != null) {
+			fillListeners.add(listener);
+		}
+		notifyAll();
+		return true;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Emergencies, called by the sender
+
+	// from any thread, an emergency is waiting, stop holding the sender up
+	// with frames that could be withdrawn
+	synchronized void giveWay() {
+		giveWay = true;
+		notifyAll();
+	}
+
+	// the sender is about to look for emergencies
+	synchronized void clearGiveWay() {
+		giveWay = false;
+	}
+
+	// takes the withdrawable frames off the end of the fill block, in the
+	// order they were submitted
+	synchronized List<LinkMessage> withdraw() {
+		List<LinkMessage> withdrawn = new ArrayList<LinkMessage>(fillWithdrawable);
+		if (!withdrawn.isEmpty()) {
+			fillCount = withdrawableFrom;
+			fillNotify.removeAll(withdrawn);
+			fillWithdrawable.clear();
+			framesWithdrawn += withdrawn.size();
+			notifyAll();
+		}
+		return withdrawn;
+	}
+
+	private boolean hasRoomFor(int count) {
+		return (fillCount == 0) || (fillCount + count <= blockSize);
+	}
+
+	// --------------------------------------------------------------------------------
+	// The write side
+
+	public void run() {
+		while (shouldRun) {
+			try {
+				int count = takeBlock();
+				port.writeBytes(writeBlock, 0, count);
+				for (WrittenListener listener : writeListeners) {
+					listener.frameWritten();
+				}
+				writeListeners.clear();
+				for (LinkMessage message : writeNotify) {
+					message.doNotify();
+				}
+				writeNotify.clear();
+				synchronized (this) {
+					blocksWritten++;
+					bytesWritten += count;
+				}
+			} catch (InterruptedException e) {
+				// stopThread interrupts, check shouldRun
+			} catch (IOException e) {
+				AbstractRobotSystem.acknowledgeRobotSystemError(threadName, e);
+				break;
+			}
+		}
+		System.out.println(threadName + ": thread exiting");
+	}
+
+	// wait for something to write, then swap blocks
+	private synchronized int takeBlock() throws InterruptedException {
+		while (fillCount == 0) {
+			wait();
+		}
+		byte block[] = writeBlock;
+		writeBlock = fillBlock;
+		fillBlock = block;
+
+		List<LinkMessage> notify = writeNotify;
+		writeNotify = fillNotify;
+		fillNotify = notify;
+
+		List<WrittenListener> listeners = writeListeners;
+		writeListeners = fillListeners;
+		fillListeners = listeners;
+
+		int count = fillCount;
+		fillCount = 0;
+		fillWithdrawable.clear();
+		notifyAll();
+		return count;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Thread control
+
+	void startThread(String name) {
+		if (thread != null) {
+			throw new IllegalStateException();
+		}
+		threadName = name;
+		shouldRun = true;
+		thread = new Thread(this, threadName);
+		System.out.println("Starting " + threadName + " thread");
+		thread.start();
+	}
+
+	void stopThread() {
+		shouldRun = false;
+		thread.interrupt();
+	}
+
+	void threadJoin() throws InterruptedException {
+		thread.join();
+	}
+
+	// --------------------------------------------------------------------------------
+
+	synchronized long getBlocksWritten() {
+		return blocksWritten;
+	}
+
+	synchronized long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	// how many times the sender had to wait for the writer
+	synchronized long getEncoderStalls() {
+		return encoderStalls;
+	}
+
+	// how many frames were taken back to let an emergency go first
+	synchronized long getFramesWithdrawn() {
+		return framesWithdrawn;
+	}
+
+}
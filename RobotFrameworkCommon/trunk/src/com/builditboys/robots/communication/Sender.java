@@ -3,9 +3,14 @@ package com.builditboys.robots.communication;
 import static com.builditboys.robots.communication.LinkParameters.*;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import com.builditboys.robots.time.InternalTimeSystem;
 import com.builditboys.robots.time.LocalTimeSystem;
+import com.builditboys.robots.time.SystemTimeSystem;
 import com.builditboys.robots.utilities.FillableBuffer;
 
 public class Sender extends AbstractSenderReceiver {
@@ -25,6 +30,62 @@ public class Sender extends AbstractSenderReceiver {
 	private FillableBuffer preambleBuffer;
 	private FillableBuffer postambleBuffer;
 
+	// recently sent messages, kept so that they can be replayed after a
+	// link resume, a ring buffer indexed by historyNext
+	private final int historySequenceNumbers[] = new int[SEND_HISTORY_LENGTH];
+	private final LinkMessage historyMessages[] = new LinkMessage[SEND_HISTORY_LENGTH];
+	private int historyNext = 0;
+	private int historyCount = 0;
+
+	// messages waiting to be sent again, they go ahead of everything but
+	// link control messages
+	private ConcurrentLinkedQueue<LinkMessage> replayMessages = new ConcurrentLinkedQueue<LinkMessage>();
+
+	// unsendable messages, drained a channel at a time and dropped
+	private final List<LinkMessage> discardedMessages = new ArrayList<LinkMessage>();
+
+	// messages thrown away because they missed their deadline
+	private volatile long expiredMessageCount = 0;
+	private volatile long rejectedMessageCount = 0;
+
+	// emergency messages jump the channel scheduler and cut off whatever
+	// frame is going out, the cut off message goes again right after, when
+	// pipelined the frames pulled back from the pipeline do
+	private ConcurrentLinkedQueue<EmergencyRequest> emergencyMessages = new ConcurrentLinkedQueue<EmergencyRequest>();
+	private LinkedList<LinkMessage> abortedMessages = new LinkedList<LinkMessage>();
+	private boolean abortable = false;
+	private EmergencyRequest sendingEmergency = null;
+
+	// emergency latency, from the call to the last byte written to the port,
+	// when pipelined that is when the pipeline has written its block, in
+	// microseconds
+	private long emergencyCount = 0;
+	private long lastEmergencyLatency = 0;
+	private long worstEmergencyLatency = 0;
+	private long totalEmergencyLatency = 0;
+
+	// when pipelined, frames are encoded into frameBytes and handed to the
+	// pipeline, which writes them out on its own thread, see SendPipeline,
+	// template frames are put together in frameBytes either way
+	private SendPipeline pipeline = null;
+	private byte frameBytes[] = new byte[MAX_ENCODED_FRAME_LENGTH];
+	private int frameCount = 0;
+
+	// the most a frame can take, every byte escaped
+	private static final int MAX_ENCODED_FRAME_LENGTH =
+		SEND_SYNC_1_LENGTH
+		+ 2 * (SEND_PREAMBLE_LENGTH
+			   + FecModeEnum.maxEncodedLength(SEND_PAYLOAD_MAX_LENGTH + SEND_POSTAMBLE_LENGTH))
+		+ SEND_POST_SYNC_PAD;
+
+	// forward error correction of frame bodies on the data channels, see
+	// AbstractFecCodec, null for none, the link changes it during the
+	// handshake, it is picked up at the next frame
+	private volatile AbstractFecCodec fecCodec = null;
+	private byte fecBody[] = new byte[SEND_PAYLOAD_MAX_LENGTH + SEND_POSTAMBLE_LENGTH];
+	private byte fecEncoded[] = new byte[FecModeEnum.maxEncodedLength(SEND_PAYLOAD_MAX_LENGTH + SEND_POSTAMBLE_LENGTH)];
+	private FillableBuffer fecBuffer = new FillableBuffer(fecEncoded.length);
+
 	// --------------------------------------------------------------------------------
 	// Constructor
 
@@ -34,11 +95,63 @@ public class Sender extends AbstractSenderReceiver {
 		preambleBuffer = new FillableBuffer(SEND_PREAMBLE_LENGTH);
 		postambleBuffer = new FillableBuffer(SEND_POSTAMBLE_LENGTH);
 		crc8 = new CRC8Calculator();
-		crc16 = new CRC16Calculator();
+		crc16 = countingCRC16;
 		outputChannels = link.getOutputChannels();
 		resetMessageInfo();
 	}
 
+	// --------------------------------------------------------------------------------
+	// Pipelining, set it up before the thread is started
+
+	public void setPipelined(boolean pipelined) {
+		if (thread != null) {
+			throw new IllegalStateException("Sender is already running");
+		}
+		if (pipelined) {
+			pipeline = new SendPipeline(port, SEND_PIPELINE_BLOCK_SIZE, MAX_ENCODED_FRAME_LENGTH);
+		}
+		else {
+			pipeline = null;
+		}
+	}
+
+	public boolean isPipelined() {
+		return pipeline != null;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Forward error correction, the link sets it to the agreed mode, see
+	// LinkCapabilities
+
+	public void setFecMode(FecModeEnum mode) {
+		fecCodec = mode.newCodec();
+	}
+
+	public FecModeEnum getFecMode() {
+		return (fecCodec != null) ? fecCodec.getMode() : FecModeEnum.NONE;
+	}
+
+	public void startThread(String threadName) {
+		super.startThread(threadName);
+		if (pipeline != null) {
+			pipeline.startThread(threadName + " Writer");
+		}
+	}
+
+	public void stopThread() {
+		super.stopThread();
+		if (pipeline != null) {
+			pipeline.stopThread();
+		}
+	}
+
+	public void threadJoin() throws InterruptedException {
+		super.threadJoin();
+		if (pipeline != null) {
+			pipeline.threadJoin();
+		}
+	}
+
 	// --------------------------------------------------------------------------------
 
 	private void resetMessageInfo() {
@@ -60,27 +173,100 @@ public class Sender extends AbstractSenderReceiver {
 		
 		while (true) {
 			resetMessageInfo();
+			long seen = outputChannels.getMessageSignal();
+			
+			// emergencies first, then whatever they cut off
+			if (pipeline != null) {
+				pipeline.clearGiveWay();
+			}
+			EmergencyRequest emergency = emergencyMessages.poll();
+			if (emergency != null) {
+				if (pipeline != null) {
+					pullBack(null);
+				}
+				sendEmergency(emergency);
+				continue;
+			}
+			if (!abortedMessages.isEmpty()) {
+				sendMessage(abortedMessages.removeFirst());
+				continue;
+			}
 			
 			// try to get a message
 			sentChannel = (OutputChannel) outputChannels.getChannelWithMessages();
 			
+			// after a resume, resend what the other side missed before
+			// anything new, link control messages still go first
+			// (check the replay queue first, the link queues the DID_RESUME
+			// before it fills the replay queue)
+			if (!replayMessages.isEmpty()
+					&& link.controlChannelOut.isEmpty()
+					&& !link.isHoldingMessages()) {
+				LinkMessage message = replayMessages.poll();
+				sentChannel = outputChannels.getChannelByNumber(message.getChannelNumber());
+				if (message.isPastDeadline(SystemTimeSystem.currentTime())) {
+					expireMessage(sentChannel, message);
+				}
+				else if (link.isSendableChannel(sentChannel)) {
+					sentProtocol = sentChannel.getProtocol();
+					sendMessage(message);
+				}
+				else {
+					System.out.println(link.getRole() + " discarding replayed message for channel " + sentChannel.getChannelNumber());
+				}
+				continue;
+			}
+			
+			// stale messages are worse than no messages, throw them away
+			// before they get in anyone's way
+			if (sentChannel != null) {
+				LinkMessage message = sentChannel.peekMessage();
+				if ((message != null) && message.isPastDeadline(SystemTimeSystem.currentTime())) {
+					sentChannel.getMessage();
+					expireMessage(sentChannel, message);
+					continue;
+				}
+			}
+			
 			// if you got one, send it, otherwise wait
 			if (sentChannel != null) {
 				// ask the link if we should really send messages from this channel
-				// if not, discard
+				// if not, hold or discard
 				if (link.isSendableChannel(sentChannel)) {
+					if (!replayMessages.isEmpty() && (sentChannel != link.controlChannelOut)) {
+						// a resume finished since the replay check above,
+						// the replay still goes first
+						continue;
+					}
 					sentProtocol = sentChannel.getProtocol();
 					LinkMessage message = sentChannel.getMessage();
+					if (!link.getAgreedCapabilities().fits(message)) {
+						// the other side could not take it, queued before
+						// the capabilities were agreed
+						System.out.println(link.getRole() + " discarding oversize message for channel " + sentChannel.getChannelNumber());
+						rejectMessage(sentChannel, message);
+						continue;
+					}
+					link.flowCredits.frameSent(sentChannel.getChannelNumber());
 					sendMessage(message);
 				}
+				else if (link.isHoldingMessages()) {
+					// a resume is in progress, leave the message queued
+					outputChannels.waitForMessage(seen, RESUME_HOLD_INTERVAL);
+				}
 				else {
-					LinkMessage message = sentChannel.getMessage();  // get but don't use
-					System.out.println(link.getRole() + " discarding unsent message for channel " + sentChannel.getChannelNumber());
+					int count = sentChannel.drainMessages(discardedMessages, Integer.MAX_VALUE);
+					discardedMessages.clear();
+					System.out.println(link.getRole() + " discarding " + count + " unsent message(s) for channel " + sentChannel.getChannelNumber());
 				}
 			}
+			else if (!replayMessages.isEmpty()) {
+				// waiting for a resume to finish
+				outputChannels.waitForMessage(seen, RESUME_HOLD_INTERVAL);
+			}
 			else {
 				// failed to find a message, wait and try again
-				outputChannels.waitForMessage();
+				outputChannels.waitForMessage(seen, 0);
 			}
 		}
 	}
@@ -96,33 +282,90 @@ public class Sender extends AbstractSenderReceiver {
 		sentLength = message.size();
 
 		crc8.start();
+		crc16 = crc16For(sentChannelNumber);
 		crc16.start();
 
 		preambleBuffer.reset();
 		postambleBuffer.reset();
+		frameCount = 0;
+
+		// only ordinary frames can be cut off, and only once the receiver
+		// is past the preamble, a pipelined frame is encoded in one go so
+		// there is nothing to cut off, it is pulled back from the pipeline
+		// instead if it has not been written yet, see pullBack
+		try {
+			if (message.getFrameTemplate() != null) {
+				sendTemplate(message.getFrameTemplate());
+			}
+			else {
+				sendPreSync();
+				sendPreamble();
+				abortable = (sentChannelNumber != LINK_CONTROL_CHANNEL_NUMBER) && (sendingEmergency == null) && (pipeline == null);
+				AbstractFecCodec codec = fecCodec;
+				if ((codec != null) && (sentChannelNumber != LINK_CONTROL_CHANNEL_NUMBER)) {
+					sendFecBody(codec);
+				}
+				else {
+					sendBody();
+					sendPostamble();
+				}
+				abortable = false;
+				sendPostSync();
+			}
+		} catch (FrameAbortedException e) {
+			abortable = false;
+			writeByte(SEND_ESCAPE_BYTE);
+			writeByte(SEND_INDICATE_ABORT);
+			// the receiver gives the sequence number back too
+			rewindSequenceNumber();
+			abortedMessages.addFirst(message);
+			debugPrintMessage("Aborted ", sentSequenceNumber, sentChannelNumber, sentLength, sentCRC1, sentMessage, 0);
+			return;
+		}
 
-		sendPreSync();
-		sendPreamble();
-		sendBody();
-		sendPostamble();
-		sendPostSync();
+		if (message.getReplayAfter() != LinkMessage.NO_REPLAY) {
+			replayFrom(message.getReplayAfter());
+		}
+		if (sentSequenceNumber != RESYNC_SEQUENCE_NUM) {
+			rememberSentMessage(sentSequenceNumber, message);
+		}
 
 		sentTime = InternalTimeSystem.currentTime();
 		debugPrintMessage("Sent    ", sentSequenceNumber, sentChannelNumber, sentLength, sentCRC1, sentMessage, sentCRC2);
 	
-		if (message.isSendNotify()) {
+		if (pipeline != null) {
+			// the pipeline does the notify once the frame is out, and times
+			// an emergency then too
+			boolean withdrawable = (sentChannelNumber != LINK_CONTROL_CHANNEL_NUMBER)
+								   && (sendingEmergency == null)
+								   && (sentSequenceNumber != RESYNC_SEQUENCE_NUM);
+			if (!pipeline.submit(frameBytes, frameCount, message, message.isSendNotify(), sendingEmergency, withdrawable)) {
+				// an emergency came up while it waited for room
+				pullBack(message);
+			}
+		}
+		else if (message.isSendNotify()) {
 			message.doNotify();
 		}
 	}
 
 	private void sendPreSync() throws InterruptedException, IOException {
 		for (int i = 0; i < SEND_SYNC_1_LENGTH; i++) {
-			port.writeByte(SEND_SYNC_BYTE_1);
+			writeByte(SEND_SYNC_BYTE_1);
+		}
+	}
+
+	private int nextSequenceNumber() {
+		if (sentMessage.isDoReset()) {
+			return resyncSequenceNumber();
+		}
+		else {
+			return bestSequenceNumber();
 		}
 	}
 
-	private void sendPreamble() throws InterruptedException, IOException {
-		sentSequenceNumber = bestSequenceNumber();
+	private void sendPreamble() throws InterruptedException, IOException, FrameAbortedException {
+		sentSequenceNumber = nextSequenceNumber();
 
 		preambleBuffer.deConstructBytes1(sentSequenceNumber);
 		preambleBuffer.deConstructBytes1(sentChannelNumber);
@@ -138,12 +381,12 @@ public class Sender extends AbstractSenderReceiver {
 
 	}
 
-	private void sendBody() throws InterruptedException, IOException {
+	private void sendBody() throws InterruptedException, IOException, FrameAbortedException {
 		sendBytes(sentMessage);
 		crc16.extend(sentMessage);
 	}
 
-	private void sendPostamble() throws InterruptedException, IOException {
+	private void sendPostamble() throws InterruptedException, IOException, FrameAbortedException {
 		crc16.end();
 
 		sentCRC2 = crc16.get();
@@ -151,31 +394,277 @@ public class Sender extends AbstractSenderReceiver {
 		sendBytes(postambleBuffer);
 	}
 
+	// the payload and the crc16 go through the codec together, the crc16
+	// is over the payload as it is
+	private void sendFecBody(AbstractFecCodec codec) throws InterruptedException, IOException, FrameAbortedException {
+		crc16.extend(sentMessage);
+		crc16.end();
+		sentCRC2 = crc16.get();
+
+		sentMessage.getBytes(0, fecBody, 0, sentLength);
+		fecBody[sentLength] = (byte) sentCRC2;
+		fecBody[sentLength + 1] = (byte) (sentCRC2 >>> 8);
+		int count = codec.encode(fecBody, sentLength + SEND_POSTAMBLE_LENGTH, fecEncoded);
+
+		fecBuffer.reset();
+		fecBuffer.addBytes(fecEncoded, 0, count);
+		sendBytes(fecBuffer);
+	}
+
 	private void sendPostSync() throws InterruptedException, IOException {
 		for (int i = 0; i < SEND_POST_SYNC_PAD; i++) {
-			port.writeByte(SEND_SYNC_BYTE_1);
+			writeByte(SEND_SYNC_BYTE_1);
+		}
+	}
+
+	// the whole frame in one go, only the sequence number and the CRCs
+	// change from one send to the next
+	private void sendTemplate(FrameTemplate template) throws InterruptedException, IOException {
+		sentSequenceNumber = nextSequenceNumber();
+		sentCRC1 = template.getCRC8(sentSequenceNumber);
+		sentCRC2 = template.getCRC16(sentSequenceNumber);
+		frameCount = template.encode(sentSequenceNumber, frameBytes);
+		if (pipeline == null) {
+			port.writeBytes(frameBytes, 0, frameCount);
 		}
 	}
 
+	// --------------------------------------------------------------------------------
+	// Emergency messages
+
+	private class EmergencyRequest implements SendPipeline.WrittenListener {
+		LinkMessage message;
+		long postedTime;  // System.nanoTime
+
+		EmergencyRequest(LinkMessage message) {
+			this.message = message;
+			postedTime = System.nanoTime();
+		}
+
+		// on the pipeline's thread when pipelined
+		public void frameWritten() {
+			noteEmergencyLatency((System.nanoTime() - postedTime) / 1000);
+		}
+	}
+
+	private static class FrameAbortedException extends Exception {
+		private static final long serialVersionUID = 1L;
+	}
+
+	// called from any thread, does not wait for the sender
+	public void sendEmergencyMessage(LinkMessage message) {
+		emergencyMessages.add(new EmergencyRequest(message));
+		SendPipeline pipe = pipeline;
+		if (pipe != null) {
+			pipe.giveWay();
+		}
+		outputChannels.wakeUp();
+	}
+
+	private void sendEmergency(EmergencyRequest emergency) throws InterruptedException, IOException {
+		// emergencies do not wait for credit, but they do use it up
+		link.flowCredits.frameSent(emergency.message.getChannelNumber());
+		sendingEmergency = emergency;
+		try {
+			sendMessage(emergency.message);
+		} finally {
+			sendingEmergency = null;
+		}
+		if (pipeline == null) {
+			emergency.frameWritten();
+		}
+	}
+
+	private void noteEmergencyLatency(long latency) {
+		synchronized (emergencyMessages) {
+			emergencyCount++;
+			lastEmergencyLatency = latency;
+			worstEmergencyLatency = Math.max(worstEmergencyLatency, latency);
+			totalEmergencyLatency += latency;
+		}
+	}
+
+	// pipelined, the data frames the pipeline has not started to write come
+	// back, with refused, the one it would not take, after them, and are
+	// sent again after the emergency, they give their sequence numbers back
+	// and leave the send history, they get new ones when they go again
+	private void pullBack(LinkMessage refused) {
+		List<LinkMessage> withdrawn = pipeline.withdraw();
+		if (refused != null) {
+			withdrawn.add(refused);
+		}
+		for (int i = 0; i < withdrawn.size(); i++) {
+			rewindSequenceNumber();
+			forgetSentMessage();
+		}
+		abortedMessages.addAll(0, withdrawn);
+	}
+
+	private void checkForEmergency() throws FrameAbortedException {
+		if (abortable && !emergencyMessages.isEmpty()) {
+			throw new FrameAbortedException();
+		}
+	}
+
+	public long getEmergencyCount() {
+		synchronized (emergencyMessages) {
+			return emergencyCount;
+		}
+	}
+
+	public long getLastEmergencyLatency() {
+		synchronized (emergencyMessages) {
+			return lastEmergencyLatency;
+		}
+	}
+
+	public long getWorstEmergencyLatency() {
+		synchronized (emergencyMessages) {
+			return worstEmergencyLatency;
+		}
+	}
+
+	public long getMeanEmergencyLatency() {
+		synchronized (emergencyMessages) {
+			return (emergencyCount == 0) ? 0 : totalEmergencyLatency / emergencyCount;
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public void describePipeline() {
+		if (pipeline != null) {
+			System.out.println("Send pipeline: " + pipeline.getBlocksWritten() + " blocks, "
+								+ pipeline.getBytesWritten() + " bytes, "
+								+ pipeline.getEncoderStalls() + " stalls, "
+								+ pipeline.getFramesWithdrawn() + " withdrawn for emergencies");
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+	// Expired messages
+
+	private void expireMessage(AbstractChannel channel, LinkMessage message) {
+		expiredMessageCount++;
+		message.markExpired();
+		channel.getProtocol().messageExpired(message);
+		// anyone waiting for it to be sent should not wait forever
+		if (message.isSendNotify()) {
+			message.doNotify();
+		}
+	}
+
+	public long getExpiredMessageCount() {
+		return expiredMessageCount;
+	}
+
+	private void rejectMessage(AbstractChannel channel, LinkMessage message) {
+		rejectedMessageCount++;
+		message.markRejected();
+		channel.getProtocol().messageRejected(message);
+		if (message.isSendNotify()) {
+			message.doNotify();
+		}
+	}
+
+	public long getRejectedMessageCount() {
+		return rejectedMessageCount;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Send history and replay, used by the link when resuming
+
+	private void rememberSentMessage(int seqNr, LinkMessage message) {
+		synchronized (historyMessages) {
+			historySequenceNumbers[historyNext] = seqNr;
+			historyMessages[historyNext] = message;
+			historyNext = (historyNext + 1) % SEND_HISTORY_LENGTH;
+			historyCount = Math.min(historyCount + 1, SEND_HISTORY_LENGTH);
+		}
+	}
+
+	// the most recent one was pulled back before it went out
+	private void forgetSentMessage() {
+		synchronized (historyMessages) {
+			if (historyCount > 0) {
+				historyNext = (historyNext - 1 + SEND_HISTORY_LENGTH) % SEND_HISTORY_LENGTH;
+				historyMessages[historyNext] = null;
+				historyCount--;
+			}
+		}
+	}
+
+	// how far back in the history the message with the sequence number is,
+	// 1 is the most recent, 0 if it is not there
+	private int historyDepth(int seqNr) {
+		for (int depth = 1; depth <= historyCount; depth++) {
+			int index = (historyNext - depth + SEND_HISTORY_LENGTH) % SEND_HISTORY_LENGTH;
+			if (historySequenceNumbers[index] == seqNr) {
+				return depth;
+			}
+		}
+		return 0;
+	}
+
+	// can we resend everything the other side sent after seqNr
+	public boolean canReplayFrom(int seqNr) {
+		synchronized (historyMessages) {
+			return historyDepth(seqNr) > 0;
+		}
+	}
+
+	// queue up everything sent after seqNr, link control messages are not
+	// resent since they are about the old state of the link
+	public void replayFrom(int seqNr) {
+		synchronized (historyMessages) {
+			int depth = historyDepth(seqNr);
+			for (int i = depth - 1; i >= 1; i--) {
+				int index = (historyNext - i + SEND_HISTORY_LENGTH) % SEND_HISTORY_LENGTH;
+				LinkMessage message = historyMessages[index];
+				if (message.getChannelNumber() != LINK_CONTROL_CHANNEL_NUMBER) {
+					replayMessages.add(message);
+				}
+			}
+			// the replayed messages get new sequence numbers and go back
+			// into the history when they are sent, so forget the old copies
+			// but keep the rest in case we have to resume again
+			if (depth > 0) {
+				historyNext = (historyNext - (depth - 1) + SEND_HISTORY_LENGTH) % SEND_HISTORY_LENGTH;
+				historyCount -= depth - 1;
+			}
+		}
+		outputChannels.wakeUp();
+	}
+
 	// --------------------------------------------------------------------------------
 	// Byte escaping
 
 	private void sendByte(byte bite) throws InterruptedException, IOException {
 		switch (bite) {
 		case SEND_SYNC_BYTE_1:
-			port.writeByte(SEND_ESCAPE_BYTE);
-			port.writeByte(SEND_INDICATE_SYNC_1);
+			writeByte(SEND_ESCAPE_BYTE);
+			writeByte(SEND_INDICATE_SYNC_1);
 			break;
 		case SEND_ESCAPE_BYTE:
-			port.writeByte(SEND_ESCAPE_BYTE);
-			port.writeByte(SEND_INDICATE_ESCAPE);
+			writeByte(SEND_ESCAPE_BYTE);
+			writeByte(SEND_INDICATE_ESCAPE);
 			break;
 		default:
-			port.writeByte(bite);
+			writeByte(bite);
 			break;
 		}
 	}
 
+	// straight to the port, or into the frame for the pipeline
+	private void writeByte(byte bite) throws InterruptedException, IOException {
+		if (pipeline != null) {
+			frameBytes[frameCount++] = bite;
+		}
+		else {
+			port.writeByte(bite);
+		}
+	}
+
 	private void sendBytes(byte[] bytes) throws InterruptedException, IOException {
 		for (byte b : bytes) {
 			sendByte(b);
@@ -188,9 +677,49 @@ public class Sender extends AbstractSenderReceiver {
 		}
 	}
 
-	private void sendBytes(FillableBuffer buff) throws InterruptedException, IOException {
-		for (int i = 0; i < buff.size(); i++) {
-			sendByte(buff.getByte(i));
+	// most bytes need no escaping, find the next one that does and write
+	// everything before it in one go
+	private void sendBytes(FillableBuffer buff) throws InterruptedException, IOException, FrameAbortedException {
+		int end = buff.size();
+		int index = 0;
+		while (index < end) {
+			checkForEmergency();
+			int stop = abortable ? Math.min(end, index + SEND_ABORT_CHECK_INTERVAL) : end;
+			int escape = buff.indexOfEither(index, stop, SEND_SYNC_BYTE_1, SEND_ESCAPE_BYTE);
+			writeBytes(buff, index, escape - index);
+			// escapes come in bunches, take them a byte at a time until the
+			// next clean one, then scan again
+			while (escape < stop) {
+				byte bite = buff.getByte(escape);
+				if (bite == SEND_SYNC_BYTE_1) {
+					writeByte(SEND_ESCAPE_BYTE);
+					writeByte(SEND_INDICATE_SYNC_1);
+				}
+				else if (bite == SEND_ESCAPE_BYTE) {
+					writeByte(SEND_ESCAPE_BYTE);
+					writeByte(SEND_INDICATE_ESCAPE);
+				}
+				else {
+					break;
+				}
+				escape++;
+			}
+			index = escape;
+		}
+	}
+
+	// when not pipelined frameBytes is free, it is only used for templates
+	private void writeBytes(FillableBuffer buff, int index, int count) throws InterruptedException, IOException {
+		if (count == 0) {
+			return;
+		}
+		if (pipeline != null) {
+			buff.getBytes(index, frameBytes, frameCount, count);
+			frameCount += count;
+		}
+		else {
+			buff.getBytes(index, frameBytes, 0, count);
+			port.writeBytes(frameBytes, 0, count);
 		}
 	}
 
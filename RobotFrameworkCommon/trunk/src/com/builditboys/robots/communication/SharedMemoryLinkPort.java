@@ -0,0 +1,316 @@
+package com.builditboys.robots.communication;
+
+import static com.builditboys.robots.communication.LinkParameters.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// A link port between two processes on the same machine, the controller,
+// the GUI and the logger for instance, through a memory mapped file. The
+// links on it do the same handshake as on a serial port.
+//
+// The file holds a ring of bytes for each direction, each with one
+// writer and one reader. The writer owns the ring's write count and the
+// reader its read count, both only ever go up, and each side only looks
+// at the other's count when its own copy says the ring is full or empty.
+// The layout is
+//   a header line   magic, version, ring capacity
+//   ring 0          write count line, read count line, the bytes
+//   ring 1          the same
+// The end that creates the file writes ring 0 and reads ring 1, the
+// other end the other way round. The counts sit on cache lines of their
+// own so the two sides do not fight over a line.
+//
+// Nothing wakes a reader when the other process writes, so readByte polls
+// the way the wait strategy says, see WaitStrategyEnum.poll. A spinning
+// or yielding link sees a frame within microseconds, a blocking one
+// sleeps between looks and can take up to WAIT_MAX_SLEEP_NANOS.
+//
+// The bytes have to be in the ring before the count that covers them,
+// and out of it before the count that frees them. A mapped buffer has no
+// ordered writes, so a volatile write goes between the two, which keeps
+// the compiler and the processor from swapping them on the JVMs we run
+// on. The counts are written as aligned longs, which is atomic there.
+//
+// Start the creating end first, or at about the same time, the other end
+// waits up to SHARED_MEMORY_OPEN_TIMEOUT for the file to be set up.
+
+public class SharedMemoryLinkPort implements LinkPortInterface {
+
+	private static final int MAGIC = 0x4C4E4B31;
+	private static final int VERSION = 1;
+
+	private static final int LINE_LENGTH = 64;
+
+	private static final int MAGIC_OFFSET = 0;
+	private static final int VERSION_OFFSET = 4;
+	private static final int CAPACITY_OFFSET = 8;
+
+	// within a ring
+	private static final int WRITE_COUNT_OFFSET = 0;
+	private static final int READ_COUNT_OFFSET = LINE_LENGTH;
+	private static final int DATA_OFFSET = 2 * LINE_LENGTH;
+
+	private final File file;
+	private final boolean creator;
+	private int capacity;
+	private int mask;
+
+	private RandomAccessFile randomAccessFile = null;
+	private MappedByteBuffer map = null;
+	private volatile boolean isOpen = false;
+	private volatile WaitStrategyEnum waitStrategy = WaitStrategyEnum.BLOCKING;
+
+	// writing, the ring and its bytes, what has been written and the last
+	// look at what the other side has read
+	private int outRing;
+	private ByteBuffer outData;
+	private long written;
+	private long readCache;
+
+	// reading, the other way round, the read count goes out when the ring
+	// runs dry or every so often
+	private int inRing;
+	private ByteBuffer inData;
+	private long read;
+	private long writtenCache;
+	private long readPublished;
+
+	// see the ordering above
+	private volatile int fence = 0;
+
+	// --------------------------------------------------------------------------------
+	// Constructors
+
+	// the creating end sets the capacity, a power of two
+	public SharedMemoryLinkPort (File file, boolean creator, int capacity) {
+		if ((capacity <= 0) || ((capacity & (capacity - 1)) != 0)) {
+			throw new IllegalArgumentException("Ring capacity has to be a power of two: " + capacity);
+		}
+		this.file = file;
+		this.creator = creator;
+		this.capacity = capacity;
+	}
+
+	public SharedMemoryLinkPort (File file, boolean creator) {
+		this(file, creator, SHARED_MEMORY_RING_CAPACITY);
+	}
+
+	// --------------------------------------------------------------------------------
+	// Opening and closing
+
+	public void open () throws IOException {
+		if (creator) {
+			create();
+		}
+		else {
+			attach();
+		}
+		mask = capacity - 1;
+		int ringLength = DATA_OFFSET + capacity;
+		int ring0 = LINE_LENGTH;
+		int ring1 = ring0 + ringLength;
+		outRing = creator ? ring0 : ring1;
+		inRing = creator ? ring1 : ring0;
+		outData = slice(outRing + DATA_OFFSET, capacity);
+		inData = slice(inRing + DATA_OFFSET, capacity);
+
+		// the other end may have got going already
+		written = map.getLong(outRing + WRITE_COUNT_OFFSET);
+		readCache = map.getLong(outRing + READ_COUNT_OFFSET);
+		read = map.getLong(inRing + READ_COUNT_OFFSET);
+		writtenCache = read;
+		readPublished = read;
+
+		System.out.println("Opening shared memory link port " + file + (creator ? ", created" : ""));
+		isOpen = true;
+	}
+
+	private void create () throws IOException {
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		long length = fileLength(capacity);
+		randomAccessFile.setLength(length);
+		map = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+		map.order(ByteOrder.nativeOrder());
+
+		// the magic last, the other end waits for it
+		map.putInt(MAGIC_OFFSET, 0);
+		fence = 0;
+		for (int ring = 0; ring < 2; ring++) {
+			int base = LINE_LENGTH + ring * (DATA_OFFSET + capacity);
+			map.putLong(base + WRITE_COUNT_OFFSET, 0);
+			map.putLong(base + READ_COUNT_OFFSET, 0);
+		}
+		map.putInt(VERSION_OFFSET, VERSION);
+		map.putInt(CAPACITY_OFFSET, capacity);
+		fence = 0;
+		map.putInt(MAGIC_OFFSET, MAGIC);
+	}
+
+	private void attach () throws IOException {
+		long deadline = System.currentTimeMillis() + SHARED_MEMORY_OPEN_TIMEOUT;
+		while (true) {
+			if (file.length() >= LINE_LENGTH) {
+				if (randomAccessFile == null) {
+					randomAccessFile = new RandomAccessFile(file, "rw");
+				}
+				MappedByteBuffer header = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, LINE_LENGTH);
+				header.order(ByteOrder.nativeOrder());
+				if (header.getInt(MAGIC_OFFSET) == MAGIC) {
+					if (header.getInt(VERSION_OFFSET) != VERSION) {
+						throw new IOException("Shared memory link port " + file + " is version " + header.getInt(VERSION_OFFSET));
+					}
+					capacity = header.getInt(CAPACITY_OFFSET);
+					map = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileLength(capacity));
+					map.order(ByteOrder.nativeOrder());
+					return;
+				}
+			}
+			if (System.currentTimeMillis() >= deadline) {
+				throw new IOException("Shared memory link port " + file + " was not set up in time");
+			}
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted waiting for " + file);
+			}
+		}
+	}
+
+	private static long fileLength (int capacity) {
+		return LINE_LENGTH + 2 * ((long) DATA_OFFSET + capacity);
+	}
+
+	private ByteBuffer slice (int offset, int length) {
+		ByteBuffer view = map.duplicate();
+		view.position(offset);
+		view.limit(offset + length);
+		return view.slice();
+	}
+
+	// the mapping goes when it is collected, there is no unmapping it
+	public void close () throws IOException {
+		System.out.println("Closing shared memory link port " + file);
+		isOpen = false;
+		if (randomAccessFile != null) {
+			randomAccessFile.close();
+			randomAccessFile = null;
+		}
+	}
+
+	public boolean isOpen () {
+		return isOpen;
+	}
+
+	public void setWaitStrategy (WaitStrategyEnum strategy) {
+		waitStrategy = strategy;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Writing, only the link's sender does
+
+	public void writeByte (byte bite) throws InterruptedException, IOException {
+		waitForRoom(1);
+		outData.put((int) (written & mask), bite);
+		publishWritten(written + 1);
+	}
+
+	public void writeBytes (byte bytes[], int offset, int count) throws InterruptedException, IOException {
+		while (count > 0) {
+			int room = waitForRoom(1);
+			int index = (int) (written & mask);
+			int chunk = Math.min(Math.min(count, room), capacity - index);
+			outData.position(index);
+			outData.put(bytes, offset, chunk);
+			publishWritten(written + chunk);
+			offset += chunk;
+			count -= chunk;
+		}
+	}
+
+	// returns the room there is, at least wanted
+	private int waitForRoom (int wanted) throws InterruptedException, IOException {
+		int round = 0;
+		while (true) {
+			int room = capacity - (int) (written - readCache);
+			if (room >= wanted) {
+				return room;
+			}
+			readCache = map.getLong(outRing + READ_COUNT_OFFSET);
+			loadFence();
+			if (capacity - (int) (written - readCache) >= wanted) {
+				continue;
+			}
+			if (!isOpen) {
+				throw new IOException("Shared memory link port closed");
+			}
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			waitStrategy.poll(round++);
+		}
+	}
+
+	private void publishWritten (long count) {
+		written = count;
+		fence = 0;
+		map.putLong(outRing + WRITE_COUNT_OFFSET, count);
+	}
+
+	// --------------------------------------------------------------------------------
+	// Reading, only the link's receiver does
+
+	public byte readByte () throws InterruptedException {
+		if (read == writtenCache) {
+			waitForBytes();
+		}
+		byte bite = inData.get((int) (read & mask));
+		read++;
+		if ((read == writtenCache) || (read - readPublished >= (capacity >> 2))) {
+			publishRead();
+		}
+		return bite;
+	}
+
+	private void waitForBytes () throws InterruptedException {
+		int round = 0;
+		while (true) {
+			writtenCache = map.getLong(inRing + WRITE_COUNT_OFFSET);
+			loadFence();
+			if (writtenCache != read) {
+				return;
+			}
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			waitStrategy.poll(round++);
+		}
+	}
+
+	private void publishRead () {
+		readPublished = read;
+		fence = 0;
+		map.putLong(inRing + READ_COUNT_OFFSET, read);
+	}
+
+	// the other side of the volatile write in publishWritten and
+	// publishRead, reading it after the other end's count keeps the bytes
+	// that count covers, or the room it frees, from being looked at before
+	// the count itself
+	private int loadFence () {
+		return fence;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public String toString () {
+		return "Shared memory link port " + file + ", " + capacity + " byte rings, "
+			   + written + " bytes written, " + read + " read";
+	}
+
+}
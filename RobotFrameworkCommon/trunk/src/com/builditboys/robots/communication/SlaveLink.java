@@ -29,33 +29,38 @@ public class SlaveLink extends AbstractLink implements Runnable {
 	// be sure to look at isSendableChannel, etc to understand how the various
 	// states affect the actions of the sender and receiver
 
-	public synchronized void doWork () throws InterruptedException {
+	// the state changes before the message goes out, so a quick reply
+	// finds the link ready for it, a state change that fails means the
+	// receiver got there first
+
+	public void doWork () throws InterruptedException {
 		while (true) {
 			System.out.println("Starting " + role + " link synchronization " + syncAttempts++);
 			setLinkState(LinkStateEnum.LinkInitState);
+			sessionId = NO_SESSION_ID;
+			flowCredits.reset();
 			
 			// --------------------
 			// wait a little to give the master a chance to start things
 			// off before the slave starts chiming in
-			linkWait(SLAVE_START_DELAY);
+			linkWaitWhile(LinkStateEnum.LinkInitState, SLAVE_START_DELAY);
 
 			// --------------------
 			// if the master has not already started the init process
 			// remind the master to do so by sending a NEED_DO_PREPARE
 			// if the master did start things already, just fall through
-			if (linkState != LinkStateEnum.LinkReceivedDoPrepareState) {
+			if (changeLinkState(LinkStateEnum.LinkInitState, LinkStateEnum.LinkSentNeedDoPrepareState)) {
 				linkOutputControlProtocol.sendNeedDoPrepare(false);
-				setLinkState(LinkStateEnum.LinkSentNeedDoPrepareState);
-				linkWait(NEED_PREPARE_TIMEOUT);
+				linkWaitWhile(LinkStateEnum.LinkSentNeedDoPrepareState, NEED_PREPARE_TIMEOUT);
 			}
 
 			// --------------------
 			// if we got a DO_PREPARE, then send DID_PREPARE
-			if (linkState == LinkStateEnum.LinkReceivedDoPrepareState) {
-				// master told us to reset, so we do
-				linkOutputControlProtocol.sendDidPrepare(false);
-				setLinkState(LinkStateEnum.LinkSentDidPrepareState);
-				linkWait(DO_PROCEED_TIMEOUT);
+			if (changeLinkState(LinkStateEnum.LinkReceivedDoPrepareState, LinkStateEnum.LinkSentDidPrepareState)) {
+				// master told us to reset, so we do, and settle on the
+				// capabilities we both have
+				linkOutputControlProtocol.sendDidPrepare(agreeCapabilities(), false);
+				linkWaitWhile(LinkStateEnum.LinkSentDidPrepareState, replyTimeout(DO_PROCEED_TIMEOUT));
 			}
 			else {
 				// failure, start over
@@ -64,10 +69,9 @@ public class SlaveLink extends AbstractLink implements Runnable {
 
 			// --------------------
 			// if we got a DO_PROCEED, then send a DID_PROCEED
-			if (linkState == LinkStateEnum.LinkReceivedDoProceedState) {
+			if (changeLinkState(LinkStateEnum.LinkReceivedDoProceedState, LinkStateEnum.LinkSentDidProceedState)) {
 				linkOutputControlProtocol.sendDidProceed(false);
-				setLinkState(LinkStateEnum.LinkSentDidProceedState);
-				linkWait(IM_ALIVE_TIMEOUT);
+				linkWaitWhile(LinkStateEnum.LinkSentDidProceedState, keepAliveTimeout());
 			}
 			else {
 				// failure, start over
@@ -77,32 +81,14 @@ public class SlaveLink extends AbstractLink implements Runnable {
 			// --------------------
 			// if we got an IM_ALIVE, then the link is happy
 			// just keep it that way
-			if (linkState == LinkStateEnum.LinkReceivedImAliveState) {
+			if (changeLinkState(LinkStateEnum.LinkReceivedImAliveState, LinkStateEnum.LinkReadyState)) {
 				System.out.println("Successful " + role + " link synchronization");
-				setLinkState(LinkStateEnum.LinkReadyState);
-				long time = SystemTimeSystem.currentTime();
-				lastKeepAliveReceivedTime = time;
-				lastKeepAliveSentTime = time;
-				while ((linkState == LinkStateEnum.LinkReadyState)
-						|| (linkState == LinkStateEnum.LinkActiveState)) {
-					// make sure you have recently received a keep alive message
-					// also, you could be awakened by receiving a keep alive so 
-					// keep track of how long you need to wait to send a keep alive
-					if (keepAliveOk()) {
-						long timeToNextSend = timeToNextKeepAlive();
-						if (timeToNextSend <= 0) {
-							linkOutputControlProtocol.sendKeepAlive();
-							lastKeepAliveSentTime = SystemTimeSystem.currentTime();
-						}
-						else {
-							linkWait(timeToNextSend);
-						}
-					}
-					else {
-						System.out.println("Slave Keep Alive Timout: " + keepAliveDiff());
-						break;
-					}
-				}
+				startKeepAlives();
+				// keep the link alive, if it hiccups try a quick resume
+				// before falling back to a full synchronization
+				do {
+					maintainLink();
+				} while (resumeLink());
 				// problems, time out or receive error, start over
 				continue;
 			}
@@ -117,60 +103,90 @@ public class SlaveLink extends AbstractLink implements Runnable {
 	// --------------------------------------------------------------------------------
 	// Slave message receivers
 	
-	protected synchronized void receivedDoPrepare (AbstractChannel channel, LinkMessage message) {
-		switch (linkState) {
-		// need prepare state discards everything but a do prepare
-		// its satisfied here
-		case LinkInitState:
-		case LinkSentNeedDoPrepareState:
-			setLinkState(LinkStateEnum.LinkReceivedDoPrepareState);
-			notify();
-			break;
-		// otherwise, out of sync
-		default:
-			setLinkState(LinkStateEnum.LinkInitState);
-			notify();
-			break;
-		}		
+	protected void receivedDoPrepare (AbstractChannel channel, LinkMessage message) {
+		LinkStateEnum state;
+		LinkStateEnum next;
+		do {
+			state = linkState;
+			next = null;
+			switch (state) {
+			// need prepare state discards everything but a do prepare
+			// its satisfied here
+			case LinkInitState:
+			case LinkSentNeedDoPrepareState:
+				peerCapabilities = LinkControlProtocol.getPrepareCapabilities(message);
+				next = LinkStateEnum.LinkReceivedDoPrepareState;
+				break;
+			// otherwise, out of sync
+			default:
+				next = LinkStateEnum.LinkInitState;
+				break;
+			}
+		} while ((next != null) && !changeLinkState(state, next));
+		if (next != null) {
+			linkSignal.signal();
+		}
 	}
 	
-	protected synchronized void receivedDoProceed (AbstractChannel channel, LinkMessage message) {
-		switch (linkState) {
-		// need prepare state discards everything but a do prepare
-		case LinkInitState:
-		case LinkSentNeedDoPrepareState:
-			break;
-		case LinkSentDidPrepareState:
-			setLinkState(LinkStateEnum.LinkReceivedDoProceedState);
-			notify();
-			break;
-		// otherwise, out of sync
-		default:
-			setLinkState(LinkStateEnum.LinkInitState);
-			notify();
-			break;
-		}		
+	protected void receivedDoProceed (AbstractChannel channel, LinkMessage message) {
+		LinkStateEnum state;
+		LinkStateEnum next;
+		do {
+			state = linkState;
+			next = null;
+			switch (state) {
+			// need prepare state discards everything but a do prepare
+			case LinkInitState:
+			case LinkSentNeedDoPrepareState:
+				break;
+			case LinkSentDidPrepareState:
+				// the session id only means something if we agreed to resume
+				if (agreedCapabilities.hasFeature(LinkCapabilities.FEATURE_RESUME)) {
+					sessionId = LinkControlProtocol.getProceedSessionId(message);
+				}
+				next = LinkStateEnum.LinkReceivedDoProceedState;
+				break;
+			// otherwise, out of sync
+			default:
+				next = LinkStateEnum.LinkInitState;
+				break;
+			}
+		} while ((next != null) && !changeLinkState(state, next));
+		if (next != null) {
+			linkSignal.signal();
+		}
 	}
 		
-	protected synchronized void receivedImAlive (AbstractChannel channel, LinkMessage message) {
-		switch (linkState) {
-		// need prepare state discards everything but a do prepare
-		case LinkSentNeedDoPrepareState:
-			break;
-		// honor the request, go active
-		case LinkSentDidProceedState:
-			setLinkState(LinkStateEnum.LinkReceivedImAliveState);
-			notify();
-			break;
-		// stay active
-		case LinkReadyState:
-		case LinkActiveState:
-			break;
-		// otherwise, out of sync
-		default:
-			setLinkState(LinkStateEnum.LinkInitState);
-			notify();
-			break;
+	protected void receivedImAlive (AbstractChannel channel, LinkMessage message) {
+		LinkStateEnum state;
+		LinkStateEnum next;
+		do {
+			state = linkState;
+			next = null;
+			switch (state) {
+			// need prepare state discards everything but a do prepare
+			case LinkSentNeedDoPrepareState:
+				break;
+			// honor the request, go active
+			case LinkSentDidProceedState:
+				next = LinkStateEnum.LinkReceivedImAliveState;
+				break;
+			// stay active
+			case LinkReadyState:
+			case LinkActiveState:
+				break;
+			// the resume will sort things out
+			case LinkResumingState:
+			case LinkSentDoResumeState:
+				break;
+			// otherwise, out of sync
+			default:
+				next = LinkStateEnum.LinkInitState;
+				break;
+			}
+		} while ((next != null) && !changeLinkState(state, next));
+		if (next != null) {
+			linkSignal.signal();
 		}
 		lastKeepAliveReceivedTime = SystemTimeSystem.currentTime();
 	}
@@ -178,7 +194,7 @@ public class SlaveLink extends AbstractLink implements Runnable {
 	// --------------------------------------------------------------------------------
 	// Interaction with the sender and receiver
 		
-	public synchronized boolean isForceInitialSequenceNumbers () {
+	public boolean isForceInitialSequenceNumbers () {
 		switch (linkState) {
 		case LinkInitState:
 		case LinkSentNeedDoPrepareState:
@@ -0,0 +1,99 @@
+package com.builditboys.robots.communication;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A message queue with one producer and one consumer. Each side owns one
+// count and only reads the other's, and then only when its own cached
+// copy says the queue is full or empty. A message is published by the
+// ordered write of the tail after the slot has been filled, and a slot is
+// handed back by the ordered write of the head after it has been cleared.
+
+public class SpscMessageQueue extends AbstractMessageQueue {
+
+	private final LinkMessage messages[];
+
+	// the next slot to take from, written by the consumer
+	private final AtomicLong head = new AtomicLong();
+	// the next slot to fill, written by the producer
+	private final AtomicLong tail = new AtomicLong();
+
+	// each side's last look at the other side's count
+	private long headCache = 0;   // producer
+	private long tailCache = 0;   // consumer
+
+	// --------------------------------------------------------------------------------
+	// Constructors
+
+	public SpscMessageQueue (int capacity) {
+		super(capacity);
+		messages = new LinkMessage[mask + 1];
+	}
+
+	// --------------------------------------------------------------------------------
+	// Producer
+
+	public boolean offer (LinkMessage message) {
+		long t = tail.get();
+		if (t - headCache >= capacity) {
+			headCache = head.get();
+			if (t - headCache >= capacity) {
+				return false;
+			}
+		}
+		messages[(int) t & mask] = message;
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Consumer
+
+	public LinkMessage poll () {
+		long h = head.get();
+		if (!available(h)) {
+			return null;
+		}
+		int index = (int) h & mask;
+		LinkMessage message = messages[index];
+		messages[index] = null;
+		head.lazySet(h + 1);
+		return message;
+	}
+
+	public LinkMessage peek () {
+		long h = head.get();
+		if (!available(h)) {
+			return null;
+		}
+		return messages[(int) h & mask];
+	}
+
+	public int drainTo (Collection<? super LinkMessage> drained, int max) {
+		long h = head.get();
+		int count = (int) Math.min(tail.get() - h, max);
+		for (int i = 0; i < count; i++) {
+			int index = (int) (h + i) & mask;
+			drained.add(messages[index]);
+			messages[index] = null;
+		}
+		head.lazySet(h + count);
+		return count;
+	}
+
+	private boolean available (long h) {
+		if (h < tailCache) {
+			return true;
+		}
+		tailCache = tail.get();
+		return h < tailCache;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public int size () {
+		long h = head.get();
+		return (int) Math.max(0, Math.min(capacity, tail.get() - h));
+	}
+
+}
@@ -0,0 +1,94 @@
+package com.builditboys.robots.communication;
+
+import static com.builditboys.robots.communication.LinkParameters.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+// A link port over a TCP connection. One end listens and takes the first
+// connection that comes in, the other connects to it, which end is which
+// has nothing to do with which link is the master. The connecting end
+// keeps trying for SOCKET_CONNECT_TIMEOUT so the two can be started in
+// either order.
+//
+// TCP never loses or reorders bytes, but the link does its handshake and
+// checks the same as on a serial port. Nagle is off, a frame goes out as
+// soon as it is written, see AbstractSocketLinkPort.
+
+public class TcpLinkPort extends AbstractSocketLinkPort<SocketChannel> {
+
+	private final String host;
+	private final int port;
+
+	// --------------------------------------------------------------------------------
+	// Constructors
+
+	// connects to host:port
+	public TcpLinkPort (String host, int port) {
+		super(SOCKET_READ_BUFFER_LENGTH, SOCKET_WRITE_BUFFER_LENGTH);
+		this.host = host;
+		this.port = port;
+	}
+
+	// listens on port
+	public TcpLinkPort (int port) {
+		this(null, port);
+	}
+
+	// --------------------------------------------------------------------------------
+
+	protected SocketChannel openChannel () throws IOException {
+		SocketChannel opened = (host == null) ? accept() : connect();
+		opened.socket().setTcpNoDelay(true);
+		System.out.println("Opening TCP link port to " + opened.socket().getRemoteSocketAddress());
+		return opened;
+	}
+
+	private SocketChannel accept () throws IOException {
+		ServerSocketChannel server = ServerSocketChannel.open();
+		try {
+			server.socket().setReuseAddress(true);
+			server.socket().bind(new InetSocketAddress(port), 1);
+			return server.accept();
+		} finally {
+			server.close();
+		}
+	}
+
+	private SocketChannel connect () throws IOException {
+		long deadline = System.currentTimeMillis() + SOCKET_CONNECT_TIMEOUT;
+		while (true) {
+			try {
+				return SocketChannel.open(new InetSocketAddress(host, port));
+			} catch (IOException e) {
+				if (System.currentTimeMillis() >= deadline) {
+					throw e;
+				}
+			}
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted connecting to " + host + ":" + port);
+			}
+		}
+	}
+
+	// the other end closed the connection, nothing more will come, the
+	// link notices by its keep alives
+	protected void endOfStream () throws InterruptedException {
+		System.out.println(this + " closed by the other end");
+		while (true) {
+			Thread.sleep(Long.MAX_VALUE);
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public String toString () {
+		return "TCP link port " + ((host == null) ? "listening on " + port : host + ":" + port)
+			   + ", " + statistics();
+	}
+
+}
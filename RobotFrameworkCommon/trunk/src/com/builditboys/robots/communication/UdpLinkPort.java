@@ -0,0 +1,84 @@
+package com.builditboys.robots.communication;
+
+import static com.builditboys.robots.communication.LinkParameters.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+// A link port over UDP, each end binds its own port and sends to the
+// other's. A frame goes out as one datagram, one that does not fit in
+// SOCKET_MAX_DATAGRAM_LENGTH is split over several.
+//
+// UDP can lose a datagram, the link sees that as a lost frame and deals
+// with it the way it deals with noise on a serial line. Until the other
+// end has bound its port what is sent to it is dropped, the handshake
+// just retries.
+
+public class UdpLinkPort extends AbstractSocketLinkPort<DatagramChannel> {
+
+	private static final int MAX_DATAGRAM_LENGTH = 65536;
+
+	private final int localPort;
+	private final String remoteHost;
+	private final int remotePort;
+
+	private long datagramsDropped = 0;
+
+	// --------------------------------------------------------------------------------
+	// Constructor
+
+	// a datagram can come in at any size, the whole of it has to fit or
+	// the rest is thrown away
+	public UdpLinkPort (int localPort, String remoteHost, int remotePort) {
+		super(MAX_DATAGRAM_LENGTH, SOCKET_MAX_DATAGRAM_LENGTH);
+		this.localPort = localPort;
+		this.remoteHost = remoteHost;
+		this.remotePort = remotePort;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	protected DatagramChannel openChannel () throws IOException {
+		DatagramChannel opened = DatagramChannel.open();
+		opened.socket().setReuseAddress(true);
+		opened.socket().bind(new InetSocketAddress(localPort));
+		opened.connect(new InetSocketAddress(remoteHost, remotePort));
+		System.out.println("Opening UDP link port " + localPort + " to " + remoteHost + ":" + remotePort);
+		return opened;
+	}
+
+	protected void endOfStream () {
+		// not for datagrams
+	}
+
+	// the other end told us its port is not there, yet
+	protected int readChannel (ByteBuffer buffer) throws IOException {
+		try {
+			return channel.read(buffer);
+		} catch (PortUnreachableException e) {
+			return 0;
+		}
+	}
+
+	protected int writeChannel (ByteBuffer buffer) throws IOException {
+		try {
+			return channel.write(buffer);
+		} catch (PortUnreachableException e) {
+			datagramsDropped++;
+			int count = buffer.remaining();
+			buffer.position(buffer.limit());
+			return count;
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public String toString () {
+		return "UDP link port " + localPort + " to " + remoteHost + ":" + remotePort
+			   + ", " + statistics() + ", " + datagramsDropped + " datagrams dropped";
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.builditboys.robots.communication;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Something one thread waits on and others poke. The signal is a count,
+// the waiter reads it before it looks for work, and if there is none it
+// waits for the count to move past what it read. A poke that comes in
+// between is not lost, the count has already moved.
+//
+// Only one thread at a time waits on a signal, the sender on its output
+// channels, the link thread on its link.
+
+public class WaitSignal {
+
+	private final AtomicLong count = new AtomicLong();
+	private volatile Thread waiter = null;
+
+	// --------------------------------------------------------------------------------
+
+	public long get() {
+		return count.get();
+	}
+
+	public boolean hasMoved(long seen) {
+		return count.get() != seen;
+	}
+
+	public void signal() {
+		count.incrementAndGet();
+		Thread thread = waiter;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+
+	// block until the count moves past seen, or the deadline (System.nanoTime)
+	// passes, a deadline of zero means no deadline
+	void park(long seen, long deadline) throws InterruptedException {
+		waiter = Thread.currentThread();
+		try {
+			while (!hasMoved(seen)) {
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				if (deadline == 0) {
+					LockSupport.park(this);
+				}
+				else {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						return;
+					}
+					LockSupport.parkNanos(this, remaining);
+				}
+			}
+		} finally {
+			waiter = null;
+		}
+	}
+
+}
@@ -0,0 +1,113 @@
+package com.builditboys.robots.communication;
+
+import static com.builditboys.robots.communication.LinkParameters.*;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+// How a link's threads idle while they wait for something to do, the
+// sender for a message, the receiver for a byte from the port and the
+// link thread for the other side to answer. Blocking costs nothing while
+// idle but every wake up goes through the scheduler. The others stay on
+// the CPU for a while, or for good, and notice the work sooner.
+//
+//   BLOCKING - block right away
+//   SLEEPING - spin a little, then poll with sleeps that back off
+//   YIELDING - spin a little, then poll, yielding the CPU in between
+//   SPINNING - busy spin for a while, then block
+
+public enum WaitStrategyEnum {
+
+	BLOCKING (0, 0, false),
+	SLEEPING (WAIT_SPIN_TRIES, WAIT_YIELD_TRIES, true),
+	YIELDING (WAIT_SPIN_TRIES, -1, false),
+	SPINNING (WAIT_BUSY_SPIN_TRIES, 0, false);
+
+	private final int spins;
+	private final int yields;        // -1 means yield forever
+	private final boolean sleeps;
+
+	private WaitStrategyEnum (int spins, int yields, boolean sleeps) {
+		this.spins = spins;
+		this.yields = yields;
+		this.sleeps = sleeps;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	// wait until the signal moves past seen, or timeout milliseconds go by,
+	// zero means no timeout
+	public void await (WaitSignal signal, long seen, long timeout) throws InterruptedException {
+		long deadline = (timeout > 0) ? System.nanoTime() + timeout * 1000000 : 0;
+		int round = 0;
+		while (!signal.hasMoved(seen)) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if ((deadline != 0) && (deadline - System.nanoTime() <= 0)) {
+				return;
+			}
+			if (!idle(round++)) {
+				signal.park(seen, deadline);
+				return;
+			}
+		}
+	}
+
+	// take the next thing off the queue, waiting for it if there is none
+	public <T> T take (BlockingQueue<T> queue) throws InterruptedException {
+		int round = 0;
+		while (true) {
+			T item = queue.poll();
+			if (item != null) {
+				return item;
+			}
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if (!idle(round++)) {
+				return queue.take();
+			}
+		}
+	}
+
+	// one round of idling for a wait with nothing to block on, memory
+	// another process writes for instance, once it would block it sleeps
+	// instead, backing off like SLEEPING
+	public void poll (int round) {
+		if (!idle(round)) {
+			int backoff = Math.min(round - spins - yields, 20);
+			LockSupport.parkNanos(Math.min(WAIT_MIN_SLEEP_NANOS << backoff, WAIT_MAX_SLEEP_NANOS));
+		}
+	}
+
+	// one round of idling for a wait on a channel, once it would block it
+	// blocks in the selector, which an interrupt wakes without closing the
+	// channel
+	public void select (Selector selector, int round) throws IOException {
+		if (!idle(round)) {
+			selector.select();
+			selector.selectedKeys().clear();
+		}
+	}
+
+	// one round of idling, false once it is time to block
+	private boolean idle (int round) {
+		if (round < spins) {
+			return true;
+		}
+		if ((yields < 0) || (round < spins + yields)) {
+			Thread.yield();
+			return true;
+		}
+		if (sleeps) {
+			int backoff = Math.min(round - spins - yields, 20);
+			LockSupport.parkNanos(Math.min(WAIT_MIN_SLEEP_NANOS << backoff, WAIT_MAX_SLEEP_NANOS));
+			return true;
+		}
+		return false;
+	}
+
+}
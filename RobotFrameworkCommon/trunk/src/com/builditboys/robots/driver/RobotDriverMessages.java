@@ -0,0 +1,165 @@
+package com.builditboys.robots.driver;
+
+import com.builditboys.robots.utilities.FillableBuffer;
+
+// Generated by MessageGenerator from robot_driver.msgs, do not edit.
+// Encoders write straight into the buffer and decoders read the fields
+// where they sit, neither allocates anything. Lengths include the
+// indicator byte.
+
+public final class RobotDriverMessages {
+
+	private RobotDriverMessages () {
+	}
+
+	//--------------------------------------------------------------------------------
+	// Indicators
+
+	public static final int MS_DRIVE = 0;
+	public static final int MS_STOP = 1;
+	public static final int MS_MOVE = 2;
+	public static final int MS_STEER = 4;
+	public static final int MS_SET_BUMP_MODE = 5;
+	public static final int MS_SET_RANGING_MODE = 6;
+
+	public static final int LARGEST_INDICATOR = 6;
+
+	//--------------------------------------------------------------------------------
+	// Lengths
+
+	public static final int MS_DRIVE_LENGTH = 3;
+	public static final int MS_STOP_LENGTH = 2;
+	public static final int MS_MOVE_LENGTH = 4;
+	public static final int MS_STEER_LENGTH = 3;
+	public static final int MS_SET_BUMP_MODE_LENGTH = 2;
+	public static final int MS_SET_RANGING_MODE_LENGTH = 2;
+
+	public static final int MAX_LENGTH = 4;
+
+	// the length a message with the indicator should have, -1 if there is no such message
+	public static int messageLength (int indicator) {
+		switch (indicator) {
+		case MS_DRIVE:
+			return MS_DRIVE_LENGTH;
+		case MS_STOP:
+			return MS_STOP_LENGTH;
+		case MS_MOVE:
+			return MS_MOVE_LENGTH;
+		case MS_STEER:
+			return MS_STEER_LENGTH;
+		case MS_SET_BUMP_MODE:
+			return MS_SET_BUMP_MODE_LENGTH;
+		case MS_SET_RANGING_MODE:
+			return MS_SET_RANGING_MODE_LENGTH;
+		default:
+			return -1;
+		}
+	}
+
+	public static int getIndicator (FillableBuffer buff) {
+		return buff.reConstructBytes1At(0) & 0xFF;
+	}
+
+	// true if the indicator is known and the message is at least as long as it should be,
+	// older peers pad messages with no arguments and newer ones may add fields at the end
+	public static boolean isWellFormed (FillableBuffer buff) {
+		if (buff.size() == 0) {
+			return false;
+		}
+		int length = messageLength(getIndicator(buff));
+		return (length > 0) && (buff.size() >= length);
+	}
+
+	//--------------------------------------------------------------------------------
+	// Drive
+
+	public static void encodeDrive (FillableBuffer buff, int speed, int acceleration) {
+		buff.deConstructBytes1(MS_DRIVE);
+		buff.deConstructBytes1(speed);
+		buff.deConstructBytes1(acceleration);
+	}
+
+	public static int getDriveSpeed (FillableBuffer buff) {
+		return buff.reConstructBytes1At(1);
+	}
+
+	public static int getDriveAcceleration (FillableBuffer buff) {
+		return buff.reConstructBytes1At(2);
+	}
+
+	//--------------------------------------------------------------------------------
+	// Stop
+
+	public static void encodeStop (FillableBuffer buff, int acceleration) {
+		buff.deConstructBytes1(MS_STOP);
+		buff.deConstructBytes1(acceleration);
+	}
+
+	public static int getStopAcceleration (FillableBuffer buff) {
+		return buff.reConstructBytes1At(1);
+	}
+
+	//--------------------------------------------------------------------------------
+	// Move
+
+	public static void encodeMove (FillableBuffer buff, int distance, int speed, int acceleration) {
+		buff.deConstructBytes1(MS_MOVE);
+		buff.deConstructBytes1(distance);
+		buff.deConstructBytes1(speed);
+		buff.deConstructBytes1(acceleration);
+	}
+
+	public static int getMoveDistance (FillableBuffer buff) {
+		return buff.reConstructBytes1At(1);
+	}
+
+	public static int getMoveSpeed (FillableBuffer buff) {
+		return buff.reConstructBytes1At(2);
+	}
+
+	public static int getMoveAcceleration (FillableBuffer buff) {
+		return buff.reConstructBytes1At(3);
+	}
+
+	//--------------------------------------------------------------------------------
+	// Steer
+
+	public static void encodeSteer (FillableBuffer buff, int angle, int rate) {
+		buff.deConstructBytes1(MS_STEER);
+		buff.deConstructBytes1(angle);
+		buff.deConstructBytes1(rate);
+	}
+
+	public static int getSteerAngle (FillableBuffer buff) {
+		return buff.reConstructBytes1At(1);
+	}
+
+	public static int getSteerRate (FillableBuffer buff) {
+		return buff.reConstructBytes1At(2);
+	}
+
+	//--------------------------------------------------------------------------------
+	// SetBumpMode
+
+	public static void encodeSetBumpMode (FillableBuffer buff, int mode) {
+		buff.deConstructBytes1(MS_SET_BUMP_MODE);
+		buff.deConstructBytes1(mode);
+	}
+
+	public static int getSetBumpModeMode (FillableBuffer buff) {
+		return buff.reConstructBytes1At(1) & 0xFF;
+	}
+
+	//--------------------------------------------------------------------------------
+	// SetRangingMode
+
+	public static void encodeSetRangingMode (FillableBuffer buff, int mode) {
+		buff.deConstructBytes1(MS_SET_RANGING_MODE);
+		buff.deConstructBytes1(mode);
+	}
+
+	public static int getSetRangingModeMode (FillableBuffer buff) {
+		return buff.reConstructBytes1At(1) & 0xFF;
+	}
+
+}
@@ -2,13 +2,14 @@ package com.builditboys.robots.driver;
 
 import com.builditboys.robots.communication.AbstractLink;
 import com.builditboys.robots.communication.AbstractProtocol;
-import com.builditboys.robots.communication.AbstractProtocolMessage;
 import com.builditboys.robots.communication.InputChannel;
 import com.builditboys.robots.communication.LinkMessage;
 import com.builditboys.robots.communication.OutputChannel;
-import com.builditboys.robots.utilities.FillableBuffer;
+import com.builditboys.robots.infrastructure.ParameterServer;
 import com.builditboys.robots.utilities.MiscUtilities;
 
+import static com.builditboys.robots.driver.RobotDriverMessages.*;
+
 import static com.builditboys.robots.communication.LinkParameters.*;
 
 public class RobotDriverProtocol extends AbstractProtocol {
@@ -16,6 +17,9 @@ public class RobotDriverProtocol extends AbstractProtocol {
 	private static final AbstractProtocol REPRESENTATIVE = new RobotDriverProtocol();
 	
 	private static final int MY_CHANNEL_NUMBER = ROBOT_DRIVER_CHANNEL_NUMBER;
+	
+	// slave side, what we have been told to do
+	private RobotDriverState state;
 		
 	// --------------------------------------------------------------------------------
 	// Constructors -- you don't construct a protocol directly, use addProtocolToLink
@@ -55,9 +59,25 @@ public class RobotDriverProtocol extends AbstractProtocol {
 	// --------------------------------------------------------------------------------
 
 	public static void addProtocolToLink (AbstractLink link, ProtocolRoleEnum rol) {
+		addProtocolToLink(link, rol, "ROBOT_DRIVER_STATE");
+	}
+	
+	// only the slave keeps a state
+	public static void addProtocolToLink (AbstractLink link, ProtocolRoleEnum rol, String stateName) {
 		RobotDriverProtocol iproto = new RobotDriverProtocol(rol);
 		RobotDriverProtocol oproto = new RobotDriverProtocol(rol);
 		link.addProtocol(iproto, oproto);
+		
+		if (rol == ProtocolRoleEnum.SLAVE) {
+			RobotDriverState state = new RobotDriverState(stateName);
+			ParameterServer.addParameter(state);
+			iproto.state = state;
+			oproto.state = state;
+		}
+	}
+	
+	public RobotDriverState getState () {
+		return state;
 	}
 	
 	// --------------------------------------------------------------------------------
@@ -71,15 +91,16 @@ public class RobotDriverProtocol extends AbstractProtocol {
 	}
 	
 	// --------------------------------------------------------------------------------
-	// Robot Driver Messages - keep in sync with the PSoC
+	// Robot Driver Messages - generated from schema/robot_driver.msgs, the
+	// PSoC uses the matching header so the two sides stay in sync
 
-	public static final int MS_DRIVE        = 0; // speed, acceleration
-	public static final int MS_STOP         = 1; // acceleration
-	public static final int MS_MOVE         = 2; // distance, speed, acceleration
-	public static final int MS_STEER        = 4; // angle, rate
+	public static final int MS_DRIVE        = RobotDriverMessages.MS_DRIVE; // speed, acceleration
+	public static final int MS_STOP         = RobotDriverMessages.MS_STOP; // acceleration
+	public static final int MS_MOVE         = RobotDriverMessages.MS_MOVE; // distance, speed, acceleration
+	public static final int MS_STEER        = RobotDriverMessages.MS_STEER; // angle, rate
 	
-	public static final int MS_SET_BUMP_MODE    = 5; // true/false
-	public static final int MS_SET_RANGING_MODE = 6; // true/false
+	public static final int MS_SET_BUMP_MODE    = RobotDriverMessages.MS_SET_BUMP_MODE; // true/false
+	public static final int MS_SET_RANGING_MODE = RobotDriverMessages.MS_SET_RANGING_MODE; // true/false
 	
 	
 	public enum RobotDriverMessageEnum {
@@ -127,39 +148,49 @@ public class RobotDriverProtocol extends AbstractProtocol {
 	// Sending messages -- master to slave
 	
 	public void sendDrive (int speed, int acceleration, boolean doWait) throws InterruptedException {
-		sendRoleMessage(ProtocolRoleEnum.MASTER,
-						new RobotDriverMessage(MS_DRIVE, speed, acceleration),
-						doWait);
+		sendDrive(speed, acceleration, 0, doWait);
+	}
+
+	// a drive that shows up late is worse than none, the link drops it if it
+	// has not gone out within timeToLive milliseconds
+	public void sendDrive (int speed, int acceleration, long timeToLive, boolean doWait) throws InterruptedException {
+		LinkMessage message = newMessage(MS_DRIVE_LENGTH, doWait);
+		encodeDrive(message, speed, acceleration);
+		sendRoleMessage(ProtocolRoleEnum.MASTER, message, timeToLive, doWait);
 	}
 	
 	public void sendStop (int acceleration, boolean doWait) throws InterruptedException {
-		sendRoleMessage(ProtocolRoleEnum.MASTER,
-						new RobotDriverMessage(MS_DRIVE, acceleration),
-						doWait);
+		LinkMessage message = newMessage(MS_STOP_LENGTH, doWait);
+		encodeStop(message, acceleration);
+		sendRoleMessage(ProtocolRoleEnum.MASTER, message, doWait);
 	}
 
 	public void sendMove (int distance, int speed, int acceleration, boolean doWait) throws InterruptedException {
-		sendRoleMessage(ProtocolRoleEnum.MASTER,
-						new RobotDriverMessage(MS_DRIVE, distance, speed, acceleration),
-						doWait);
+		LinkMessage message = newMessage(MS_MOVE_LENGTH, doWait);
+		encodeMove(message, distance, speed, acceleration);
+		sendRoleMessage(ProtocolRoleEnum.MASTER, message, doWait);
 	}
 
 	public void sendSteer (int angle, int rate, boolean doWait) throws InterruptedException {
-		sendRoleMessage(ProtocolRoleEnum.MASTER,
-						new RobotDriverMessage(MS_DRIVE, angle, rate),
-						doWait);
+		sendSteer(angle, rate, 0, doWait);
+	}
+
+	public void sendSteer (int angle, int rate, long timeToLive, boolean doWait) throws InterruptedException {
+		LinkMessage message = newMessage(MS_STEER_LENGTH, doWait);
+		encodeSteer(message, angle, rate);
+		sendRoleMessage(ProtocolRoleEnum.MASTER, message, timeToLive, doWait);
 	}
 
 	public void sendSetBump (boolean mode, boolean doWait) throws InterruptedException {
-		sendRoleMessage(ProtocolRoleEnum.MASTER,
-						new RobotDriverMessage(MS_DRIVE, MiscUtilities.booleanToInt(mode)),
-						doWait);
+		LinkMessage message = newMessage(MS_SET_BUMP_MODE_LENGTH, doWait);
+		encodeSetBumpMode(message, MiscUtilities.booleanToInt(mode));
+		sendRoleMessage(ProtocolRoleEnum.MASTER, message, doWait);
 	}
 
 	public void sendSetRanging (boolean mode, boolean doWait) throws InterruptedException {
-		sendRoleMessage(ProtocolRoleEnum.MASTER,
-						new RobotDriverMessage(MS_DRIVE, MiscUtilities.booleanToInt(mode)),
-						doWait);
+		LinkMessage message = newMessage(MS_SET_RANGING_MODE_LENGTH, doWait);
+		encodeSetRangingMode(message, MiscUtilities.booleanToInt(mode));
+		sendRoleMessage(ProtocolRoleEnum.MASTER, message, doWait);
 	}
 
 	//--------------------------------------------------------------------------------
@@ -170,7 +201,15 @@ public class RobotDriverProtocol extends AbstractProtocol {
 	//--------------------------------------------------------------------------------
 	// Receiving messages
 
+	// the messages are decoded in place and not kept
+	protected boolean receivesMessageViews () {
+		return true;
+	}
+
 	public void receiveMessage (LinkMessage message) throws InterruptedException {
+		if (!isWellFormed(message)) {
+			throw new IllegalArgumentException("Malformed robot driver message: " + getIndicator(message));
+		}
 		switch (protocolRole) {
 		case MASTER:
 			receiveMasterMessage(message);
@@ -197,69 +236,38 @@ public class RobotDriverProtocol extends AbstractProtocol {
 	//--------------------------------------------------------------------------------
 	// Receiving messages - Slave
 
+	// what the PSoC does, less the motors
 	public void receiveSlaveMessage (LinkMessage message) {
 		int indicator = message.peekByte();
 		switch (indicator) {
+		
+		case MS_DRIVE:
+			state.drive(getDriveSpeed(message), getDriveAcceleration(message));
+			break;
+			
+		case MS_STOP:
+			state.stop(getStopAcceleration(message));
+			break;
+			
+		case MS_MOVE:
+			state.move(getMoveDistance(message), getMoveSpeed(message), getMoveAcceleration(message));
+			break;
+			
+		case MS_STEER:
+			state.steer(getSteerAngle(message), getSteerRate(message));
+			break;
+			
+		case MS_SET_BUMP_MODE:
+			state.setBumpMode(getSetBumpModeMode(message) != 0);
+			break;
+			
+		case MS_SET_RANGING_MODE:
+			state.setRangingMode(getSetRangingModeMode(message) != 0);
+			break;
+			
 		default:
 			throw new IllegalArgumentException("Unknown robot driver message: " + indicator);
 		}
 	}
-	
-	//--------------------------------------------------------------------------------
-	// A class that models a robot driver message
-	
-	private class RobotDriverMessage extends AbstractProtocolMessage {
-		int indicator = 0;
-		int arguement1 = 0;
-		int arguement2 = 0;
-		int arguement3 = 0;
-		
-		// used to create an empty message to read into
-		protected RobotDriverMessage () {
-			super(1 + 1);
-		}
 
-		protected RobotDriverMessage (int ind) {
-			super(1 + 1);
-			indicator = ind;
-		}
-		
-		protected RobotDriverMessage (int ind, int arg1) {
-			super(1 + 1);
-			indicator = ind;
-			arguement1 = arg1;
-		}
-				
-		protected RobotDriverMessage (int ind, int arg1, int arg2) {
-			super(1 + 1);
-			indicator = ind;
-			arguement1 = arg1;
-			arguement2 = arg2;
-		}
-		
-		protected RobotDriverMessage (int ind, int arg1, int arg2, int arg3) {
-			super(1 + 1);
-			indicator = ind;
-			arguement1 = arg1;
-			arguement2 = arg2;
-			arguement3 = arg3;
-		}
-
-		protected void deConstruct (FillableBuffer buff) {
-			buff.deConstructBytes1(indicator);
-			buff.deConstructBytes1(arguement1);
-			buff.deConstructBytes1(arguement2);
-			buff.deConstructBytes1(arguement3);
-		}
-		
-		protected void reConstruct (FillableBuffer buff) {
-			indicator = buff.reConstructBytes1();
-			arguement1 = buff.reConstructBytes1();
-			arguement2 = buff.reConstructBytes1();
-			arguement3 = buff.reConstructBytes1();
-		}
-	}
-
-	
 }
-
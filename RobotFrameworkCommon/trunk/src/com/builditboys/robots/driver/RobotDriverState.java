@@ -0,0 +1,149 @@
+package com.builditboys.robots.driver;
+
+import com.builditboys.robots.infrastructure.ParameterInterface;
+import com.builditboys.robots.infrastructure.ParameterServer;
+import com.builditboys.robots.time.LocalTimeSystem;
+
+// What the slave was last told to do by the robot driver protocol, the
+// PSoC keeps the same in its motor control, the Java slave just keeps it
+// for looking at, see PsocEmulator
+
+public class RobotDriverState implements ParameterInterface {
+
+	//--------------------------------------------------------------------------------
+	// State variables
+
+	int speed = 0;
+	int acceleration = 0;
+
+	int steerAngle = 0;
+	int steerRate = 0;
+
+	// what is left of the last move, 0 when driving
+	int moveDistance = 0;
+
+	boolean bumpMode = false;
+	boolean rangingMode = false;
+
+	int commandCount = 0;
+	int commandTime = 0;   // local time
+
+	String name;
+
+	//--------------------------------------------------------------------------------
+
+	public RobotDriverState (String nm) {
+		name = nm;
+	}
+
+	//--------------------------------------------------------------------------------
+
+	public String getName () {
+		return name;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public static RobotDriverState getParameter (String key) {
+		return (RobotDriverState) ParameterServer.getParameter(key);
+	}
+
+	public static RobotDriverState maybeGetParameter (String key) {
+		return (RobotDriverState) ParameterServer.maybeGetParameter(key);
+	}
+
+	//--------------------------------------------------------------------------------
+	// Commands from the master
+
+	public synchronized void drive (int spd, int accel) {
+		speed = spd;
+		acceleration = accel;
+		moveDistance = 0;
+		noteCommand();
+	}
+
+	public synchronized void stop (int accel) {
+		speed = 0;
+		acceleration = accel;
+		moveDistance = 0;
+		noteCommand();
+	}
+
+	public synchronized void move (int distance, int spd, int accel) {
+		speed = spd;
+		acceleration = accel;
+		moveDistance = distance;
+		noteCommand();
+	}
+
+	public synchronized void steer (int angle, int rate) {
+		steerAngle = angle;
+		steerRate = rate;
+		noteCommand();
+	}
+
+	public synchronized void setBumpMode (boolean mode) {
+		bumpMode = mode;
+		noteCommand();
+	}
+
+	public synchronized void setRangingMode (boolean mode) {
+		rangingMode = mode;
+		noteCommand();
+	}
+
+	private void noteCommand () {
+		commandCount++;
+		commandTime = LocalTimeSystem.currentTime();
+	}
+
+	//--------------------------------------------------------------------------------
+
+	public synchronized int getSpeed () {
+		return speed;
+	}
+
+	public synchronized int getAcceleration () {
+		return acceleration;
+	}
+
+	public synchronized int getSteerAngle () {
+		return steerAngle;
+	}
+
+	public synchronized int getSteerRate () {
+		return steerRate;
+	}
+
+	public synchronized int getMoveDistance () {
+		return moveDistance;
+	}
+
+	public synchronized boolean getBumpMode () {
+		return bumpMode;
+	}
+
+	public synchronized boolean getRangingMode () {
+		return rangingMode;
+	}
+
+	public synchronized int getCommandCount () {
+		return commandCount;
+	}
+
+	public synchronized int getCommandTime () {
+		return commandTime;
+	}
+
+	//--------------------------------------------------------------------------------
+
+	public synchronized void print () {
+		System.out.println("  Time: " + commandTime + " (" + commandCount + " commands)");
+		System.out.println("  Speed: " + speed + " Acceleration: " + acceleration + " Move: " + moveDistance);
+		System.out.println("  Steer: " + steerAngle + " Rate: " + steerRate);
+		System.out.println("  Bump: " + bumpMode + " Ranging: " + rangingMode);
+	}
+
+	//--------------------------------------------------------------------------------
+
+}
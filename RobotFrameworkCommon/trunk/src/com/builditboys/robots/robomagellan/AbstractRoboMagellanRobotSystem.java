@@ -31,6 +31,7 @@ public abstract class AbstractRoboMagellanRobotSystem extends AbstractRobotSyste
 		// get the link to the robot set up
 		masterLink = new MasterLink("ROBOT_LINK", linkPort);
 		ParameterServer.addParameter(masterLink);
+		ParameterServer.addParameter(masterLink.getLinkQuality());
 		
 		TimeSyncProtocol.addProtocolToLink(masterLink, ProtocolRoleEnum.MASTER);
 		RobotControlProtocol.addProtocolToLink(masterLink, ProtocolRoleEnum.MASTER, "ROBOT_STATE");
@@ -94,6 +95,7 @@ public abstract class AbstractRoboMagellanRobotSystem extends AbstractRobotSyste
 		AbstractLink link = AbstractLink.maybeGetParameter("ROBOT_LINK");
 		if (link != null) {
 			System.out.println("  Link state: " + link.getLinkState());
+			link.getLinkQuality().print();
 		}
 		else {
 			System.out.println("  No current link state");
@@ -0,0 +1,163 @@
+package com.builditboys.robots.system;
+
+import java.nio.ByteBuffer;
+
+import com.builditboys.robots.utilities.FillableBuffer;
+
+// Generated by MessageGenerator from parameter.msgs, do not edit.
+// Encoders write straight into the buffer and decoders read the fields
+// where they sit, neither allocates anything. Lengths include the
+// indicator byte.
+
+public final class ParameterMessages {
+
+	private ParameterMessages () {
+	}
+
+	//--------------------------------------------------------------------------------
+	// Indicators
+
+	public static final int MS_GET_PARAMETERS = 0;
+	public static final int MS_SET_PARAMETERS = 1;
+	public static final int SM_PARAMETER_VALUES = 2;
+	public static final int SM_PARAMETERS_CHANGED = 3;
+
+	public static final int LARGEST_INDICATOR = 3;
+
+	//--------------------------------------------------------------------------------
+	// Lengths
+
+	public static final int MS_GET_PARAMETERS_LENGTH = 2;
+	public static final int MS_SET_PARAMETERS_LENGTH = 2;
+	public static final int SM_PARAMETER_VALUES_LENGTH = 2;
+	public static final int SM_PARAMETERS_CHANGED_LENGTH = 1;
+
+	public static final int MAX_LENGTH = 2;
+
+	// the length a message with the indicator should have, -1 if there is no such message
+	public static int messageLength (int indicator) {
+		switch (indicator) {
+		case MS_GET_PARAMETERS:
+			return MS_GET_PARAMETERS_LENGTH;
+		case MS_SET_PARAMETERS:
+			return MS_SET_PARAMETERS_LENGTH;
+		case SM_PARAMETER_VALUES:
+			return SM_PARAMETER_VALUES_LENGTH;
+		case SM_PARAMETERS_CHANGED:
+			return SM_PARAMETERS_CHANGED_LENGTH;
+		default:
+			return -1;
+		}
+	}
+
+	public static int getIndicator (FillableBuffer buff) {
+		return buff.reConstructBytes1At(0) & 0xFF;
+	}
+
+	// true if the message ends in bytes, its length is then the least it can be
+	public static boolean hasTrailingBytes (int indicator) {
+		switch (indicator) {
+		case MS_GET_PARAMETERS:
+		case MS_SET_PARAMETERS:
+		case SM_PARAMETER_VALUES:
+		case SM_PARAMETERS_CHANGED:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	// true if the indicator is known and the message is at least as long as it should be,
+	// older peers pad messages with no arguments and newer ones may add fields at the end
+	public static boolean isWellFormed (FillableBuffer buff) {
+		if (buff.size() == 0) {
+			return false;
+		}
+		int length = messageLength(getIndicator(buff));
+		return (length > 0) && (buff.size() >= length);
+	}
+
+	//--------------------------------------------------------------------------------
+	// GetParameters
+
+	// add the keys bytes after this
+	public static void encodeGetParameters (FillableBuffer buff, int callId) {
+		buff.deConstructBytes1(MS_GET_PARAMETERS);
+		buff.deConstructBytes1(callId);
+	}
+
+	public static int getGetParametersCallId (FillableBuffer buff) {
+		return buff.reConstructBytes1At(1) & 0xFF;
+	}
+
+	public static int getGetParametersKeysLength (FillableBuffer buff) {
+		return buff.size() - 2;
+	}
+
+	// a read only view, nothing is copied
+	public static ByteBuffer getGetParametersKeys (FillableBuffer buff) {
+		return buff.asByteBuffer(2, buff.size() - 2);
+	}
+
+	//--------------------------------------------------------------------------------
+	// SetParameters
+
+	// add the entries bytes after this
+	public static void encodeSetParameters (FillableBuffer buff, int callId) {
+		buff.deConstructBytes1(MS_SET_PARAMETERS);
+		buff.deConstructBytes1(callId);
+	}
+
+	public static int getSetParametersCallId (FillableBuffer buff) {
+		return buff.reConstructBytes1At(1) & 0xFF;
+	}
+
+	public static int getSetParametersEntriesLength (FillableBuffer buff) {
+		return buff.size() - 2;
+	}
+
+	// a read only view, nothing is copied
+	public static ByteBuffer getSetParametersEntries (FillableBuffer buff) {
+		return buff.asByteBuffer(2, buff.size() - 2);
+	}
+
+	//--------------------------------------------------------------------------------
+	// ParameterValues
+
+	// add the entries bytes after this
+	public static void encodeParameterValues (FillableBuffer buff, int callId) {
+		buff.deConstructBytes1(SM_PARAMETER_VALUES);
+		buff.deConstructBytes1(callId);
+	}
+
+	public static int getParameterValuesCallId (FillableBuffer buff) {
+		return buff.reConstructBytes1At(1) & 0xFF;
+	}
+
+	public static int getParameterValuesEntriesLength (FillableBuffer buff) {
+		return buff.size() - 2;
+	}
+
+	// a read only view, nothing is copied
+	public static ByteBuffer getParameterValuesEntries (FillableBuffer buff) {
+		return buff.asByteBuffer(2, buff.size() - 2);
+	}
+
+	//--------------------------------------------------------------------------------
+	// ParametersChanged
+
+	// add the entries bytes after this
+	public static void encodeParametersChanged (FillableBuffer buff) {
+		buff.deConstructBytes1(SM_PARAMETERS_CHANGED);
+	}
+
+	public static int getParametersChangedEntriesLength (FillableBuffer buff) {
+		return buff.size() - 1;
+	}
+
+	// a read only view, nothing is copied
+	public static ByteBuffer getParametersChangedEntries (FillableBuffer buff) {
+		return buff.asByteBuffer(1, buff.size() - 1);
+	}
+
+}
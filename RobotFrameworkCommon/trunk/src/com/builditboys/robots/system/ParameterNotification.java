@@ -0,0 +1,60 @@
+package com.builditboys.robots.system;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.builditboys.robots.infrastructure.AbstractNotification;
+import com.builditboys.robots.infrastructure.DistributionList;
+import com.builditboys.robots.infrastructure.SubscriberInterface;
+
+// Published when the slave says some of the mirrored parameters changed,
+// see ParameterProtocol. The new values are already in the ParameterServer.
+
+public class ParameterNotification extends AbstractNotification {
+
+	private final List<String> names;
+
+	//--------------------------------------------------------------------------------
+
+	private ParameterNotification (String names[]) {
+		this.names = Collections.unmodifiableList(Arrays.asList(names));
+	}
+
+	//--------------------------------------------------------------------------------
+
+	private static final DistributionList DISTRIBUTION_LIST = new DistributionList("PARAMETER_DISTRIBUTION_LIST", true);
+
+	public static DistributionList getDistributionList () {
+		return DISTRIBUTION_LIST;
+	}
+
+	//--------------------------------------------------------------------------------
+
+	public static ParameterNotification newParametersChangedNotice (String names[]) {
+		return new ParameterNotification(names);
+	}
+
+	//--------------------------------------------------------------------------------
+
+	public List<String> getNames () {
+		return names;
+	}
+
+	//--------------------------------------------------------------------------------
+
+	public void publish (Object publishedBy) {
+		publish(publishedBy, DISTRIBUTION_LIST);
+	}
+
+	public void publishSelf (SubscriberInterface subscriber) {
+		((ParameterNotificationSubscriberInterface) subscriber).receiveNotification(this);
+	}
+
+	//--------------------------------------------------------------------------------
+
+	public String toString () {
+		return "Parameters changed: " + names;
+	}
+
+}
@@ -0,0 +1,9 @@
+package com.builditboys.robots.system;
+
+import com.builditboys.robots.infrastructure.SubscriberInterface;
+
+public interface ParameterNotificationSubscriberInterface extends SubscriberInterface {
+
+	public abstract void receiveNotification (ParameterNotification notice);
+
+}
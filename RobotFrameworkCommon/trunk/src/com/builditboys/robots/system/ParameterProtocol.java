@@ -0,0 +1,452 @@
+package com.builditboys.robots.system;
+
+import static com.builditboys.robots.communication.LinkParameters.*;
+import static com.builditboys.robots.system.ParameterMessages.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import com.builditboys.robots.communication.AbstractLink;
+import com.builditboys.robots.communication.AbstractProtocol;
+import com.builditboys.robots.communication.InputChannel;
+import com.builditboys.robots.communication.LinkMessage;
+import com.builditboys.robots.communication.OutputChannel;
+import com.builditboys.robots.communication.RpcCall;
+import com.builditboys.robots.infrastructure.ByteParameter;
+import com.builditboys.robots.infrastructure.IntegerParameter;
+import com.builditboys.robots.infrastructure.LongParameter;
+import com.builditboys.robots.infrastructure.ParameterInterface;
+import com.builditboys.robots.infrastructure.ParameterServer;
+import com.builditboys.robots.infrastructure.ShortParameter;
+
+// Mirrors some of the slave's ParameterServer keys, PID gains, bump and
+// ranging modes and so on, so the master can read and tune them at run
+// time.
+//
+// Both sides give each mirrored key the same one byte id with
+// mirrorParameter, only the ids go over the wire. A get or a set names
+// as many keys as fit in a frame and the slave answers with the values
+// as they now are, so tuning a handful of parameters is a single round
+// trip. The slave also tells the master when it changes values on its
+// own, see sendParametersChanged, those come out as a
+// ParameterNotification.
+//
+// The master keeps its copy of each mirrored key in its own
+// ParameterServer, an IntegerParameter unless there is one already, and
+// every value that comes back from the slave lands there. Values go over
+// the wire as int32, so only the integer kinds of parameter can be
+// mirrored.
+
+public class ParameterProtocol extends AbstractProtocol {
+
+	private static final AbstractProtocol REPRESENTATIVE = new ParameterProtocol();
+
+	private static final int MY_CHANNEL_NUMBER = PARAMETER_CHANNEL_NUMBER;
+
+	public static final int KEY_ID_MIN = 0;
+	public static final int KEY_ID_MAX = 255;
+
+	// key id, value
+	public static final int ENTRY_LENGTH = 1 + 4;
+
+	// the mirrored keys, on the output protocol
+	private final String keyNames[] = new String[KEY_ID_MAX + 1];
+	private final Map<String, Integer> keyIds = new HashMap<String, Integer>();
+
+	// --------------------------------------------------------------------------------
+	// Constructors -- you don't construct a protocol directly, use addProtocolToLink
+
+	// for the indicator
+	private ParameterProtocol() {
+	}
+
+	// for the real protocol objects
+	private ParameterProtocol (ProtocolRoleEnum rol) {
+		protocolRole = rol;
+	}
+
+	//--------------------------------------------------------------------------------
+	// Channel factories
+
+	public InputChannel getInputChannel () {
+		channel = new InputChannel(this, MY_CHANNEL_NUMBER);
+		return (InputChannel) channel;
+	}
+
+	public OutputChannel getOutputChannel () {
+		channel = new OutputChannel(this, MY_CHANNEL_NUMBER);
+		return (OutputChannel) channel;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public static AbstractProtocol getRepresentative() {
+		return REPRESENTATIVE;
+	}
+
+	public AbstractProtocol getInstanceRepresentative() {
+		return REPRESENTATIVE;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public static void addProtocolToLink (AbstractLink link, ProtocolRoleEnum rol) {
+		ParameterProtocol iproto = new ParameterProtocol(rol);
+		ParameterProtocol oproto = new ParameterProtocol(rol);
+		link.addProtocol(iproto, oproto);
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public static ParameterProtocol getLinkInputProtocol (AbstractLink link) {
+		return (ParameterProtocol) link.getInputProtocol(REPRESENTATIVE);
+	}
+
+	public static ParameterProtocol getLinkOutputProtocol (AbstractLink link) {
+		return (ParameterProtocol) link.getOutputProtocol(REPRESENTATIVE);
+	}
+
+	// the side that sends, and keeps the key ids
+	private ParameterProtocol getOutputSide () {
+		if ((channel instanceof InputChannel) && (oppositeProtocol != null)) {
+			return (ParameterProtocol) oppositeProtocol;
+		}
+		return this;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Key ids, keep in sync with the other side
+
+	public void mirrorParameter (int keyId, String name) {
+		if ((keyId < KEY_ID_MIN) || (keyId > KEY_ID_MAX)) {
+			throw new IllegalArgumentException("Bad parameter key id: " + keyId);
+		}
+		if (name == null) {
+			throw new IllegalArgumentException("null parameter name");
+		}
+		ParameterProtocol out = getOutputSide();
+		synchronized (out.keyIds) {
+			Integer oldId = out.keyIds.get(name);
+			String oldName = out.keyNames[keyId];
+			if (((oldId != null) && (oldId != keyId)) || ((oldName != null) && !oldName.equals(name))) {
+				throw new IllegalStateException("Parameter key id " + keyId + " or " + name + " already mirrored");
+			}
+			out.keyIds.put(name, keyId);
+			out.keyNames[keyId] = name;
+		}
+		// somewhere for the values to go
+		if ((protocolRole == ProtocolRoleEnum.MASTER) && (ParameterServer.maybeGetParameter(name) == null)) {
+			ParameterServer.addParameter(new IntegerParameter(name));
+		}
+	}
+
+	public int getKeyId (String name) {
+		ParameterProtocol out = getOutputSide();
+		synchronized (out.keyIds) {
+			Integer keyId = out.keyIds.get(name);
+			if (keyId == null) {
+				throw new IllegalArgumentException("Parameter not mirrored: " + name);
+			}
+			return keyId;
+		}
+	}
+
+	// null for an id that is not mirrored
+	public String getKeyName (int keyId) {
+		ParameterProtocol out = getOutputSide();
+		synchronized (out.keyIds) {
+			return ((keyId >= KEY_ID_MIN) && (keyId <= KEY_ID_MAX)) ? out.keyNames[keyId] : null;
+		}
+	}
+
+	// how many keys fit in a get or a set, and in the answer to it
+	public int getBatchLength () {
+		return (channel.getLink().getAgreedCapabilities().getMaxPayloadLength() - CALL_HEADER_LENGTH) / ENTRY_LENGTH;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Parameter values, the integer kinds only
+
+	private static boolean isMirrorable (ParameterInterface parm) {
+		return (parm instanceof ByteParameter)
+			   || (parm instanceof ShortParameter)
+			   || (parm instanceof IntegerParameter)
+			   || (parm instanceof LongParameter);
+	}
+
+	// longs have to fit in 32 bits
+	private static int getParameterValue (ParameterInterface parm) {
+		if (parm instanceof ByteParameter) {
+			return ((ByteParameter) parm).getValue();
+		}
+		if (parm instanceof ShortParameter) {
+			return ((ShortParameter) parm).getValue();
+		}
+		if (parm instanceof IntegerParameter) {
+			return ((IntegerParameter) parm).getValue();
+		}
+		return (int) (long) ((LongParameter) parm).getValue();
+	}
+
+	private static void setParameterValue (ParameterInterface parm, int value) {
+		if (parm instanceof ByteParameter) {
+			((ByteParameter) parm).setValue((byte) value);
+		}
+		else if (parm instanceof ShortParameter) {
+			((ShortParameter) parm).setValue((short) value);
+		}
+		else if (parm instanceof IntegerParameter) {
+			((IntegerParameter) parm).setValue(value);
+		}
+		else {
+			((LongParameter) parm).setValue((long) value);
+		}
+	}
+
+	//--------------------------------------------------------------------------------
+	// Sending messages -- master to slave
+
+	// one frame's worth of keys, the reply is an SM_PARAMETER_VALUES, see
+	// getValues
+	public RpcCall callGetParameters (long timeout, String... names) throws InterruptedException {
+		checkBatch(ProtocolRoleEnum.MASTER, names.length);
+		int ids[] = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			ids[i] = getKeyId(names[i]);
+		}
+		RpcCall call = startCall(SM_PARAMETER_VALUES, timeout);
+		LinkMessage request = newRequest(call, MS_GET_PARAMETERS, ids.length);
+		for (int keyId : ids) {
+			request.deConstructBytes1(keyId);
+		}
+		return sendCall(call, request);
+	}
+
+	public RpcCall callSetParameters (Map<String, Integer> values, long timeout) throws InterruptedException {
+		checkBatch(ProtocolRoleEnum.MASTER, values.size());
+		int ids[] = new int[values.size()];
+		int i = 0;
+		for (String name : values.keySet()) {
+			ids[i++] = getKeyId(name);
+		}
+		RpcCall call = startCall(SM_PARAMETER_VALUES, timeout);
+		LinkMessage request = newRequest(call, MS_SET_PARAMETERS, ids.length * ENTRY_LENGTH);
+		i = 0;
+		for (Integer value : values.values()) {
+			request.deConstructBytes1(ids[i++]);
+			request.deConstructBytes4(value);
+		}
+		return sendCall(call, request);
+	}
+
+	// as many calls as it takes, all outstanding at once, returns the
+	// values the slave has, keys it does not have are left out
+	public Map<String, Integer> getParameters (long timeout, String... names) throws InterruptedException, ExecutionException {
+		int batch = getBatchLength();
+		List<RpcCall> calls = new ArrayList<RpcCall>();
+		for (int start = 0; start < names.length; start += batch) {
+			String some[] = new String[Math.min(batch, names.length - start)];
+			System.arraycopy(names, start, some, 0, some.length);
+			calls.add(callGetParameters(timeout, some));
+		}
+		return getValues(calls);
+	}
+
+	// returns the values as the slave now has them, it may have clipped
+	// some
+	public Map<String, Integer> setParameters (Map<String, Integer> values, long timeout) throws InterruptedException, ExecutionException {
+		int batch = getBatchLength();
+		List<RpcCall> calls = new ArrayList<RpcCall>();
+		Map<String, Integer> some = new LinkedHashMap<String, Integer>();
+		for (Map.Entry<String, Integer> entry : values.entrySet()) {
+			some.put(entry.getKey(), entry.getValue());
+			if (some.size() == batch) {
+				calls.add(callSetParameters(some, timeout));
+				some = new LinkedHashMap<String, Integer>();
+			}
+		}
+		if (!some.isEmpty()) {
+			calls.add(callSetParameters(some, timeout));
+		}
+		return getValues(calls);
+	}
+
+	private Map<String, Integer> getValues (List<RpcCall> calls) throws InterruptedException, ExecutionException {
+		Map<String, Integer> values = new LinkedHashMap<String, Integer>();
+		for (RpcCall call : calls) {
+			LinkMessage reply = call.get();
+			decodeEntries(getParameterValuesEntries(reply), values);
+		}
+		return values;
+	}
+
+	private void checkBatch (ProtocolRoleEnum role, int count) {
+		if (protocolRole != role) {
+			throw new IllegalStateException();
+		}
+		if (count > getBatchLength()) {
+			throw new IllegalArgumentException("Too many parameters for one frame: " + count);
+		}
+	}
+
+	//--------------------------------------------------------------------------------
+	// Sending messages -- slave to master
+
+	// after the slave changed some mirrored values on its own
+	public void sendParametersChanged (boolean doWait, String... names) throws InterruptedException {
+		if (protocolRole != ProtocolRoleEnum.SLAVE) {
+			throw new IllegalStateException();
+		}
+		int batch = getBatchLength();
+		for (int start = 0; start < names.length; start += batch) {
+			int count = Math.min(batch, names.length - start);
+			LinkMessage message = newMessage(SM_PARAMETERS_CHANGED_LENGTH + count * ENTRY_LENGTH, doWait);
+			encodeParametersChanged(message);
+			for (int i = start; i < start + count; i++) {
+				addEntry(message, getKeyId(names[i]));
+			}
+			sendRoleMessage(ProtocolRoleEnum.SLAVE, message, doWait);
+		}
+	}
+
+	// leaves out keys this side does not have
+	private void addEntry (LinkMessage message, int keyId) {
+		String name = getKeyName(keyId);
+		ParameterInterface parm = (name != null) ? ParameterServer.maybeGetParameter(name) : null;
+		if ((parm != null) && isMirrorable(parm)) {
+			message.deConstructBytes1(keyId);
+			message.deConstructBytes4(getParameterValue(parm));
+		}
+	}
+
+	//--------------------------------------------------------------------------------
+	// Receiving messages
+
+	// the messages are decoded in place and not kept
+	protected boolean receivesMessageViews () {
+		return true;
+	}
+
+	public void receiveMessage (LinkMessage message) throws InterruptedException {
+		if (!isWellFormed(message)) {
+			throw new IllegalArgumentException("Malformed parameter message: " + getIndicator(message));
+		}
+		switch (protocolRole) {
+		case MASTER:
+			receiveMasterMessage(message);
+			break;
+		case SLAVE:
+			receiveSlaveMessage(message);
+			break;
+		default:
+			throw new IllegalStateException("Protocol role is incorrect");
+		}
+	}
+
+	//--------------------------------------------------------------------------------
+	// Receiving messages - Master
+
+	public void receiveMasterMessage (LinkMessage message) throws InterruptedException {
+		int indicator = message.peekByte();
+		Map<String, Integer> values = new LinkedHashMap<String, Integer>();
+		switch (indicator) {
+
+		case SM_PARAMETER_VALUES:
+			// update the copies, then whoever asked
+			decodeEntries(getParameterValuesEntries(message), values);
+			updateParameters(values);
+			completeCall(message);
+			break;
+
+		case SM_PARAMETERS_CHANGED:
+			// update the copies and publish the event
+			decodeEntries(getParametersChangedEntries(message), values);
+			updateParameters(values);
+			if (!values.isEmpty()) {
+				ParameterNotification notice = ParameterNotification.newParametersChangedNotice(values.keySet().toArray(new String[values.size()]));
+				notice.publish(this);
+			}
+			break;
+
+		default:
+			throw new IllegalArgumentException("Unknown parameter message: " + indicator);
+		}
+	}
+
+	//--------------------------------------------------------------------------------
+	// Receiving messages - Slave
+
+	public void receiveSlaveMessage (LinkMessage message) throws InterruptedException {
+		int indicator = message.peekByte();
+		ParameterProtocol out = getOutputSide();
+		ByteBuffer entries;
+		LinkMessage reply;
+		switch (indicator) {
+
+		case MS_GET_PARAMETERS:
+			ByteBuffer keys = getGetParametersKeys(message);
+			reply = newReply(message, SM_PARAMETER_VALUES, keys.remaining() * ENTRY_LENGTH);
+			while (keys.hasRemaining()) {
+				addEntry(reply, keys.get() & 0xFF);
+			}
+			out.sendRoleMessage(ProtocolRoleEnum.SLAVE, reply, false);
+			break;
+
+		case MS_SET_PARAMETERS:
+			// set what it can, then answer with the values as they are now
+			entries = getSetParametersEntries(message);
+			checkEntries(entries);
+			reply = newReply(message, SM_PARAMETER_VALUES, entries.remaining());
+			while (entries.hasRemaining()) {
+				int keyId = entries.get() & 0xFF;
+				int value = entries.getInt();
+				String name = getKeyName(keyId);
+				ParameterInterface parm = (name != null) ? ParameterServer.maybeGetParameter(name) : null;
+				if ((parm != null) && isMirrorable(parm)) {
+					setParameterValue(parm, value);
+				}
+				addEntry(reply, keyId);
+			}
+			out.sendRoleMessage(ProtocolRoleEnum.SLAVE, reply, false);
+			break;
+
+		default:
+			throw new IllegalArgumentException("Unknown parameter message: " + indicator);
+		}
+	}
+
+	//--------------------------------------------------------------------------------
+
+	// ids that are not mirrored here are skipped
+	private void decodeEntries (ByteBuffer entries, Map<String, Integer> values) {
+		checkEntries(entries);
+		while (entries.hasRemaining()) {
+			String name = getKeyName(entries.get() & 0xFF);
+			int value = entries.getInt();
+			if (name != null) {
+				values.put(name, value);
+			}
+		}
+	}
+
+	private static void checkEntries (ByteBuffer entries) {
+		if ((entries.remaining() % ENTRY_LENGTH) != 0) {
+			throw new IllegalArgumentException("Malformed parameter entries: " + entries.remaining() + " bytes");
+		}
+	}
+
+	private static void updateParameters (Map<String, Integer> values) {
+		for (Map.Entry<String, Integer> entry : values.entrySet()) {
+			ParameterInterface parm = ParameterServer.maybeGetParameter(entry.getKey());
+			if ((parm != null) && isMirrorable(parm)) {
+				setParameterValue(parm, entry.getValue());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+package com.builditboys.robots.system;
+
+import static com.builditboys.robots.communication.LinkParameters.*;
+
+import java.io.IOException;
+
+import com.builditboys.robots.communication.LinkPortInterface;
+import com.builditboys.robots.communication.SlaveLink;
+import com.builditboys.robots.communication.AbstractProtocol.ProtocolRoleEnum;
+import com.builditboys.robots.driver.RobotDriverProtocol;
+import com.builditboys.robots.driver.RobotDriverState;
+import com.builditboys.robots.time.TimeSyncProtocol;
+
+// A Java stand in for the PSoC, the slave end of the robot link with the
+// time sync, robot control and robot driver protocols on it. The master
+// cannot tell it from the real thing, so the host side can be run and
+// measured without the hardware, over a socket or shared memory port or
+// a test port, in the same process or another one.
+//
+// It answers the master the way the PSoC does, keeps the robot state and
+// what it was told to drive in RobotState and RobotDriverState parameters
+// named after it, and once the link is up starts a clock sync every
+// PSOC_EMULATOR_SYNC_INTERVAL. There are no motors or sensors behind it.
+//
+// The parameter protocol is left off, its slave side serves the process
+// wide ParameterServer, in the same process as the master that would be
+// the master's own parameters.
+
+public class PsocEmulator implements Runnable {
+
+	private final String name;
+	private final SlaveLink link;
+
+	private Thread thread;
+	private volatile boolean shouldRun;
+	private boolean enabled = false;
+
+	//--------------------------------------------------------------------------------
+	// Constructor
+
+	public PsocEmulator (String nm, LinkPortInterface port) {
+		name = nm;
+		link = new SlaveLink(nm, port);
+
+		TimeSyncProtocol.addProtocolToLink(link, ProtocolRoleEnum.SLAVE);
+		RobotControlProtocol.addProtocolToLink(link, ProtocolRoleEnum.SLAVE, nm + "_STATE");
+		RobotDriverProtocol.addProtocolToLink(link, ProtocolRoleEnum.SLAVE, nm + "_DRIVER_STATE");
+	}
+
+	//--------------------------------------------------------------------------------
+
+	public String getName () {
+		return name;
+	}
+
+	public SlaveLink getLink () {
+		return link;
+	}
+
+	public RobotState getRobotState () {
+		return RobotControlProtocol.getLinkInputProtocol(link).getState();
+	}
+
+	public RobotDriverState getDriverState () {
+		return RobotDriverProtocol.getLinkInputProtocol(link).getState();
+	}
+
+	// the sync results are on the input side
+	public TimeSyncProtocol getTimeSync () {
+		return TimeSyncProtocol.getLinkInputProtocol(link);
+	}
+
+	//--------------------------------------------------------------------------------
+	// Start and stop
+
+	// the port may wait in open for the other end, see the port
+	public synchronized void start () throws IOException {
+		if (thread != null) {
+			throw new IllegalStateException();
+		}
+		link.startLink();
+		shouldRun = true;
+		thread = new Thread(this, name + " emulator");
+		thread.start();
+	}
+	
+	// until then the link drops what the master sends on the robot channels
+	public synchronized void sleepUntilEnabled () throws InterruptedException {
+		while (!enabled) {
+			wait();
+		}
+	}
+
+	// the worker takes the lock once enabled, so join it outside
+	public void stop () throws IOException, InterruptedException {
+		Thread worker;
+		synchronized (this) {
+			worker = thread;
+			thread = null;
+			shouldRun = false;
+			enabled = false;
+		}
+		if (worker != null) {
+			worker.interrupt();
+			worker.join();
+		}
+		link.stopLink();
+	}
+
+	//--------------------------------------------------------------------------------
+	// What the PSoC does on its own, everything else happens on the link's
+	// receiver as the master's messages come in
+
+	public void run () {
+		TimeSyncProtocol sync = TimeSyncProtocol.getLinkOutputProtocol(link);
+		try {
+			link.sleepUntilReady();
+			link.enable();
+			synchronized (this) {
+				enabled = true;
+				notifyAll();
+			}
+			while (shouldRun) {
+				try {
+					sync.sendStartSync(false);
+				} catch (IllegalStateException e) {
+					// queue full, the link is behind, the next one will do
+				}
+				Thread.sleep(PSOC_EMULATOR_SYNC_INTERVAL);
+			}
+		} catch (InterruptedException e) {
+			// stop interrupts
+		}
+		System.out.println(name + " emulator: thread exiting");
+	}
+
+	//--------------------------------------------------------------------------------
+
+	public String toString () {
+		return "PSoC emulator \"" + name + "\"";
+	}
+
+}
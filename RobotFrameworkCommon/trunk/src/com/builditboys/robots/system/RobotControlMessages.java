@@ -0,0 +1,173 @@
+package com.builditboys.robots.system;
+
+import com.builditboys.robots.utilities.FillableBuffer;
+
+// Generated by MessageGenerator from robot_control.msgs, do not edit.
+// Encoders write straight into the buffer and decoders read the fields
+// where they sit, neither allocates anything. Lengths include the
+// indicator byte.
+
+public final class RobotControlMessages {
+
+	private RobotControlMessages () {
+	}
+
+	//--------------------------------------------------------------------------------
+	// Indicators
+
+	public static final int MS_SET_MODE = 0;
+	public static final int MS_DO_ESTOP = 1;
+	public static final int MS_CLEAR_ESTOP = 2;
+	public static final int MS_DO_RESET = 3;
+	public static final int MS_DO_DUMP_STATE = 4;
+	public static final int MS_IM_ALIVE = 5;
+	public static final int SM_DID_ESTOP = 6;
+	public static final int SM_HERE_IS_MY_STATE = 7;
+	public static final int SM_IM_ALIVE = 8;
+
+	public static final int LARGEST_INDICATOR = 8;
+
+	//--------------------------------------------------------------------------------
+	// Lengths
+
+	public static final int MS_SET_MODE_LENGTH = 2;
+	public static final int MS_DO_ESTOP_LENGTH = 1;
+	public static final int MS_CLEAR_ESTOP_LENGTH = 2;
+	public static final int MS_DO_RESET_LENGTH = 1;
+	public static final int MS_DO_DUMP_STATE_LENGTH = 1;
+	public static final int MS_IM_ALIVE_LENGTH = 1;
+	public static final int SM_DID_ESTOP_LENGTH = 1;
+	public static final int SM_HERE_IS_MY_STATE_LENGTH = 7;
+	public static final int SM_IM_ALIVE_LENGTH = 1;
+
+	public static final int MAX_LENGTH = 7;
+
+	// the length a message with the indicator should have, -1 if there is no such message
+	public static int messageLength (int indicator) {
+		switch (indicator) {
+		case MS_SET_MODE:
+			return MS_SET_MODE_LENGTH;
+		case MS_DO_ESTOP:
+			return MS_DO_ESTOP_LENGTH;
+		case MS_CLEAR_ESTOP:
+			return MS_CLEAR_ESTOP_LENGTH;
+		case MS_DO_RESET:
+			return MS_DO_RESET_LENGTH;
+		case MS_DO_DUMP_STATE:
+			return MS_DO_DUMP_STATE_LENGTH;
+		case MS_IM_ALIVE:
+			return MS_IM_ALIVE_LENGTH;
+		case SM_DID_ESTOP:
+			return SM_DID_ESTOP_LENGTH;
+		case SM_HERE_IS_MY_STATE:
+			return SM_HERE_IS_MY_STATE_LENGTH;
+		case SM_IM_ALIVE:
+			return SM_IM_ALIVE_LENGTH;
+		default:
+			return -1;
+		}
+	}
+
+	public static int getIndicator (FillableBuffer buff) {
+		return buff.reConstructBytes1At(0) & 0xFF;
+	}
+
+	// true if the indicator is known and the message is at least as long as it should be,
+	// older peers pad messages with no arguments and newer ones may add fields at the end
+	public static boolean isWellFormed (FillableBuffer buff) {
+		if (buff.size() == 0) {
+			return false;
+		}
+		int length = messageLength(getIndicator(buff));
+		return (length > 0) && (buff.size() >= length);
+	}
+
+	//--------------------------------------------------------------------------------
+	// SetMode
+
+	public static void encodeSetMode (FillableBuffer buff, int mode) {
+		buff.deConstructBytes1(MS_SET_MODE);
+		buff.deConstructBytes1(mode);
+	}
+
+	public static int getSetModeMode (FillableBuffer buff) {
+		return buff.reConstructBytes1At(1) & 0xFF;
+	}
+
+	//--------------------------------------------------------------------------------
+	// DoEstop
+
+	public static void encodeDoEstop (FillableBuffer buff) {
+		buff.deConstructBytes1(MS_DO_ESTOP);
+	}
+
+	//--------------------------------------------------------------------------------
+	// ClearEstop
+
+	public static void encodeClearEstop (FillableBuffer buff, int indicator) {
+		buff.deConstructBytes1(MS_CLEAR_ESTOP);
+		buff.deConstructBytes1(indicator);
+	}
+
+	public static int getClearEstopIndicator (FillableBuffer buff) {
+		return buff.reConstructBytes1At(1) & 0xFF;
+	}
+
+	//--------------------------------------------------------------------------------
+	// DoReset
+
+	public static void encodeDoReset (FillableBuffer buff) {
+		buff.deConstructBytes1(MS_DO_RESET);
+	}
+
+	//--------------------------------------------------------------------------------
+	// DoDumpState
+
+	public static void encodeDoDumpState (FillableBuffer buff) {
+		buff.deConstructBytes1(MS_DO_DUMP_STATE);
+	}
+
+	//--------------------------------------------------------------------------------
+	// MasterIsAlive
+
+	public static void encodeMasterIsAlive (FillableBuffer buff) {
+		buff.deConstructBytes1(MS_IM_ALIVE);
+	}
+
+	//--------------------------------------------------------------------------------
+	// DidEstop
+
+	public static void encodeDidEstop (FillableBuffer buff) {
+		buff.deConstructBytes1(SM_DID_ESTOP);
+	}
+
+	//--------------------------------------------------------------------------------
+	// HereIsMyState
+
+	public static void encodeHereIsMyState (FillableBuffer buff, int time, int mode, int estop) {
+		buff.deConstructBytes1(SM_HERE_IS_MY_STATE);
+		buff.deConstructBytes4(time);
+		buff.deConstructBytes1(mode);
+		buff.deConstructBytes1(estop);
+	}
+
+	public static int getHereIsMyStateTime (FillableBuffer buff) {
+		return buff.reConstructBytes4At(1);
+	}
+
+	public static int getHereIsMyStateMode (FillableBuffer buff) {
+		return buff.reConstructBytes1At(5) & 0xFF;
+	}
+
+	public static int getHereIsMyStateEstop (FillableBuffer buff) {
+		return buff.reConstructBytes1At(6) & 0xFF;
+	}
+
+	//--------------------------------------------------------------------------------
+	// SlaveIsAlive
+
+	public static void encodeSlaveIsAlive (FillableBuffer buff) {
+		buff.deConstructBytes1(SM_IM_ALIVE);
+	}
+
+}
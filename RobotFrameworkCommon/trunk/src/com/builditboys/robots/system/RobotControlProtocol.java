@@ -2,16 +2,15 @@ package com.builditboys.robots.system;
 
 import com.builditboys.robots.communication.AbstractLink;
 import com.builditboys.robots.communication.AbstractProtocol;
-import com.builditboys.robots.communication.AbstractProtocolMessage;
 import com.builditboys.robots.communication.InputChannel;
 import com.builditboys.robots.communication.LinkMessage;
 import com.builditboys.robots.communication.OutputChannel;
+import com.builditboys.robots.communication.RpcCall;
 import com.builditboys.robots.infrastructure.ParameterServer;
 import com.builditboys.robots.system.RobotState.EStopIndicatorEnum;
 import com.builditboys.robots.system.RobotState.RobotModeEnum;
-import com.builditboys.robots.time.LocalTimeSystem;
-import com.builditboys.robots.utilities.FillableBuffer;
 import static com.builditboys.robots.communication.LinkParameters.*;
+import static com.builditboys.robots.system.RobotControlMessages.*;
 
 public class RobotControlProtocol extends AbstractProtocol {
 
@@ -19,7 +18,8 @@ public class RobotControlProtocol extends AbstractProtocol {
 	
 	private static final int MY_CHANNEL_NUMBER = ROBOT_CONTROL_CHANNEL_NUMBER;
 	
-	RobotStateMessage robotStateMessage = new RobotStateMessage();
+	// the master keeps what the slave reports here, the slave its own state
+	private RobotState state;
 	
 	// --------------------------------------------------------------------------------
 	// Constructors -- you don't construct a protocol directly, use addProtocolToLink
@@ -66,6 +66,12 @@ public class RobotControlProtocol extends AbstractProtocol {
 		// special to this protocol, create a place to store state results
 		RobotState state = new RobotState(stateName);
 		ParameterServer.addParameter(state);
+		iproto.state = state;
+		oproto.state = state;
+	}
+	
+	public RobotState getState () {
+		return state;
 	}
 	
 	// --------------------------------------------------------------------------------
@@ -79,18 +85,19 @@ public class RobotControlProtocol extends AbstractProtocol {
 	}
 	
 	// --------------------------------------------------------------------------------
-	// Robot Control Messages - keep in sync with the PSoC
+	// Robot Control Messages - generated from schema/robot_control.msgs, the
+	// PSoC uses the matching header so the two sides stay in sync
 
-	public static final int MS_SET_MODE         = 0; // set the robots mode
-	public static final int MS_DO_ESTOP         = 1; // tell the robot to estop
-	public static final int MS_CLEAR_ESTOP      = 2; // clear an estop situation
-	public static final int MS_DO_RESET         = 3; // tell the robot to reset
-	public static final int MS_DO_DUMP_STATE    = 4; // tell the robot to dump its state
-	public static final int MS_IM_ALIVE         = 5; // tell the robot the master is alive
+	public static final int MS_SET_MODE         = RobotControlMessages.MS_SET_MODE; // set the robots mode
+	public static final int MS_DO_ESTOP         = RobotControlMessages.MS_DO_ESTOP; // tell the robot to estop
+	public static final int MS_CLEAR_ESTOP      = RobotControlMessages.MS_CLEAR_ESTOP; // clear an estop situation
+	public static final int MS_DO_RESET         = RobotControlMessages.MS_DO_RESET; // tell the robot to reset
+	public static final int MS_DO_DUMP_STATE    = RobotControlMessages.MS_DO_DUMP_STATE; // tell the robot to dump its state
+	public static final int MS_IM_ALIVE         = RobotControlMessages.MS_IM_ALIVE; // tell the robot the master is alive
 	
-	public static final int SM_DID_ESTOP        = 6; // tell the master that an estop occured
-	public static final int SM_HERE_IS_MY_STATE = 7; // the robots state
-	public static final int SM_IM_ALIVE         = 8; // tell the master that the robot is alive
+	public static final int SM_DID_ESTOP        = RobotControlMessages.SM_DID_ESTOP; // tell the master that an estop occured
+	public static final int SM_HERE_IS_MY_STATE = RobotControlMessages.SM_HERE_IS_MY_STATE; // the robots state
+	public static final int SM_IM_ALIVE         = RobotControlMessages.SM_IM_ALIVE; // tell the master that the robot is alive
 	
 	public enum RobotControlMessageEnum {
 		MASTER_SET_MODE(MS_SET_MODE),
@@ -114,7 +121,7 @@ public class RobotControlProtocol extends AbstractProtocol {
 			NUM_TO_ENUM[num] = it;
 		}
 		
-		private static final int LARGEST_NUM = SM_HERE_IS_MY_STATE;
+		private static final int LARGEST_NUM = LARGEST_INDICATOR;
 		private static final RobotControlMessageEnum NUM_TO_ENUM[] = new RobotControlMessageEnum[LARGEST_NUM + 1];
 
 		static {
@@ -141,62 +148,105 @@ public class RobotControlProtocol extends AbstractProtocol {
 	// Sending messages -- master to slave
 	
 	public void sendSetMode (RobotModeEnum mode, boolean doWait) throws InterruptedException {
-		sendRoleMessage(ProtocolRoleEnum.MASTER,
-						new RobotControlMessage(MS_SET_MODE,
-												mode.getModeNum()),
-						doWait);
+		LinkMessage message = newMessage(MS_SET_MODE_LENGTH, doWait);
+		encodeSetMode(message, mode.getModeNum());
+		sendRoleMessage(ProtocolRoleEnum.MASTER, message, doWait);
+	}
+	
+	// goes out ahead of everything else, cutting off the frame in progress
+	public void sendDoEstop (boolean doWait) throws InterruptedException {
+		LinkMessage message = newMessage(MS_DO_ESTOP_LENGTH, doWait);
+		encodeDoEstop(message);
+		sendEmergencyRoleMessage(ProtocolRoleEnum.MASTER, message, doWait);
 	}
 	
 	public void sendClearEstop (EStopIndicatorEnum indicator, boolean doWait) throws InterruptedException {
-		sendRoleMessage(ProtocolRoleEnum.MASTER,
-						new RobotControlMessage(MS_CLEAR_ESTOP,
-												indicator.getIndicatorNum()),
-						doWait);
+		LinkMessage message = newMessage(MS_CLEAR_ESTOP_LENGTH, doWait);
+		encodeClearEstop(message, indicator.getIndicatorNum());
+		sendRoleMessage(ProtocolRoleEnum.MASTER, message, doWait);
 	}
 
 	public void sendDoRest (boolean doWait) throws InterruptedException {
-		sendRoleMessage(ProtocolRoleEnum.MASTER,
-						new RobotControlMessage(MS_DO_RESET),
-						doWait);
+		LinkMessage message = newMessage(MS_DO_RESET_LENGTH, doWait);
+		encodeDoReset(message);
+		sendRoleMessage(ProtocolRoleEnum.MASTER, message, doWait);
 	}
 	
+	// a dump whose answer only updates ROBOT_STATE, it is still an ordered
+	// call, or its HERE_IS_MY_STATE would be taken for the answer to a
+	// callDumpState made after it, doWait waits for it to be sent
 	public void sendDoDumpState (boolean doWait) throws InterruptedException {
-		sendRoleMessage(ProtocolRoleEnum.MASTER,
-						new RobotControlMessage(MS_DO_DUMP_STATE),
-						doWait);
+		sendDumpState(DUMP_STATE_TIMEOUT, doWait);
+	}
+	
+	// the state comes back in a HERE_IS_MY_STATE, which has no room for a
+	// correlation id, the PSoC answers dumps in order, so several can be
+	// outstanding, the reply also updates ROBOT_STATE as always
+	//
+	// Every dump the master asks for goes through here, and the PSoC only
+	// sends its state when asked, so each HERE_IS_MY_STATE belongs to the
+	// oldest dump still waiting. One that comes when none is waiting only
+	// updates ROBOT_STATE.
+	public RpcCall callDumpState (long timeout) throws InterruptedException {
+		return sendDumpState(timeout, false);
+	}
+	
+	private RpcCall sendDumpState (long timeout, boolean doWait) throws InterruptedException {
+		if (protocolRole != ProtocolRoleEnum.MASTER) {
+			throw new IllegalStateException();
+		}
+		RpcCall call = startOrderedCall(SM_HERE_IS_MY_STATE, timeout);
+		LinkMessage message = newMessage(MS_DO_DUMP_STATE_LENGTH, doWait);
+		encodeDoDumpState(message);
+		sendCall(call, message);
+		if (doWait) {
+			message.doWait();
+		}
+		return call;
 	}
 	
 	public void sendMasterIsAlive (boolean doWait) throws InterruptedException {
-		sendRoleMessage(ProtocolRoleEnum.MASTER,
-						new RobotControlMessage(MS_IM_ALIVE),
-						doWait);
+		LinkMessage message = newMessage(MS_IM_ALIVE_LENGTH, doWait);
+		encodeMasterIsAlive(message);
+		sendRoleMessage(ProtocolRoleEnum.MASTER, message, doWait);
 	}
 	
 	//--------------------------------------------------------------------------------
 	// Sending messages -- slave to master
 
 	public void sendDidEstop (boolean doWait) throws InterruptedException {
-		sendRoleMessage(ProtocolRoleEnum.SLAVE,
-						new RobotControlMessage(SM_DID_ESTOP),
-						doWait);
+		LinkMessage message = newMessage(SM_DID_ESTOP_LENGTH, doWait);
+		encodeDidEstop(message);
+		sendRoleMessage(ProtocolRoleEnum.SLAVE, message, doWait);
 	}
 	
 	public void sendHereIsMyState (boolean doWait) throws InterruptedException {
-		sendRoleMessage(ProtocolRoleEnum.SLAVE,
-						new RobotStateMessage(SM_HERE_IS_MY_STATE),
-						doWait);
+		LinkMessage message = newMessage(SM_HERE_IS_MY_STATE_LENGTH, doWait);
+		synchronized (state) {
+			state.capture();
+			encodeHereIsMyState(message, state.getCaptureTime(), state.getMode().getModeNum(), state.getEStopValue());
+		}
+		sendRoleMessage(ProtocolRoleEnum.SLAVE, message, doWait);
 	}
 
 	public void sendSlaveIsAlive (boolean doWait) throws InterruptedException {
-		sendRoleMessage(ProtocolRoleEnum.SLAVE,
-						new RobotControlMessage(SM_IM_ALIVE),
-						doWait);
+		LinkMessage message = newMessage(SM_IM_ALIVE_LENGTH, doWait);
+		encodeSlaveIsAlive(message);
+		sendRoleMessage(ProtocolRoleEnum.SLAVE, message, doWait);
 	}
 
 	//--------------------------------------------------------------------------------
 	// Receiving messages
 
+	// the messages are decoded in place and not kept
+	protected boolean receivesMessageViews () {
+		return true;
+	}
+
 	public void receiveMessage (LinkMessage message) throws InterruptedException {
+		if (!isWellFormed(message)) {
+			throw new IllegalArgumentException("Malformed robot control message: " + getIndicator(message));
+		}
 		switch (protocolRole) {
 		case MASTER:
 			receiveMasterMessage(message);
@@ -232,12 +282,12 @@ public class RobotControlProtocol extends AbstractProtocol {
 			
 		case SM_HERE_IS_MY_STATE:
 			// update the state and publish event
-			robotStateMessage.reConstruct(message);
-			RobotState.getParameter("ROBOT_STATE").updateState(robotStateMessage.time,
-												   robotStateMessage.mode,
-												   robotStateMessage.estop);
+			state.updateState(getHereIsMyStateTime(message),
+							  getHereIsMyStateMode(message),
+							  getHereIsMyStateEstop(message));
 			notice = RobotControlNotification.newRobotStateNotice();
 			notice.publish(this);
+			completeOrderedCall(SM_HERE_IS_MY_STATE, message);
 			break;
 			
 		default:
@@ -248,92 +298,41 @@ public class RobotControlProtocol extends AbstractProtocol {
 	//--------------------------------------------------------------------------------
 	// Receiving messages - Slave
 
-	public void receiveSlaveMessage (LinkMessage message) {
+	// what the PSoC does, answers go out on the output protocol
+	public void receiveSlaveMessage (LinkMessage message) throws InterruptedException {
 		int indicator = message.peekByte();
+		RobotControlProtocol out = (RobotControlProtocol) oppositeProtocol;
 		switch (indicator) {
+		
+		// refused while estopped, the master sees it in the next state dump
 		case MS_SET_MODE:
+			state.setMode(RobotModeEnum.numToEnum(getSetModeMode(message)));
+			break;
+			
 		case MS_DO_ESTOP:
+			state.doEstop(EStopIndicatorEnum.SOFT_ESTOP);
+			out.sendDidEstop(false);
+			break;
+			
 		case MS_CLEAR_ESTOP:
+			state.clearEstop(EStopIndicatorEnum.numToEnum(getClearEstopIndicator(message)));
+			break;
+			
 		case MS_DO_RESET:
+			state.reset();
+			break;
+			
 		case MS_DO_DUMP_STATE:
+			out.sendHereIsMyState(false);
+			break;
+			
 		case MS_IM_ALIVE:
-			throw new IllegalArgumentException("Slave side robot control protocol not implimented");
+			out.sendSlaveIsAlive(false);
+			break;
+			
 		default:
 			throw new IllegalArgumentException("Unknown robot control message: " + indicator);
 		}
 	}
-	
-	//--------------------------------------------------------------------------------
-	// A class that models a robot control message
-	
-	private class RobotControlMessage extends AbstractProtocolMessage {
-		int indicator = 0;
-		int arguement = 0;
-		
-		// used to create an empty message to read into
-		protected RobotControlMessage () {
-			super(1 + 1);
-		}
 
-		protected RobotControlMessage (int ind) {
-			super(1 + 1);
-			indicator = ind;
-		}
-		
-		protected RobotControlMessage (int ind, int arg) {
-			super(1 + 1);
-			indicator = ind;
-			arguement = arg;
-		}
-				
-		protected void deConstruct (FillableBuffer buff) {
-			buff.deConstructBytes1(indicator);
-			buff.deConstructBytes1(arguement);
-		}
-		
-		protected void reConstruct (FillableBuffer buff) {
-			indicator = buff.reConstructBytes1();
-			arguement = buff.reConstructBytes1();
-		}
-	}
-
-	//--------------------------------------------------------------------------------
-	// A class that models a robot control message
-	
-	public class RobotStateMessage extends AbstractProtocolMessage {
-		int indicator = 0;
-		int time = 0;
-		int mode = 0;
-		int estop = 0;
-		
-		// used to create an empty message to read into
-		protected RobotStateMessage () {
-			super(1 + 1);
-		}
-
-		protected RobotStateMessage (int ind) {
-			super(1 + 1);
-			indicator = ind;
-			time = LocalTimeSystem.currentTime();
-			mode = 0;
-			estop = 0;
-			throw new IllegalStateException("java cannot do robot state");
-		}
-				
-		protected void deConstruct (FillableBuffer buff) {
-			buff.deConstructBytes1(indicator);
-			buff.deConstructBytes4(time);
-			buff.deConstructBytes1(mode);
-			buff.deConstructBytes1(estop);
-		}
-		
-		protected void reConstruct (FillableBuffer buff) {
-			indicator = buff.reConstructBytes1();
-			time = buff.reConstructBytes4();
-			mode = buff.reConstructBytes1();
-			estop = buff.reConstructBytes1();
-		}
-				
-	}
-	
 }
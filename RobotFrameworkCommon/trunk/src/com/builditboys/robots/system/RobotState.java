@@ -2,6 +2,7 @@ package com.builditboys.robots.system;
 
 import com.builditboys.robots.infrastructure.ParameterInterface;
 import com.builditboys.robots.infrastructure.ParameterServer;
+import com.builditboys.robots.time.LocalTimeSystem;
 import com.builditboys.robots.utilities.BitBuffer;
 
 public class RobotState implements ParameterInterface {
@@ -229,6 +230,112 @@ public class RobotState implements ParameterInterface {
 		eStopByte.setValue(eStop);
 	}
 	
+	public synchronized int getCaptureTime () {
+		return captureTime;
+	}
+	
+	public synchronized RobotModeEnum getMode () {
+		return mode;
+	}
+	
+	public synchronized int getEStopValue () {
+		return eStopByte.byteValue() & 0xFF;
+	}
+	
+	public synchronized boolean isEstopped () {
+		return eStopByte.testBit(EStopBits.ESTOP_BIT);
+	}
+	
+	//--------------------------------------------------------------------------------
+	// Slave side, the Java stand in for the PSoC keeps its own state and
+	// changes it the way the PSoC does, see PsocEmulator
+	
+	// notes the time for a HERE_IS_MY_STATE
+	public synchronized void capture () {
+		captureTime = LocalTimeSystem.currentTime();
+	}
+	
+	// nothing but safe mode while estopped
+	public synchronized boolean setMode (RobotModeEnum newMode) {
+		if (isEstopped() && (newMode != RobotModeEnum.SAFE_MODE)) {
+			return false;
+		}
+		mode = newMode;
+		return true;
+	}
+	
+	// an estop latches and drops the robot into safe mode, the soft estop
+	// from the master has no active bit, only the latch
+	public synchronized void doEstop (EStopIndicatorEnum indicator) {
+		int active = activeBit(indicator);
+		if (active >= 0) {
+			eStopByte.setBit(active);
+		}
+		eStopByte.setBit(latchBit(indicator));
+		eStopByte.setBit(EStopBits.ESTOP_BIT);
+		mode = RobotModeEnum.SAFE_MODE;
+	}
+	
+	// the hardware behind the estop let go, the latch stays until cleared
+	public synchronized void releaseEstop (EStopIndicatorEnum indicator) {
+		int active = activeBit(indicator);
+		if (active >= 0) {
+			eStopByte.clearBit(active);
+		}
+	}
+	
+	// a latch only clears once its estop is no longer active
+	public synchronized void clearEstop (EStopIndicatorEnum indicator) {
+		int active = activeBit(indicator);
+		if ((active < 0) || !eStopByte.testBit(active)) {
+			eStopByte.clearBit(latchBit(indicator));
+		}
+		updateEstopBit();
+	}
+	
+	// back to safe mode with every latch cleared that can be
+	public synchronized void reset () {
+		for (EStopIndicatorEnum indicator : EStopIndicatorEnum.values()) {
+			clearEstop(indicator);
+		}
+		mode = RobotModeEnum.SAFE_MODE;
+	}
+	
+	private void updateEstopBit () {
+		if (eStopByte.testFromTo(EStopBits.SOFT_ESTOP_BIT, EStopBits.DEAD_MAN_ESTOP_LATCH_BIT)) {
+			eStopByte.setBit(EStopBits.ESTOP_BIT);
+		}
+		else {
+			eStopByte.clearBit(EStopBits.ESTOP_BIT);
+		}
+	}
+	
+	private static int activeBit (EStopIndicatorEnum indicator) {
+		switch (indicator) {
+		case HARD_ESTOP:
+			return EStopBits.HARD_ESTOP_ACTIVE_BIT;
+		case PULSE_ESTOP:
+			return EStopBits.PULSE_ESTOP_ACTIVE_BIT;
+		case DEAD_MAN_ESTOP:
+			return EStopBits.DEAD_MAN_ESTOP_ACTIVE_BIT;
+		default:
+			return -1;
+		}
+	}
+	
+	private static int latchBit (EStopIndicatorEnum indicator) {
+		switch (indicator) {
+		case HARD_ESTOP:
+			return EStopBits.HARD_ESTOP_LATCH_BIT;
+		case PULSE_ESTOP:
+			return EStopBits.PULSE_ESTOP_LATCH_BIT;
+		case DEAD_MAN_ESTOP:
+			return EStopBits.DEAD_MAN_ESTOP_LATCH_BIT;
+		default:
+			return EStopBits.SOFT_ESTOP_BIT;
+		}
+	}
+	
 	//--------------------------------------------------------------------------------
 	
 	public void print () {
@@ -0,0 +1,123 @@
+package com.builditboys.robots.time;
+
+import com.builditboys.robots.utilities.FillableBuffer;
+
+// Generated by MessageGenerator from time_sync.msgs, do not edit.
+// Encoders write straight into the buffer and decoders read the fields
+// where they sit, neither allocates anything. Lengths include the
+// indicator byte.
+
+public final class TimeSyncMessages {
+
+	private TimeSyncMessages () {
+	}
+
+	//--------------------------------------------------------------------------------
+	// Indicators
+
+	public static final int MS_SET_CLOCK = 0;
+	public static final int MS_CORRESPOND_TIME = 1;
+	public static final int SM_START_SYNC = 2;
+	public static final int MS_REPLY_SYNC = 3;
+
+	public static final int LARGEST_INDICATOR = 3;
+
+	//--------------------------------------------------------------------------------
+	// Lengths
+
+	public static final int MS_SET_CLOCK_LENGTH = 5;
+	public static final int MS_CORRESPOND_TIME_LENGTH = 5;
+	public static final int SM_START_SYNC_LENGTH = 5;
+	public static final int MS_REPLY_SYNC_LENGTH = 13;
+
+	public static final int MAX_LENGTH = 13;
+
+	// the length a message with the indicator should have, -1 if there is no such message
+	public static int messageLength (int indicator) {
+		switch (indicator) {
+		case MS_SET_CLOCK:
+			return MS_SET_CLOCK_LENGTH;
+		case MS_CORRESPOND_TIME:
+			return MS_CORRESPOND_TIME_LENGTH;
+		case SM_START_SYNC:
+			return SM_START_SYNC_LENGTH;
+		case MS_REPLY_SYNC:
+			return MS_REPLY_SYNC_LENGTH;
+		default:
+			return -1;
+		}
+	}
+
+	public static int getIndicator (FillableBuffer buff) {
+		return buff.reConstructBytes1At(0) & 0xFF;
+	}
+
+	// true if the indicator is known and the message is at least as long as it should be,
+	// older peers pad messages with no arguments and newer ones may add fields at the end
+	public static boolean isWellFormed (FillableBuffer buff) {
+		if (buff.size() == 0) {
+			return false;
+		}
+		int length = messageLength(getIndicator(buff));
+		return (length > 0) && (buff.size() >= length);
+	}
+
+	//--------------------------------------------------------------------------------
+	// SetClock
+
+	public static void encodeSetClock (FillableBuffer buff, int time) {
+		buff.deConstructBytes1(MS_SET_CLOCK);
+		buff.deConstructBytes4(time);
+	}
+
+	public static int getSetClockTime (FillableBuffer buff) {
+		return buff.reConstructBytes4At(1);
+	}
+
+	//--------------------------------------------------------------------------------
+	// CorrespondTime
+
+	public static void encodeCorrespondTime (FillableBuffer buff, int time) {
+		buff.deConstructBytes1(MS_CORRESPOND_TIME);
+		buff.deConstructBytes4(time);
+	}
+
+	public static int getCorrespondTimeTime (FillableBuffer buff) {
+		return buff.reConstructBytes4At(1);
+	}
+
+	//--------------------------------------------------------------------------------
+	// StartSync
+
+	public static void encodeStartSync (FillableBuffer buff, int slaveSendTime) {
+		buff.deConstructBytes1(SM_START_SYNC);
+		buff.deConstructBytes4(slaveSendTime);
+	}
+
+	public static int getStartSyncSlaveSendTime (FillableBuffer buff) {
+		return buff.reConstructBytes4At(1);
+	}
+
+	//--------------------------------------------------------------------------------
+	// ReplySync
+
+	public static void encodeReplySync (FillableBuffer buff, int slaveSendTime, int masterReceiveTime, int masterSendTime) {
+		buff.deConstructBytes1(MS_REPLY_SYNC);
+		buff.deConstructBytes4(slaveSendTime);
+		buff.deConstructBytes4(masterReceiveTime);
+		buff.deConstructBytes4(masterSendTime);
+	}
+
+	public static int getReplySyncSlaveSendTime (FillableBuffer buff) {
+		return buff.reConstructBytes4At(1);
+	}
+
+	public static int getReplySyncMasterReceiveTime (FillableBuffer buff) {
+		return buff.reConstructBytes4At(5);
+	}
+
+	public static int getReplySyncMasterSendTime (FillableBuffer buff) {
+		return buff.reConstructBytes4At(9);
+	}
+
+}
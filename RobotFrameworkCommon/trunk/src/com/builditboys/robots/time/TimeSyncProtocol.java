@@ -27,15 +27,14 @@ package com.builditboys.robots.time;
 */
 
 import static com.builditboys.robots.communication.LinkParameters.TIME_SYNC_CHANNEL_NUMBER;
+import static com.builditboys.robots.time.TimeSyncMessages.*;
 
 import com.builditboys.robots.communication.AbstractLink;
 import com.builditboys.robots.communication.AbstractProtocol;
-import com.builditboys.robots.communication.AbstractProtocolMessage;
 import com.builditboys.robots.communication.InputChannel;
 import com.builditboys.robots.communication.LinkMessage;
 import com.builditboys.robots.communication.OutputChannel;
 import com.builditboys.robots.driver.RobotDriverProtocol.RobotDriverMessageEnum;
-import com.builditboys.robots.utilities.FillableBuffer;
 
 public class TimeSyncProtocol extends AbstractProtocol {
 
@@ -43,6 +42,11 @@ public class TimeSyncProtocol extends AbstractProtocol {
 
 	private static final int MY_CHANNEL_NUMBER = TIME_SYNC_CHANNEL_NUMBER;
 
+	// slave side, what the last sync found
+	private volatile int syncCount = 0;
+	private volatile int lastOffset = 0;
+	private volatile int lastRoundTrip = 0;
+
 	// --------------------------------------------------------------------------------
 	// Constructors -- you don't construct a protocol directly, use addProtocolToLink
 
@@ -98,13 +102,31 @@ public class TimeSyncProtocol extends AbstractProtocol {
 	}
 	
 	// --------------------------------------------------------------------------------
-	// Time Sync Messages - keep in sync with the PSoC
+	// Slave side sync results, kept by the input protocol
 
-	public static final int MS_SET_CLOCK        = 0; // master forcing a slave clock value
-	public static final int MS_CORRESPOND_TIME = 1; // make a correspondence between the masters local time and the slaves internal time
+	public int getSyncCount () {
+		return syncCount;
+	}
+	
+	// master local time minus ours, as of the last sync
+	public int getLastOffset () {
+		return lastOffset;
+	}
 	
-	public static final int SM_START_SYNC       = 2; // slave initiating a clock sync transaction
-	public static final int MS_REPLY_SYNC       = 3; // master replying to a slave sync request
+	// round trip of the last sync less the time the master held it
+	public int getLastRoundTrip () {
+		return lastRoundTrip;
+	}
+	
+	// --------------------------------------------------------------------------------
+	// Time Sync Messages - generated from schema/time_sync.msgs, the PSoC
+	// uses the matching header so the two sides stay in sync
+
+	public static final int MS_SET_CLOCK        = TimeSyncMessages.MS_SET_CLOCK; // master forcing a slave clock value
+	public static final int MS_CORRESPOND_TIME = TimeSyncMessages.MS_CORRESPOND_TIME; // make a correspondence between the masters local time and the slaves internal time
+	
+	public static final int SM_START_SYNC       = TimeSyncMessages.SM_START_SYNC; // slave initiating a clock sync transaction
+	public static final int MS_REPLY_SYNC       = TimeSyncMessages.MS_REPLY_SYNC; // master replying to a slave sync request
 	
 	public enum TimeSyncMessageEnum {
 		MASTER_SET_CLOCK(MS_SET_CLOCK),
@@ -150,58 +172,55 @@ public class TimeSyncProtocol extends AbstractProtocol {
  	// Sending Messages -- Master to Slave
 	
 	public void sendResetClock (boolean doWait) throws InterruptedException {
-		sendRoleMessage(ProtocolRoleEnum.MASTER,
-						new TimeSyncMessage(MS_SET_CLOCK,
-											0),
-						doWait);
+		xsendSetClock(0, doWait);
 	}
 	
 	public void xsendSetClock (int time, boolean doWait) throws InterruptedException {
-		sendRoleMessage(ProtocolRoleEnum.MASTER,
-						new TimeSyncMessage(MS_SET_CLOCK,
-											time),
-						doWait);
+		LinkMessage message = newMessage(MS_SET_CLOCK_LENGTH, doWait);
+		encodeSetClock(message, time);
+		sendRoleMessage(ProtocolRoleEnum.MASTER, message, doWait);
 	}
 	
 	public void sendCorrespondTime (boolean doWait) throws InterruptedException {
-		sendRoleMessage(ProtocolRoleEnum.MASTER,
-						new TimeSyncMessage(MS_CORRESPOND_TIME,
-											LocalTimeSystem.currentTime()),
-						doWait);
+		LinkMessage message = newMessage(MS_CORRESPOND_TIME_LENGTH, doWait);
+		encodeCorrespondTime(message, LocalTimeSystem.currentTime());
+		sendRoleMessage(ProtocolRoleEnum.MASTER, message, doWait);
 	}
 
-	public void sendReplySync (TimeSyncMessage receivedMessage, boolean doWait) throws InterruptedException {
-		sendRoleMessage(ProtocolRoleEnum.MASTER,
-				     	new TimeSyncMessage(MS_REPLY_SYNC,
-											receivedMessage.time1,
-											receivedMessage.time2,
-											LocalTimeSystem.currentTime(),
-											0),
-						doWait);
+	// times are local times truncated to 32 bits
+	public void sendReplySync (int slaveSendTime, int masterReceiveTime, boolean doWait) throws InterruptedException {
+		LinkMessage message = newMessage(MS_REPLY_SYNC_LENGTH, doWait);
+		encodeReplySync(message, slaveSendTime, masterReceiveTime, LocalTimeSystem.currentTime());
+		sendRoleMessage(ProtocolRoleEnum.MASTER, message, doWait);
 	}
 
 	// --------------------------------------------------------------------------------
 	// Sending Messages -- Slave to Master
 	
 	public void sendStartSync (boolean doWait) throws InterruptedException {
-		sendRoleMessage(ProtocolRoleEnum.SLAVE,
-					    new TimeSyncMessage(SM_START_SYNC,
-					    				 	LocalTimeSystem.currentTime()),
-					    doWait);
+		LinkMessage message = newMessage(SM_START_SYNC_LENGTH, doWait);
+		encodeStartSync(message, LocalTimeSystem.currentTime());
+		sendRoleMessage(ProtocolRoleEnum.SLAVE, message, doWait);
 	}
 	
 	//--------------------------------------------------------------------------------
 	// Receiving messages
 
+	// the messages are decoded in place and not kept
+	protected boolean receivesMessageViews () {
+		return true;
+	}
+
 	public void receiveMessage (LinkMessage message) throws InterruptedException {
-		TimeSyncMessage mObject = new TimeSyncMessage();
-		mObject.reConstruct(message);
+		if (!isWellFormed(message)) {
+			throw new IllegalArgumentException("Malformed clock sync message: " + getIndicator(message));
+		}
 		switch (protocolRole) {	
 		case MASTER:
-			receiveMasterMessage(mObject);
+			receiveMasterMessage(message);
 			break;		
 		case SLAVE:
-			receiveSlaveMessage(mObject);
+			receiveSlaveMessage(message);
 			break;		
 		default:
 			throw new IllegalStateException();
@@ -211,25 +230,28 @@ public class TimeSyncProtocol extends AbstractProtocol {
 	//--------------------------------------------------------------------------------
 	// Receiving messages - Master
 
-	public void receiveMasterMessage (TimeSyncMessage messageObject) throws InterruptedException {
-		switch (messageObject.indicator) {
+	public void receiveMasterMessage (LinkMessage message) throws InterruptedException {
+		int indicator = getIndicator(message);
+		switch (indicator) {
 		
 		// got a sync request, reply to it
 		case SM_START_SYNC:
-			messageObject.time2 = LocalTimeSystem.currentTime();
-			((TimeSyncProtocol) oppositeProtocol).sendReplySync(messageObject, false);
+			((TimeSyncProtocol) oppositeProtocol).sendReplySync(getStartSyncSlaveSendTime(message),
+																 LocalTimeSystem.currentTime(),
+																 false);
 			break;
 			
 		default:
-			throw new IllegalArgumentException("Unknown clock sync message: " + messageObject.indicator);
+			throw new IllegalArgumentException("Unknown clock sync message: " + indicator);
 		}
 	}
 	
 	//--------------------------------------------------------------------------------
 	// Receiving messages - Slave
 
-	public void receiveSlaveMessage (TimeSyncMessage messageObject) {
-		switch (messageObject.indicator) { 
+	public void receiveSlaveMessage (LinkMessage message) {
+		int indicator = getIndicator(message);
+		switch (indicator) { 
 		
 		// in Java, no need to set the clock since it is a long and has plenty of room
 		case MS_SET_CLOCK:
@@ -237,65 +259,36 @@ public class TimeSyncProtocol extends AbstractProtocol {
 		
 		// setup up the correspondence between the masters local time and our local time
 		case MS_CORRESPOND_TIME:
-			LocalTimeSystem.correspondLocalTime(messageObject.time1);
+			LocalTimeSystem.correspondLocalTime(getCorrespondTimeTime(message));
+			break;
 			
-		// slave side is not implemented in Java yet, only the PSOC acts as a slave	
-		case MS_REPLY_SYNC:	
-			throw new IllegalArgumentException("Unsupported clock sync message: " + messageObject.indicator);
+		// the master answered our sync, work out the skew the way the PSoC
+		// does, only the rate adjustment is left out
+		case MS_REPLY_SYNC:
+			receiveReplySync(message);
+			break;
 			
 		default:
-			throw new IllegalArgumentException("Unknown clock sync message: " + messageObject.indicator);
+			throw new IllegalArgumentException("Unknown clock sync message: " + indicator);
 		}
 	}
-		
-	// --------------------------------------------------------------------------------
-	// A class the models a time sync message
 	
-	private class TimeSyncMessage  extends AbstractProtocolMessage {
-		int indicator = 0;
-		int time1 = 0;
-		int time2 = 0;
-		int time3 = 0;
-		int time4 = 0;
-				
-		TimeSyncMessage () {
-			super(1 + 4*4);
-		}
-
-		TimeSyncMessage (int ind, int t1) {
-			super(1 + 4*4);
-			indicator = ind;
-			time1 = t1;
-		}
+	private void receiveReplySync (LinkMessage message) {
+		int slaveReceiveTime = LocalTimeSystem.currentTime();
+		int slaveSendTime = getReplySyncSlaveSendTime(message);
+		int masterReceiveTime = getReplySyncMasterReceiveTime(message);
+		int masterSendTime = getReplySyncMasterSendTime(message);
 		
-		TimeSyncMessage (int ind, int t1, int t2, int t3, int t4) {
-			super(1 + 4*4);
-			indicator = ind;
-			time1 = t1;
-			time2 = t2;
-			time3 = t3;
-			time4 = t4;
-		}
-		
-		protected void deConstruct (FillableBuffer buff) {
-			// make sure the time values are not going to be truncated
-//			if (((time1 & 0xFFFF000L) | (time2 & 0xFFFF000L) | (time3 & 0xFFFF000L) | (time4 & 0xFFFF000L)) != 0L) {
-//				throw new IllegalArgumentException();
-//			}
-			buff.deConstructBytes1(indicator);
-			// times are truncated to 32 bits
-			buff.deConstructBytes4((int) time1);
-			buff.deConstructBytes4((int) time2);
-			buff.deConstructBytes4((int) time3);
-			buff.deConstructBytes4((int) time4);			
-		}
+		int offset = ((masterReceiveTime - slaveSendTime) + (masterSendTime - slaveReceiveTime)) / 2;
+		int roundTrip = (slaveReceiveTime - slaveSendTime) - (masterSendTime - masterReceiveTime);
+		lastOffset = offset;
+		lastRoundTrip = roundTrip;
+		syncCount++;
 		
-		protected void reConstruct (FillableBuffer buff) {
-			indicator = buff.reConstructBytes1();
-			time1 = buff.reConstructBytes4();
-			time2 = buff.reConstructBytes4();
-			time3 = buff.reConstructBytes4();
-			time4 = buff.reConstructBytes4();		
+		// only move the clock when the skew is more than the sync can tell,
+		// half the round trip and a tick of clock resolution
+		if (Math.abs(offset) > (roundTrip / 2) + 1) {
+			LocalTimeSystem.correspondLocalTime(slaveReceiveTime + offset);
 		}
 	}
 
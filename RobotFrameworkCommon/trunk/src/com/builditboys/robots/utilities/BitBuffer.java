@@ -94,9 +94,9 @@ public class BitBuffer {
 	}
 	
 	public void clearFromToUnchecked (int from, int to) {
-		int mask = ~(1 << from);
+		int mask = (1 << from);
 		for (int i = from; i <= to; i++) {
-			buffer &= mask;
+			buffer &= ~mask;
 			mask <<= 1;
 		}
 	}
@@ -204,7 +204,7 @@ public class BitBuffer {
 	//--------------------------------------------------------------------------------
 
 	private void clearExcess () {
-		clearFromToUnchecked(size, BUFFER_SIZE);
+		clearFromToUnchecked(size, BUFFER_SIZE - 1);
 	}
 	
 	private void validateIndices (int from, int to) {
@@ -0,0 +1,186 @@
+package com.builditboys.robots.utilities;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Serializes a list of integer fields of an object to and from a
+// FillableBuffer. The fields are looked up and checked once, when the
+// codec is made, after that it is just the get/set and the bytes.
+// Codecs are cached by class, field names and sizes, so repeated calls
+// to FillableBuffer.deConstructFields/reConstructFields share one. Callers
+// normally pass the same (static final) arrays every time, so those are
+// found by identity first, don't change the arrays after using them.
+// Looking a codec up takes no lock, every protocol thread comes through
+// here.
+// If you serialize the same kind of object a lot, get the codec once and
+// hang on to it, that skips the cache lookup too.
+
+public class FieldCodec {
+
+	private static final int INT_FIELD = 0;
+	private static final int SHORT_FIELD = 1;
+	private static final int BYTE_FIELD = 2;
+
+	private static final ConcurrentMap<CodecKey, FieldCodec> CODECS = new ConcurrentHashMap<CodecKey, FieldCodec>();
+
+	// keyed by the caller's field name array, bounded in case someone makes
+	// new arrays for every call, never changed once published, a new array
+	// means a new copy
+	private static volatile Map<String[], FieldCodec> codecsByArray = new IdentityHashMap<String[], FieldCodec>();
+	private static final int MAX_CODECS_BY_ARRAY = 256;
+
+	private final Class<?> codecClass;
+	private final Field fields[];
+	private final int types[];
+	private final int sizes[];
+
+	//--------------------------------------------------------------------------------
+	// Constructors
+
+	private FieldCodec (Class<?> theClass, int theSizes[], String fieldNames[]) throws NoSuchFieldException {
+		if (theSizes.length != fieldNames.length) {
+			throw new IllegalArgumentException("sizes and fields must match");
+		}
+
+		int length = theSizes.length;
+		codecClass = theClass;
+		fields = new Field[length];
+		types = new int[length];
+		sizes = theSizes.clone();
+
+		for (int i = 0; i < length; i++) {
+			switch (sizes[i]) {
+			case 1:
+			case 2:
+			case 4:
+				break;
+			default:
+				throw new IllegalArgumentException("Bad serialize length");
+			}
+			Field theField = theClass.getDeclaredField(fieldNames[i]);
+			Class<?> type = theField.getType();
+			if (type == Integer.TYPE) {
+				types[i] = INT_FIELD;
+			} else if (type == Short.TYPE) {
+				types[i] = SHORT_FIELD;
+			} else if (type == Byte.TYPE) {
+				types[i] = BYTE_FIELD;
+			} else {
+				throw new IllegalArgumentException("bad field type");
+			}
+			// saves the access check on every get and set
+			theField.setAccessible(true);
+			fields[i] = theField;
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public static FieldCodec getCodec (Class<?> theClass, int sizes[], String fieldNames[]) throws NoSuchFieldException {
+		FieldCodec codec = codecsByArray.get(fieldNames);
+		if ((codec != null) && (codec.codecClass == theClass) && Arrays.equals(codec.sizes, sizes)) {
+			return codec;
+		}
+
+		CodecKey key = new CodecKey(theClass, sizes, fieldNames);
+		codec = CODECS.get(key);
+		if (codec == null) {
+			FieldCodec made = new FieldCodec(theClass, sizes, fieldNames);
+			// the key holds on to the arrays, so copy them in case the
+			// caller changes them later
+			codec = CODECS.putIfAbsent(new CodecKey(theClass, sizes.clone(), fieldNames.clone()), made);
+			if (codec == null) {
+				codec = made;
+			}
+		}
+		rememberArray(fieldNames, codec);
+		return codec;
+	}
+
+	// an array already there stays with its first codec
+	private static synchronized void rememberArray (String fieldNames[], FieldCodec codec) {
+		Map<String[], FieldCodec> old = codecsByArray;
+		if ((old.size() < MAX_CODECS_BY_ARRAY) && !old.containsKey(fieldNames)) {
+			Map<String[], FieldCodec> codecs = new IdentityHashMap<String[], FieldCodec>(old);
+			codecs.put(fieldNames, codec);
+			codecsByArray = codecs;
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public void deConstruct (FillableBuffer buff, Object theObject) throws IllegalAccessException {
+		int length = fields.length;
+		for (int i = 0; i < length; i++) {
+			Field theField = fields[i];
+			int theValue;
+			switch (types[i]) {
+			case INT_FIELD:
+				theValue = theField.getInt(theObject);
+				break;
+			case SHORT_FIELD:
+				theValue = theField.getShort(theObject);
+				break;
+			default:
+				theValue = theField.getByte(theObject);
+				break;
+			}
+			buff.deConstructBytesN(theValue, sizes[i]);
+		}
+	}
+
+	public void reConstruct (FillableBuffer buff, Object theObject) throws IllegalAccessException {
+		int length = fields.length;
+		for (int i = 0; i < length; i++) {
+			Field theField = fields[i];
+			int theValue = buff.reConstructBytesN(sizes[i]);
+			switch (types[i]) {
+			case INT_FIELD:
+				theField.setInt(theObject, theValue);
+				break;
+			case SHORT_FIELD:
+				theField.setShort(theObject, (short) theValue);
+				break;
+			default:
+				theField.setByte(theObject, (byte) theValue);
+				break;
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+
+	private static class CodecKey {
+		private final Class<?> theClass;
+		private final int sizes[];
+		private final String fieldNames[];
+		private final int hash;
+
+		CodecKey (Class<?> cls, int szs[], String names[]) {
+			theClass = cls;
+			sizes = szs;
+			fieldNames = names;
+			// strings cache their hash codes, so this is cheap
+			hash = (cls.hashCode() * 31 + Arrays.hashCode(szs)) * 31 + Arrays.hashCode(names);
+		}
+
+		public int hashCode () {
+			return hash;
+		}
+
+		public boolean equals (Object obj) {
+			if (!(obj instanceof CodecKey)) {
+				return false;
+			}
+			CodecKey other = (CodecKey) obj;
+			return (theClass == other.theClass)
+					&& Arrays.equals(sizes, other.sizes)
+					&& Arrays.equals(fieldNames, other.fieldNames);
+		}
+	}
+
+}
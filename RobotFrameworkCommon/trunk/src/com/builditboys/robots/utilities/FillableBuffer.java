@@ -1,12 +1,22 @@
 package com.builditboys.robots.utilities;
 
-import java.lang.reflect.Field;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
+// A buffer that is filled from the front and read from the front.
+// The bytes live in a ByteBuffer, on the heap by default, or direct (off
+// heap) if made with allocateDirect, which is what the nio ports want.
+// Everything multi-byte is little endian, to match the PSoC. The fill and
+// get indexes are kept here and the ByteBuffer is only ever used with
+// absolute indexes, so its own position and limit mean nothing.
+
 public class FillableBuffer implements Iterable<Byte> {
 
-	protected byte[] buffer;
+	protected ByteBuffer buffer;
 	protected int capacity;
 	protected int fillIndex;
 	protected int getIndex;
@@ -15,12 +25,22 @@ public class FillableBuffer implements Iterable<Byte> {
 	// Constructors
 
 	public FillableBuffer(int capacity) {
-		buffer = new byte[capacity];
-		this.capacity = capacity;
+		this(ByteBuffer.allocate(capacity));
+	}
+
+	// uses the bytes of the given buffer from its position to its limit,
+	// they count as empty
+	public FillableBuffer(ByteBuffer buff) {
+		buffer = buff.slice().order(ByteOrder.LITTLE_ENDIAN);
+		capacity = buffer.capacity();
 		fillIndex = 0;
 		getIndex = 0;
 	}
 
+	public static FillableBuffer allocateDirect(int capacity) {
+		return new FillableBuffer(ByteBuffer.allocateDirect(capacity));
+	}
+
 	// --------------------------------------------------------------------------------
 
 	public void reset() {
@@ -34,50 +54,209 @@ public class FillableBuffer implements Iterable<Byte> {
 		return fillIndex;
 	}
 
+	public int getCapacity() {
+		return capacity;
+	}
+
+	// how many bytes are left to get
+	public int remaining() {
+		return fillIndex - getIndex;
+	}
+
+	public boolean hasRemaining() {
+		return getIndex < fillIndex;
+	}
+
+	public int getGetIndex() {
+		return getIndex;
+	}
+
+	public boolean isDirect() {
+		return buffer.isDirect();
+	}
+
+	// --------------------------------------------------------------------------------
+	// Bounds checks, one per operation, not one per byte
+
+	private void checkGet(int index, int count) {
+		if ((index < 0) || (index + count > fillIndex)) {
+			throw new IndexOutOfBoundsException(index + " + " + count + " > " + fillIndex);
+		}
+	}
+
+	private void checkAdd(int count) {
+		if (fillIndex + count > capacity) {
+			throw new IndexOutOfBoundsException(fillIndex + " + " + count + " > " + capacity);
+		}
+	}
+
 	// --------------------------------------------------------------------------------
 	// Get bytes
 
 	public byte getByte(int index) {
-		if (index > fillIndex) {
-			throw new IndexOutOfBoundsException(getIndex + " >= " + fillIndex);
-		}
-		return buffer[index];
+		checkGet(index, 1);
+		return buffer.get(index);
 	}
 
 	public byte peekByte() {
-		if (getIndex > fillIndex) {
-			throw new IndexOutOfBoundsException(getIndex + " >= " + fillIndex);
-		}
-		return buffer[getIndex];
+		checkGet(getIndex, 1);
+		return buffer.get(getIndex);
 	}
 
 	public byte getByte() {
-		if (getIndex > fillIndex) {
-			throw new IndexOutOfBoundsException(getIndex + " >= " + fillIndex);
+		checkGet(getIndex, 1);
+		return buffer.get(getIndex++);
+	}
+
+	public void getBytes(byte dst[], int offset, int count) {
+		checkGet(getIndex, count);
+		getBytes(getIndex, dst, offset, count);
+		getIndex += count;
+	}
+
+	// the get index does not move
+	public void getBytes(int index, byte dst[], int offset, int count) {
+		checkGet(index, count);
+		if (buffer.hasArray()) {
+			System.arraycopy(buffer.array(), buffer.arrayOffset() + index, dst, offset, count);
+			return;
 		}
-		return buffer[getIndex++];
+		ByteBuffer view = buffer.duplicate();
+		view.position(index);
+		view.get(dst, offset, count);
+	}
+
+	public void skipBytes(int count) {
+		checkGet(getIndex, count);
+		getIndex += count;
 	}
 
 	// --------------------------------------------------------------------------------
 	// Add bytes
 
 	public void addByte(byte bite) {
-		if (fillIndex >= capacity) {
-			throw new IndexOutOfBoundsException(fillIndex + " >= " + capacity);
+		checkAdd(1);
+		buffer.put(fillIndex++, bite);
+	}
+
+	public void addBytes(byte src[]) {
+		addBytes(src, 0, src.length);
+	}
+
+	public void addBytes(byte src[], int offset, int count) {
+		checkAdd(count);
+		ByteBuffer view = buffer.duplicate();
+		view.position(fillIndex);
+		view.put(src, offset, count);
+		fillIndex += count;
+	}
+
+	// adds the bytes the other buffer has left to get, its get index does not move
+	public void addBytes(FillableBuffer buff) {
+		addBytes(buff.asByteBuffer());
+	}
+
+	// adds the bytes from the position to the limit, the position moves
+	public void addBytes(ByteBuffer src) {
+		int count = src.remaining();
+		checkAdd(count);
+		ByteBuffer view = buffer.duplicate();
+		view.position(fillIndex);
+		view.put(src);
+		fillIndex += count;
+	}
+
+	// reads up to count bytes of the file from position straight into the
+	// buffer, returns how many it got, -1 at the end of the file
+	public int addBytes(FileChannel file, long position, int count) throws IOException {
+		checkAdd(count);
+		ByteBuffer view = buffer.duplicate();
+		view.limit(fillIndex + count);
+		view.position(fillIndex);
+		int got = file.read(view, position);
+		if (got > 0) {
+			fillIndex += got;
+		}
+		return got;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Searching, eight bytes at a time
+
+	private static final long LOW_BITS = 0x0101010101010101L;
+	private static final long HIGH_BITS = 0x8080808080808080L;
+
+	// the index of the first byte from index up to end that is a or b, end
+	// if there is none, the get index does not move
+	public int indexOfEither(int index, int end, byte a, byte b) {
+		checkGet(index, end - index);
+		long pattern1 = LOW_BITS * (a & 0xFF);
+		long pattern2 = LOW_BITS * (b & 0xFF);
+		while (index + 8 <= end) {
+			long word = buffer.getLong(index);
+			long found = zeroBytes(word ^ pattern1) | zeroBytes(word ^ pattern2);
+			if (found != 0) {
+				// little endian, the lowest byte is the first one
+				return index + (Long.numberOfTrailingZeros(found) >>> 3);
+			}
+			index += 8;
 		}
-		buffer[fillIndex++] = bite;
+		for (; index < end; index++) {
+			byte bite = buffer.get(index);
+			if ((bite == a) || (bite == b)) {
+				return index;
+			}
+		}
+		return end;
+	}
+
+	// sets the high bit of each byte of word that is zero, a borrow can
+	// also mark bytes above a zero byte, but never below one, so the lowest
+	// mark is always right
+	private static long zeroBytes(long word) {
+		return (word - LOW_BITS) & ~word & HIGH_BITS;
+	}
+
+	// --------------------------------------------------------------------------------
+	// Views, these share the bytes, nothing is copied
+
+	// the bytes left to get, as a read only ByteBuffer positioned at the
+	// first of them, hand this to a channel to write it out
+	public ByteBuffer asByteBuffer() {
+		return asByteBuffer(getIndex, fillIndex - getIndex);
+	}
+
+	public ByteBuffer asByteBuffer(int index, int count) {
+		checkGet(index, count);
+		ByteBuffer view = buffer.asReadOnlyBuffer();
+		view.limit(index + count);
+		view.position(index);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	// a full buffer over some of this one's bytes, writes to either show up
+	// in the other
+	public FillableBuffer slice(int index, int count) {
+		checkGet(index, count);
+		ByteBuffer view = buffer.duplicate();
+		view.limit(index + count);
+		view.position(index);
+		FillableBuffer slice = new FillableBuffer(view);
+		slice.fillIndex = count;
+		return slice;
 	}
 
 	// --------------------------------------------------------------------------------
 
 	public void printBuffer() {
 		for (int i = getIndex; i < fillIndex; i++) {
-			System.out.printf("%02x ", buffer[i]);
+			System.out.printf("%02x ", buffer.get(i));
 		}
 	}
 
 	// --------------------------------------------------------------------------------
 
+	// for a loop that does not box, use hasRemaining and getByte
 	private class FillableBufferIterator implements Iterator<Byte> {
 		int i;
 
@@ -89,8 +268,7 @@ public class FillableBuffer implements Iterable<Byte> {
 
 		public Byte next() {
 			if (hasNext()) {
-				i++;
-				return buffer[i];
+				return buffer.get(i++);
 			}
 			throw new NoSuchElementException();
 		}
@@ -114,19 +292,33 @@ public class FillableBuffer implements Iterable<Byte> {
 	}
 
 	public void deConstructBytes2(int value) {
-		addByte((byte) value);
-		value = value >>> 8;
-		addByte((byte) value);
+		checkAdd(2);
+		buffer.putShort(fillIndex, (short) value);
+		fillIndex += 2;
 	}
 
 	public void deConstructBytes4(int value) {
-		addByte((byte) value);
-		value = value >>> 8;
-		addByte((byte) value);
-		value = value >>> 8;
-		addByte((byte) value);
-		value = value >>> 8;
-		addByte((byte) value);
+		checkAdd(4);
+		buffer.putInt(fillIndex, value);
+		fillIndex += 4;
+	}
+
+	public void deConstructBytes8(long value) {
+		checkAdd(8);
+		buffer.putLong(fillIndex, value);
+		fillIndex += 8;
+	}
+
+	public void deConstructFloat(float value) {
+		checkAdd(4);
+		buffer.putFloat(fillIndex, value);
+		fillIndex += 4;
+	}
+
+	public void deConstructDouble(double value) {
+		checkAdd(8);
+		buffer.putDouble(fillIndex, value);
+		fillIndex += 8;
 	}
 
 	public void deConstructBytesN(int value, int length) {
@@ -149,40 +341,38 @@ public class FillableBuffer implements Iterable<Byte> {
 	// The de-serialization methods
 
 	public int reConstructBytes1() {
-		int bite1 = getByte();
-		int value;
+		return getByte();
+	}
 
-		value = bite1;
+	public int reConstructBytes2() {
+		int value = reConstructBytes2At(getIndex);
+		getIndex += 2;
 		return value;
 	}
 
-	public int reConstructBytes2() {
-		int bite1 = getByte() & 0x000000FF;
-		int bite2 = getByte();
-		int value;
-		
-		value = bite2;
-		value <<= 8;
-		value |= bite1;
+	public int reConstructBytes4() {
+		int value = reConstructBytes4At(getIndex);
+		getIndex += 4;
+		return value;
+	}
 
+	public long reConstructBytes8() {
+		long value = reConstructBytes8At(getIndex);
+		getIndex += 8;
 		return value;
 	}
 
-	public int reConstructBytes4() {
-		int bite1 = getByte() & 0x000000FF;
-		int bite2 = getByte() & 0x000000FF;
-		int bite3 = getByte() & 0x000000FF;
-		int bite4 = getByte();
-		int value;
-
-		value = bite4;
-		value <<= 8;
-		value |= bite3;
-		value <<= 8;
-		value |= bite2;
-		value <<= 8;
-		value |= bite1;
+	public float reConstructFloat() {
+		checkGet(getIndex, 4);
+		float value = buffer.getFloat(getIndex);
+		getIndex += 4;
+		return value;
+	}
 
+	public double reConstructDouble() {
+		checkGet(getIndex, 8);
+		double value = buffer.getDouble(getIndex);
+		getIndex += 8;
 		return value;
 	}
 
@@ -199,28 +389,112 @@ public class FillableBuffer implements Iterable<Byte> {
 		}
 	}
 
+	// --------------------------------------------------------------------------------
+	// De-serialization at a fixed index, the get index does not move
+
+	public int reConstructBytes1At(int index) {
+		return getByte(index);
+	}
+
+	public int reConstructBytes2At(int index) {
+		checkGet(index, 2);
+		return buffer.getShort(index);
+	}
+
+	public int reConstructBytes4At(int index) {
+		checkGet(index, 4);
+		return buffer.getInt(index);
+	}
+
+	public long reConstructBytes8At(int index) {
+		checkGet(index, 8);
+		return buffer.getLong(index);
+	}
+
+	// --------------------------------------------------------------------------------
+	// Variable length integers, 7 bits a byte, low bits first, the high bit
+	// says another byte follows. Signed values are zigzag encoded first so
+	// small negative numbers stay short (0 -> 0, -1 -> 1, 1 -> 2, ...).
+
+	public void deConstructVarInt(int value) {
+		deConstructUnsignedVarInt((value << 1) ^ (value >> 31));
+	}
+
+	public void deConstructUnsignedVarInt(int value) {
+		while ((value & ~0x7F) != 0) {
+			addByte((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		addByte((byte) value);
+	}
+
+	public void deConstructVarLong(long value) {
+		deConstructUnsignedVarLong((value << 1) ^ (value >> 63));
+	}
+
+	public void deConstructUnsignedVarLong(long value) {
+		while ((value & ~0x7FL) != 0) {
+			addByte((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		addByte((byte) value);
+	}
+
+	public int reConstructVarInt() {
+		int value = reConstructUnsignedVarInt();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public int reConstructUnsignedVarInt() {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int bite = getByte();
+			value |= (bite & 0x7F) << shift;
+			if ((bite & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Var int is too long");
+	}
+
+	public long reConstructVarLong() {
+		long value = reConstructUnsignedVarLong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public long reConstructUnsignedVarLong() {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			int bite = getByte();
+			value |= (long) (bite & 0x7F) << shift;
+			if ((bite & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Var long is too long");
+	}
+
+	// how many bytes deConstructUnsignedVarInt takes for the value
+	public static int unsignedVarIntLength(int value) {
+		int length = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			length++;
+		}
+		return length;
+	}
+
 	// --------------------------------------------------------------------------------
 
+	// see FieldCodec, the fields are only looked up the first time a class
+	// and field list is seen
 	public void deConstructFields(Object theObject,
 								  int sizes[],
 								  String fields[]) throws IllegalArgumentException,
 								 						  IllegalAccessException,
 								 						  SecurityException,
 								 						  NoSuchFieldException {
-		if (sizes.length != fields.length) {
-			throw new IllegalArgumentException("sizes and fields must match");
-		}
-
-		int length = sizes.length;
-		Class<?> theClass = theObject.getClass();
-		Field theField;
-		int theValue;
-		
-		for (int i = 0; i < length; i++) {
-			theField = theClass.getDeclaredField(fields[i]);
-			theValue = getObjectIntegerField(theObject, theClass, theField);
-			deConstructBytesN(theValue, sizes[i]);
-		}
+		FieldCodec.getCodec(theObject.getClass(), sizes, fields).deConstruct(this, theObject);
 	}
 
 	public void reConstructFields(Object theObject,
@@ -229,77 +503,31 @@ public class FillableBuffer implements Iterable<Byte> {
 								   					  	  NoSuchFieldException,
 								   						  IllegalArgumentException,
 								   						  IllegalAccessException {
-		if (sizes.length != fields.length) {
-			throw new IllegalArgumentException("sizes and fields must match");
-		}
-
-		int length = sizes.length;
-		Class<?> theClass = theObject.getClass();
-		Field theField;
-		int theValue;
-		
-		for (int i = 0; i < length; i++) {
-			theField = theClass.getDeclaredField(fields[i]);
-			theValue = reConstructBytesN(sizes[i]);
-			setObjectIntegerField(theObject, theClass, theField, theValue);
-		}
-	}
-
-	private static int getObjectIntegerField(Object theObject,
-											 Class<?> objectClass,
-											 Field field) throws IllegalArgumentException,
-													  	         IllegalAccessException {
-		Class<?> type = field.getType();		
-		if (type.getName().equals("int")) {
-			return field.getInt(theObject);
-		} else if (type.getName().equals("short")) {
-			return field.getShort(theObject);
-		} else if (type.getName().equals("byte")) {
-			return field.getByte(theObject);
-		} else {
-			throw new IllegalArgumentException("bad field type");
-		}
-	}
-
-	private static void setObjectIntegerField(Object theObject,
-											  Class<?> objectClass,
-											  Field field,
-											  int value) throws IllegalArgumentException,
-											  				    IllegalAccessException {
-		Class<?> type = field.getType();
-		if (type.getName().equals("int")) {
-			field.setInt(theObject, (int) value);
-		} else if (type.getName().equals("short")) {
-			field.setShort(theObject, (short) value);
-		} else if (type.getName().equals("byte")) {
-			field.setByte(theObject, (byte) value);
-		} else {
-			throw new IllegalArgumentException("bad field type");
-		}
+		FieldCodec.getCodec(theObject.getClass(), sizes, fields).reConstruct(this, theObject);
 	}
 
 	// --------------------------------------------------------------------------------
-	
+
 	public void deConstructElements (int elements[], int sizes[]) {
 		if (elements.length < sizes.length) {
 			throw new IllegalArgumentException("elements and sizes must match");
 		}
-		
+
 		int length = sizes.length;
 		for (int i = 0; i < length; i++) {
 			deConstructBytesN(elements[i], sizes[i]);
-		}	
+		}
 	}
-	
+
 	public void reConstructElements (int elements[], int sizes[]) {
 		if (elements.length < sizes.length) {
 			throw new IllegalArgumentException("elements and sizes must match");
 		}
-		
+
 		int length = sizes.length;
 		for (int i = 0; i < length; i++) {
 			elements[i] = reConstructBytesN(sizes[i]);
-		}	
+		}
 	}
 
 }
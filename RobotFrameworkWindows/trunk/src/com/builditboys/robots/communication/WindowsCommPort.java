@@ -201,6 +201,10 @@ public class WindowsCommPort {
 		outStream.write(bytes);
 	}
 
+	public void write(byte bytes[], int offset, int count) throws IOException {
+		outStream.write(bytes, offset, count);
+	}
+
 	public void write(String str) throws IOException {
 		outStream.write(str.getBytes());
 	}
@@ -223,8 +227,12 @@ public class WindowsCommPort {
 	// --------------------------------------------------------------------------------
 
 	public byte bufferedReadByte() throws InterruptedException {
+		return bufferedReadByte(WaitStrategyEnum.BLOCKING);
+	}
+
+	public byte bufferedReadByte(WaitStrategyEnum strategy) throws InterruptedException {
 		if (doReadBuffering) {
-			return inputBuffer.take();
+			return strategy.take(inputBuffer);
 		} else {
 			throw new IllegalStateException();
 		}
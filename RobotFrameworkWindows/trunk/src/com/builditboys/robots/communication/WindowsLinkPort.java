@@ -9,6 +9,7 @@ import java.io.IOException;
 public class WindowsLinkPort implements LinkPortInterface {
 	
 	WindowsCommPort commPort;
+	WaitStrategyEnum waitStrategy = WaitStrategyEnum.BLOCKING;
 	
 	// --------------------------------------------------------------------------------
 	// Constructors
@@ -28,13 +29,21 @@ public class WindowsLinkPort implements LinkPortInterface {
 	// --------------------------------------------------------------------------------
 
 	public byte readByte () throws InterruptedException {
-		return commPort.bufferedReadByte();
+		return commPort.bufferedReadByte(waitStrategy);
 	}
 	
 	public void writeByte (byte bite) throws IOException {
 		commPort.writeByte(bite);	
 	}
 	
+	public void writeBytes (byte bytes[], int offset, int count) throws IOException {
+		commPort.write(bytes, offset, count);
+	}
+	
+	public void setWaitStrategy (WaitStrategyEnum strategy) {
+		waitStrategy = strategy;
+	}
+	
 	// --------------------------------------------------------------------------------
 
 	public void open () throws IOException{
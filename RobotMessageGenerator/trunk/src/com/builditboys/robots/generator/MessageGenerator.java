@@ -0,0 +1,472 @@
+package com.builditboys.robots.generator;
+
+import static com.builditboys.robots.communication.LinkParameters.MAX_PAYLOAD_LEN;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Reads message schema files (see RobotFrameworkCommon/trunk/schema) and
+// writes out, for each one
+//   a Java class of constants, encoders and decoders that work directly
+//   on link buffers
+//   a C header of indicators, lengths and field offsets for the PSoC
+// Lengths are computed here and checked against the link limits, so the
+// two sides cannot disagree about them.
+//
+// Usage: MessageGenerator <java source root> <c header directory> <schema file>...
+//
+// A schema file looks like
+//   protocol RobotDriver
+//   java com.builditboys.robots.driver.RobotDriverMessages
+//   c robot_driver_messages.h
+//   message Drive MS_DRIVE 0
+//   	int8 speed
+//   	int8 acceleration
+// with # comments. Every message starts with its one byte indicator. The
+// last field of a message can be bytes, it takes whatever is left of the
+// message, the lengths are then the length of the fixed part.
+
+public class MessageGenerator {
+
+	private static final String NEWLINE = "\r\n";
+
+	private static final String INDICATOR_TYPE = "uint8";
+
+	// --------------------------------------------------------------------------------
+	// Field types
+
+	private enum FieldTypeEnum {
+		INT8("int8", 1, false, "int8_t"),
+		UINT8("uint8", 1, true, "uint8_t"),
+		INT16("int16", 2, false, "int16_t"),
+		UINT16("uint16", 2, true, "uint16_t"),
+		INT32("int32", 4, false, "int32_t"),
+		BYTES("bytes", 0, true, "uint8_t[]");
+
+		private String schemaName;
+		private int size;
+		private boolean unsigned;
+		private String cType;
+
+		private FieldTypeEnum (String name, int sz, boolean uns, String ctype) {
+			schemaName = name;
+			size = sz;
+			unsigned = uns;
+			cType = ctype;
+		}
+
+		static FieldTypeEnum lookup (String name) {
+			for (FieldTypeEnum type: values()) {
+				if (type.schemaName.equals(name)) {
+					return type;
+				}
+			}
+			return null;
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+	// The parsed schema
+
+	private static class FieldSpec {
+		FieldTypeEnum type;
+		String name;
+		int offset;
+	}
+
+	private static class MessageSpec {
+		String name;
+		String constant;
+		int indicator;
+		int length;
+		List<FieldSpec> fields = new ArrayList<FieldSpec>();
+
+		// the trailing bytes field, if there is one
+		FieldSpec trailing() {
+			if (fields.isEmpty()) {
+				return null;
+			}
+			FieldSpec last = fields.get(fields.size() - 1);
+			return (last.type == FieldTypeEnum.BYTES) ? last : null;
+		}
+	}
+
+	private static class ProtocolSpec {
+		String sourceName;
+		String name;
+		String javaClass;
+		String cHeader;
+		List<MessageSpec> messages = new ArrayList<MessageSpec>();
+
+		boolean hasTrailingBytes() {
+			for (MessageSpec message: messages) {
+				if (message.trailing() != null) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+
+	public static void main (String args[]) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: MessageGenerator <java source root> <c header directory> <schema file>...");
+			System.exit(1);
+		}
+		File javaRoot = new File(args[0]);
+		File cDirectory = new File(args[1]);
+
+		for (int i = 2; i < args.length; i++) {
+			ProtocolSpec protocol = parse(new File(args[i]));
+			writeJava(protocol, javaRoot);
+			writeCHeader(protocol, cDirectory);
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+	// Parsing
+
+	private static ProtocolSpec parse (File file) throws IOException {
+		ProtocolSpec protocol = new ProtocolSpec();
+		protocol.sourceName = file.getName();
+		MessageSpec message = null;
+
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				int comment = line.indexOf('#');
+				if (comment >= 0) {
+					line = line.substring(0, comment);
+				}
+				String words[] = line.trim().split("\\s+");
+				if (words[0].length() == 0) {
+					continue;
+				}
+				String where = file.getName() + ":" + lineNumber + ": ";
+
+				if (words[0].equals("protocol") && (words.length == 2)) {
+					protocol.name = checkIdentifier(words[1], where);
+				}
+				else if (words[0].equals("java") && (words.length == 2)) {
+					protocol.javaClass = words[1];
+				}
+				else if (words[0].equals("c") && (words.length == 2)) {
+					protocol.cHeader = words[1];
+				}
+				else if (words[0].equals("message") && (words.length == 4)) {
+					message = new MessageSpec();
+					message.name = checkIdentifier(words[1], where);
+					message.constant = checkIdentifier(words[2], where);
+					message.indicator = parseIndicator(words[3], where);
+					message.length = 1;
+					protocol.messages.add(message);
+				}
+				else if ((FieldTypeEnum.lookup(words[0]) != null) && (words.length == 2)) {
+					if (message == null) {
+						throw new IllegalArgumentException(where + "field outside of a message");
+					}
+					if (message.trailing() != null) {
+						throw new IllegalArgumentException(where + "bytes must be the last field");
+					}
+					FieldSpec field = new FieldSpec();
+					field.type = FieldTypeEnum.lookup(words[0]);
+					field.name = checkIdentifier(words[1], where);
+					field.offset = message.length;
+					message.length += field.type.size;
+					message.fields.add(field);
+				}
+				else {
+					throw new IllegalArgumentException(where + "cannot make sense of \"" + line.trim() + "\"");
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		check(protocol);
+		return protocol;
+	}
+
+	private static String checkIdentifier (String word, String where) {
+		if (!word.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+			throw new IllegalArgumentException(where + "bad name \"" + word + "\"");
+		}
+		return word;
+	}
+
+	private static int parseIndicator (String word, String where) {
+		int indicator;
+		try {
+			indicator = Integer.parseInt(word);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(where + "bad indicator \"" + word + "\"");
+		}
+		if ((indicator < 0) || (indicator > 255)) {
+			throw new IllegalArgumentException(where + "indicator must fit in a byte");
+		}
+		return indicator;
+	}
+
+	// the checks that need the whole protocol
+	private static void check (ProtocolSpec protocol) {
+		String where = protocol.sourceName + ": ";
+		if ((protocol.name == null) || (protocol.javaClass == null) || (protocol.cHeader == null)) {
+			throw new IllegalArgumentException(where + "needs protocol, java and c lines");
+		}
+		if (protocol.messages.isEmpty()) {
+			throw new IllegalArgumentException(where + "no messages");
+		}
+
+		Set<String> names = new HashSet<String>();
+		Set<String> constants = new HashSet<String>();
+		Set<Integer> indicators = new HashSet<Integer>();
+		for (MessageSpec message: protocol.messages) {
+			if (!names.add(message.name)) {
+				throw new IllegalArgumentException(where + "message " + message.name + " defined twice");
+			}
+			if (!constants.add(message.constant)) {
+				throw new IllegalArgumentException(where + "constant " + message.constant + " used twice");
+			}
+			if (!indicators.add(message.indicator)) {
+				throw new IllegalArgumentException(where + "indicator " + message.indicator + " used twice");
+			}
+			if (message.length > MAX_PAYLOAD_LEN) {
+				throw new IllegalArgumentException(where + "message " + message.name + " is " + message.length
+													+ " bytes, the link only takes " + MAX_PAYLOAD_LEN);
+			}
+			Set<String> fieldNames = new HashSet<String>();
+			for (FieldSpec field: message.fields) {
+				if (!fieldNames.add(field.name)) {
+					throw new IllegalArgumentException(where + "field " + field.name + " defined twice in " + message.name);
+				}
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+	// Java
+
+	private static void writeJava (ProtocolSpec protocol, File javaRoot) throws IOException {
+		int dot = protocol.javaClass.lastIndexOf('.');
+		String packageName = protocol.javaClass.substring(0, dot);
+		String className = protocol.javaClass.substring(dot + 1);
+
+		StringBuilder out = new StringBuilder();
+		line(out, "package " + packageName + ";");
+		line(out, "");
+		if (protocol.hasTrailingBytes()) {
+			line(out, "import java.nio.ByteBuffer;");
+			line(out, "");
+		}
+		line(out, "import com.builditboys.robots.utilities.FillableBuffer;");
+		line(out, "");
+		line(out, "// Generated by MessageGenerator from " + protocol.sourceName + ", do not edit.");
+		line(out, "// Encoders write straight into the buffer and decoders read the fields");
+		line(out, "// where they sit, neither allocates anything. Lengths include the");
+		line(out, "// indicator byte.");
+		line(out, "");
+		line(out, "public final class " + className + " {");
+		line(out, "");
+		line(out, "\tprivate " + className + " () {");
+		line(out, "\t}");
+		line(out, "");
+		line(out, "\t//--------------------------------------------------------------------------------");
+		line(out, "\t// Indicators");
+		line(out, "");
+		int largest = 0;
+		for (MessageSpec message: protocol.messages) {
+			line(out, "\tpublic static final int " + message.constant + " = " + message.indicator + ";");
+			largest = Math.max(largest, message.indicator);
+		}
+		line(out, "");
+		line(out, "\tpublic static final int LARGEST_INDICATOR = " + largest + ";");
+		line(out, "");
+		line(out, "\t//--------------------------------------------------------------------------------");
+		line(out, "\t// Lengths");
+		line(out, "");
+		int maxLength = 0;
+		for (MessageSpec message: protocol.messages) {
+			line(out, "\tpublic static final int " + message.constant + "_LENGTH = " + message.length + ";");
+			maxLength = Math.max(maxLength, message.length);
+		}
+		line(out, "");
+		line(out, "\tpublic static final int MAX_LENGTH = " + maxLength + ";");
+		line(out, "");
+		line(out, "\t// the length a message with the indicator should have, -1 if there is no such message");
+		line(out, "\tpublic static int messageLength (int indicator) {");
+		line(out, "\t\tswitch (indicator) {");
+		for (MessageSpec message: protocol.messages) {
+			line(out, "\t\tcase " + message.constant + ":");
+			line(out, "\t\t\treturn " + message.constant + "_LENGTH;");
+		}
+		line(out, "\t\tdefault:");
+		line(out, "\t\t\treturn -1;");
+		line(out, "\t\t}");
+		line(out, "\t}");
+		line(out, "");
+		line(out, "\tpublic static int getIndicator (FillableBuffer buff) {");
+		line(out, "\t\treturn " + readExpression(FieldTypeEnum.lookup(INDICATOR_TYPE), 0) + ";");
+		line(out, "\t}");
+		line(out, "");
+		if (protocol.hasTrailingBytes()) {
+			line(out, "\t// true if the message ends in bytes, its length is then the least it can be");
+			line(out, "\tpublic static boolean hasTrailingBytes (int indicator) {");
+			line(out, "\t\tswitch (indicator) {");
+			for (MessageSpec message: protocol.messages) {
+				if (message.trailing() != null) {
+					line(out, "\t\tcase " + message.constant + ":");
+				}
+			}
+			line(out, "\t\t\treturn true;");
+			line(out, "\t\tdefault:");
+			line(out, "\t\t\treturn false;");
+			line(out, "\t\t}");
+			line(out, "\t}");
+			line(out, "");
+		}
+		line(out, "\t// true if the indicator is known and the message is at least as long as it should be,");
+		line(out, "\t// older peers pad messages with no arguments and newer ones may add fields at the end");
+		line(out, "\tpublic static boolean isWellFormed (FillableBuffer buff) {");
+		line(out, "\t\tif (buff.size() == 0) {");
+		line(out, "\t\t\treturn false;");
+		line(out, "\t\t}");
+		line(out, "\t\tint length = messageLength(getIndicator(buff));");
+		line(out, "\t\treturn (length > 0) && (buff.size() >= length);");
+		line(out, "\t}");
+
+		for (MessageSpec message: protocol.messages) {
+			line(out, "");
+			line(out, "\t//--------------------------------------------------------------------------------");
+			line(out, "\t// " + message.name);
+			line(out, "");
+			StringBuilder params = new StringBuilder("FillableBuffer buff");
+			for (FieldSpec field: message.fields) {
+				if (field.type != FieldTypeEnum.BYTES) {
+					params.append(", int ").append(field.name);
+				}
+			}
+			if (message.trailing() != null) {
+				line(out, "\t// add the " + message.trailing().name + " bytes after this");
+			}
+			line(out, "\tpublic static void encode" + message.name + " (" + params + ") {");
+			line(out, "\t\tbuff.deConstructBytes1(" + message.constant + ");");
+			for (FieldSpec field: message.fields) {
+				if (field.type != FieldTypeEnum.BYTES) {
+					line(out, "\t\tbuff.deConstructBytes" + field.type.size + "(" + field.name + ");");
+				}
+			}
+			line(out, "\t}");
+			for (FieldSpec field: message.fields) {
+				line(out, "");
+				if (field.type == FieldTypeEnum.BYTES) {
+					line(out, "\tpublic static int get" + message.name + capitalize(field.name) + "Length (FillableBuffer buff) {");
+					line(out, "\t\treturn buff.size() - " + field.offset + ";");
+					line(out, "\t}");
+					line(out, "");
+					line(out, "\t// a read only view, nothing is copied");
+					line(out, "\tpublic static ByteBuffer get" + message.name + capitalize(field.name) + " (FillableBuffer buff) {");
+					line(out, "\t\treturn buff.asByteBuffer(" + field.offset + ", buff.size() - " + field.offset + ");");
+					line(out, "\t}");
+				}
+				else {
+					line(out, "\tpublic static int get" + message.name + capitalize(field.name) + " (FillableBuffer buff) {");
+					line(out, "\t\treturn " + readExpression(field.type, field.offset) + ";");
+					line(out, "\t}");
+				}
+			}
+		}
+		line(out, "");
+		line(out, "}");
+
+		File directory = new File(javaRoot, packageName.replace('.', File.separatorChar));
+		write(new File(directory, className + ".java"), out.toString());
+	}
+
+	private static String readExpression (FieldTypeEnum type, int offset) {
+		String read = "buff.reConstructBytes" + type.size + "At(" + offset + ")";
+		if (type.unsigned) {
+			return read + ((type.size == 1) ? " & 0xFF" : " & 0xFFFF");
+		}
+		return read;
+	}
+
+	private static String capitalize (String name) {
+		return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+	}
+
+	// --------------------------------------------------------------------------------
+	// C
+
+	private static void writeCHeader (ProtocolSpec protocol, File cDirectory) throws IOException {
+		String guard = protocol.cHeader.toUpperCase().replaceAll("[^A-Z0-9]", "_");
+		String prefix = toConstantCase(protocol.name);
+
+		StringBuilder out = new StringBuilder();
+		line(out, "/* Generated by MessageGenerator from " + protocol.sourceName + ", do not edit. */");
+		line(out, "");
+		line(out, "#ifndef " + guard);
+		line(out, "#define " + guard);
+		line(out, "");
+		line(out, "/*");
+		line(out, " * Every message starts with a one byte indicator, the fields follow");
+		line(out, " * packed and little endian. Lengths include the indicator byte.");
+		line(out, " */");
+
+		int maxLength = 0;
+		for (MessageSpec message: protocol.messages) {
+			maxLength = Math.max(maxLength, message.length);
+			line(out, "");
+			line(out, "/* " + message.name + " */");
+			line(out, "#define " + message.constant + " " + message.indicator);
+			line(out, "#define " + message.constant + "_LENGTH " + message.length
+					   + ((message.trailing() != null) ? "  /* the least, bytes follow */" : ""));
+			for (FieldSpec field: message.fields) {
+				String fieldConstant = message.constant + "_" + toConstantCase(field.name);
+				line(out, "#define " + fieldConstant + "_OFFSET " + field.offset + "  /* " + field.type.cType
+						   + ((field.type == FieldTypeEnum.BYTES) ? " to the end of the message" : "") + " */");
+			}
+		}
+		line(out, "");
+		line(out, "#define " + prefix + "_MAX_LENGTH " + maxLength);
+		line(out, "");
+		line(out, "#endif");
+
+		write(new File(cDirectory, protocol.cHeader), out.toString());
+	}
+
+	// setMode -> SET_MODE, RobotDriver -> ROBOT_DRIVER
+	private static String toConstantCase (String name) {
+		return name.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase();
+	}
+
+	// --------------------------------------------------------------------------------
+
+	private static void line (StringBuilder out, String text) {
+		out.append(text).append(NEWLINE);
+	}
+
+	private static void write (File file, String text) throws IOException {
+		file.getParentFile().mkdirs();
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write(text);
+		} finally {
+			writer.close();
+		}
+		System.out.println("Wrote " + file);
+	}
+
+}
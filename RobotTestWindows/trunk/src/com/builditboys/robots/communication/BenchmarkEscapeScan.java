@@ -0,0 +1,140 @@
+package com.builditboys.robots.communication;
+
+import static com.builditboys.robots.communication.LinkParameters.*;
+
+import java.util.Random;
+
+import com.builditboys.robots.utilities.FillableBuffer;
+
+// Times escaping a full size payload two ways
+//   byte at a time - the old Sender loop, a switch on every byte
+//   scanned        - what the Sender does now, FillableBuffer.indexOfEither
+//                    finds the next byte to escape and the run before it is
+//                    copied in one go
+// on three payloads
+//   clean  - nothing to escape
+//   random - about one byte in 128 needs escaping
+//   worst  - every byte needs escaping
+// The numbers are nanoseconds per payload.
+
+public class BenchmarkEscapeScan {
+
+	static final int WARMUP = 20000;
+	static final int ITERATIONS = 200000;
+
+	static byte out[] = new byte[2 * MAX_PAYLOAD_LEN];
+
+	public static void main (String args[]) {
+		Random random = new Random(42);
+		FillableBuffer clean = new FillableBuffer(MAX_PAYLOAD_LEN);
+		FillableBuffer rand = new FillableBuffer(MAX_PAYLOAD_LEN);
+		FillableBuffer worst = new FillableBuffer(MAX_PAYLOAD_LEN);
+		for (int i = 0; i < MAX_PAYLOAD_LEN; i++) {
+			clean.addByte((byte) random.nextInt(0xFE));
+			rand.addByte((byte) random.nextInt(0x100));
+			worst.addByte(((i & 1) == 0) ? SEND_SYNC_BYTE_1 : SEND_ESCAPE_BYTE);
+		}
+
+		// make sure they agree before timing anything
+		FillableBuffer payloads[] = {clean, rand, worst};
+		for (FillableBuffer payload : payloads) {
+			int count1 = byteAtATime(payload);
+			byte out1[] = out.clone();
+			int count2 = scanned(payload);
+			for (int i = 0; i < Math.max(count1, count2); i++) {
+				if (out1[i] != out[i]) {
+					throw new IllegalStateException("scanned and byte at a time output differ");
+				}
+			}
+		}
+
+		for (int pass = 0; pass < 3; pass++) {
+			System.out.println("Pass " + pass);
+			time("  clean  byte at a time", clean, false);
+			time("  clean  scanned       ", clean, true);
+			time("  random byte at a time", rand, false);
+			time("  random scanned       ", rand, true);
+			time("  worst  byte at a time", worst, false);
+			time("  worst  scanned       ", worst, true);
+		}
+	}
+
+	private static void time (String name, FillableBuffer payload, boolean scan) {
+		run(payload, scan, WARMUP);
+		long time = run(payload, scan, ITERATIONS);
+		System.out.printf("%s: %8.1f ns%n", name, (double) time / ITERATIONS);
+	}
+
+	private static long run (FillableBuffer payload, boolean scan, int count) {
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			if (scan) {
+				scanned(payload);
+			}
+			else {
+				byteAtATime(payload);
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	private static int byteAtATime (FillableBuffer buff) {
+		int count = 0;
+		for (int i = 0; i < buff.size(); i++) {
+			count = escape(buff.getByte(i), count);
+		}
+		return count;
+	}
+
+	private static int scanned (FillableBuffer buff) {
+		int count = 0;
+		int end = buff.size();
+		int index = 0;
+		while (index < end) {
+			int escape = buff.indexOfEither(index, end, SEND_SYNC_BYTE_1, SEND_ESCAPE_BYTE);
+			if (escape > index) {
+				buff.getBytes(index, out, count, escape - index);
+				count += escape - index;
+			}
+			// escapes come in bunches, take them a byte at a time until
+			// the next clean one, then scan again
+			while (escape < end) {
+				byte bite = buff.getByte(escape);
+				if (bite == SEND_SYNC_BYTE_1) {
+					out[count++] = SEND_ESCAPE_BYTE;
+					out[count++] = SEND_INDICATE_SYNC_1;
+				}
+				else if (bite == SEND_ESCAPE_BYTE) {
+					out[count++] = SEND_ESCAPE_BYTE;
+					out[count++] = SEND_INDICATE_ESCAPE;
+				}
+				else {
+					break;
+				}
+				escape++;
+			}
+			index = escape;
+		}
+		return count;
+	}
+
+	private static int escape (byte bite, int count) {
+		switch (bite) {
+		case SEND_SYNC_BYTE_1:
+			out[count++] = SEND_ESCAPE_BYTE;
+			out[count++] = SEND_INDICATE_SYNC_1;
+			break;
+		case SEND_ESCAPE_BYTE:
+			out[count++] = SEND_ESCAPE_BYTE;
+			out[count++] = SEND_INDICATE_ESCAPE;
+			break;
+		default:
+			out[count++] = bite;
+			break;
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,288 @@
+package com.builditboys.robots.communication;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import com.builditboys.robots.communication.AbstractProtocol.ProtocolRoleEnum;
+import com.builditboys.robots.time.LocalTimeSystem;
+
+// Goodput over an emulated noisy serial link, with each forward error
+// correction mode against plain retransmission (FecModeEnum.NONE, a bad
+// frame costs a resume and a replay). The master sends MESSAGES messages
+// of PAYLOAD_LENGTH bytes to the slave as fast as the link takes them.
+//
+// The emulated wire runs at BAUD (ten bits a byte) and flips bits on the
+// way through
+//   clean  - no noise
+//   bits   - random single bit errors at the given bit error rate
+//   bursts - every so many bytes a few bytes in a row get scrambled, like
+//            a motor switching
+// The noise starts once the links are up, the handshake is not measured.
+// Noise can make a sync or escape byte, nothing can correct that, the
+// frame is lost either way.
+//
+// Goodput is distinct payload bytes delivered exactly as they were sent,
+// per second, from the first send to the last delivery. Damaged counts
+// the messages handed to the slave's protocol that differ from what was
+// sent. With the real crc16 (LinkCapabilities.FEATURE_CRC16) there should
+// be none, the last line of each block is plain retransmission with the
+// PSoC's counting crc16, which lets noise through.
+//
+// A message can be lost for good when the links fall back to a full
+// synchronization, the run stops once nothing new has turned up for
+// IDLE_LIMIT. Each line adds up TRIALS runs with different noise.
+
+public class BenchmarkFec {
+
+	static final int CHANNEL_NUMBER = 20;
+	static final int MESSAGES = 400;
+	static final int PAYLOAD_LENGTH = 48;
+	static final int BAUD = 115200;
+	static final long TIME_LIMIT = 30000;
+	static final long IDLE_LIMIT = 2000;
+	static final int TRIALS = 3;
+
+	public static void main (String args[]) throws Exception {
+		LocalTimeSystem.startLocalTimeNow();
+
+		String noises[] = {"clean", "bits 1e-4", "bits 3e-4", "bursts 4 / 2000"};
+		for (String noise : noises) {
+			System.out.println(noise);
+			for (FecModeEnum mode : FecModeEnum.values()) {
+				report(mode.toString(), noise, mode, true);
+			}
+			report("NONE, count", noise, FecModeEnum.NONE, false);
+		}
+		System.exit(0);
+	}
+
+	private static void report (String label, String noise, FecModeEnum mode, boolean realCRC) throws IOException, InterruptedException {
+		long totals[] = new long[5];
+		for (int trial = 0; trial < TRIALS; trial++) {
+			run(noise, mode, realCRC, trial, totals);
+		}
+		System.out.printf("  %-12s %4d of %4d in %6d ms, goodput %6.0f B/s, damaged %4d, frames bad %4d, corrected %4d%n",
+						  label, totals[0], TRIALS * MESSAGES, totals[1],
+						  1000.0 * totals[0] * PAYLOAD_LENGTH / totals[1],
+						  totals[4], totals[2], totals[3]);
+	}
+
+	// --------------------------------------------------------------------------------
+
+	// adds delivered, elapsed, bad frames, corrected frames and damaged
+	// messages to totals
+	private static void run (String noise, FecModeEnum mode, boolean realCRC, int trial, long totals[]) throws IOException, InterruptedException {
+		ArrayBlockingQueue<Byte> buffer1 = new ArrayBlockingQueue<Byte>(100000);
+		ArrayBlockingQueue<Byte> buffer2 = new ArrayBlockingQueue<Byte>(100000);
+		NoisyLinkPort port1 = new NoisyLinkPort(buffer1, buffer2, 2 * trial + 1);
+		NoisyLinkPort port2 = new NoisyLinkPort(buffer2, buffer1, 2 * trial + 2);
+
+		MasterLink master = new MasterLink("Bench Master", port1);
+		SlaveLink slave = new SlaveLink("Bench Slave", port2);
+		CountingProtocol masterIn = new CountingProtocol();
+		CountingProtocol masterOut = new CountingProtocol();
+		CountingProtocol slaveIn = new CountingProtocol();
+		CountingProtocol slaveOut = new CountingProtocol();
+		master.addProtocol(masterIn, masterOut);
+		slave.addProtocol(slaveIn, slaveOut);
+		if (!realCRC) {
+			slave.setCapabilities(LinkCapabilities.LOCAL.withFeatures(LinkCapabilities.ALL_FEATURES & ~LinkCapabilities.FEATURE_CRC16));
+		}
+		master.setFecMode(mode);
+		slave.setFecMode(mode);
+
+		master.startLink();
+		slave.startLink();
+		master.sleepUntilReady();
+		slave.sleepUntilReady();
+		master.enable();
+		slave.enable();
+
+		port1.setNoise(noise);
+		port2.setNoise(noise);
+
+		long start = System.currentTimeMillis();
+		long deadline = start + TIME_LIMIT;
+		for (int i = 0; (i < MESSAGES) && (System.currentTimeMillis() < deadline); i++) {
+			masterOut.send(i);
+		}
+		while ((slaveIn.getCount() < MESSAGES)
+				&& (System.currentTimeMillis() < deadline)
+				&& (System.currentTimeMillis() - slaveIn.getLastTime(start) < IDLE_LIMIT)) {
+			Thread.sleep(5);
+		}
+		long elapsed = Math.max(1, slaveIn.getLastTime(start) - start);
+		int delivered = slaveIn.getCount();
+
+		LinkQualityEstimator quality = slave.getLinkQuality();
+		totals[0] += delivered;
+		totals[1] += elapsed;
+		totals[2] += quality.getFrameErrors();
+		totals[3] += quality.getFramesCorrected();
+		totals[4] += slaveIn.getDamaged();
+
+		port1.setNoise("clean");
+		port2.setNoise("clean");
+		master.stopLink();
+		slave.stopLink();
+	}
+
+	// --------------------------------------------------------------------------------
+
+	static class CountingProtocol extends AbstractProtocol {
+
+		static final CountingProtocol REPRESENTATIVE = new CountingProtocol();
+
+		private final BitSet seen = new BitSet();
+		private long lastTime = 0;
+		private int damaged = 0;
+
+		public InputChannel getInputChannel () {
+			channel = new InputChannel(this, CHANNEL_NUMBER);
+			return (InputChannel) channel;
+		}
+
+		public OutputChannel getOutputChannel () {
+			channel = new OutputChannel(this, CHANNEL_NUMBER);
+			return (OutputChannel) channel;
+		}
+
+		public AbstractProtocol getInstanceRepresentative () {
+			return REPRESENTATIVE;
+		}
+
+		void send (int number) throws InterruptedException {
+			LinkMessage message = new LinkMessage(CHANNEL_NUMBER, PAYLOAD_LENGTH);
+			message.deConstructBytes4(number);
+			while (message.size() < PAYLOAD_LENGTH) {
+				message.addByte(payloadByte(number, message.size()));
+			}
+			while (true) {
+				try {
+					channel.addMessage(message);
+					return;
+				} catch (IllegalStateException e) {
+					// queue full, the link is behind
+					Thread.sleep(1);
+				}
+			}
+		}
+
+		static byte payloadByte (int number, int index) {
+			return (byte) (number + index);
+		}
+
+		// only counts a message that is byte for byte what was sent
+		protected void receiveMessage (LinkMessage message) {
+			int number = (message.size() == PAYLOAD_LENGTH) ? message.reConstructBytes4() : -1;
+			boolean exact = (number >= 0) && (number < MESSAGES);
+			for (int i = 4; exact && (i < PAYLOAD_LENGTH); i++) {
+				exact = (message.getByte(i) == payloadByte(number, i));
+			}
+			synchronized (seen) {
+				if (!exact) {
+					damaged++;
+				}
+				else if (!seen.get(number)) {
+					seen.set(number);
+					lastTime = System.currentTimeMillis();
+				}
+			}
+		}
+
+		long getLastTime (long start) {
+			synchronized (seen) {
+				return Math.max(start, lastTime);
+			}
+		}
+
+		int getCount () {
+			synchronized (seen) {
+				return seen.cardinality();
+			}
+		}
+
+		int getDamaged () {
+			synchronized (seen) {
+				return damaged;
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+
+	static class NoisyLinkPort extends DebuggingLinkPort {
+
+		private final long nanosPerByte = 10 * 1000000000L / BAUD;
+		private long wireFree = 0;
+
+		private final Random random;
+		private volatile double bitErrorRate = 0;
+		private volatile int burstInterval = 0;
+		private volatile int burstLength = 0;
+		private int burstLeft = 0;
+
+		NoisyLinkPort (ArrayBlockingQueue<Byte> rBuffer, ArrayBlockingQueue<Byte> wBuffer, long seed) {
+			super(rBuffer, wBuffer);
+			random = new Random(seed);
+		}
+
+		void setNoise (String noise) {
+			String words[] = noise.split(" ");
+			bitErrorRate = 0;
+			burstInterval = 0;
+			if (words[0].equals("bits")) {
+				bitErrorRate = Double.parseDouble(words[1]);
+			}
+			else if (words[0].equals("bursts")) {
+				burstLength = Integer.parseInt(words[1]);
+				burstInterval = Integer.parseInt(words[3]);
+			}
+		}
+
+		public synchronized void writeByte (byte bite) throws InterruptedException {
+			pace();
+			super.writeByte(addNoise(bite));
+		}
+
+		public synchronized void writeBytes (byte bytes[], int offset, int count) throws InterruptedException {
+			for (int i = offset; i < offset + count; i++) {
+				writeByte(bytes[i]);
+			}
+		}
+
+		// the wire only takes a byte every nanosPerByte, parking a byte at a
+		// time is too coarse so catch up every so often
+		private void pace () {
+			long now = System.nanoTime();
+			while (wireFree - now > 200000) {
+				LockSupport.parkNanos(wireFree - now);
+				now = System.nanoTime();
+			}
+			wireFree = Math.max(wireFree, now) + nanosPerByte;
+		}
+
+		private byte addNoise (byte bite) {
+			if (burstLeft > 0) {
+				burstLeft--;
+				return (byte) random.nextInt(256);
+			}
+			if ((burstInterval > 0) && (random.nextInt(burstInterval) == 0)) {
+				burstLeft = burstLength - 1;
+				return (byte) random.nextInt(256);
+			}
+			if (bitErrorRate > 0) {
+				for (int bit = 0; bit < 8; bit++) {
+					if (random.nextDouble() < bitErrorRate) {
+						bite ^= (byte) (1 << bit);
+					}
+				}
+			}
+			return bite;
+		}
+	}
+
+}
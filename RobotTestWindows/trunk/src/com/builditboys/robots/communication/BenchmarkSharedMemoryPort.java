@@ -0,0 +1,221 @@
+package com.builditboys.robots.communication;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+
+import com.builditboys.robots.time.LocalTimeSystem;
+
+// Round trip latency and throughput of a master and slave link over a
+// SharedMemoryLinkPort pair against the same over TcpLinkPort and
+// UdpLinkPort pairs on localhost.
+// Both links are in this process, the shared memory ends still only talk
+// through the mapped file.
+//
+// Latency is PINGS round trips, one message at a time, the master sends
+// and the slave sends it straight back. Throughput is MESSAGES messages
+// of PAYLOAD_LENGTH bytes one way as fast as the link takes them, from
+// the first send to the last delivery.
+//
+// Each port is run with the links idling the way of each wait strategy,
+// the shared memory port polls the way the link's strategy says. With
+// fewer cores than busy threads SPINNING just burns the other side's
+// time, so it is only run when asked, give any argument.
+//
+// The links print every message they send and receive, that would swamp
+// both ports, so that printing is turned off, see
+// AbstractSenderReceiver.setDebugPrint.
+
+public class BenchmarkSharedMemoryPort {
+
+	static final int CHANNEL_NUMBER = 20;
+	static final int PINGS = 2000;
+	static final int WARMUP = 200;
+	static final int MESSAGES = 20000;
+	static final int PAYLOAD_LENGTH = 200;
+
+	public static void main (String args[]) throws Exception {
+		LocalTimeSystem.startLocalTimeNow();
+		AbstractSenderReceiver.setDebugPrint(false);
+
+		WaitStrategyEnum strategies[] = (args.length > 0)
+										? WaitStrategyEnum.values()
+										: new WaitStrategyEnum[] {WaitStrategyEnum.BLOCKING, WaitStrategyEnum.YIELDING};
+		for (WaitStrategyEnum strategy : strategies) {
+			System.out.println(strategy);
+			for (String kind : new String[] {"shared", "tcp", "udp"}) {
+				run(kind, strategy);
+			}
+		}
+		System.exit(0);
+	}
+
+	// --------------------------------------------------------------------------------
+
+	private static void run (String kind, WaitStrategyEnum strategy) throws Exception {
+		LinkPortInterface port1;
+		LinkPortInterface port2;
+		File file = null;
+		if (kind.equals("shared")) {
+			file = File.createTempFile("bench", ".link");
+			file.delete();
+			port1 = new SharedMemoryLinkPort(file, true);
+			port2 = new SharedMemoryLinkPort(file, false);
+		}
+		else if (kind.equals("tcp")) {
+			int port = freePort();
+			port1 = new TcpLinkPort(port);
+			port2 = new TcpLinkPort("localhost", port);
+		}
+		else {
+			int port = freePort();
+			port1 = new UdpLinkPort(port, "localhost", port + 1);
+			port2 = new UdpLinkPort(port + 1, "localhost", port);
+		}
+
+		MasterLink master = new MasterLink("Bench Master", port1);
+		SlaveLink slave = new SlaveLink("Bench Slave", port2);
+		EchoProtocol masterIn = new EchoProtocol(null);
+		EchoProtocol masterOut = new EchoProtocol(null);
+		EchoProtocol slaveOut = new EchoProtocol(null);
+		EchoProtocol slaveIn = new EchoProtocol(slaveOut);
+		master.addProtocol(masterIn, masterOut);
+		slave.addProtocol(slaveIn, slaveOut);
+		master.setWaitStrategy(strategy);
+		slave.setWaitStrategy(strategy);
+
+		// the listening TCP end waits in open for the other to connect, the
+		// second shared memory end waits for the first to set up the file
+		startLinks(master, slave);
+		master.sleepUntilReady();
+		slave.sleepUntilReady();
+		master.enable();
+		slave.enable();
+
+		// latency
+		long times[] = new long[PINGS];
+		for (int i = 0; i < WARMUP + PINGS; i++) {
+			long start = System.nanoTime();
+			masterOut.send(i, 8);
+			masterIn.awaitCount(i + 1);
+			if (i >= WARMUP) {
+				times[i - WARMUP] = System.nanoTime() - start;
+			}
+		}
+		Arrays.sort(times);
+
+		// throughput, the slave stops echoing
+		slaveIn.echo = null;
+		int before = slaveIn.getCount();
+		long start = System.nanoTime();
+		for (int i = 0; i < MESSAGES; i++) {
+			masterOut.send(i, PAYLOAD_LENGTH);
+		}
+		slaveIn.awaitCount(before + MESSAGES);
+		long elapsed = System.nanoTime() - start;
+
+		System.out.printf("  %-6s  round trip median %7.1f us, 99%% %7.1f us,  %6.0f messages/s, %6.2f MB/s%n",
+						  kind, times[PINGS / 2] / 1000.0, times[PINGS * 99 / 100] / 1000.0,
+						  MESSAGES * 1e9 / elapsed, MESSAGES * (double) PAYLOAD_LENGTH * 1e3 / elapsed);
+
+		master.stopLink();
+		slave.stopLink();
+		if (file != null) {
+			file.delete();
+		}
+	}
+
+	private static void startLinks (final MasterLink master, SlaveLink slave) throws Exception {
+		final Exception failure[] = new Exception[1];
+		Thread starter = new Thread() {
+			public void run () {
+				try {
+					master.startLink();
+				} catch (Exception e) {
+					failure[0] = e;
+				}
+			}
+		};
+		starter.start();
+		slave.startLink();
+		starter.join();
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+
+	private static int freePort () throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+		return port;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	static class EchoProtocol extends AbstractProtocol {
+
+		static final EchoProtocol REPRESENTATIVE = new EchoProtocol(null);
+
+		volatile EchoProtocol echo;
+		private int count = 0;
+
+		EchoProtocol (EchoProtocol echo) {
+			this.echo = echo;
+		}
+
+		public InputChannel getInputChannel () {
+			channel = new InputChannel(this, CHANNEL_NUMBER);
+			return (InputChannel) channel;
+		}
+
+		public OutputChannel getOutputChannel () {
+			channel = new OutputChannel(this, CHANNEL_NUMBER);
+			return (OutputChannel) channel;
+		}
+
+		public AbstractProtocol getInstanceRepresentative () {
+			return REPRESENTATIVE;
+		}
+
+		void send (int number, int length) throws InterruptedException {
+			LinkMessage message = new LinkMessage(CHANNEL_NUMBER, length);
+			message.deConstructBytes4(number);
+			while (message.size() < length) {
+				message.addByte((byte) (number + message.size()));
+			}
+			while (true) {
+				try {
+					channel.addMessage(message);
+					return;
+				} catch (IllegalStateException e) {
+					// queue full, the link is behind
+					Thread.yield();
+				}
+			}
+		}
+
+		protected void receiveMessage (LinkMessage message) throws InterruptedException {
+			EchoProtocol out = echo;
+			if (out != null) {
+				out.send(message.reConstructBytes4(), message.size());
+			}
+			synchronized (this) {
+				count++;
+				notifyAll();
+			}
+		}
+
+		synchronized int getCount () {
+			return count;
+		}
+
+		synchronized void awaitCount (int wanted) throws InterruptedException {
+			while (count < wanted) {
+				wait();
+			}
+		}
+	}
+
+}
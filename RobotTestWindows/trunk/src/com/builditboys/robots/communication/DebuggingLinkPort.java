@@ -12,6 +12,8 @@ public class DebuggingLinkPort implements LinkPortInterface {
 
 	ArrayBlockingQueue<Byte> readBuffer;
 	ArrayBlockingQueue<Byte> writeBuffer;
+	
+	WaitStrategyEnum waitStrategy = WaitStrategyEnum.BLOCKING;
 
 	// --------------------------------------------------------------------------------
 
@@ -24,13 +26,23 @@ public class DebuggingLinkPort implements LinkPortInterface {
 	// --------------------------------------------------------------------------------
 
 	public byte readByte() throws InterruptedException {
-		return readBuffer.take();
+		return waitStrategy.take(readBuffer);
 	}
 
 	public void writeByte(byte bite) throws InterruptedException {
 		writeBuffer.put(bite);
 	}
 	
+	public void writeBytes(byte bytes[], int offset, int count) throws InterruptedException {
+		for (int i = offset; i < offset + count; i++) {
+			writeByte(bytes[i]);
+		}
+	}
+	
+	public void setWaitStrategy(WaitStrategyEnum strategy) {
+		waitStrategy = strategy;
+	}
+	
 	// --------------------------------------------------------------------------------
 
 	public void open() throws IOException {
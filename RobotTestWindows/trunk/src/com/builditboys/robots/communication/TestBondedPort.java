@@ -0,0 +1,252 @@
+package com.builditboys.robots.communication;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.builditboys.robots.communication.AbstractProtocol.ProtocolRoleEnum;
+import com.builditboys.robots.time.LocalTimeSystem;
+
+// A bulk transfer over two simulated serial paths to the same slave, a
+// USB one at USB_RATE and a Bluetooth one at BLUETOOTH_RATE bytes a
+// second, the way the robot is wired with both plugged in.
+//
+// Three runs, the USB path alone without a bond, both paths bonded, and
+// both bonded with the USB path cut CUT_AFTER_MILLIS into the transfer.
+// Bonded, the faster path should carry most of the segments and some come
+// in ahead of their turn, which is the reorder window at work. With the
+// cut, the USB path's queued segments move to the Bluetooth one, a
+// segment or two may be lost, and the link should carry on without
+// synchronizing again.
+//
+// For each it prints whether the blob arrived intact, how fast, the
+// segments that reached the slave early or never, the master's failovers,
+// and the master's synchronizations, which should stay at one.
+
+public class TestBondedPort {
+
+	static final int USB_RATE = 40000;
+	static final int BLUETOOTH_RATE = 10000;
+	static final int BLOB_SIZE = 100000;
+	static final long CUT_AFTER_MILLIS = 1000;
+
+	public static void main (String args[]) throws Exception {
+		LocalTimeSystem.startLocalTimeNow();
+
+		byte blob[] = new byte[BLOB_SIZE];
+		new Random(1).nextBytes(blob);
+
+		String single = run(blob, false, -1);
+		String bonded = run(blob, true, -1);
+		String cut = run(blob, true, CUT_AFTER_MILLIS);
+
+		System.out.println("USB alone:        " + single);
+		System.out.println("Bonded:           " + bonded);
+		System.out.println("Bonded, USB cut:  " + cut);
+		System.exit(0);
+	}
+
+	static String run (byte blob[], boolean bond, long cutAfter) throws Exception {
+		final Wire usb = new Wire(USB_RATE);
+		Wire bluetooth = new Wire(BLUETOOTH_RATE);
+		BlockingQueue<Byte> usbToSlave = new LinkedBlockingQueue<Byte>();
+		BlockingQueue<Byte> usbToMaster = new LinkedBlockingQueue<Byte>();
+		BlockingQueue<Byte> bluetoothToSlave = new LinkedBlockingQueue<Byte>();
+		BlockingQueue<Byte> bluetoothToMaster = new LinkedBlockingQueue<Byte>();
+
+		LinkPortInterface masterPort;
+		LinkPortInterface slavePort;
+		BondedLinkPort masterBond = null;
+		BondedLinkPort slaveBond = null;
+		if (bond) {
+			masterBond = new BondedLinkPort();
+			masterBond.addPort("usb", new WirePort(usbToMaster, usbToSlave, usb), USB_RATE);
+			masterBond.addPort("bluetooth", new WirePort(bluetoothToMaster, bluetoothToSlave, bluetooth), BLUETOOTH_RATE);
+			slaveBond = new BondedLinkPort();
+			slaveBond.addPort("usb", new WirePort(usbToSlave, usbToMaster, usb), USB_RATE);
+			slaveBond.addPort("bluetooth", new WirePort(bluetoothToSlave, bluetoothToMaster, bluetooth), BLUETOOTH_RATE);
+			masterPort = masterBond;
+			slavePort = slaveBond;
+		}
+		else {
+			masterPort = new WirePort(usbToMaster, usbToSlave, usb);
+			slavePort = new WirePort(usbToSlave, usbToMaster, usb);
+		}
+
+		TestLinkPair pair = new TestLinkPair("Bond", masterPort, slavePort);
+		MasterLink master = pair.master;
+		SlaveLink slave = pair.slave;
+		BulkTransferProtocol.addProtocolToLink(master, ProtocolRoleEnum.MASTER);
+		BulkTransferProtocol.addProtocolToLink(slave, ProtocolRoleEnum.SLAVE);
+
+		File directory = makeDirectory();
+		File source = new File(directory, "source");
+		FileOutputStream out = new FileOutputStream(source);
+		out.write(blob);
+		out.close();
+		File receiveDirectory = new File(directory, "received");
+		receiveDirectory.mkdir();
+		BulkTransferProtocol.getLinkOutputProtocol(slave).setReceiveDirectory(receiveDirectory);
+
+		pair.start();
+
+		if (cutAfter >= 0) {
+			final long delay = cutAfter;
+			new Thread() {
+				public void run () {
+					try {
+						Thread.sleep(delay);
+					} catch (InterruptedException e) {
+						return;
+					}
+					usb.cut();
+				}
+			}.start();
+		}
+
+		long start = System.currentTimeMillis();
+		FileChannel file = new RandomAccessFile(source, "r").getChannel();
+		BulkTransferProtocol.getLinkOutputProtocol(master).sendFile("blob", file);
+		file.close();
+		long elapsed = System.currentTimeMillis() - start;
+
+		boolean intact = Arrays.equals(blob, readFile(new File(receiveDirectory, "blob")));
+		String result = (intact ? "intact" : "DAMAGED")
+						+ " in " + elapsed + " ms, " + (blob.length / elapsed) + " KB/s, "
+						+ master.syncAttempts + " synchronizations";
+		if (bond) {
+			// the blob goes to the slave, that is where segments come in
+			// early or go missing
+			result += ", " + slaveBond.getSegmentsEarly() + " early, "
+					  + slaveBond.getSegmentsLost() + " lost, "
+					  + masterBond.getFailovers() + " failovers";
+		}
+
+		pair.stop();
+		deleteDirectory(directory);
+		return result;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	static File makeDirectory () throws IOException {
+		File directory = File.createTempFile("bond", "");
+		directory.delete();
+		directory.mkdir();
+		return directory;
+	}
+
+	static void deleteDirectory (File directory) {
+		File files[] = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory()) {
+					deleteDirectory(file);
+				}
+				else {
+					file.delete();
+				}
+			}
+		}
+		directory.delete();
+	}
+
+	static byte[] readFile (File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		byte bytes[] = new byte[(int) in.length()];
+		in.readFully(bytes);
+		in.close();
+		return bytes;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	// one physical path, both directions, can be cut
+	static class Wire {
+
+		final int bytesPerSecond;
+		private volatile boolean isCut = false;
+
+		Wire (int bytesPerSecond) {
+			this.bytesPerSecond = bytesPerSecond;
+		}
+
+		void cut () {
+			isCut = true;
+		}
+
+		boolean isCut () {
+			return isCut;
+		}
+	}
+
+	// takes as long to write as the wire's rate says, and fails the way a
+	// serial port does once the wire is cut, a write already under way
+	// included
+	//
+	// Sleeping for every byte would take far longer than the rate says, so
+	// it keeps track of when the wire will be done with what it has been
+	// given and only sleeps once that is a millisecond or more away.
+	static class WirePort implements LinkPortInterface {
+
+		private final BlockingQueue<Byte> readBuffer;
+		private final BlockingQueue<Byte> writeBuffer;
+		private final Wire wire;
+		private boolean isOpen = false;
+		private long busyUntil = 0;
+
+		WirePort (BlockingQueue<Byte> readBuffer, BlockingQueue<Byte> writeBuffer, Wire wire) {
+			this.readBuffer = readBuffer;
+			this.writeBuffer = writeBuffer;
+			this.wire = wire;
+		}
+
+		public void open () {
+			isOpen = true;
+		}
+
+		public void close () {
+			isOpen = false;
+		}
+
+		public boolean isOpen () {
+			return isOpen;
+		}
+
+		public void setWaitStrategy (WaitStrategyEnum strategy) {
+		}
+
+		public byte readByte () throws InterruptedException {
+			return readBuffer.take();
+		}
+
+		public void writeByte (byte bite) throws InterruptedException, IOException {
+			writeBytes(new byte[] { bite }, 0, 1);
+		}
+
+		public void writeBytes (byte bytes[], int offset, int count) throws InterruptedException, IOException {
+			if (wire.isCut()) {
+				throw new IOException("Wire cut");
+			}
+			long now = System.nanoTime();
+			busyUntil = Math.max(busyUntil, now) + count * 1000000000L / wire.bytesPerSecond;
+			long ahead = busyUntil - now;
+			if (ahead >= 1000000) {
+				Thread.sleep(ahead / 1000000, (int) (ahead % 1000000));
+			}
+			if (wire.isCut()) {
+				throw new IOException("Wire cut");
+			}
+			for (int i = offset; i < offset + count; i++) {
+				writeBuffer.put(bytes[i]);
+			}
+		}
+	}
+
+}
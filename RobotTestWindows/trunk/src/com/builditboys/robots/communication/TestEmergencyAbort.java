@@ -0,0 +1,258 @@
+package com.builditboys.robots.communication;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+import com.builditboys.robots.time.LocalTimeSystem;
+
+// Estops while the link is busy with long frames, on a port as slow as
+// the PSoC's serial line.
+//
+// The master keeps channel 20 full of BULK_LENGTH byte messages and every
+// few of them posts an estop on channel 21. Queued, an estop waits behind
+// the frames ahead of it. As an emergency it cuts off the frame going out
+// and the cut off frame goes again after it. With the send pipeline on
+// nothing can be cut off, the estop just goes in the next block.
+//
+// For each it prints the latency the link keeps, from the call until the
+// last byte is written to the port, next to what the slave sees, from the
+// call until the estop is received, and checks every bulk message arrived
+// once, in order and intact. The two latencies should be close, the
+// receive side only adds the receiver's frame handling.
+
+public class TestEmergencyAbort {
+
+	static final int BULK_CHANNEL = 20;
+	static final int ESTOP_CHANNEL = 21;
+	static final int BULK_MESSAGES = 100;
+	static final int BULK_LENGTH = 200;
+	static final int ESTOP_EVERY = 5;
+
+	// 115200 baud, about 87 us a byte
+	static final long NANOS_PER_BYTE = 87000;
+
+	public static void main (String args[]) throws Exception {
+		LocalTimeSystem.startLocalTimeNow();
+
+		String queued = run(false, false);
+		String emergency = run(true, false);
+		String pipelined = run(true, true);
+
+		System.out.println("Queued:               " + queued);
+		System.out.println("Emergency:            " + emergency);
+		System.out.println("Emergency, pipelined: " + pipelined);
+		System.exit(0);
+	}
+
+	static String run (boolean asEmergency, boolean pipelined) throws Exception {
+		ArrayBlockingQueue<Byte> toSlave = TestLinkPair.newWire();
+		ArrayBlockingQueue<Byte> toMaster = TestLinkPair.newWire();
+		TestLinkPair pair = new TestLinkPair("Estop", new SerialSpeedPort(toMaster, toSlave), new SerialSpeedPort(toSlave, toMaster));
+		MasterLink master = pair.master;
+		pair.setPipelinedSend(pipelined);
+
+		BulkProtocol bulkOut = new BulkProtocol();
+		final BulkProtocol bulkIn = new BulkProtocol();
+		EstopProtocol estopOut = new EstopProtocol();
+		final EstopProtocol estopIn = new EstopProtocol();
+		master.addProtocol(new BulkProtocol(), bulkOut);
+		pair.slave.addProtocol(bulkIn, new BulkProtocol());
+		master.addProtocol(new EstopProtocol(), estopOut);
+		pair.slave.addProtocol(estopIn, new EstopProtocol());
+
+		pair.start();
+
+		int estops = 0;
+		for (int i = 0; i < BULK_MESSAGES; i++) {
+			bulkOut.send(i);
+			if ((i % ESTOP_EVERY) == 2) {
+				// let the sender get into a frame
+				Thread.sleep(7);
+				LinkMessage estop = estopOut.post(estops++);
+				if (asEmergency) {
+					master.sendEmergencyMessage(estopOut.getChannel(), estop);
+				}
+				else {
+					estopOut.queue(estop);
+				}
+			}
+		}
+
+		final int posted = estops;
+		TestLinkPair.waitUntil(20000, new TestLinkPair.Condition() {
+			public boolean holds () {
+				return (bulkIn.getCount() >= BULK_MESSAGES) && (estopIn.getCount() >= posted);
+			}
+		});
+
+		String linkLatency = asEmergency
+				? "link says worst " + master.getWorstEmergencyLatency() + " us mean " + master.sender.getMeanEmergencyLatency() + " us, "
+				: "";
+		String result = estopIn.getCount() + " of " + estops + " estops, "
+						+ linkLatency
+						+ "received worst " + estopIn.getWorstLatency(estopOut) + " us mean " + estopIn.getMeanLatency(estopOut) + " us, "
+						+ "bulk " + bulkIn.getCount() + " of " + BULK_MESSAGES + (bulkIn.isIntact() ? " intact" : " DAMAGED");
+
+		pair.stop();
+		return result;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	// spins for every byte, sleeping is far too coarse
+	static class SerialSpeedPort extends DebuggingLinkPort {
+
+		SerialSpeedPort (ArrayBlockingQueue<Byte> readBuffer, ArrayBlockingQueue<Byte> writeBuffer) {
+			super(readBuffer, writeBuffer);
+		}
+
+		public void writeByte (byte bite) throws InterruptedException {
+			long end = System.nanoTime() + NANOS_PER_BYTE;
+			while (System.nanoTime() < end) {
+			}
+			super.writeByte(bite);
+		}
+	}
+
+	// numbered messages full of bytes that need escaping
+	static class BulkProtocol extends AbstractProtocol {
+
+		static final BulkProtocol REPRESENTATIVE = new BulkProtocol();
+
+		private int count = 0;
+		private boolean intact = true;
+
+		public InputChannel getInputChannel () {
+			channel = new InputChannel(this, BULK_CHANNEL);
+			return (InputChannel) channel;
+		}
+
+		public OutputChannel getOutputChannel () {
+			channel = new OutputChannel(this, BULK_CHANNEL);
+			return (OutputChannel) channel;
+		}
+
+		public AbstractProtocol getInstanceRepresentative () {
+			return REPRESENTATIVE;
+		}
+
+		static byte fill (int index) {
+			switch (index % 3) {
+			case 0:
+				return (byte) 0xFF;
+			case 1:
+				return (byte) 0xFE;
+			default:
+				return (byte) index;
+			}
+		}
+
+		void send (int number) throws InterruptedException {
+			LinkMessage message = new LinkMessage(BULK_CHANNEL, BULK_LENGTH);
+			message.deConstructBytes4(number);
+			for (int i = 4; i < BULK_LENGTH; i++) {
+				message.deConstructBytes1(fill(i));
+			}
+			while (true) {
+				try {
+					channel.addMessage(message);
+					return;
+				} catch (IllegalStateException e) {
+					Thread.sleep(1);
+				}
+			}
+		}
+
+		protected synchronized void receiveMessage (LinkMessage message) {
+			if ((message.size() != BULK_LENGTH) || (message.reConstructBytes4() != count)) {
+				intact = false;
+			}
+			for (int i = 4; i < message.size(); i++) {
+				if (message.getByte(i) != fill(i)) {
+					intact = false;
+				}
+			}
+			count++;
+		}
+
+		synchronized int getCount () {
+			return count;
+		}
+
+		synchronized boolean isIntact () {
+			return intact;
+		}
+	}
+
+	// the sending side remembers when each estop was posted, the receiving
+	// side when it got there
+	static class EstopProtocol extends AbstractProtocol {
+
+		static final EstopProtocol REPRESENTATIVE = new EstopProtocol();
+
+		private final long times[] = new long[BULK_MESSAGES];
+		private int count = 0;
+
+		public InputChannel getInputChannel () {
+			channel = new InputChannel(this, ESTOP_CHANNEL);
+			return (InputChannel) channel;
+		}
+
+		public OutputChannel getOutputChannel () {
+			channel = new OutputChannel(this, ESTOP_CHANNEL);
+			return (OutputChannel) channel;
+		}
+
+		public AbstractProtocol getInstanceRepresentative () {
+			return REPRESENTATIVE;
+		}
+
+		AbstractChannel getChannel () {
+			return channel;
+		}
+
+		// the queue only drains once the bulk channel is empty, wait for room
+		void queue (LinkMessage message) throws InterruptedException {
+			while (true) {
+				try {
+					channel.addMessage(message);
+					return;
+				} catch (IllegalStateException e) {
+					Thread.sleep(1);
+				}
+			}
+		}
+
+		synchronized LinkMessage post (int number) {
+			LinkMessage message = new LinkMessage(ESTOP_CHANNEL, 1);
+			message.deConstructBytes1(number);
+			times[number] = System.nanoTime();
+			return message;
+		}
+
+		protected synchronized void receiveMessage (LinkMessage message) {
+			times[message.reConstructBytes1() & 0xFF] = System.nanoTime();
+			count++;
+		}
+
+		synchronized int getCount () {
+			return count;
+		}
+
+		synchronized long getWorstLatency (EstopProtocol sent) {
+			long worst = 0;
+			for (int i = 0; i < count; i++) {
+				worst = Math.max(worst, (times[i] - sent.times[i]) / 1000);
+			}
+			return worst;
+		}
+
+		synchronized long getMeanLatency (EstopProtocol sent) {
+			long total = 0;
+			for (int i = 0; i < count; i++) {
+				total += (times[i] - sent.times[i]) / 1000;
+			}
+			return (count == 0) ? 0 : total / count;
+		}
+	}
+
+}
@@ -0,0 +1,160 @@
+package com.builditboys.robots.communication;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+import com.builditboys.robots.time.LocalTimeSystem;
+
+// A slave that is slow to take messages, the way the PSoC is with its
+// small receive buffers, with and without credit on the channel.
+//
+// The master sends MESSAGES messages on channel 20 as fast as its queue
+// takes them, the slave takes HANDLING_MILLIS over each one. Granting a
+// window, the slave never has more than WINDOW frames coming at it, so
+// the bytes waiting for it stay around WINDOW frames' worth, a frame is
+// MESSAGE_LENGTH and a dozen or so, and the rest wait in the master's
+// queue. Granting nothing, the channel is not flow
+// controlled and everything piles up in front of the slave.
+//
+// Stalls are the times the master's channel ran out of credit with
+// something to send, there should be about one for every half window the
+// slave grants, not one for every time the sender looked at the channel.
+
+public class TestFlowCredits {
+
+	static final int CHANNEL_NUMBER = 20;
+	static final int MESSAGES = 200;
+	static final int MESSAGE_LENGTH = 40;
+	static final int WINDOW = 4;
+	static final long HANDLING_MILLIS = 5;
+
+	public static void main (String args[]) throws Exception {
+		LocalTimeSystem.startLocalTimeNow();
+
+		String limited = run(WINDOW);
+		String unlimited = run(0);
+
+		System.out.println("Window " + WINDOW + ": " + limited);
+		System.out.println("No window: " + unlimited);
+		System.exit(0);
+	}
+
+	static String run (int window) throws Exception {
+		ArrayBlockingQueue<Byte> toSlave = TestLinkPair.newWire();
+		ArrayBlockingQueue<Byte> toMaster = TestLinkPair.newWire();
+		BacklogPort masterPort = new BacklogPort(toMaster, toSlave);
+		TestLinkPair pair = new TestLinkPair("Credit", masterPort, new DebuggingLinkPort(toSlave, toMaster));
+		MasterLink master = pair.master;
+
+		SlowProtocol masterOut = new SlowProtocol();
+		final SlowProtocol slaveIn = new SlowProtocol();
+		master.addProtocol(new SlowProtocol(), masterOut);
+		pair.slave.addProtocol(slaveIn, new SlowProtocol());
+		pair.slave.setReceiveWindow(CHANNEL_NUMBER, window);
+
+		pair.start();
+
+		long start = System.nanoTime();
+		for (int i = 0; i < MESSAGES; i++) {
+			masterOut.send(i);
+		}
+		TestLinkPair.waitUntil(20000, new TestLinkPair.Condition() {
+			public boolean holds () {
+				return slaveIn.getCount() >= MESSAGES;
+			}
+		});
+		long elapsed = (System.nanoTime() - start) / 1000000;
+
+		String result = slaveIn.getCount() + " of " + MESSAGES + (slaveIn.isInOrder() ? " in order" : " OUT OF ORDER")
+						+ " in " + elapsed + " ms, "
+						+ "at most " + masterPort.getMostWaiting() + " bytes waiting for the slave, "
+						+ master.getFlowCredits().getStalls() + " stalls, "
+						+ (master.getFlowCredits().isLimited(CHANNEL_NUMBER) ? "limited" : "not limited");
+
+		pair.stop();
+		return result;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	// keeps track of how much has been written and not yet read
+	static class BacklogPort extends DebuggingLinkPort {
+
+		private int mostWaiting = 0;
+
+		BacklogPort (ArrayBlockingQueue<Byte> readBuffer, ArrayBlockingQueue<Byte> writeBuffer) {
+			super(readBuffer, writeBuffer);
+		}
+
+		public void writeByte (byte bite) throws InterruptedException {
+			super.writeByte(bite);
+			mostWaiting = Math.max(mostWaiting, writeBuffer.size());
+		}
+
+		int getMostWaiting () {
+			return mostWaiting;
+		}
+	}
+
+	// numbered messages, the receiving end takes its time over each
+	static class SlowProtocol extends AbstractProtocol {
+
+		static final SlowProtocol REPRESENTATIVE = new SlowProtocol();
+
+		private int count = 0;
+		private boolean inOrder = true;
+
+		public InputChannel getInputChannel () {
+			channel = new InputChannel(this, CHANNEL_NUMBER);
+			return (InputChannel) channel;
+		}
+
+		public OutputChannel getOutputChannel () {
+			channel = new OutputChannel(this, CHANNEL_NUMBER);
+			return (OutputChannel) channel;
+		}
+
+		public AbstractProtocol getInstanceRepresentative () {
+			return REPRESENTATIVE;
+		}
+
+		void send (int number) throws InterruptedException {
+			LinkMessage message = new LinkMessage(CHANNEL_NUMBER, MESSAGE_LENGTH);
+			message.deConstructBytes4(number);
+			for (int i = 4; i < MESSAGE_LENGTH; i++) {
+				message.deConstructBytes1(i);
+			}
+			while (true) {
+				try {
+					channel.addMessage(message);
+					return;
+				} catch (IllegalStateException e) {
+					Thread.sleep(1);
+				}
+			}
+		}
+
+		protected void receiveMessage (LinkMessage message) {
+			int number = message.reConstructBytes4();
+			try {
+				Thread.sleep(HANDLING_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			synchronized (this) {
+				if (number != count) {
+					inOrder = false;
+				}
+				count++;
+			}
+		}
+
+		synchronized int getCount () {
+			return count;
+		}
+
+		synchronized boolean isInOrder () {
+			return inOrder;
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+package com.builditboys.robots.communication;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+// A master and a slave link joined back to back, the set up the link
+// drivers share.
+//
+// Give it the two ports, or let it make DebuggingLinkPorts on a pair of
+// wires, add the protocols and settings the driver wants to master and
+// slave, then start it, which brings both ends up and enables them.
+// Frames are not printed, a driver sends far too many, everything else
+// the links print, their thread errors included, still goes to the
+// console.
+//
+//   ArrayBlockingQueue<Byte> toSlave = TestLinkPair.newWire();
+//   ArrayBlockingQueue<Byte> toMaster = TestLinkPair.newWire();
+//   TestLinkPair pair = new TestLinkPair("Test", new SomePort(toMaster, toSlave),
+//                                        new DebuggingLinkPort(toSlave, toMaster));
+//   pair.master.addProtocol(masterIn, masterOut);
+//   pair.slave.addProtocol(slaveIn, slaveOut);
+//   pair.start();
+//   ...
+//   TestLinkPair.waitUntil(20000, new TestLinkPair.Condition() { ... });
+//   pair.stop();
+
+public class TestLinkPair {
+
+	static final int WIRE_CAPACITY = 1000000;
+	static final long POLL_MILLIS = 5;
+
+	final MasterLink master;
+	final SlaveLink slave;
+
+	// --------------------------------------------------------------------------------
+	// Constructors
+
+	// the links are called name Master and name Slave
+	TestLinkPair (String name, LinkPortInterface masterPort, LinkPortInterface slavePort) {
+		AbstractSenderReceiver.setDebugPrint(false);
+		master = new MasterLink(name + " Master", masterPort);
+		slave = new SlaveLink(name + " Slave", slavePort);
+	}
+
+	TestLinkPair (String name) {
+		this(name, newWire(), newWire());
+	}
+
+	private TestLinkPair (String name, ArrayBlockingQueue<Byte> toSlave, ArrayBlockingQueue<Byte> toMaster) {
+		this(name, new DebuggingLinkPort(toMaster, toSlave), new DebuggingLinkPort(toSlave, toMaster));
+	}
+
+	// one direction, for a driver with a port of its own
+	static ArrayBlockingQueue<Byte> newWire () {
+		return new ArrayBlockingQueue<Byte>(WIRE_CAPACITY);
+	}
+
+	// --------------------------------------------------------------------------------
+
+	void setPipelinedSend (boolean pipelined) {
+		master.setPipelinedSend(pipelined);
+		slave.setPipelinedSend(pipelined);
+	}
+
+	// both ends up and enabled
+	void start () throws InterruptedException, IOException {
+		master.startLink();
+		slave.startLink();
+		master.sleepUntilReady();
+		slave.sleepUntilReady();
+		master.enable();
+		slave.enable();
+	}
+
+	// and a moment for the threads to go, so they do not print over the
+	// next run
+	void stop () throws InterruptedException, IOException {
+		master.stopLink();
+		slave.stopLink();
+		Thread.sleep(100);
+	}
+
+	// --------------------------------------------------------------------------------
+	// Waiting for the driver's messages to get there
+
+	interface Condition {
+		boolean holds ();
+	}
+
+	// false if it still does not hold after millis
+	static boolean waitUntil (long millis, Condition condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + millis;
+		while (!condition.holds()) {
+			if (System.currentTimeMillis() >= deadline) {
+				return false;
+			}
+			Thread.sleep(POLL_MILLIS);
+		}
+		return true;
+	}
+
+}
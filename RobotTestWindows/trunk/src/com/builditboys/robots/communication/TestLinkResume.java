@@ -0,0 +1,192 @@
+package com.builditboys.robots.communication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import com.builditboys.robots.communication.AbstractLink.LinkStateEnum;
+import com.builditboys.robots.time.LocalTimeSystem;
+
+// Breaks frames on an established link and watches it recover.
+//
+// The master sends MESSAGES numbered messages to the slave, every
+// BREAK_EVERY messages a stray sync byte goes into the middle of a frame
+// on the wire. When both ends agreed to FEATURE_RESUME the link resumes,
+// the sender replays what was lost and everything arrives once and in
+// order, with no synchronization after the first. When the slave does not
+// offer it, as an old slave or the PSoC would not, every break is a full
+// resync, the slave drops out at once but the master only notices when
+// its keep alives time out, and everything it sends until then is gone.
+//
+// After a full resync the link is ready but not enabled, the sending loop
+// enables it again the way an application would.
+//
+// Give it pipelined as an argument to run both ends with the send
+// pipeline, see AbstractLink.setPipelinedSend.
+
+public class TestLinkResume {
+
+	static final int CHANNEL_NUMBER = 20;
+	static final int MESSAGES = 200;
+	static final int BREAK_EVERY = 25;
+
+	public static void main (String args[]) throws Exception {
+		LocalTimeSystem.startLocalTimeNow();
+		boolean pipelined = (args.length > 0) && args[0].equals("pipelined");
+
+		System.out.println("RESUME: both ends offer it");
+		String withResume = run(LinkCapabilities.LOCAL, pipelined);
+
+		System.out.println("RESUME: the slave does not offer it");
+		String withoutResume = run(LinkCapabilities.LOCAL.withFeatures(LinkCapabilities.FEATURE_FLOW_CONTROL), pipelined);
+
+		System.out.println();
+		System.out.println("With resume:    " + withResume);
+		System.out.println("Without resume: " + withoutResume);
+		System.exit(0);
+	}
+
+	static String run (LinkCapabilities slaveCapabilities, boolean pipelined) throws Exception {
+		ArrayBlockingQueue<Byte> toSlave = TestLinkPair.newWire();
+		ArrayBlockingQueue<Byte> toMaster = TestLinkPair.newWire();
+		BreakingPort masterPort = new BreakingPort(toMaster, toSlave);
+		final TestLinkPair pair = new TestLinkPair("Resume", masterPort, new DebuggingLinkPort(toSlave, toMaster));
+		MasterLink master = pair.master;
+		pair.slave.setCapabilities(slaveCapabilities);
+		pair.setPipelinedSend(pipelined);
+		NumberProtocol masterOut = new NumberProtocol();
+		final NumberProtocol slaveIn = new NumberProtocol();
+		master.addProtocol(new NumberProtocol(), masterOut);
+		pair.slave.addProtocol(slaveIn, new NumberProtocol());
+
+		pair.start();
+
+		for (int i = 0; i < MESSAGES; i++) {
+			enableIfReady(pair);
+			masterOut.send(i);
+			if ((i % BREAK_EVERY) == (BREAK_EVERY / 2)) {
+				masterPort.breakAfter(3 + (i % 7));
+			}
+			Thread.sleep(5);
+		}
+		TestLinkPair.waitUntil(5000, new TestLinkPair.Condition() {
+			public boolean holds () {
+				enableIfReady(pair);
+				return slaveIn.size() >= MESSAGES;
+			}
+		});
+
+		List<Integer> got = slaveIn.received();
+		int inOrder = 0;
+		int duplicates = 0;
+		int last = -1;
+		for (int n : got) {
+			if (n > last) {
+				inOrder++;
+				last = n;
+			}
+			else {
+				duplicates++;
+			}
+		}
+		String result = got.size() + " of " + MESSAGES + " received, "
+						+ (MESSAGES - inOrder) + " lost, " + duplicates + " out of order or repeated, "
+						+ masterPort.breaks + " breaks, " + master.syncAttempts + " synchronizations, "
+						+ "agreed " + master.getAgreedCapabilities();
+
+		pair.stop();
+		return result;
+	}
+
+	static void enableIfReady (TestLinkPair pair) {
+		enableIfReady(pair.master);
+		enableIfReady(pair.slave);
+	}
+
+	static void enableIfReady (AbstractLink link) {
+		if (link.getLinkState() == LinkStateEnum.LinkReadyState) {
+			try {
+				link.enable();
+			} catch (IllegalStateException e) {
+				// moved on under us
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+
+	// puts a sync byte on the wire a few bytes from now, which cuts off
+	// whatever frame those bytes belong to
+	static class BreakingPort extends DebuggingLinkPort {
+
+		private volatile int countdown = -1;
+		volatile int breaks = 0;
+
+		BreakingPort (ArrayBlockingQueue<Byte> readBuffer, ArrayBlockingQueue<Byte> writeBuffer) {
+			super(readBuffer, writeBuffer);
+		}
+
+		void breakAfter (int bytes) {
+			countdown = bytes;
+		}
+
+		public void writeByte (byte bite) throws InterruptedException {
+			if (countdown == 0) {
+				countdown = -1;
+				breaks++;
+				super.writeByte(LinkParameters.SEND_SYNC_BYTE_1);
+			}
+			else if (countdown > 0) {
+				countdown--;
+			}
+			super.writeByte(bite);
+		}
+	}
+
+	static class NumberProtocol extends AbstractProtocol {
+
+		static final NumberProtocol REPRESENTATIVE = new NumberProtocol();
+
+		private final List<Integer> numbers = new ArrayList<Integer>();
+
+		public InputChannel getInputChannel () {
+			channel = new InputChannel(this, CHANNEL_NUMBER);
+			return (InputChannel) channel;
+		}
+
+		public OutputChannel getOutputChannel () {
+			channel = new OutputChannel(this, CHANNEL_NUMBER);
+			return (OutputChannel) channel;
+		}
+
+		public AbstractProtocol getInstanceRepresentative () {
+			return REPRESENTATIVE;
+		}
+
+		void send (int number) throws InterruptedException {
+			LinkMessage message = new LinkMessage(CHANNEL_NUMBER, 4);
+			message.deConstructBytes4(number);
+			while (true) {
+				try {
+					channel.addMessage(message);
+					return;
+				} catch (IllegalStateException e) {
+					Thread.sleep(5);
+				}
+			}
+		}
+
+		protected synchronized void receiveMessage (LinkMessage message) {
+			numbers.add(message.reConstructBytes4());
+		}
+
+		synchronized int size () {
+			return numbers.size();
+		}
+
+		synchronized List<Integer> received () {
+			return new ArrayList<Integer>(numbers);
+		}
+	}
+
+}
@@ -0,0 +1,257 @@
+package com.builditboys.robots.communication;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.builditboys.robots.time.LocalTimeSystem;
+
+// The host between the operator station and the PSoC, with a router
+// joining the two.
+//
+//   operator (master) === host up (slave)
+//                           router, channel 20 <-> 30
+//                         host down (master) === psoc (slave)
+//
+// The host has no protocols of its own on either channel, only the
+// route. The operator talks on channel OPERATOR_CHANNEL, the PSoC on
+// PSOC_CHANNEL, and the far end echoes what it gets, so every message
+// crosses the router twice, once each way, and has its channel number
+// remapped both times.
+//
+// The host's link to the PSoC runs at serial speed, PSOC_BYTES_PER_SECOND,
+// the operator's is as fast as the queues.
+//
+// Messages are from SHORTEST up to SHORTEST + SPREAD - 1 bytes long. Two
+// runs keep at most WINDOW of them on their way, less than the router's
+// queues hold, one starting at the operator end and one at the PSoC end,
+// and should get all MESSAGES there and back. The last run sends from the
+// operator as fast as its queue takes them, the router drops what its
+// queue to the PSoC has no room for, rather than hold up the operator's
+// link, and counts it.
+//
+// For each it prints how many got to the far end and back, how many came
+// in on the wrong channel or damaged, which should be none, how many
+// times a link had to synchronize again, and the route's counts.
+
+public class TestLinkRouter {
+
+	static final int OPERATOR_CHANNEL = 20;
+	static final int PSOC_CHANNEL = 30;
+	static final int MESSAGES = 500;
+	static final int SHORTEST = 40;
+	static final int SPREAD = 151;
+	static final int WINDOW = LinkParameters.ROUTER_CHANNEL_CAPACITY / 2;
+
+	// 115200 baud
+	static final int PSOC_BYTES_PER_SECOND = 11520;
+
+	public static void main (String args[]) throws Exception {
+		LocalTimeSystem.startLocalTimeNow();
+
+		String fromOperator = run(true, WINDOW);
+		String fromPsoc = run(false, WINDOW);
+		String burst = run(true, MESSAGES);
+
+		System.out.println("From the operator:        " + fromOperator);
+		System.out.println("From the PSoC:            " + fromPsoc);
+		System.out.println("From the operator, burst: " + burst);
+		System.exit(0);
+	}
+
+	static String run (boolean fromOperator, int window) throws Exception {
+		// the operator and the host's up link, the host's down link and the
+		// PSoC
+		TestLinkPair up = new TestLinkPair("Up");
+		ArrayBlockingQueue<Byte> toPsoc = TestLinkPair.newWire();
+		ArrayBlockingQueue<Byte> toHost = TestLinkPair.newWire();
+		TestLinkPair down = new TestLinkPair("Down", new SerialSpeedPort(toHost, toPsoc), new SerialSpeedPort(toPsoc, toHost));
+		MasterLink operator = up.master;
+		SlaveLink hostUp = up.slave;
+		MasterLink hostDown = down.master;
+		SlaveLink psoc = down.slave;
+		AbstractLink links[] = { operator, hostUp, hostDown, psoc };
+
+		EchoProtocol operatorOut = new EchoProtocol(OPERATOR_CHANNEL);
+		EchoProtocol operatorIn = new EchoProtocol(OPERATOR_CHANNEL);
+		EchoProtocol psocOut = new EchoProtocol(PSOC_CHANNEL);
+		EchoProtocol psocIn = new EchoProtocol(PSOC_CHANNEL);
+		operator.addProtocol(operatorIn, operatorOut);
+		psoc.addProtocol(psocIn, psocOut);
+
+		// the far end echoes, the starting end just counts
+		EchoProtocol start = fromOperator ? operatorOut : psocOut;
+		final EchoProtocol back = fromOperator ? operatorIn : psocIn;
+		EchoProtocol far = fromOperator ? psocIn : operatorIn;
+		far.echoOn(fromOperator ? psocOut : operatorOut);
+
+		LinkRouter router = new LinkRouter("Host");
+		final LinkRouter.Route route = router.addRoute(hostUp, OPERATOR_CHANNEL, hostDown, PSOC_CHANNEL);
+
+		up.start();
+		down.start();
+
+		long begin = System.currentTimeMillis();
+		long deadline = begin + 60000;
+		for (int i = 0; i < MESSAGES; i++) {
+			while ((i - accountedFor(back, route) >= window) && (System.currentTimeMillis() < deadline)) {
+				Thread.sleep(1);
+			}
+			start.send(i, SHORTEST + (i % SPREAD));
+		}
+		TestLinkPair.waitUntil(deadline - System.currentTimeMillis(), new TestLinkPair.Condition() {
+			public boolean holds () {
+				return accountedFor(back, route) >= MESSAGES;
+			}
+		});
+		long elapsed = System.currentTimeMillis() - begin;
+		int resyncs = 0;
+		for (AbstractLink link : links) {
+			resyncs += link.syncAttempts - 1;
+		}
+
+		up.stop();
+		down.stop();
+
+		return far.getCount() + " there, " + back.getCount() + " back of " + MESSAGES
+				+ ", " + (far.getBad() + back.getBad()) + " bad"
+				+ " in " + elapsed + " ms, "
+				+ resyncs + " resyncs, "
+				+ route;
+	}
+
+	// back, or dropped by the router one way or the other
+	static long accountedFor (EchoProtocol back, LinkRouter.Route route) {
+		return back.getCount() + route.getDroppedAToB() + route.getDroppedBToA();
+	}
+
+	// --------------------------------------------------------------------------------
+
+	// takes as long to write as PSOC_BYTES_PER_SECOND says, sleeping for
+	// every byte would take far longer, so it keeps track of when the line
+	// will be done with what it has been given and only sleeps once that is
+	// a millisecond or more away
+	static class SerialSpeedPort extends DebuggingLinkPort {
+
+		private long busyUntil = 0;
+
+		SerialSpeedPort (ArrayBlockingQueue<Byte> readBuffer, ArrayBlockingQueue<Byte> writeBuffer) {
+			super(readBuffer, writeBuffer);
+		}
+
+		public void writeByte (byte bite) throws InterruptedException {
+			pace(1);
+			super.writeByte(bite);
+		}
+
+		public void writeBytes (byte bytes[], int offset, int count) throws InterruptedException {
+			pace(count);
+			for (int i = offset; i < offset + count; i++) {
+				super.writeByte(bytes[i]);
+			}
+		}
+
+		private void pace (int count) throws InterruptedException {
+			long now = System.nanoTime();
+			busyUntil = Math.max(busyUntil, now) + count * 1000000000L / PSOC_BYTES_PER_SECOND;
+			long ahead = busyUntil - now;
+			if (ahead >= 1000000) {
+				Thread.sleep(ahead / 1000000, (int) (ahead % 1000000));
+			}
+		}
+	}
+
+	// numbered messages whose bytes follow from the number, the input side
+	// checks them and, if it has somewhere to echo, sends them back on its
+	// own link's output protocol
+	//
+	// The echoing is done by a thread of its own, waiting for room on the
+	// output channel in receiveMessage would hold up the link's receiver.
+	static class EchoProtocol extends AbstractProtocol {
+
+		private final int number;
+		private volatile LinkedBlockingQueue<LinkMessage> toEcho = null;
+		private int count = 0;
+		private int bad = 0;
+
+		EchoProtocol (int channelNumber) {
+			number = channelNumber;
+		}
+
+		void echoOn (final EchoProtocol output) {
+			toEcho = new LinkedBlockingQueue<LinkMessage>();
+			Thread echoer = new Thread("Echo " + number) {
+				public void run () {
+					try {
+						while (true) {
+							LinkMessage message = toEcho.take();
+							output.send(message.reConstructBytes4At(0), message.size());
+						}
+					} catch (InterruptedException e) {
+						// done
+					}
+				}
+			};
+			echoer.setDaemon(true);
+			echoer.start();
+		}
+
+		public InputChannel getInputChannel () {
+			channel = new InputChannel(this, number);
+			return (InputChannel) channel;
+		}
+
+		public OutputChannel getOutputChannel () {
+			channel = new OutputChannel(this, number);
+			return (OutputChannel) channel;
+		}
+
+		// one per channel number, not per class
+		public AbstractProtocol getInstanceRepresentative () {
+			return this;
+		}
+
+		void send (int sequence, int length) throws InterruptedException {
+			LinkMessage message = new LinkMessage(number, length);
+			message.deConstructBytes4(sequence);
+			for (int i = 4; i < length; i++) {
+				message.deConstructBytes1(sequence + i);
+			}
+			while (true) {
+				try {
+					channel.addMessage(message);
+					return;
+				} catch (IllegalStateException e) {
+					Thread.sleep(1);
+				}
+			}
+		}
+
+		protected void receiveMessage (LinkMessage message) throws InterruptedException {
+			int sequence = message.reConstructBytes4();
+			boolean good = (message.getChannelNumber() == number);
+			for (int i = 4; i < message.size(); i++) {
+				if (message.getByte(i) != (byte) (sequence + i)) {
+					good = false;
+				}
+			}
+			if (toEcho != null) {
+				toEcho.add(message);
+			}
+			synchronized (this) {
+				count++;
+				if (!good) {
+					bad++;
+				}
+			}
+		}
+
+		synchronized int getCount () {
+			return count;
+		}
+
+		synchronized int getBad () {
+			return bad;
+		}
+	}
+
+}
@@ -0,0 +1,184 @@
+package com.builditboys.robots.communication;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.builditboys.robots.communication.AbstractProtocol.ProtocolRoleEnum;
+import com.builditboys.robots.infrastructure.ByteParameter;
+import com.builditboys.robots.infrastructure.IntegerParameter;
+import com.builditboys.robots.infrastructure.ParameterInterface;
+import com.builditboys.robots.infrastructure.ParameterServer;
+import com.builditboys.robots.system.ParameterNotification;
+import com.builditboys.robots.system.ParameterNotificationSubscriberInterface;
+import com.builditboys.robots.system.ParameterProtocol;
+import com.builditboys.robots.time.LocalTimeSystem;
+
+// Gets and sets the slave's parameters from the master with
+// ParameterProtocol, more of them than fit in a frame.
+//
+// The master mirrors KEYS keys, the slave all but every MISSING_EVERY th
+// one, so the slave leaves those out of its answers and they should not
+// come back. The key CLIPPED_ID is a ByteParameter, a set of a value too
+// big for it comes back the way the slave stored it. Then the slave says
+// it changed its keys, and one it mirrors but has no parameter for, and
+// the master should publish notices naming just the ones it has.
+//
+// Both links are in this one process, so they share the one
+// ParameterServer, the slave's parameters are the master's copies. What
+// it checks is what comes back over the link.
+//
+// Prints each section with what it should come to.
+
+public class TestParameterProtocol {
+
+	static final int KEYS = 120;
+	static final int MISSING_EVERY = 10;
+	static final int CLIPPED_ID = 3;
+	static final int GONE_ID = 200;
+	static final long TIMEOUT = 1000;
+
+	public static void main (String args[]) throws Exception {
+		LocalTimeSystem.startLocalTimeNow();
+
+		TestLinkPair pair = new TestLinkPair("Parameter");
+		ParameterProtocol.addProtocolToLink(pair.master, ProtocolRoleEnum.MASTER);
+		ParameterProtocol.addProtocolToLink(pair.slave, ProtocolRoleEnum.SLAVE);
+		ParameterProtocol master = ParameterProtocol.getLinkOutputProtocol(pair.master);
+		ParameterProtocol slave = ParameterProtocol.getLinkOutputProtocol(pair.slave);
+
+		// the byte one first, or the master makes it an IntegerParameter
+		ParameterServer.addParameter(new ByteParameter(name(CLIPPED_ID)));
+		String names[] = new String[KEYS];
+		List<String> slaveNames = new ArrayList<String>();
+		for (int id = 0; id < KEYS; id++) {
+			names[id] = name(id);
+			master.mirrorParameter(id, names[id]);
+			if (!isMissing(id)) {
+				slave.mirrorParameter(id, names[id]);
+				slaveNames.add(names[id]);
+			}
+		}
+		slave.mirrorParameter(GONE_ID, name(GONE_ID));
+
+		ChangeCounter changes = new ChangeCounter();
+		ParameterNotification.getDistributionList().subscribe(changes);
+
+		pair.start();
+		int batch = master.getBatchLength();
+
+		// get, the values as the slave's own code left them
+		for (int id = 0; id < KEYS; id++) {
+			setValue(names[id], getValue(id));
+		}
+		Map<String, Integer> got = master.getParameters(TIMEOUT, names);
+		int gotWrong = 0;
+		for (int id = 0; id < KEYS; id++) {
+			Integer value = got.get(names[id]);
+			if (isMissing(id) ? (value != null) : ((value == null) || (value != getValue(id)))) {
+				gotWrong++;
+			}
+		}
+
+		// set, the clipped one comes back as the byte the slave kept
+		Map<String, Integer> values = new LinkedHashMap<String, Integer>();
+		for (int id = 0; id < KEYS; id++) {
+			values.put(names[id], setValue(id));
+		}
+		Map<String, Integer> set = master.setParameters(values, TIMEOUT);
+		int setWrong = 0;
+		for (int id = 0; id < KEYS; id++) {
+			Integer value = set.get(names[id]);
+			int expected = (id == CLIPPED_ID) ? (byte) setValue(id) : setValue(id);
+			if (isMissing(id) ? (value != null) : ((value == null) || (value != expected))) {
+				setWrong++;
+			}
+		}
+		Integer clipped = set.get(names[CLIPPED_ID]);
+
+		// the slave changes its values on its own and says so
+		List<String> changed = new ArrayList<String>(slaveNames);
+		changed.add(name(GONE_ID));
+		slave.sendParametersChanged(false, changed.toArray(new String[changed.size()]));
+		final ChangeCounter counter = changes;
+		final int expectedChanges = slaveNames.size();
+		TestLinkPair.waitUntil(5000, new TestLinkPair.Condition() {
+			public boolean holds () {
+				return counter.getNames().size() >= expectedChanges;
+			}
+		});
+		List<String> noticed = changes.getNames();
+
+		ParameterNotification.getDistributionList().unsubscribe(changes);
+		pair.stop();
+
+		int batches = (KEYS + batch - 1) / batch;
+		int missing = KEYS - slaveNames.size();
+		System.out.println("Get, " + KEYS + " keys, " + batches + " calls of at most " + batch);
+		System.out.println("Back: " + got.size() + " of " + KEYS + ", " + missing + " the slave does not have"); // 108 of 120, 12
+		System.out.println("Wrong or not left out: " + gotWrong);                        // 0
+		System.out.println();
+
+		System.out.println("Set");
+		System.out.println("Back: " + set.size() + " of " + KEYS);                       // 108 of 120
+		System.out.println("Wrong or not left out: " + setWrong);                        // 0
+		System.out.println("Clipped: " + setValue(CLIPPED_ID) + " -> " + clipped);       // 1003 -> -21
+		System.out.println();
+
+		System.out.println("Changed");
+		System.out.println("Notices: " + changes.getNotices());                           // 3
+		System.out.println("Named: " + noticed.size() + " of " + slaveNames.size()
+						   + ", as sent: " + noticed.equals(slaveNames));                 // 108 of 108, true
+		System.exit(0);
+	}
+
+	static String name (int id) {
+		return "TEST_PARAMETER_" + id;
+	}
+
+	static boolean isMissing (int id) {
+		return (id % MISSING_EVERY) == (MISSING_EVERY - 1);
+	}
+
+	static int getValue (int id) {
+		return (id == CLIPPED_ID) ? id : 1000 * id + 1;
+	}
+
+	// the clipped one does not fit in a byte
+	static int setValue (int id) {
+		return (id == CLIPPED_ID) ? 1003 : -7 * id;
+	}
+
+	static void setValue (String name, int value) {
+		ParameterInterface parm = ParameterServer.getParameter(name);
+		if (parm instanceof ByteParameter) {
+			((ByteParameter) parm).setValue((byte) value);
+		}
+		else {
+			((IntegerParameter) parm).setValue(value);
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+
+	static class ChangeCounter implements ParameterNotificationSubscriberInterface {
+
+		private final List<String> names = new ArrayList<String>();
+		private int notices = 0;
+
+		public synchronized void receiveNotification (ParameterNotification notice) {
+			names.addAll(notice.getNames());
+			notices++;
+		}
+
+		synchronized List<String> getNames () {
+			return new ArrayList<String>(names);
+		}
+
+		synchronized int getNotices () {
+			return notices;
+		}
+	}
+
+}
@@ -0,0 +1,254 @@
+package com.builditboys.robots.communication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ExecutionException;
+
+import com.builditboys.robots.time.LocalTimeSystem;
+
+// Calls from the master to a slave that answers them the awkward way.
+//
+// The slave holds requests until it has BATCH of them and answers the
+// batch in reverse, so replies come back out of order. It never answers
+// NEVER_ANSWERED, and answers ANSWERED_LATE only after LATE_MILLIS, past
+// the caller's timeout. Each reply is ten times the argument.
+//
+// Ordered calls have no correlation id, the slave answers those at once
+// and in order, and each reply goes to the oldest call waiting for it.
+//
+// Prints each section with what it should come to, and at the end the
+// call table, which should be empty.
+
+public class TestRpcCalls {
+
+	static final int CHANNEL_NUMBER = 20;
+
+	static final int REQUEST = 1;
+	static final int REPLY = 2;
+	static final int ORDERED_REQUEST = 3;
+	static final int ORDERED_REPLY = 4;
+
+	static final int BATCH = 4;
+	static final long TIMEOUT = 500;
+	static final long LATE_MILLIS = 1000;
+
+	static final int NEVER_ANSWERED = 99;
+	static final int ANSWERED_LATE = 98;
+
+	public static void main (String args[]) throws Exception {
+		LocalTimeSystem.startLocalTimeNow();
+
+		TestLinkPair pair = new TestLinkPair("Rpc");
+		CallProtocol masterIn = new CallProtocol();
+		CallProtocol masterOut = new CallProtocol();
+		CallProtocol slaveIn = new CallProtocol();
+		pair.master.addProtocol(masterIn, masterOut);
+		pair.slave.addProtocol(slaveIn, new CallProtocol());
+
+		pair.start();
+
+		// eight calls, two batches, each batch answered backwards
+		List<RpcCall> calls = new ArrayList<RpcCall>();
+		for (int i = 1; i <= 2 * BATCH; i++) {
+			calls.add(masterOut.call(i));
+		}
+		List<String> answers = new ArrayList<String>();
+		for (RpcCall call : calls) {
+			answers.add(call.getCorrelationId() + " -> " + CallProtocol.getResult(call.get()));
+		}
+
+		// one that is never answered, one that is answered too late, and
+		// a batch of ordinary ones so the slave answers at all
+		RpcCall dropped = masterOut.call(NEVER_ANSWERED);
+		RpcCall late = masterOut.call(ANSWERED_LATE);
+		List<RpcCall> fillers = new ArrayList<RpcCall>();
+		for (int i = 11; i < 11 + BATCH; i++) {
+			fillers.add(masterOut.call(i));
+		}
+		int fillersAnswered = 0;
+		for (RpcCall call : fillers) {
+			if (CallProtocol.getResult(call.get()) == 10 * (10 + fillersAnswered + 1)) {
+				fillersAnswered++;
+			}
+		}
+		String droppedOutcome = outcome(dropped);
+		String lateOutcome = outcome(late);
+		Thread.sleep(LATE_MILLIS);
+
+		// ordered calls, answered in order
+		List<RpcCall> ordered = new ArrayList<RpcCall>();
+		for (int i = 21; i <= 25; i++) {
+			ordered.add(masterOut.orderedCall(i));
+		}
+		List<Integer> orderedResults = new ArrayList<Integer>();
+		for (RpcCall call : ordered) {
+			orderedResults.add(call.get().reConstructBytes4At(1));
+		}
+
+		pair.stop();
+
+		System.out.println("Out of order replies, id -> ten times the argument");
+		for (String answer : answers) {
+			System.out.println(answer);
+		}
+		System.out.println("Answered in reverse: " + slaveIn.getAnsweredOrder());
+		System.out.println();
+
+		System.out.println("Timeouts");
+		System.out.println("Never answered: " + droppedOutcome);          // timed out
+		System.out.println("Answered late: " + lateOutcome);              // timed out
+		System.out.println("Late replies thrown away: " + masterIn.getUnmatched()); // 1
+		System.out.println("Others in the batch: " + fillersAnswered + " of " + BATCH); // 4 of 4
+		System.out.println();
+
+		System.out.println("Ordered calls");
+		System.out.println(orderedResults);                               // [210, 220, 230, 240, 250]
+		System.out.println();
+
+		System.out.println("Call table");
+		System.out.println("Outstanding: " + masterOut.getCallTable().size()); // 0
+		System.exit(0);
+	}
+
+	static String outcome (RpcCall call) throws InterruptedException {
+		try {
+			call.get();
+			return "answered";
+		} catch (ExecutionException e) {
+			return call.getState() + ", " + e.getCause().getMessage();
+		}
+	}
+
+	// --------------------------------------------------------------------------------
+
+	static class CallProtocol extends AbstractProtocol {
+
+		static final CallProtocol REPRESENTATIVE = new CallProtocol();
+
+		// the slave's held requests and the order it answered them in
+		private final List<LinkMessage> held = new ArrayList<LinkMessage>();
+		private final List<Integer> answeredOrder = new ArrayList<Integer>();
+		private final Timer lateTimer = new Timer(true);
+
+		// the master's replies that no call was waiting for
+		private int unmatched = 0;
+
+		public InputChannel getInputChannel () {
+			channel = new InputChannel(this, CHANNEL_NUMBER);
+			return (InputChannel) channel;
+		}
+
+		public OutputChannel getOutputChannel () {
+			channel = new OutputChannel(this, CHANNEL_NUMBER);
+			return (OutputChannel) channel;
+		}
+
+		public AbstractProtocol getInstanceRepresentative () {
+			return REPRESENTATIVE;
+		}
+
+		// --------------------------------------------------------------------------------
+		// The master, on the output protocol
+
+		RpcCall call (int argument) throws InterruptedException {
+			RpcCall call = startCall(REPLY, TIMEOUT);
+			LinkMessage request = newRequest(call, REQUEST, 4);
+			request.deConstructBytes4(argument);
+			return sendCall(call, request);
+		}
+
+		RpcCall orderedCall (int argument) throws InterruptedException {
+			RpcCall call = startOrderedCall(ORDERED_REPLY, TIMEOUT);
+			LinkMessage request = newMessage(1 + 4, false);
+			request.deConstructBytes1(ORDERED_REQUEST);
+			request.deConstructBytes4(argument);
+			return sendCall(call, request);
+		}
+
+		static int getResult (LinkMessage reply) {
+			return reply.reConstructBytes4At(CALL_HEADER_LENGTH);
+		}
+
+		// --------------------------------------------------------------------------------
+		// Both ends, on the input protocol
+
+		protected void receiveMessage (LinkMessage message) throws InterruptedException {
+			switch (message.getByte(0)) {
+			case REQUEST:
+				receivedRequest(message);
+				break;
+			case ORDERED_REQUEST:
+				LinkMessage reply = oppositeProtocol.newMessage(1 + 4, false);
+				reply.deConstructBytes1(ORDERED_REPLY);
+				reply.deConstructBytes4(10 * message.reConstructBytes4At(1));
+				oppositeProtocol.sendMessage(reply, 0, false);
+				break;
+			case REPLY:
+				if (!completeCall(message)) {
+					noteUnmatched();
+				}
+				break;
+			case ORDERED_REPLY:
+				if (!completeOrderedCall(ORDERED_REPLY, message)) {
+					noteUnmatched();
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Bad indicator: " + message.getByte(0));
+			}
+		}
+
+		private void receivedRequest (final LinkMessage request) throws InterruptedException {
+			int argument = request.reConstructBytes4At(CALL_HEADER_LENGTH);
+			if (argument == NEVER_ANSWERED) {
+				return;
+			}
+			if (argument == ANSWERED_LATE) {
+				lateTimer.schedule(new TimerTask() {
+					public void run () {
+						try {
+							answer(request);
+						} catch (InterruptedException e) {
+							// the link is going down
+						}
+					}
+				}, LATE_MILLIS);
+				return;
+			}
+			held.add(request);
+			if (held.size() == BATCH) {
+				Collections.reverse(held);
+				for (LinkMessage waiting : held) {
+					answer(waiting);
+				}
+				held.clear();
+			}
+		}
+
+		private void answer (LinkMessage request) throws InterruptedException {
+			int argument = request.reConstructBytes4At(CALL_HEADER_LENGTH);
+			LinkMessage reply = ((CallProtocol) oppositeProtocol).newReply(request, REPLY, 4);
+			reply.deConstructBytes4(10 * argument);
+			oppositeProtocol.sendMessage(reply, 0, false);
+			synchronized (this) {
+				answeredOrder.add(argument);
+			}
+		}
+
+		private synchronized void noteUnmatched () {
+			unmatched++;
+		}
+
+		synchronized int getUnmatched () {
+			return unmatched;
+		}
+
+		synchronized List<Integer> getAnsweredOrder () {
+			return new ArrayList<Integer>(answeredOrder);
+		}
+	}
+
+}
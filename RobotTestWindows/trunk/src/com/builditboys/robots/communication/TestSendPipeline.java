@@ -0,0 +1,178 @@
+package com.builditboys.robots.communication;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+import com.builditboys.robots.time.LocalTimeSystem;
+
+// Sends the same messages with and without the send pipeline over a port
+// where every write call costs CALL_MICROS on top of BYTE_MICROS a byte,
+// the way a USB serial adapter does.
+//
+// Without the pipeline the sender writes a frame a piece at a time and
+// pays for every call. With it whole frames are packed into blocks and
+// the writer thread writes a block in one call while the sender encodes
+// the next, so the calls per message should drop well under one.
+//
+// For each it prints how long the slave took to get all of them, whether
+// they came in order and intact, and how many write calls the master's
+// port took. TestEmergencyAbort and TestLinkResume run pipelined too.
+
+public class TestSendPipeline {
+
+	static final int CHANNEL_NUMBER = 20;
+	static final int MESSAGES = 300;
+	static final int MESSAGE_LENGTH = 40;
+	static final long CALL_MICROS = 100;
+	static final long BYTE_MICROS = 20;
+
+	public static void main (String args[]) throws Exception {
+		LocalTimeSystem.startLocalTimeNow();
+
+		String plain = run(false);
+		String pipelined = run(true);
+
+		System.out.println("Not pipelined: " + plain);
+		System.out.println("Pipelined:     " + pipelined);
+		System.exit(0);
+	}
+
+	static String run (boolean pipelined) throws Exception {
+		ArrayBlockingQueue<Byte> toSlave = TestLinkPair.newWire();
+		ArrayBlockingQueue<Byte> toMaster = TestLinkPair.newWire();
+		CallCostPort masterPort = new CallCostPort(toMaster, toSlave);
+		TestLinkPair pair = new TestLinkPair("Pipeline", masterPort, new CallCostPort(toSlave, toMaster));
+		pair.setPipelinedSend(pipelined);
+
+		SequenceProtocol masterOut = new SequenceProtocol();
+		final SequenceProtocol slaveIn = new SequenceProtocol();
+		pair.master.addProtocol(new SequenceProtocol(), masterOut);
+		pair.slave.addProtocol(slaveIn, new SequenceProtocol());
+
+		pair.start();
+
+		long callsBefore = masterPort.getCalls();
+		long start = System.nanoTime();
+		for (int i = 0; i < MESSAGES; i++) {
+			masterOut.send(i);
+		}
+		TestLinkPair.waitUntil(30000, new TestLinkPair.Condition() {
+			public boolean holds () {
+				return slaveIn.getExpected() >= MESSAGES;
+			}
+		});
+		long elapsed = (slaveIn.getLastTime() - start) / 1000000;
+		long calls = masterPort.getCalls() - callsBefore;
+
+		String result = slaveIn.getExpected() + " of " + MESSAGES
+						+ (slaveIn.isIntact() ? " in order and intact" : " DAMAGED OR OUT OF ORDER")
+						+ " in " + elapsed + " ms, "
+						+ calls + " write calls, "
+						+ String.format("%.2f", (double) calls / MESSAGES) + " a message";
+
+		pair.stop();
+		return result;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	static void spin (long nanos) {
+		long end = System.nanoTime() + nanos;
+		while (System.nanoTime() < end) {
+		}
+	}
+
+	// a call costs the same whether it writes one byte or a block
+	static class CallCostPort extends DebuggingLinkPort {
+
+		private volatile long calls = 0;
+
+		CallCostPort (ArrayBlockingQueue<Byte> readBuffer, ArrayBlockingQueue<Byte> writeBuffer) {
+			super(readBuffer, writeBuffer);
+		}
+
+		public void writeByte (byte bite) throws InterruptedException {
+			calls++;
+			spin((CALL_MICROS + BYTE_MICROS) * 1000);
+			super.writeByte(bite);
+		}
+
+		public void writeBytes (byte bytes[], int offset, int count) throws InterruptedException {
+			calls++;
+			spin((CALL_MICROS + BYTE_MICROS * count) * 1000);
+			for (int i = offset; i < offset + count; i++) {
+				super.writeByte(bytes[i]);
+			}
+		}
+
+		long getCalls () {
+			return calls;
+		}
+	}
+
+	// numbered messages, the receiving end wants them in order and as sent
+	static class SequenceProtocol extends AbstractProtocol {
+
+		static final SequenceProtocol REPRESENTATIVE = new SequenceProtocol();
+
+		private int expected = 0;
+		private boolean intact = true;
+		private long lastTime = 0;
+
+		public InputChannel getInputChannel () {
+			channel = new InputChannel(this, CHANNEL_NUMBER);
+			return (InputChannel) channel;
+		}
+
+		public OutputChannel getOutputChannel () {
+			channel = new OutputChannel(this, CHANNEL_NUMBER);
+			return (OutputChannel) channel;
+		}
+
+		public AbstractProtocol getInstanceRepresentative () {
+			return REPRESENTATIVE;
+		}
+
+		void send (int number) throws InterruptedException {
+			LinkMessage message = new LinkMessage(CHANNEL_NUMBER, MESSAGE_LENGTH);
+			message.deConstructBytes4(number);
+			for (int i = 4; i < MESSAGE_LENGTH; i++) {
+				message.deConstructBytes1(number + i);
+			}
+			while (true) {
+				try {
+					channel.addMessage(message);
+					return;
+				} catch (IllegalStateException e) {
+					Thread.sleep(1);
+				}
+			}
+		}
+
+		protected synchronized void receiveMessage (LinkMessage message) {
+			int number = message.reConstructBytes4();
+			if ((number != expected) || (message.size() != MESSAGE_LENGTH)) {
+				intact = false;
+			}
+			for (int i = 4; i < message.size(); i++) {
+				if (message.getByte(i) != (byte) (number + i)) {
+					intact = false;
+				}
+			}
+			expected++;
+			lastTime = System.nanoTime();
+		}
+
+		synchronized int getExpected () {
+			return expected;
+		}
+
+		synchronized boolean isIntact () {
+			return intact;
+		}
+
+		synchronized long getLastTime () {
+			return lastTime;
+		}
+	}
+
+}
@@ -0,0 +1,229 @@
+package com.builditboys.robots.system;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+
+import com.builditboys.robots.communication.AbstractSenderReceiver;
+import com.builditboys.robots.communication.AbstractProtocol.ProtocolRoleEnum;
+import com.builditboys.robots.communication.DebuggingLinkPortBuffer;
+import com.builditboys.robots.communication.LinkPortInterface;
+import com.builditboys.robots.communication.MasterLink;
+import com.builditboys.robots.communication.SharedMemoryLinkPort;
+import com.builditboys.robots.communication.TcpLinkPort;
+import com.builditboys.robots.driver.RobotDriverProtocol;
+import com.builditboys.robots.system.RobotControlNotification.RobotControlActionEnum;
+import com.builditboys.robots.system.RobotState.EStopIndicatorEnum;
+import com.builditboys.robots.system.RobotState.RobotModeEnum;
+import com.builditboys.robots.time.LocalTimeSystem;
+import com.builditboys.robots.time.TimeSyncProtocol;
+
+// The host's robot link against a PsocEmulator in the same process, over
+// the debugging queue port, a shared memory port and a TCP port on
+// localhost, give the ones to run as arguments, all three by default.
+//
+// Dump is the round trip of a callDumpState, what the host sees asking
+// for the robot state. Alive is an IM_ALIVE out and the slave's IM_ALIVE
+// back. Drive is DRIVES drive commands one way as fast as the link takes
+// them, until the emulator has taken the last one.
+//
+// Before measuring it checks the emulator answers the way the PSoC does,
+// an estop holds it in safe mode until it is reset.
+//
+// The links print every message they send and receive, that printing is
+// turned off, see AbstractSenderReceiver.setDebugPrint.
+
+public class BenchmarkPsocEmulator {
+
+	static final int CALLS = 1000;
+	static final int WARMUP = 100;
+	static final int DRIVES = 10000;
+	static final long CALL_TIMEOUT = 1000;
+
+	public static void main (String args[]) throws Exception {
+		LocalTimeSystem.startLocalTimeNow();
+		AbstractSenderReceiver.setDebugPrint(false);
+
+		String kinds[] = (args.length > 0) ? args : new String[] {"queue", "shared", "tcp"};
+		for (String kind : kinds) {
+			run(kind);
+		}
+		System.exit(0);
+	}
+
+	// --------------------------------------------------------------------------------
+
+	private static void run (String kind) throws Exception {
+		LinkPortInterface masterPort;
+		LinkPortInterface slavePort;
+		File file = null;
+		if (kind.equals("queue")) {
+			DebuggingLinkPortBuffer buffer = new DebuggingLinkPortBuffer();
+			masterPort = buffer.getPort1();
+			slavePort = buffer.getPort2();
+		}
+		else if (kind.equals("shared")) {
+			file = File.createTempFile("bench", ".link");
+			file.delete();
+			masterPort = new SharedMemoryLinkPort(file, true);
+			slavePort = new SharedMemoryLinkPort(file, false);
+		}
+		else if (kind.equals("tcp")) {
+			int port = freePort();
+			masterPort = new TcpLinkPort(port);
+			slavePort = new TcpLinkPort("localhost", port);
+		}
+		else {
+			throw new IllegalArgumentException("Unknown port kind: " + kind);
+		}
+
+		// parameter names are process wide, each run gets its own
+		MasterLink master = new MasterLink("BENCH_MASTER_" + kind, masterPort);
+		TimeSyncProtocol.addProtocolToLink(master, ProtocolRoleEnum.MASTER);
+		RobotControlProtocol.addProtocolToLink(master, ProtocolRoleEnum.MASTER, "BENCH_STATE_" + kind);
+		RobotDriverProtocol.addProtocolToLink(master, ProtocolRoleEnum.MASTER);
+		PsocEmulator psoc = new PsocEmulator("BENCH_PSOC_" + kind, slavePort);
+
+		RobotControlProtocol control = RobotControlProtocol.getLinkOutputProtocol(master);
+		RobotDriverProtocol driver = RobotDriverProtocol.getLinkOutputProtocol(master);
+		AliveCounter alive = new AliveCounter();
+		RobotControlNotification.getDistributionList().subscribe(alive);
+
+		start(master, psoc);
+		master.sleepUntilReady();
+		master.enable();
+		psoc.sleepUntilEnabled();
+
+		String check = checkEstop(master, psoc);
+
+		// dump state calls
+		long dumps[] = new long[CALLS];
+		for (int i = 0; i < WARMUP + CALLS; i++) {
+			long start = System.nanoTime();
+			control.callDumpState(CALL_TIMEOUT).get();
+			if (i >= WARMUP) {
+				dumps[i - WARMUP] = System.nanoTime() - start;
+			}
+		}
+		Arrays.sort(dumps);
+
+		// keep alives
+		long alives[] = new long[CALLS];
+		for (int i = 0; i < WARMUP + CALLS; i++) {
+			int before = alive.getCount();
+			long start = System.nanoTime();
+			control.sendMasterIsAlive(false);
+			alive.awaitCount(before + 1);
+			if (i >= WARMUP) {
+				alives[i - WARMUP] = System.nanoTime() - start;
+			}
+		}
+		Arrays.sort(alives);
+
+		// drive commands
+		int before = psoc.getDriverState().getCommandCount();
+		long start = System.nanoTime();
+		for (int i = 0; i < DRIVES; i++) {
+			while (true) {
+				try {
+					driver.sendDrive(i, 1, false);
+					break;
+				} catch (IllegalStateException e) {
+					// queue full, the link is behind
+					Thread.yield();
+				}
+			}
+		}
+		while (psoc.getDriverState().getCommandCount() < before + DRIVES) {
+			Thread.yield();
+		}
+		long elapsed = System.nanoTime() - start;
+		int syncs = psoc.getTimeSync().getSyncCount();
+
+		System.out.printf("  %-6s  dump median %7.1f us, 99%% %7.1f us,  alive median %7.1f us,  %6.0f drives/s,  %d syncs, %s%n",
+						  kind, dumps[CALLS / 2] / 1000.0, dumps[CALLS * 99 / 100] / 1000.0,
+						  alives[CALLS / 2] / 1000.0, DRIVES * 1e9 / elapsed, syncs, check);
+
+		RobotControlNotification.getDistributionList().unsubscribe(alive);
+		master.stopLink();
+		psoc.stop();
+		if (file != null) {
+			file.delete();
+		}
+	}
+
+	// the master listens on TCP and waits in open, start it on the side
+	private static void start (final MasterLink master, PsocEmulator psoc) throws Exception {
+		final Exception failure[] = new Exception[1];
+		Thread starter = new Thread() {
+			public void run () {
+				try {
+					master.startLink();
+				} catch (Exception e) {
+					failure[0] = e;
+				}
+			}
+		};
+		starter.start();
+		psoc.start();
+		starter.join();
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+
+	// an estop holds the robot in safe mode, a reset lets it go
+	private static String checkEstop (MasterLink master, PsocEmulator psoc) throws Exception {
+		RobotControlProtocol control = RobotControlProtocol.getLinkOutputProtocol(master);
+		RobotState state = RobotControlProtocol.getLinkInputProtocol(master).getState();
+		control.sendDoEstop(false);
+		control.sendSetMode(RobotModeEnum.AUTONOMOUS_MODE, false);
+		control.callDumpState(CALL_TIMEOUT).get();
+		boolean held = state.isEstopped() && (state.getMode() == RobotModeEnum.SAFE_MODE);
+
+		control.sendClearEstop(EStopIndicatorEnum.SOFT_ESTOP, false);
+		control.sendSetMode(RobotModeEnum.AUTONOMOUS_MODE, false);
+		control.callDumpState(CALL_TIMEOUT).get();
+		boolean released = !state.isEstopped() && (state.getMode() == RobotModeEnum.AUTONOMOUS_MODE);
+
+		control.sendDoRest(false);
+		control.callDumpState(CALL_TIMEOUT).get();
+		boolean reset = (state.getMode() == RobotModeEnum.SAFE_MODE)
+						&& (psoc.getRobotState().getMode() == RobotModeEnum.SAFE_MODE);
+
+		return (held && released && reset) ? "estop ok" : "estop WRONG";
+	}
+
+	private static int freePort () throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+		return port;
+	}
+
+	// --------------------------------------------------------------------------------
+
+	static class AliveCounter implements RobotControlNotificationSubscriberInterface {
+
+		private int count = 0;
+
+		public synchronized void receiveNotification (RobotControlNotification notice) {
+			if (notice.getRobotControlAction() == RobotControlActionEnum.RECEIVED_ROBOT_IS_ALIVE) {
+				count++;
+				notifyAll();
+			}
+		}
+
+		synchronized int getCount () {
+			return count;
+		}
+
+		synchronized void awaitCount (int wanted) throws InterruptedException {
+			while (count < wanted) {
+				wait();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+package com.builditboys.robots.utilities;
+
+import java.lang.reflect.Field;
+
+// Times serializing a SimpleMessage three ways
+//   reflective - the old deConstructFields, looks every field up each time
+//   cached     - FillableBuffer.deConstructFields, goes through the codec cache
+//   held codec - a FieldCodec the caller got once and kept
+// Each pass does both directions, the numbers are nanoseconds per message.
+
+public class BenchmarkFieldCodec {
+
+	static final int SIZES[] = {1, 2, 4};
+	static final String FIELDS[] = {"b", "s", "i"};
+
+	static final int WARMUP = 200000;
+	static final int ITERATIONS = 2000000;
+
+	public static void main (String args[]) throws Exception {
+		SimpleMessage messageObj = new SimpleMessage();
+		FillableBuffer buffer = new FillableBuffer(100);
+		FieldCodec codec = FieldCodec.getCodec(SimpleMessage.class, SIZES, FIELDS);
+
+		// make sure they all agree before timing anything
+		reflectiveDeConstruct(buffer, messageObj, SIZES, FIELDS);
+		FillableBuffer buffer2 = new FillableBuffer(100);
+		codec.deConstruct(buffer2, messageObj);
+		for (int i = 0; i < buffer.size(); i++) {
+			if (buffer.getByte(i) != buffer2.getByte(i)) {
+				throw new IllegalStateException("codec and reflective output differ");
+			}
+		}
+
+		for (int pass = 0; pass < 3; pass++) {
+			System.out.println("Pass " + pass);
+			runReflective(buffer, messageObj, WARMUP);
+			report("  reflective", runReflective(buffer, messageObj, ITERATIONS));
+			runCached(buffer, messageObj, WARMUP);
+			report("  cached    ", runCached(buffer, messageObj, ITERATIONS));
+			runHeld(buffer, messageObj, codec, WARMUP);
+			report("  held codec", runHeld(buffer, messageObj, codec, ITERATIONS));
+		}
+	}
+
+	private static void report (String name, long time) {
+		System.out.printf("%s: %6.1f ns%n", name, (double) time / ITERATIONS);
+	}
+
+	// --------------------------------------------------------------------------------
+
+	private static long runReflective (FillableBuffer buffer, SimpleMessage messageObj, int count) throws Exception {
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			buffer.reset();
+			reflectiveDeConstruct(buffer, messageObj, SIZES, FIELDS);
+			reflectiveReConstruct(buffer, messageObj, SIZES, FIELDS);
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long runCached (FillableBuffer buffer, SimpleMessage messageObj, int count) throws Exception {
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			buffer.reset();
+			buffer.deConstructFields(messageObj, SIZES, FIELDS);
+			buffer.reConstructFields(messageObj, SIZES, FIELDS);
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long runHeld (FillableBuffer buffer, SimpleMessage messageObj, FieldCodec codec, int count) throws Exception {
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			buffer.reset();
+			codec.deConstruct(buffer, messageObj);
+			codec.reConstruct(buffer, messageObj);
+		}
+		return System.nanoTime() - start;
+	}
+
+	// --------------------------------------------------------------------------------
+	// The way FillableBuffer used to do it
+
+	private static void reflectiveDeConstruct (FillableBuffer buffer, Object theObject, int sizes[], String fields[]) throws Exception {
+		Class<?> theClass = theObject.getClass();
+		for (int i = 0; i < sizes.length; i++) {
+			Field theField = theClass.getDeclaredField(fields[i]);
+			Class<?> type = theField.getType();
+			int theValue;
+			if (type.getName().equals("int")) {
+				theValue = theField.getInt(theObject);
+			} else if (type.getName().equals("short")) {
+				theValue = theField.getShort(theObject);
+			} else if (type.getName().equals("byte")) {
+				theValue = theField.getByte(theObject);
+			} else {
+				throw new IllegalArgumentException("bad field type");
+			}
+			buffer.deConstructBytesN(theValue, sizes[i]);
+		}
+	}
+
+	private static void reflectiveReConstruct (FillableBuffer buffer, Object theObject, int sizes[], String fields[]) throws Exception {
+		Class<?> theClass = theObject.getClass();
+		for (int i = 0; i < sizes.length; i++) {
+			Field theField = theClass.getDeclaredField(fields[i]);
+			Class<?> type = theField.getType();
+			int theValue = buffer.reConstructBytesN(sizes[i]);
+			if (type.getName().equals("int")) {
+				theField.setInt(theObject, theValue);
+			} else if (type.getName().equals("short")) {
+				theField.setShort(theObject, (short) theValue);
+			} else if (type.getName().equals("byte")) {
+				theField.setByte(theObject, (byte) theValue);
+			} else {
+				throw new IllegalArgumentException("bad field type");
+			}
+		}
+	}
+
+}
@@ -48,6 +48,45 @@ public class TestBuffer {
 		buffer2.reConstructElements(elements, SIZES);
 		for (int el: elements) System.out.println(el);
 	
+		
+		// var ints, small numbers of either sign should take one byte
+		System.out.println("Var ints");
+		int varInts[] = {0, -1, 1, 63, -64, 64, 300, -300, Integer.MAX_VALUE, Integer.MIN_VALUE};
+		FillableBuffer buffer3 = FillableBuffer.allocateDirect(100);
+		for (int v: varInts) buffer3.deConstructVarInt(v);
+		buffer3.deConstructVarLong(Long.MIN_VALUE);
+		buffer3.printBuffer();
+		System.out.println();
+		for (int v: varInts) System.out.println(v + " " + buffer3.reConstructVarInt());
+		System.out.println(Long.MIN_VALUE + " " + buffer3.reConstructVarLong());
+		
+		
+		// wider values, bulk copies and a slice that shares the bytes
+		System.out.println("Longs, doubles, bulk and slices");
+		FillableBuffer buffer4 = new FillableBuffer(100);
+		buffer4.deConstructBytes8(0x0102030405060708L);
+		buffer4.deConstructDouble(Math.PI);
+		buffer4.addBytes(new byte[] {9, 10, 11});
+		System.out.println(Long.toHexString(buffer4.reConstructBytes8()) + " " + buffer4.reConstructDouble());
+		FillableBuffer slice = buffer4.slice(16, 3);
+		slice.printBuffer();
+		System.out.println();
+		byte bytes[] = new byte[3];
+		buffer4.getBytes(bytes, 0, 3);
+		System.out.println(bytes[0] + " " + bytes[1] + " " + bytes[2] + " remaining " + buffer4.remaining());
+		
+		
+		// finding bytes, inside a word and in the tail after the last word
+		System.out.println("Searching");
+		FillableBuffer buffer5 = new FillableBuffer(100);
+		for (int i = 0; i < 20; i++) buffer5.addByte((byte) i);
+		buffer5.addByte((byte) 0xFE);
+		buffer5.addByte((byte) 0xFF);
+		buffer5.addByte((byte) 0x7F);
+		System.out.println(buffer5.indexOfEither(0, 23, (byte) 5, (byte) 0xFF)); // 5
+		System.out.println(buffer5.indexOfEither(6, 23, (byte) 0xFF, (byte) 0xFE)); // 20
+		System.out.println(buffer5.indexOfEither(0, 20, (byte) 0xFF, (byte) 0xFE)); // 20, none
+		System.out.println(buffer5.indexOfEither(21, 23, (byte) 0x7F, (byte) 0x7F)); // 22
 	}
 	
 